@@ -0,0 +1,50 @@
+package dev.hithru.redis.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import dev.hithru.redis.command.SimpleCommandHandler;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+
+/**
+ * A GET / PING through SimpleCommandHandler.handleCommand: command table
+ * lookup, arity check, stats and the reply, without any socket I/O.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+
+    private SimpleCommandHandler handler;
+    private ClientSession session;
+    private RespCommand get;
+    private RespCommand ping;
+
+    @Setup
+    public void setup() throws IOException {
+        handler = new SimpleCommandHandler();
+        session = new ClientSession(null, s -> { }, Long.MAX_VALUE);
+        handler.handleCommand(session, RespCommand.of("SET", "key:1", "x".repeat(32)));
+        get = RespCommand.of("get", "key:1");
+        ping = RespCommand.of("PING");
+    }
+
+    @Benchmark
+    public ByteBuffer get() throws IOException {
+        handler.handleCommand(session, get);
+        return session.writer().drain();
+    }
+
+    @Benchmark
+    public ByteBuffer ping() throws IOException {
+        handler.handleCommand(session, ping);
+        return session.writer().drain();
+    }
+}
@@ -0,0 +1,62 @@
+package dev.hithru.redis.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+
+/**
+ * SET / GET against a populated keyspace, with and without TTLs, through
+ * the byte[] API the command handler uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyValueStoreBenchmark {
+
+    @Param({"100000", "1000000"})
+    int keyCount;
+
+    private InMemoryKeyValueStore store;
+    private byte[][] keys;
+    private byte[] value;
+    private long now;
+    private int next;
+
+    @Setup
+    public void setup() {
+        store = new InMemoryKeyValueStore();
+        keys = new byte[keyCount][];
+        value = "x".repeat(32).getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = ("key:" + i).getBytes(StandardCharsets.ISO_8859_1);
+            store.set(keys[i], value, InMemoryKeyValueStore.NO_EXPIRY);
+        }
+        now = System.currentTimeMillis();
+    }
+
+    private byte[] nextKey() {
+        next = next + 1 == keyCount ? 0 : next + 1;
+        return keys[next];
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return store.get(nextKey(), now);
+    }
+
+    @Benchmark
+    public void set() {
+        store.set(nextKey(), value, InMemoryKeyValueStore.NO_EXPIRY);
+    }
+
+    @Benchmark
+    public void setWithTtl() {
+        store.set(nextKey(), value, now + 3_600_000);
+    }
+}
@@ -0,0 +1,57 @@
+package dev.hithru.redis.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import dev.hithru.redis.store.list.InMemoryListStore;
+
+/**
+ * Queue-style push/pop and range reads on lists of different lengths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListStoreBenchmark {
+
+    @Param({"100", "100000"})
+    int length;
+
+    private InMemoryListStore store;
+    private List<String> one;
+
+    @Setup
+    public void setup() {
+        store = new InMemoryListStore();
+        one = List.of("x".repeat(32));
+        for (int i = 0; i < length; i++) {
+            store.rpush("list", List.of("item:" + i));
+        }
+    }
+
+    @Benchmark
+    public String rpushLpop() {
+        store.rpush("list", one);
+        return store.lpop("list");
+    }
+
+    @Benchmark
+    public String lpushLpop() {
+        store.lpush("list", one);
+        return store.lpop("list");
+    }
+
+    @Benchmark
+    public List<String> lrangeFirst100() {
+        return store.lrange("list", 0, 99);
+    }
+
+    @Benchmark
+    public List<String> lrangeMiddle10() {
+        return store.lrange("list", length / 2, length / 2 + 9);
+    }
+}
@@ -0,0 +1,365 @@
+package dev.hithru.redis.bench;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+
+import dev.hithru.redis.command.SimpleCommandHandler;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.server.RedisServer;
+import dev.hithru.redis.server.ThreadPerConnectionServer;
+
+/**
+ * LoadGenerator
+ *
+ * Closed-loop load generator in the spirit of redis-benchmark: every client
+ * connection sends a batch of `pipeline` commands, waits for all replies,
+ * and repeats until the total number of requests is reached.
+ *
+ * - Mix of GET and SET over a keyspace, keys picked uniformly or zipfian
+ * - Latency of a request = time from writing its batch to reading its reply
+ *   (closed loop, so queueing behind a slow server is not counted)
+ * - With --embedded the server is started in this JVM on the given port,
+ *   with --server-mode threads the thread-per-connection one
+ * - --idle-connections opens that many more connections that stay silent,
+ *   to compare the servers with thousands of clients connected
+ *
+ * Example:
+ *   java -cp target/benchmarks.jar dev.hithru.redis.bench.LoadGenerator \
+ *       --embedded --io-threads 4 --clients 50 --pipeline 16 --distribution zipfian
+ */
+public final class LoadGenerator {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private String host = "127.0.0.1";
+    private int port = 6379;
+    private int clients = 50;
+    private int pipeline = 1;
+    private long requests = 1_000_000;
+    private long keyspace = 100_000;
+    private String distribution = "uniform";
+    private int valueSize = 32;
+    private double setRatio = 0.1;
+    private boolean embedded;
+    private int ioThreads = 1;
+    private boolean threadPerConnection;
+    private int idleConnections;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        if (!generator.parse(args)) {
+            return;
+        }
+        generator.run();
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--clients" -> clients = Integer.parseInt(args[++i]);
+                case "--pipeline" -> pipeline = Integer.parseInt(args[++i]);
+                case "--requests" -> requests = Long.parseLong(args[++i]);
+                case "--keyspace" -> keyspace = Long.parseLong(args[++i]);
+                case "--distribution" -> distribution = args[++i].toLowerCase(Locale.ROOT);
+                case "--value-size" -> valueSize = Integer.parseInt(args[++i]);
+                case "--set-ratio" -> setRatio = Double.parseDouble(args[++i]);
+                case "--embedded" -> embedded = true;
+                case "--io-threads" -> ioThreads = Integer.parseInt(args[++i]);
+                case "--server-mode" -> threadPerConnection = args[++i].equalsIgnoreCase("threads");
+                case "--idle-connections" -> idleConnections = Integer.parseInt(args[++i]);
+                default -> {
+                    System.out.println("""
+                            Options:
+                              --host <host>                  (default 127.0.0.1)
+                              --port <port>                  (default 6379)
+                              --clients <n>                  connections, one thread each (default 50)
+                              --pipeline <n>                 commands per batch (default 1)
+                              --requests <n>                 total commands (default 1000000)
+                              --keyspace <n>                 distinct keys (default 100000)
+                              --distribution <uniform|zipfian>
+                              --value-size <bytes>           SET payload (default 32)
+                              --set-ratio <0..1>             share of SETs, the rest are GETs (default 0.1)
+                              --embedded                     start the server in this JVM
+                              --io-threads <n>               reactor threads (shards) of the embedded server
+                              --server-mode <reactor|threads> embedded server kind (default reactor)
+                              --idle-connections <n>         extra connections that send nothing (default 0)""");
+                    return false;
+                }
+            }
+        }
+        if (!distribution.equals("uniform") && !distribution.equals("zipfian")) {
+            System.out.println("Unknown distribution: " + distribution);
+            return false;
+        }
+        return true;
+    }
+
+    private void run() throws Exception {
+        if (embedded) {
+            startEmbeddedServer();
+        }
+
+        List<SocketChannel> idle = openIdleConnections();
+
+        ZipfianGenerator zipfian = distribution.equals("zipfian")
+                ? new ZipfianGenerator(keyspace, ZipfianGenerator.DEFAULT_THETA)
+                : null;
+        AtomicLong remaining = new AtomicLong(requests);
+        List<Client> workers = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            workers.add(new Client(i, zipfian, remaining));
+        }
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>(clients);
+        for (Client worker : workers) {
+            Thread thread = new Thread(worker, "load-client-" + worker.id);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Histogram total = new Histogram(3);
+        long errors = 0;
+        for (Client worker : workers) {
+            total.add(worker.latencies);
+            errors += worker.errors;
+        }
+        report(total, errors, seconds);
+
+        for (SocketChannel channel : idle) {
+            channel.close();
+        }
+    }
+
+    private List<SocketChannel> openIdleConnections() throws IOException {
+        List<SocketChannel> idle = new ArrayList<>(idleConnections);
+        for (int i = 0; i < idleConnections; i++) {
+            idle.add(SocketChannel.open(new InetSocketAddress(host, port)));
+        }
+        if (idleConnections > 0) {
+            System.out.println(idleConnections + " idle connections open");
+        }
+        return idle;
+    }
+
+    private void report(Histogram latencies, long errors, double seconds) {
+        long done = latencies.getTotalCount();
+        System.out.printf(Locale.ROOT, "%d requests in %.2f s, %d clients (+%d idle), pipeline %d, %s keys over %d%n",
+                done, seconds, clients, idleConnections, pipeline, distribution, keyspace);
+        System.out.printf(Locale.ROOT, "throughput: %.0f requests/s%n", done / seconds);
+        System.out.printf(Locale.ROOT, "latency (ms): p50 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                latencies.getValueAtPercentile(50) / 1e3,
+                latencies.getValueAtPercentile(99) / 1e3,
+                latencies.getValueAtPercentile(99.9) / 1e3,
+                latencies.getMaxValue() / 1e3);
+        if (errors > 0) {
+            System.out.println("error replies: " + errors);
+        }
+    }
+
+    private void startEmbeddedServer() throws InterruptedException {
+        RedisServer server = new RedisServer(port, SimpleCommandHandler::new, ioThreads,
+                ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        ThreadPerConnectionServer threadServer = new ThreadPerConnectionServer(port, SimpleCommandHandler::new,
+                ioThreads, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        Thread thread = new Thread(() -> {
+            try {
+                if (threadPerConnection) {
+                    threadServer.start();
+                } else {
+                    server.start();
+                }
+            } catch (IOException e) {
+                System.out.println("Embedded server failed: " + e.getMessage());
+            }
+        }, "embedded-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        // Wait until it accepts connections
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try (SocketChannel probe = SocketChannel.open(new InetSocketAddress(host, port))) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("embedded server did not start on port " + port);
+    }
+
+    /**
+     * One connection driven by one thread with blocking I/O.
+     */
+    private final class Client implements Runnable {
+        final int id;
+        final ZipfianGenerator zipfian;
+        final AtomicLong remaining;
+        final SplittableRandom random;
+        final Histogram latencies = new Histogram(3);
+        final byte[] value;
+        long errors;
+
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Client(int id, ZipfianGenerator zipfian, AtomicLong remaining) {
+            this.id = id;
+            this.zipfian = zipfian;
+            this.remaining = remaining;
+            this.random = new SplittableRandom(id * 0x9E3779B97F4A7C15L + 1);
+            this.value = "x".repeat(valueSize).getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                while (true) {
+                    long left = remaining.getAndAdd(-pipeline);
+                    if (left <= 0) {
+                        return;
+                    }
+                    int batch = (int) Math.min(pipeline, left);
+                    runBatch(channel, batch);
+                }
+            } catch (ConnectException e) {
+                System.out.println("Client " + id + " could not connect to " + host + ":" + port);
+            } catch (IOException e) {
+                System.out.println("Client " + id + " failed: " + e.getMessage());
+            }
+        }
+
+        private void runBatch(SocketChannel channel, int batch) throws IOException {
+            out.clear();
+            for (int i = 0; i < batch; i++) {
+                long index = zipfian != null ? zipfian.next(random) : random.nextLong(keyspace);
+                byte[] key = ("key:" + index).getBytes(StandardCharsets.ISO_8859_1);
+                if (random.nextDouble() < setRatio) {
+                    encode(key, true);
+                } else {
+                    encode(key, false);
+                }
+            }
+            out.flip();
+
+            long start = System.nanoTime();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+
+            int received = 0;
+            in.clear();
+            while (received < batch) {
+                if (!in.hasRemaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+                    in.flip();
+                    bigger.put(in);
+                    in = bigger;
+                }
+                if (channel.read(in) < 0) {
+                    throw new IOException("server closed the connection");
+                }
+                in.flip();
+                int end;
+                while (received < batch && (end = replyEnd(in, in.position())) >= 0) {
+                    if (in.get(in.position()) == '-') {
+                        errors++;
+                    }
+                    in.position(end);
+                    received++;
+                    latencies.recordValue(Math.max(1, (System.nanoTime() - start) / 1000));
+                }
+                in.compact();
+            }
+        }
+
+        private void encode(byte[] key, boolean set) {
+            int needed = 64 + key.length + (set ? value.length : 0);
+            if (out.remaining() < needed) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            if (set) {
+                out.put("*3\r\n$3\r\nSET\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                bulk(key);
+                bulk(value);
+            } else {
+                out.put("*2\r\n$3\r\nGET\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                bulk(key);
+            }
+        }
+
+        private void bulk(byte[] data) {
+            out.put((byte) '$').put(Integer.toString(data.length).getBytes(StandardCharsets.ISO_8859_1))
+                    .put((byte) '\r').put((byte) '\n').put(data).put((byte) '\r').put((byte) '\n');
+        }
+    }
+
+    /**
+     * End of the complete RESP reply starting at pos, or -1 if more bytes are needed.
+     */
+    static int replyEnd(ByteBuffer buffer, int pos) {
+        int limit = buffer.limit();
+        if (pos >= limit) {
+            return -1;
+        }
+        byte type = buffer.get(pos);
+        int lineEnd = pos + 1;
+        while (lineEnd + 1 < limit && !(buffer.get(lineEnd) == '\r' && buffer.get(lineEnd + 1) == '\n')) {
+            lineEnd++;
+        }
+        if (lineEnd + 1 >= limit) {
+            return -1;
+        }
+        int next = lineEnd + 2;
+
+        switch (type) {
+            case '$' -> {
+                int length = parseInt(buffer, pos + 1, lineEnd);
+                if (length < 0) {
+                    return next;
+                }
+                return next + length + 2 <= limit ? next + length + 2 : -1;
+            }
+            case '*' -> {
+                int count = parseInt(buffer, pos + 1, lineEnd);
+                for (int i = 0; i < count && next >= 0; i++) {
+                    next = replyEnd(buffer, next);
+                }
+                return next;
+            }
+            default -> {
+                return next; // + - :
+            }
+        }
+    }
+
+    private static int parseInt(ByteBuffer buffer, int from, int to) {
+        boolean negative = buffer.get(from) == '-';
+        int value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = value * 10 + (buffer.get(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+}
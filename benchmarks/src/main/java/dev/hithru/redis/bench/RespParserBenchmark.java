@@ -0,0 +1,78 @@
+package dev.hithru.redis.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.protocol.RespParser;
+import dev.hithru.redis.protocol.RespProtocolException;
+
+/**
+ * Parsing a pipeline of SET commands, whole and as it arrives from the
+ * socket in small reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RespParserBenchmark {
+
+    private static final int PIPELINE = 64;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    private final RespParser parser = new RespParser();
+    private byte[] encoded;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        String value = "x".repeat(valueSize);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PIPELINE; i++) {
+            String key = "key:" + i;
+            sb.append("*3\r\n$3\r\nSET\r\n$").append(key.length()).append("\r\n").append(key)
+                    .append("\r\n$").append(value.length()).append("\r\n").append(value).append("\r\n");
+        }
+        encoded = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        buffer = ByteBuffer.allocate(encoded.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void parsePipeline(Blackhole bh) throws RespProtocolException {
+        buffer.clear();
+        buffer.put(encoded).flip();
+        RespCommand command;
+        while ((command = parser.tryParse(buffer)) != null) {
+            bh.consume(command.length(2));
+        }
+    }
+
+    // 1460-byte reads (one TCP segment each), compacting in between like ClientSession
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void parseInSegments(Blackhole bh) throws RespProtocolException {
+        buffer.clear();
+        int fed = 0;
+        while (fed < encoded.length) {
+            int n = Math.min(1460, encoded.length - fed);
+            buffer.put(encoded, fed, n);
+            fed += n;
+
+            buffer.flip();
+            RespCommand command;
+            while ((command = parser.tryParse(buffer)) != null) {
+                bh.consume(command.length(2));
+            }
+            buffer.compact();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package dev.hithru.redis.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import dev.hithru.redis.protocol.RespWriter;
+
+/**
+ * Encoding a pipeline's worth of typical replies and flushing them with one
+ * gathering write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RespWriterBenchmark {
+
+    private static final int PIPELINE = 64;
+
+    @Param({"16", "8192"})
+    int valueSize;
+
+    private final RespWriter writer = new RespWriter(() -> { }, Long.MAX_VALUE);
+    private final NullChannel channel = new NullChannel();
+    private String value;
+    private List<String> range;
+
+    @Setup
+    public void setup() {
+        value = "x".repeat(valueSize);
+        range = List.of("a", "bb", "ccc", "dddd", "eeeee");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public long bulkStrings() throws IOException {
+        for (int i = 0; i < PIPELINE; i++) {
+            writer.writeBulkString(value);
+        }
+        writer.flushTo(channel);
+        return channel.written;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public long mixedReplies() throws IOException {
+        for (int i = 0; i < PIPELINE; i += 4) {
+            writer.writeSimpleString("OK");
+            writer.writeInteger(i);
+            writer.writeNullBulkString();
+            writer.writeArrayOfBulkStrings(range);
+        }
+        writer.flushTo(channel);
+        return channel.written;
+    }
+
+    /**
+     * Accepts every byte, like a socket with an empty send buffer.
+     */
+    static final class NullChannel implements GatheringByteChannel {
+        long written;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) {
+                n += srcs[i].remaining();
+                srcs[i].position(srcs[i].limit());
+            }
+            written += n;
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
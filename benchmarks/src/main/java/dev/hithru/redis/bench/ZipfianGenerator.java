@@ -0,0 +1,61 @@
+package dev.hithru.redis.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Zipf-distributed item indexes in [0, items), as in YCSB: a few items get
+ * most of the traffic. The popular indexes are scrambled with a hash so the
+ * hot keys don't all sit next to each other (and in the same shard).
+ */
+final class ZipfianGenerator {
+
+    static final double DEFAULT_THETA = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    ZipfianGenerator(long items, double theta) {
+        this.items = items;
+        this.theta = theta;
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(2, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    long next(SplittableRandom random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+
+        long rank;
+        if (uz < 1.0) {
+            rank = 0;
+        } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+            rank = 1;
+        } else {
+            rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        }
+        return Math.floorMod(fnv64(rank), items);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    private static long fnv64(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xff;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -1,22 +1,297 @@
 package dev.hithru.redis;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 
-import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.cluster.ClusterState;
 import dev.hithru.redis.command.SimpleCommandHandler;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.log.LogLevel;
+import dev.hithru.redis.persistence.AppendOnlyFile;
+import dev.hithru.redis.persistence.FsyncPolicy;
+import dev.hithru.redis.persistence.SnapshotFile;
+import dev.hithru.redis.persistence.SnapshotSaver;
+import dev.hithru.redis.persistence.SnapshotVisitor;
+import dev.hithru.redis.replication.ReplicationBacklog;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.server.KeySlot;
 import dev.hithru.redis.server.RedisServer;
+import dev.hithru.redis.server.ThreadPerConnectionServer;
+import dev.hithru.redis.store.eviction.EvictionPolicy;
+import dev.hithru.redis.store.eviction.Evictor;
+import dev.hithru.redis.store.hash.InMemoryHashStore;
+import dev.hithru.redis.store.set.InMemorySetStore;
+import dev.hithru.redis.store.zset.InMemorySortedSetStore;
 
 public class Main {
     public static void main(String[] args) {
-        System.out.println("Logs from program will appear here!");
         int port = 6379;
+        int ioThreads = 1;
+        boolean threadPerConnection = false;
+        long maxMemory = 0;
+        EvictionPolicy policy = EvictionPolicy.NOEVICTION;
+        int samples = Evictor.DEFAULT_SAMPLES;
+        boolean appendOnly = false;
+        FsyncPolicy fsyncPolicy = FsyncPolicy.EVERYSEC;
+        Path dir = Path.of(".");
+        String appendFileName = "appendonly.aof";
+        String dbFileName = "dump.rdb";
+        boolean offHeapValues = false;
+        int offHeapMinValue = 1024;
+        int hashMaxListpackEntries = InMemoryHashStore.DEFAULT_MAX_LISTPACK_ENTRIES;
+        int hashMaxListpackValue = InMemoryHashStore.DEFAULT_MAX_LISTPACK_VALUE;
+        int setMaxListpackEntries = InMemorySetStore.DEFAULT_MAX_LISTPACK_ENTRIES;
+        int setMaxListpackValue = InMemorySetStore.DEFAULT_MAX_LISTPACK_VALUE;
+        int zsetMaxListpackEntries = InMemorySortedSetStore.DEFAULT_MAX_LISTPACK_ENTRIES;
+        int zsetMaxListpackValue = InMemorySortedSetStore.DEFAULT_MAX_LISTPACK_VALUE;
+        long slowlogSlowerThan = SimpleCommandHandler.DEFAULT_SLOWLOG_SLOWER_THAN;
+        int slowlogMaxLen = SimpleCommandHandler.DEFAULT_SLOWLOG_MAX_LEN;
+        long pubsubOutputLimit = SimpleCommandHandler.DEFAULT_PUBSUB_OUTPUT_LIMIT;
+        LogLevel logLevel = LogLevel.NOTICE;
+        Path logFile = null;
+        int logRateLimit = Log.DEFAULT_RATE_LIMIT;
+        String replicaOfHost = null;
+        int replicaOfPort = 0;
+        int replBacklogSize = ReplicationBacklog.DEFAULT_SIZE;
+        boolean clusterEnabled = false;
+        String clusterConfigFile = "nodes.conf";
+        long clusterNodeTimeout = 15_000;
+        String clusterAnnounceIp = "127.0.0.1";
 
-        CommandHandler handler = new SimpleCommandHandler();
-        RedisServer server = new RedisServer(port, handler);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--io-threads" -> ioThreads = Integer.parseInt(args[++i]);
+                case "--server-mode" -> {
+                    String mode = args[++i];
+                    if (!mode.equalsIgnoreCase("reactor") && !mode.equalsIgnoreCase("threads")) {
+                        Log.warning("Unknown server mode: {}", mode);
+                        return;
+                    }
+                    threadPerConnection = mode.equalsIgnoreCase("threads");
+                }
+                case "--maxmemory" -> maxMemory = parseMemory(args[++i]);
+                case "--maxmemory-policy" -> policy = EvictionPolicy.fromConfigName(args[++i]);
+                case "--maxmemory-samples" -> samples = Integer.parseInt(args[++i]);
+                case "--appendonly" -> appendOnly = "yes".equalsIgnoreCase(args[++i]);
+                case "--appendfsync" -> fsyncPolicy = FsyncPolicy.fromConfigName(args[++i]);
+                case "--appendfilename" -> appendFileName = args[++i];
+                case "--dir" -> dir = Path.of(args[++i]);
+                case "--dbfilename" -> dbFileName = args[++i];
+                case "--offheap-values" -> offHeapValues = "yes".equalsIgnoreCase(args[++i]);
+                case "--offheap-min-value" -> offHeapMinValue = (int) parseMemory(args[++i]);
+                case "--hash-max-listpack-entries" -> hashMaxListpackEntries = Integer.parseInt(args[++i]);
+                case "--hash-max-listpack-value" -> hashMaxListpackValue = Integer.parseInt(args[++i]);
+                case "--set-max-listpack-entries" -> setMaxListpackEntries = Integer.parseInt(args[++i]);
+                case "--set-max-listpack-value" -> setMaxListpackValue = Integer.parseInt(args[++i]);
+                case "--zset-max-listpack-entries" -> zsetMaxListpackEntries = Integer.parseInt(args[++i]);
+                case "--zset-max-listpack-value" -> zsetMaxListpackValue = Integer.parseInt(args[++i]);
+                case "--slowlog-log-slower-than" -> slowlogSlowerThan = Long.parseLong(args[++i]);
+                case "--slowlog-max-len" -> slowlogMaxLen = Integer.parseInt(args[++i]);
+                case "--client-output-buffer-limit-pubsub" -> pubsubOutputLimit = parseMemory(args[++i]);
+                case "--loglevel" -> logLevel = LogLevel.fromConfigName(args[++i]);
+                case "--logfile" -> {
+                    String name = args[++i];
+                    logFile = name.isEmpty() ? null : Path.of(name); // "" is stdout, like Redis
+                }
+                case "--log-rate-limit" -> logRateLimit = Integer.parseInt(args[++i]);
+                case "--replicaof" -> {
+                    replicaOfHost = args[++i];
+                    replicaOfPort = Integer.parseInt(args[++i]);
+                }
+                case "--repl-backlog-size" -> replBacklogSize = (int) parseMemory(args[++i]);
+                case "--cluster-enabled" -> clusterEnabled = "yes".equalsIgnoreCase(args[++i]);
+                case "--cluster-config-file" -> clusterConfigFile = args[++i];
+                case "--cluster-node-timeout" -> clusterNodeTimeout = Long.parseLong(args[++i]);
+                case "--cluster-announce-ip" -> clusterAnnounceIp = args[++i];
+                default -> {
+                    Log.warning("Unknown option: {}", args[i]);
+                    return;
+                }
+            }
+        }
 
         try {
-            server.start(); // runs the event loop, blocks forever
+            Log.configure(logLevel, logFile, logRateLimit);
         } catch (IOException e) {
-            System.out.println("Server error: " + e.getMessage());
+            Log.warning("Cannot open log file {}: {}", logFile, e.getMessage());
+            return;
+        }
+
+        if (replicaOfHost != null && ioThreads > 1) {
+            Log.warning("--replicaof needs --io-threads 1");
+            return;
+        }
+        if (clusterEnabled && ioThreads > 1) {
+            Log.warning("--cluster-enabled needs --io-threads 1");
+            return;
+        }
+        if (threadPerConnection && (replicaOfHost != null || clusterEnabled)) {
+            Log.warning("--replicaof and --cluster-enabled need --server-mode reactor");
+            return;
+        }
+
+        // One handler per I/O thread: each owns its own shard of the keyspace,
+        // and an equal part of maxmemory
+        long shardMaxMemory = maxMemory / ioThreads;
+        List<SimpleCommandHandler> shards = new ArrayList<>(ioThreads);
+        for (int i = 0; i < ioThreads; i++) {
+            SimpleCommandHandler shard = new SimpleCommandHandler(shardMaxMemory, policy, samples);
+            if (offHeapValues) {
+                shard.enableOffHeapValues(offHeapMinValue);
+            }
+            shard.setHashListpackLimits(hashMaxListpackEntries, hashMaxListpackValue);
+            shard.setSetListpackLimits(setMaxListpackEntries, setMaxListpackValue);
+            shard.setZsetListpackLimits(zsetMaxListpackEntries, zsetMaxListpackValue);
+            shard.setSlowlog(slowlogSlowerThan, slowlogMaxLen);
+            shard.setPubSubOutputLimit(pubsubOutputLimit);
+            shards.add(shard);
+        }
+        // PUBLISH reaches the subscribers of every shard
+        for (SimpleCommandHandler shard : shards) {
+            shard.setShards(shards);
+        }
+
+        Iterator<SimpleCommandHandler> nextShard = shards.iterator();
+
+        try {
+            Files.createDirectories(dir);
+            SnapshotSaver snapshotSaver = new SnapshotSaver(dir.resolve(dbFileName), ioThreads);
+            for (int i = 0; i < ioThreads; i++) {
+                shards.get(i).setSnapshotSaver(snapshotSaver, i);
+            }
+
+            // Like Redis: the AOF is the more complete copy when there is one
+            boolean aofExists = appendOnly && !AppendOnlyFile.existingFiles(dir, appendFileName).isEmpty();
+            if (!aofExists && Files.exists(snapshotSaver.getPath())) {
+                loadSnapshot(snapshotSaver.getPath(), shards);
+            }
+            if (appendOnly) {
+                loadAppendOnlyFiles(dir, appendFileName, fsyncPolicy, shards);
+            }
+
+            // Replication streams one shard's writes, with one snapshot for a full resync
+            if (ioThreads == 1 && !threadPerConnection) {
+                shards.get(0).configureReplication(dir, replBacklogSize, port);
+                if (replicaOfHost != null) {
+                    shards.get(0).replicaOf(replicaOfHost, replicaOfPort);
+                }
+            }
+            // One node of a cluster serves some of the hash slots; like
+            // replication, that's a single shard's job
+            if (clusterEnabled) {
+                shards.get(0).enableCluster(ClusterState.open(dir.resolve(clusterConfigFile),
+                        clusterAnnounceIp, port, clusterNodeTimeout));
+            }
+            // Runs the event loop (or accepts connections), blocks forever
+            if (threadPerConnection) {
+                new ThreadPerConnectionServer(port, nextShard::next,
+                        ioThreads, ClientSession.DEFAULT_MAX_OUTPUT_BYTES).start();
+            } else {
+                new RedisServer(port, nextShard::next,
+                        ioThreads, ClientSession.DEFAULT_MAX_OUTPUT_BYTES).start();
+            }
+        } catch (IOException e) {
+            Log.warning("Server error: {}", e.getMessage());
+        }
+    }
+
+    private static void loadSnapshot(Path path, List<SimpleCommandHandler> shards) throws IOException {
+        long start = System.currentTimeMillis();
+        List<SnapshotVisitor> loaders = new ArrayList<>(shards.size());
+        for (SimpleCommandHandler shard : shards) {
+            loaders.add(shard.loader());
+        }
+
+        SnapshotFile.LoadResult result = SnapshotFile.load(path, loaders,
+                key -> KeySlot.slot(key) % shards.size(),
+                Runtime.getRuntime().availableProcessors());
+        Log.notice("Loaded {} keys from {} in {} ms ({} expired keys skipped)",
+                result.loaded, path, System.currentTimeMillis() - start, result.expired);
+    }
+
+    /**
+     * Replays every AOF found in dir into the shard that now owns each key,
+     * then attaches one file per shard. If there were no files yet (the data,
+     * if any, came from a snapshot) or they were written with a different
+     * number of shards, each shard's file is rewritten from its data and the
+     * old ones are removed.
+     */
+    private static void loadAppendOnlyFiles(Path dir, String fileName, FsyncPolicy fsyncPolicy,
+                                            List<SimpleCommandHandler> shards) throws IOException {
+        int count = shards.size();
+
+        List<Path> existing = AppendOnlyFile.existingFiles(dir, fileName);
+        long start = System.currentTimeMillis();
+        long commands = 0;
+        for (Path file : existing) {
+            commands += AppendOnlyFile.replay(file, command -> {
+                SimpleCommandHandler shard = shards.get(0);
+                if (count > 1) {
+                    int keyIndex = shard.firstKeyIndex(command);
+                    if (keyIndex >= 0 && keyIndex < command.size()) {
+                        shard = shards.get(KeySlot.slot(command, keyIndex) % count);
+                    }
+                }
+                try {
+                    shard.replay(command);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            // A transaction the file left open was cut off, MULTI included
+            for (SimpleCommandHandler shard : shards) {
+                shard.finishReplay();
+            }
+        }
+        if (!existing.isEmpty()) {
+            Log.notice("Loaded {} commands from the append only file in {} ms",
+                    commands, System.currentTimeMillis() - start);
+        }
+
+        List<Path> expected = new ArrayList<>(count);
+        AppendOnlyFile[] files = new AppendOnlyFile[count];
+        for (int i = 0; i < count; i++) {
+            Path path = AppendOnlyFile.shardPath(dir, fileName, i, count);
+            expected.add(path);
+            files[i] = new AppendOnlyFile(path, fsyncPolicy);
+        }
+
+        boolean layoutChanged = existing.isEmpty() || !expected.containsAll(existing);
+        for (int i = 0; i < count; i++) {
+            files[i].setGroup(files);
+            if (layoutChanged) {
+                files[i].rewriteNow(shards.get(i).snapshot());
+            }
+            shards.get(i).setAppendOnlyFile(files[i]);
+        }
+        if (layoutChanged) {
+            for (Path file : existing) {
+                if (!expected.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // "100mb", "1gb", "512kb" or plain bytes
+    private static long parseMemory(String value) {
+        String v = value.toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (v.endsWith("gb")) {
+            unit = 1024L * 1024 * 1024;
+        } else if (v.endsWith("mb")) {
+            unit = 1024L * 1024;
+        } else if (v.endsWith("kb")) {
+            unit = 1024L;
+        }
+        if (unit != 1) {
+            v = v.substring(0, v.length() - 2);
         }
+        return Long.parseLong(v) * unit;
     }
 }
@@ -0,0 +1,146 @@
+package dev.hithru.redis.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import dev.hithru.redis.log.Log;
+
+/**
+ * ClusterBus
+ *
+ * Keeps the nodes of a cluster informed about each other: a background
+ * thread that, once a second, sends CLUSTER PING with this node's CLUSTER
+ * NODES lines to every known node over a kept-open connection. The peer
+ * merges them into its ClusterState and replies with its own lines, which
+ * are merged here.
+ *
+ * Redis runs a binary protocol on a separate port for this; here the bus
+ * is plain RESP on the client port, so there is nothing else to open.
+ *
+ * The thread never touches the ClusterState itself: the gossip to send is
+ * taken, and replies are merged, by tasks run on the event loop.
+ */
+public final class ClusterBus implements Runnable {
+
+    private static final long PING_INTERVAL_MS = 1000;
+    // Connect and read timeout of one ping; a dead peer delays the round by this much
+    private static final int PING_TIMEOUT_MS = 1000;
+
+    private final ClusterState state;
+    private final Executor loop;
+
+    // By node id; only used by the bus thread
+    private final Map<String, ClusterConnection> links = new HashMap<>();
+    private volatile boolean stopped;
+
+    /**
+     * What one round of pings needs, copied on the event loop.
+     */
+    private static final class Round {
+        final List<String[]> peers = new ArrayList<>(); // id, host, port
+        final List<String> gossip;
+
+        Round(ClusterState state, long now) {
+            for (ClusterNode node : state.peers()) {
+                peers.add(new String[] { node.id(), node.host(), Integer.toString(node.port()) });
+            }
+            this.gossip = state.gossip(now);
+        }
+    }
+
+    /**
+     * @param loop runs tasks on the event loop that owns state
+     */
+    public ClusterBus(ClusterState state, Executor loop) {
+        this.state = state;
+        this.loop = loop;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "cluster-bus");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            long start = System.currentTimeMillis();
+            try {
+                CompletableFuture<Round> next = new CompletableFuture<>();
+                loop.execute(() -> next.complete(new Round(state, System.currentTimeMillis())));
+                pingAll(next.get());
+                Thread.sleep(Math.max(0, PING_INTERVAL_MS - (System.currentTimeMillis() - start)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.warning("Cluster bus: {}", e.getCause().getMessage());
+            }
+        }
+        for (ClusterConnection link : links.values()) {
+            link.close();
+        }
+    }
+
+    private void pingAll(Round round) {
+        List<String> ping = new ArrayList<>(round.gossip.size() + 2);
+        ping.add("CLUSTER");
+        ping.add("PING");
+        ping.addAll(round.gossip);
+
+        Map<String, String[]> current = new HashMap<>();
+        for (String[] peer : round.peers) {
+            current.put(peer[0], peer);
+            ping(peer[0], peer[1], Integer.parseInt(peer[2]), ping);
+        }
+
+        // Forgotten nodes, finished handshakes
+        Iterator<Map.Entry<String, ClusterConnection>> it = links.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ClusterConnection> link = it.next();
+            if (!current.containsKey(link.getKey())) {
+                link.getValue().close();
+                it.remove();
+            }
+        }
+    }
+
+    private void ping(String id, String host, int port, List<String> ping) {
+        ClusterConnection link = links.get(id);
+        try {
+            if (link != null && (!link.host().equals(host) || link.port() != port)) {
+                link.close(); // the node moved
+                link = null;
+            }
+            if (link == null) {
+                link = new ClusterConnection(host, port, PING_TIMEOUT_MS);
+                links.put(id, link);
+            }
+            link.send(ping);
+            link.flush();
+            String reply = link.readBulk();
+            long now = System.currentTimeMillis();
+            List<String> lines = reply == null ? List.of() : List.of(reply.split("\n"));
+            loop.execute(() -> state.merge(lines, id, now));
+        } catch (IOException e) {
+            if (link != null) {
+                link.close();
+                links.remove(id);
+            }
+            Log.debug("Cluster bus: no reply from {}:{}: {}", host, port, e.getMessage());
+            loop.execute(() -> state.linkDown(id));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package dev.hithru.redis.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * ClusterConnection
+ *
+ * A blocking connection from this node to another one, for the cluster bus'
+ * pings and for MIGRATE. Commands are buffered until flush(), so a batch
+ * goes out in one write and its replies are read back in order.
+ *
+ * Every read gives up after the timeout given at connect time.
+ */
+public final class ClusterConnection implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private long lastUsedMs;
+
+    public ClusterConnection(String host, int port, int timeoutMs) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        lastUsedMs = System.currentTimeMillis();
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public long lastUsedMs() {
+        return lastUsedMs;
+    }
+
+    /**
+     * Changes how long reads wait, e.g. for a MIGRATE with another timeout.
+     */
+    public void setTimeout(int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+    }
+
+    public void send(List<String> args) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append('*').append(args.size()).append("\r\n");
+        for (String arg : args) {
+            sb.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+        lastUsedMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads a one-line reply ("+OK", "-ERR ...", ":1") without its CRLF.
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("connection closed by " + host + ":" + port);
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        lastUsedMs = System.currentTimeMillis();
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads a bulk string reply.
+     *
+     * @throws IOException if the reply is anything else, e.g. an error
+     */
+    public String readBulk() throws IOException {
+        String header = readLine();
+        if (!header.startsWith("$")) {
+            throw new IOException("unexpected reply from " + host + ":" + port + ": " + header);
+        }
+        int length;
+        try {
+            length = Integer.parseInt(header.substring(1));
+        } catch (NumberFormatException e) {
+            throw new IOException("bad bulk length from " + host + ":" + port + ": " + header);
+        }
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = in.readNBytes(length + 2);
+        if (data.length < length + 2) {
+            throw new EOFException("connection closed by " + host + ":" + port);
+        }
+        return new String(data, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
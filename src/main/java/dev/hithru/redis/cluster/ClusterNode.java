@@ -0,0 +1,60 @@
+package dev.hithru.redis.cluster;
+
+/**
+ * ClusterNode
+ *
+ * What this server knows about one node of the cluster (itself included):
+ * its id, the address clients are redirected to, its config epoch and how
+ * its last pings went. Which slots it serves is kept by ClusterState.
+ *
+ * Used on the event loop thread only.
+ */
+public final class ClusterNode {
+
+    private final String id;
+    private String host;
+    private int port;
+    long configEpoch;
+
+    // Met with CLUSTER MEET but not answered yet; the id is a placeholder
+    final boolean handshake;
+
+    long pongReceivedMs;
+    boolean linkUp;
+
+    ClusterNode(String id, String host, int port, long configEpoch, boolean handshake) {
+        this.id = id;
+        this.host = host;
+        this.port = port;
+        this.configEpoch = configEpoch;
+        this.handshake = handshake;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    /**
+     * "host:port", as in MOVED and ASK redirections.
+     */
+    public String address() {
+        return host + ":" + port;
+    }
+
+    public long configEpoch() {
+        return configEpoch;
+    }
+
+    void setAddress(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+}
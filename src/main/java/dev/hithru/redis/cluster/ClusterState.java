@@ -0,0 +1,712 @@
+package dev.hithru.redis.cluster;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.server.KeySlot;
+
+/**
+ * ClusterState
+ *
+ * This node's view of the cluster: the known nodes and which one serves each
+ * of the 16384 hash slots, plus the slots being migrated away from or
+ * imported into this node.
+ *
+ * Nodes learn about each other through the ClusterBus, which trades the
+ * CLUSTER NODES lines of every known node with each peer once a second.
+ * A node claims its slots with its config epoch; a claim with a higher
+ * epoch than the current owner's wins, and a node that takes over a slot
+ * at the end of a migration (CLUSTER SETSLOT NODE) moves to a new,
+ * highest epoch, so the rest of the cluster follows within a round of pings.
+ * Meeting one node of a cluster is enough: its lines name all the others.
+ *
+ * The configuration is saved to a file in the same format as CLUSTER NODES,
+ * so a restarted node keeps its id, its slots and its peers.
+ *
+ * Used on the event loop thread only.
+ */
+public final class ClusterState {
+
+    // A node removed with CLUSTER FORGET is not re-added from gossip for this long
+    private static final long FORGET_BAN_MS = 60_000;
+
+    private final Path configFile;
+    private final long nodeTimeoutMs;
+    private final ClusterNode myself;
+    private final Map<String, ClusterNode> nodes = new LinkedHashMap<>();
+
+    // By slot: the node serving it, and where it is moving to / coming from
+    private final ClusterNode[] owners = new ClusterNode[KeySlot.SLOT_COUNT];
+    private final ClusterNode[] migrating = new ClusterNode[KeySlot.SLOT_COUNT];
+    private final ClusterNode[] importing = new ClusterNode[KeySlot.SLOT_COUNT];
+    private int assignedSlots;
+
+    private final Map<String, Long> forgotten = new HashMap<>();
+    private long currentEpoch;
+    private boolean changed; // since the config file was last written
+
+    /**
+     * A range of slots served by one node, as CLUSTER SLOTS lists them.
+     */
+    public static final class SlotRange {
+        public final int start;
+        public final int end;
+        public final ClusterNode node;
+
+        SlotRange(int start, int end, ClusterNode node) {
+            this.start = start;
+            this.end = end;
+            this.node = node;
+        }
+    }
+
+    private ClusterState(Path configFile, long nodeTimeoutMs, ClusterNode myself) {
+        this.configFile = configFile;
+        this.nodeTimeoutMs = nodeTimeoutMs;
+        this.myself = myself;
+        nodes.put(myself.id(), myself);
+    }
+
+    /**
+     * Loads the configuration file, or starts a new node with a random id
+     * and no slots if there is none.
+     *
+     * @param host where clients reach this node
+     * @param port the port clients connect to
+     */
+    public static ClusterState open(Path configFile, String host, int port, long nodeTimeoutMs) throws IOException {
+        if (!Files.exists(configFile)) {
+            ClusterState state = new ClusterState(configFile, nodeTimeoutMs,
+                    new ClusterNode(randomId(), host, port, 0, false));
+            state.changed = true;
+            state.saveIfChanged();
+            Log.notice("No cluster configuration found, I'm {}", state.myself.id());
+            return state;
+        }
+
+        List<NodeLine> lines = new ArrayList<>();
+        NodeLine self = null;
+        long epoch = 0;
+        for (String text : Files.readAllLines(configFile, StandardCharsets.ISO_8859_1)) {
+            if (text.startsWith("vars ")) {
+                String[] vars = text.split(" ");
+                for (int i = 1; i + 1 < vars.length; i += 2) {
+                    if (vars[i].equals("currentEpoch")) {
+                        epoch = Long.parseLong(vars[i + 1]);
+                    }
+                }
+                continue;
+            }
+            NodeLine line = NodeLine.parse(text);
+            if (line == null) {
+                if (!text.isBlank()) {
+                    throw new IOException("Bad line in " + configFile + ": " + text);
+                }
+                continue;
+            }
+            if (line.myself) {
+                self = line;
+            }
+            lines.add(line);
+        }
+        if (self == null) {
+            throw new IOException("No node marked myself in " + configFile);
+        }
+
+        ClusterState state = new ClusterState(configFile, nodeTimeoutMs,
+                new ClusterNode(self.id, host, port, self.epoch, false));
+        state.currentEpoch = epoch;
+        long now = System.currentTimeMillis();
+        for (NodeLine line : lines) {
+            ClusterNode node = state.myself;
+            if (line != self) {
+                if (line.handshake) {
+                    continue;
+                }
+                node = new ClusterNode(line.id, line.host, line.port, line.epoch, false);
+                node.pongReceivedMs = now;
+                state.nodes.put(node.id(), node);
+            }
+            for (int s = line.slots.nextSetBit(0); s >= 0; s = line.slots.nextSetBit(s + 1)) {
+                state.setOwner(s, node);
+            }
+        }
+        // Open migrations name their other end by id
+        for (Map.Entry<Integer, String> e : self.migrating.entrySet()) {
+            state.migrating[e.getKey()] = state.nodes.get(e.getValue());
+        }
+        for (Map.Entry<Integer, String> e : self.importing.entrySet()) {
+            state.importing[e.getKey()] = state.nodes.get(e.getValue());
+        }
+        state.changed = !host.equals(self.host) || port != self.port;
+        Log.notice("Cluster configuration loaded, I'm {}, {} slots, {} nodes",
+                self.id, state.slotCount(state.myself), state.nodes.size());
+        return state;
+    }
+
+    public ClusterNode myself() {
+        return myself;
+    }
+
+    /**
+     * @return the node with that id, or null
+     */
+    public ClusterNode node(String id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * Every other node, handshakes included: the peers the bus pings.
+     */
+    public List<ClusterNode> peers() {
+        List<ClusterNode> peers = new ArrayList<>(nodes.size());
+        for (ClusterNode node : nodes.values()) {
+            if (node != myself) {
+                peers.add(node);
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * @return the node serving the slot, or null if nobody does
+     */
+    public ClusterNode owner(int slot) {
+        return owners[slot];
+    }
+
+    /**
+     * @return where this node is moving the slot to, or null
+     */
+    public ClusterNode migratingTo(int slot) {
+        return migrating[slot];
+    }
+
+    /**
+     * @return where this node is taking the slot from, or null
+     */
+    public ClusterNode importingFrom(int slot) {
+        return importing[slot];
+    }
+
+    /**
+     * True once every slot is served by some node.
+     */
+    public boolean isOk() {
+        return assignedSlots == KeySlot.SLOT_COUNT;
+    }
+
+    public long currentEpoch() {
+        return currentEpoch;
+    }
+
+    /**
+     * Makes node serve the slot (CLUSTER ADDSLOTS for this node).
+     */
+    public void assign(int slot, ClusterNode node) {
+        setOwner(slot, node);
+        changed = true;
+    }
+
+    /**
+     * CLUSTER DELSLOTS: nobody serves the slot, as far as this node knows.
+     */
+    public void unassign(int slot) {
+        setOwner(slot, null);
+        migrating[slot] = null;
+        importing[slot] = null;
+        changed = true;
+    }
+
+    public void setMigrating(int slot, ClusterNode target) {
+        migrating[slot] = target;
+        changed = true;
+    }
+
+    public void setImporting(int slot, ClusterNode source) {
+        importing[slot] = source;
+        changed = true;
+    }
+
+    public void setStable(int slot) {
+        migrating[slot] = null;
+        importing[slot] = null;
+        changed = true;
+    }
+
+    /**
+     * CLUSTER SETSLOT slot NODE id, the end of a migration. When this node
+     * takes over a slot it was importing, it moves to a new config epoch so
+     * its claim beats the previous owner's everywhere.
+     */
+    public void setSlotNode(int slot, ClusterNode node) {
+        if (node == myself && importing[slot] != null) {
+            importing[slot] = null;
+            bumpEpoch();
+        }
+        if (node != myself) {
+            migrating[slot] = null;
+        }
+        setOwner(slot, node);
+        changed = true;
+    }
+
+    /**
+     * Gives this node a config epoch higher than any other it knows of.
+     *
+     * @return false if it already had the highest one
+     */
+    public boolean bumpEpoch() {
+        boolean highest = myself.configEpoch > 0;
+        for (ClusterNode node : nodes.values()) {
+            if (node != myself && node.configEpoch >= myself.configEpoch) {
+                highest = false;
+            }
+        }
+        if (highest) {
+            return false;
+        }
+        // currentEpoch is at least every epoch seen, so this one is new
+        currentEpoch++;
+        myself.configEpoch = currentEpoch;
+        changed = true;
+        Log.notice("New config epoch {}", currentEpoch);
+        return true;
+    }
+
+    /**
+     * CLUSTER MEET: pings host:port until it answers with its id.
+     */
+    public void meet(String host, int port, long now) {
+        for (ClusterNode node : nodes.values()) {
+            if (node.host().equals(host) && node.port() == port) {
+                return;
+            }
+        }
+        ClusterNode node = new ClusterNode(randomId(), host, port, 0, true);
+        node.pongReceivedMs = now; // handshake start
+        nodes.put(node.id(), node);
+    }
+
+    /**
+     * CLUSTER FORGET: drops a node and its slots, and ignores it in gossip
+     * for a minute so the other nodes have time to forget it too.
+     *
+     * @return false if there is no such node
+     */
+    public boolean forget(String id, long now) {
+        ClusterNode node = nodes.get(id);
+        if (node == null || node == myself) {
+            return false;
+        }
+        remove(node);
+        forgotten.put(id, now + FORGET_BAN_MS);
+        return true;
+    }
+
+    /**
+     * Takes in the CLUSTER NODES lines of a peer: a PING's (contacted null)
+     * or the reply to this node's PING to contacted.
+     */
+    public void merge(List<String> lines, String contactedId, long now) {
+        ClusterNode contacted = contactedId == null ? null : nodes.get(contactedId);
+        for (String text : lines) {
+            NodeLine line = NodeLine.parse(text);
+            if (line == null || line.handshake) {
+                continue;
+            }
+            if (line.myself) {
+                // The peer itself: whatever handshake was going on with it is done
+                removeHandshakes(line.host, line.port);
+            }
+            if (line.id.equals(myself.id())) {
+                updateCurrentEpoch(line.epoch);
+                continue;
+            }
+            Long banned = forgotten.get(line.id);
+            if (banned != null) {
+                if (now < banned) {
+                    continue;
+                }
+                forgotten.remove(line.id);
+            }
+
+            ClusterNode node = nodes.get(line.id);
+            if (node == null) {
+                node = new ClusterNode(line.id, line.host, line.port, line.epoch, false);
+                node.pongReceivedMs = now;
+                nodes.put(node.id(), node);
+                changed = true;
+                Log.notice("Cluster node {} at {} added", node.id(), node.address());
+            }
+
+            if (line.myself) {
+                // First hand: its address, its epoch and exactly the slots it serves
+                if (!node.host().equals(line.host) || node.port() != line.port) {
+                    node.setAddress(line.host, line.port);
+                    changed = true;
+                }
+                if (node.configEpoch != line.epoch) {
+                    node.configEpoch = line.epoch;
+                    changed = true;
+                }
+                node.pongReceivedMs = now;
+                for (int s = 0; s < KeySlot.SLOT_COUNT; s++) {
+                    if (owners[s] == node && !line.slots.get(s)) {
+                        setOwner(s, null);
+                        changed = true;
+                    }
+                }
+            } else if (line.epoch > node.configEpoch) {
+                node.configEpoch = line.epoch;
+                changed = true;
+            }
+            updateCurrentEpoch(line.epoch);
+            claim(node, line.slots, line.epoch);
+        }
+        if (contacted != null && nodes.get(contacted.id()) == contacted) {
+            contacted.linkUp = true;
+            contacted.pongReceivedMs = now;
+        }
+    }
+
+    /**
+     * The bus lost its connection to a node, or couldn't reach it.
+     */
+    public void linkDown(String id) {
+        ClusterNode node = nodes.get(id);
+        if (node != null) {
+            node.linkUp = false;
+        }
+    }
+
+    /**
+     * Drops handshakes nobody answered within the node timeout.
+     */
+    public void cron(long now) {
+        List<ClusterNode> expired = new ArrayList<>();
+        for (ClusterNode node : nodes.values()) {
+            if (node.handshake && now - node.pongReceivedMs > nodeTimeoutMs) {
+                expired.add(node);
+            }
+        }
+        for (ClusterNode node : expired) {
+            Log.notice("Handshake with {} timed out", node.address());
+            nodes.remove(node.id());
+        }
+        forgotten.values().removeIf(until -> now >= until);
+    }
+
+    /**
+     * True if the node didn't answer for longer than the node timeout
+     * (Redis' PFAIL).
+     */
+    public boolean isFailing(ClusterNode node, long now) {
+        return node != myself && !node.handshake && now - node.pongReceivedMs > nodeTimeoutMs;
+    }
+
+    /**
+     * CLUSTER NODES: one line per node, each ending with a newline.
+     */
+    public String nodesDescription(long now) {
+        StringBuilder sb = new StringBuilder();
+        for (ClusterNode node : nodes.values()) {
+            describe(sb, node, now);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The CLUSTER NODES lines this node sends in its pings and pongs.
+     */
+    public List<String> gossip(long now) {
+        List<String> lines = new ArrayList<>(nodes.size());
+        StringBuilder sb = new StringBuilder();
+        for (ClusterNode node : nodes.values()) {
+            if (node.handshake) {
+                continue;
+            }
+            sb.setLength(0);
+            describe(sb, node, now);
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Runs of consecutive slots served by the same node, in slot order.
+     */
+    public List<SlotRange> slotRanges() {
+        List<SlotRange> ranges = new ArrayList<>();
+        int start = 0;
+        for (int s = 1; s <= KeySlot.SLOT_COUNT; s++) {
+            if (s == KeySlot.SLOT_COUNT || owners[s] != owners[start]) {
+                if (owners[start] != null) {
+                    ranges.add(new SlotRange(start, s - 1, owners[start]));
+                }
+                start = s;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * CLUSTER INFO fields.
+     */
+    public void appendInfo(StringBuilder info, long now) {
+        int failing = 0;
+        List<ClusterNode> serving = new ArrayList<>();
+        for (int s = 0; s < KeySlot.SLOT_COUNT; s++) {
+            ClusterNode owner = owners[s];
+            if (owner == null) {
+                continue;
+            }
+            if (isFailing(owner, now)) {
+                failing++;
+            }
+            if (s == 0 || owners[s - 1] != owner) {
+                if (!serving.contains(owner)) {
+                    serving.add(owner);
+                }
+            }
+        }
+        int known = 0;
+        for (ClusterNode node : nodes.values()) {
+            if (!node.handshake) {
+                known++;
+            }
+        }
+        info.append("cluster_enabled:1\r\n")
+                .append("cluster_state:").append(isOk() ? "ok" : "fail").append("\r\n")
+                .append("cluster_slots_assigned:").append(assignedSlots).append("\r\n")
+                .append("cluster_slots_ok:").append(assignedSlots - failing).append("\r\n")
+                .append("cluster_slots_pfail:").append(failing).append("\r\n")
+                .append("cluster_slots_fail:0\r\n")
+                .append("cluster_known_nodes:").append(known).append("\r\n")
+                .append("cluster_size:").append(serving.size()).append("\r\n")
+                .append("cluster_current_epoch:").append(currentEpoch).append("\r\n")
+                .append("cluster_my_epoch:").append(myself.configEpoch).append("\r\n");
+    }
+
+    /**
+     * Writes the configuration file if anything changed since the last time.
+     */
+    public void saveIfChanged() throws IOException {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        String content = nodesDescription(System.currentTimeMillis())
+                + "vars currentEpoch " + currentEpoch + " lastVoteEpoch 0\n";
+        Path temp = configFile.resolveSibling(configFile.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.ISO_8859_1);
+        Files.move(temp, configFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // <id> <ip:port@cport> <flags> <master> <ping-sent> <pong-recv> <config-epoch> <link-state> <slot> ...
+    private void describe(StringBuilder sb, ClusterNode node, long now) {
+        sb.append(node.id()).append(' ')
+                .append(node.address()).append('@').append(node.port()).append(' ');
+        if (node == myself) {
+            sb.append("myself,master");
+        } else if (node.handshake) {
+            sb.append("handshake");
+        } else {
+            sb.append(isFailing(node, now) ? "master,fail?" : "master");
+        }
+        sb.append(" - 0 ").append(node == myself ? 0 : node.pongReceivedMs)
+                .append(' ').append(node.configEpoch)
+                .append(node == myself || node.linkUp ? " connected" : " disconnected");
+
+        int start = -1;
+        for (int s = 0; s <= KeySlot.SLOT_COUNT; s++) {
+            boolean owned = s < KeySlot.SLOT_COUNT && owners[s] == node;
+            if (owned && start < 0) {
+                start = s;
+            } else if (!owned && start >= 0) {
+                sb.append(' ').append(start);
+                if (s - 1 > start) {
+                    sb.append('-').append(s - 1);
+                }
+                start = -1;
+            }
+        }
+        if (node == myself) {
+            for (int s = 0; s < KeySlot.SLOT_COUNT; s++) {
+                if (migrating[s] != null) {
+                    sb.append(" [").append(s).append("->-").append(migrating[s].id()).append(']');
+                }
+                if (importing[s] != null) {
+                    sb.append(" [").append(s).append("-<-").append(importing[s].id()).append(']');
+                }
+            }
+        }
+    }
+
+    // Takes the slots node claims at epoch from owners with a lower epoch
+    private void claim(ClusterNode node, BitSet slots, long epoch) {
+        int lost = 0;
+        for (int s = slots.nextSetBit(0); s >= 0; s = slots.nextSetBit(s + 1)) {
+            ClusterNode owner = owners[s];
+            if (owner == node || owner != null && owner.configEpoch >= epoch) {
+                continue;
+            }
+            if (owner == myself) {
+                lost++;
+            }
+            setOwner(s, node);
+            if (migrating[s] == node) {
+                migrating[s] = null;
+            }
+            changed = true;
+        }
+        if (lost > 0) {
+            Log.notice("{} slot(s) now served by {} (config epoch {})", lost, node.id(), epoch);
+        }
+    }
+
+    private void updateCurrentEpoch(long epoch) {
+        if (epoch > currentEpoch) {
+            currentEpoch = epoch;
+            changed = true;
+        }
+    }
+
+    private void removeHandshakes(String host, int port) {
+        Iterator<ClusterNode> it = nodes.values().iterator();
+        while (it.hasNext()) {
+            ClusterNode node = it.next();
+            if (node.handshake && node.host().equals(host) && node.port() == port) {
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(ClusterNode node) {
+        nodes.remove(node.id());
+        for (int s = 0; s < KeySlot.SLOT_COUNT; s++) {
+            if (owners[s] == node) {
+                setOwner(s, null);
+            }
+            if (migrating[s] == node) {
+                migrating[s] = null;
+            }
+            if (importing[s] == node) {
+                importing[s] = null;
+            }
+        }
+        changed = true;
+    }
+
+    private void setOwner(int slot, ClusterNode node) {
+        if (owners[slot] == null && node != null) {
+            assignedSlots++;
+        } else if (owners[slot] != null && node == null) {
+            assignedSlots--;
+        }
+        owners[slot] = node;
+    }
+
+    private int slotCount(ClusterNode node) {
+        int count = 0;
+        for (ClusterNode owner : owners) {
+            if (owner == node) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String randomId() {
+        byte[] bytes = new byte[20];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /**
+     * One parsed CLUSTER NODES line.
+     */
+    static final class NodeLine {
+        final String id;
+        final String host;
+        final int port;
+        final boolean myself;
+        final boolean handshake;
+        final long epoch;
+        final BitSet slots = new BitSet(KeySlot.SLOT_COUNT);
+        final Map<Integer, String> migrating = new HashMap<>();
+        final Map<Integer, String> importing = new HashMap<>();
+
+        private NodeLine(String id, String host, int port, boolean myself, boolean handshake, long epoch) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+            this.myself = myself;
+            this.handshake = handshake;
+            this.epoch = epoch;
+        }
+
+        /**
+         * @return the line's fields, or null if it isn't a node line
+         */
+        static NodeLine parse(String text) {
+            String[] fields = text.trim().split(" ");
+            if (fields.length < 8) {
+                return null;
+            }
+            try {
+                String address = fields[1];
+                int at = address.indexOf('@');
+                if (at >= 0) {
+                    address = address.substring(0, at);
+                }
+                int colon = address.lastIndexOf(':');
+                List<String> flags = List.of(fields[2].split(","));
+                NodeLine line = new NodeLine(fields[0], address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1)),
+                        flags.contains("myself"), flags.contains("handshake") || flags.contains("noaddr"),
+                        Long.parseLong(fields[6]));
+
+                for (int i = 8; i < fields.length; i++) {
+                    String range = fields[i];
+                    if (range.startsWith("[")) {
+                        // [slot->-id] migrating, [slot-<-id] importing
+                        String body = range.substring(1, range.length() - 1);
+                        int out = body.indexOf("->-");
+                        int in = body.indexOf("-<-");
+                        if (out > 0) {
+                            line.migrating.put(Integer.parseInt(body.substring(0, out)), body.substring(out + 3));
+                        } else if (in > 0) {
+                            line.importing.put(Integer.parseInt(body.substring(0, in)), body.substring(in + 3));
+                        }
+                        continue;
+                    }
+                    int dash = range.indexOf('-');
+                    int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+                    int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+                    if (first < 0 || last >= KeySlot.SLOT_COUNT || first > last) {
+                        return null;
+                    }
+                    line.slots.set(first, last + 1);
+                }
+                return line;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,721 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.cluster.ClusterBus;
+import dev.hithru.redis.cluster.ClusterConnection;
+import dev.hithru.redis.cluster.ClusterNode;
+import dev.hithru.redis.cluster.ClusterState;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.server.KeySlot;
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+import dev.hithru.redis.store.hash.InMemoryHashStore;
+import dev.hithru.redis.store.list.InMemoryListStore;
+import dev.hithru.redis.store.set.InMemorySetStore;
+import dev.hithru.redis.store.stream.InMemoryStreamStore;
+import dev.hithru.redis.store.zset.InMemorySortedSetStore;
+import dev.hithru.redis.store.zset.ScoredMember;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Cluster mode for a SimpleCommandHandler: the slot check in front of every
+ * command (MOVED / ASK redirects), CLUSTER and ASKING, and DUMP, RESTORE and
+ * MIGRATE, which move keys between nodes. Off until enable(); then the
+ * handler must run a single shard.
+ */
+final class ClusterCommands {
+
+    // MIGRATE's default timeout, and how long its connections are kept for the next batch
+    private static final int MIGRATE_DEFAULT_TIMEOUT_MS = 1000;
+    private static final long MIGRATE_CONNECTION_TTL_MS = 10_000;
+
+    private final SimpleCommandHandler server;
+    private final InMemoryKeyValueStore store;
+    private final InMemoryListStore listStore;
+    private final InMemoryHashStore hashStore;
+    private final InMemorySetStore setStore;
+    private final InMemorySortedSetStore zsetStore;
+    private final InMemoryStreamStore streamStore;
+
+    // null = standalone
+    private ClusterState cluster;
+    private ClusterBus clusterBus;
+    // MIGRATE's connections to other nodes, by "host:port"
+    private final Map<String, ClusterConnection> migrateConnections = new HashMap<>();
+
+    ClusterCommands(SimpleCommandHandler server, InMemoryKeyValueStore store, InMemoryListStore listStore,
+                    InMemoryHashStore hashStore, InMemorySetStore setStore, InMemorySortedSetStore zsetStore,
+                    InMemoryStreamStore streamStore) {
+        this.server = server;
+        this.store = store;
+        this.listStore = listStore;
+        this.hashStore = hashStore;
+        this.setStore = setStore;
+        this.zsetStore = zsetStore;
+        this.streamStore = streamStore;
+    }
+
+    boolean isEnabled() {
+        return cluster != null;
+    }
+
+    void enable(ClusterState cluster) {
+        this.cluster = cluster;
+        store.enableSlotIndex();
+    }
+
+    // Starts gossiping with the other nodes, once the handler has its event loop
+    void start(Executor loop) {
+        if (cluster != null) {
+            clusterBus = new ClusterBus(cluster, loop);
+            clusterBus.start();
+        }
+    }
+
+    // After every event loop iteration
+    void saveIfChanged() {
+        if (cluster != null) {
+            try {
+                cluster.saveIfChanged();
+            } catch (IOException e) {
+                Log.warning("Could not save the cluster configuration: {}", e.getMessage());
+            }
+        }
+    }
+
+    // From the handler's cron: failure detection, and MIGRATE's idle connections
+    void cron(long now) {
+        if (cluster != null) {
+            cluster.cron(now);
+            closeIdleMigrateConnections(now);
+        }
+    }
+
+    /**
+     * Cluster mode: true if this node serves the command's keys. Otherwise
+     * replies with where to send it instead: MOVED to the slot's owner, or
+     * ASK to the node a slot is moving to for keys already moved there.
+     */
+    boolean checkSlot(RespWriter out, CommandSpec spec, RespCommand args, boolean asking) {
+        int[] keys = spec.keyIndexes(args);
+        int slot = -1;
+        for (int i : keys) {
+            int keySlot = KeySlot.slot(args, i);
+            if (slot >= 0 && keySlot != slot) {
+                out.writeError("CROSSSLOT Keys in request don't hash to the same slot");
+                return false;
+            }
+            slot = keySlot;
+        }
+        if (slot < 0) {
+            return true;
+        }
+        if (!cluster.isOk()) {
+            out.writeError("CLUSTERDOWN The cluster is down");
+            return false;
+        }
+
+        ClusterNode owner = cluster.owner(slot);
+        if (owner == cluster.myself()) {
+            ClusterNode target = cluster.migratingTo(slot);
+            if (target == null) {
+                return true;
+            }
+            // Keys still here are served here; missing ones may have moved already
+            long now = System.currentTimeMillis();
+            int missing = 0;
+            for (int i : keys) {
+                if (!store.exists(args.get(i), now)) {
+                    missing++;
+                }
+            }
+            if (missing == 0) {
+                return true;
+            }
+            if (missing < keys.length) {
+                out.writeError("TRYAGAIN Multiple keys request during rehashing of slot");
+            } else {
+                out.writeError("ASK " + slot + " " + target.address());
+            }
+            return false;
+        }
+        if (asking && cluster.importingFrom(slot) != null) {
+            return true;
+        }
+        out.writeError("MOVED " + slot + " " + owner.address());
+        return false;
+    }
+
+    /**
+     * CLUSTER INFO | MYID | NODES | SLOTS | KEYSLOT key | COUNTKEYSINSLOT slot
+     * | GETKEYSINSLOT slot count | ADDSLOTS slot... | ADDSLOTSRANGE start end...
+     * | DELSLOTS slot... | DELSLOTSRANGE start end...
+     * | SETSLOT slot IMPORTING id|MIGRATING id|NODE id|STABLE | MEET host port
+     * | FORGET id | BUMPEPOCH, and PING line..., sent by the cluster bus
+     */
+    void handleCluster(ClientSession client, List<String> args) {
+        RespWriter out = client.writer();
+        if (cluster == null) {
+            out.writeError("ERR This instance has cluster support disabled");
+            return;
+        }
+        String sub = args.get(1).toUpperCase(Locale.ROOT);
+        long now = System.currentTimeMillis();
+        int argc = args.size();
+        switch (sub) {
+            case "INFO" -> {
+                StringBuilder info = new StringBuilder();
+                cluster.appendInfo(info, now);
+                out.writeBulkString(info.toString());
+            }
+            case "MYID" -> out.writeBulkString(cluster.myself().id());
+            case "NODES" -> out.writeBulkString(cluster.nodesDescription(now));
+            case "SLOTS" -> writeClusterSlots(out);
+            case "KEYSLOT" -> {
+                if (argc != 3) {
+                    writeClusterSyntaxError(out, sub);
+                    return;
+                }
+                out.writeInteger(KeySlot.slot(args.get(2)));
+            }
+            case "COUNTKEYSINSLOT" -> {
+                int slot = argc == 3 ? parseSlot(out, args.get(2)) : writeClusterSyntaxError(out, sub);
+                if (slot >= 0) {
+                    out.writeInteger(store.countKeysInSlot(slot));
+                }
+            }
+            case "GETKEYSINSLOT" -> {
+                int slot = argc == 4 ? parseSlot(out, args.get(2)) : writeClusterSyntaxError(out, sub);
+                if (slot < 0) {
+                    return;
+                }
+                int count;
+                try {
+                    count = Integer.parseInt(args.get(3));
+                } catch (NumberFormatException e) {
+                    count = -1;
+                }
+                if (count < 0) {
+                    out.writeError("ERR Invalid number of keys");
+                    return;
+                }
+                out.writeArrayOfBulkStrings(store.keysInSlot(slot, count));
+            }
+            case "ADDSLOTS", "DELSLOTS", "ADDSLOTSRANGE", "DELSLOTSRANGE" -> changeSlots(out, args, sub);
+            case "SETSLOT" -> handleSetslot(out, args);
+            case "MEET" -> {
+                if (argc != 4 && argc != 5) {
+                    writeClusterSyntaxError(out, sub);
+                    return;
+                }
+                int port;
+                try {
+                    port = Integer.parseInt(args.get(3));
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+                if (port <= 0 || port > 65535) {
+                    out.writeError("ERR Invalid node address specified: " + args.get(2) + ":" + args.get(3));
+                    return;
+                }
+                cluster.meet(args.get(2), port, now);
+                out.writeSimpleString("OK");
+            }
+            case "FORGET" -> {
+                if (argc != 3) {
+                    writeClusterSyntaxError(out, sub);
+                } else if (args.get(2).equals(cluster.myself().id())) {
+                    out.writeError("ERR I tried hard but I can't forget myself...");
+                } else if (!cluster.forget(args.get(2), now)) {
+                    out.writeError("ERR Unknown node " + args.get(2));
+                } else {
+                    out.writeSimpleString("OK");
+                }
+            }
+            case "BUMPEPOCH" -> {
+                boolean bumped = cluster.bumpEpoch();
+                out.writeSimpleString((bumped ? "BUMPED " : "STILL ") + cluster.myself().configEpoch());
+            }
+            case "PING" -> {
+                // A peer's gossip; the reply is this node's
+                cluster.merge(new ArrayList<>(args.subList(2, argc)), null, now);
+                out.writeBulkString(String.join("\n", cluster.gossip(now)));
+            }
+            default -> writeClusterSyntaxError(out, sub);
+        }
+    }
+
+    // Returns -1 so callers can use it in place of a slot number
+    private static int writeClusterSyntaxError(RespWriter out, String sub) {
+        out.writeError("ERR unknown subcommand or wrong number of arguments for 'cluster|"
+                + sub.toLowerCase(Locale.ROOT) + "'");
+        return -1;
+    }
+
+    /**
+     * @return the slot, or -1 after replying with an error
+     */
+    private static int parseSlot(RespWriter out, String arg) {
+        int slot;
+        try {
+            slot = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            slot = -1;
+        }
+        if (slot < 0 || slot >= KeySlot.SLOT_COUNT) {
+            out.writeError("ERR Invalid or out of range slot");
+            return -1;
+        }
+        return slot;
+    }
+
+    // [start, end, [host, port, id]] per range of slots
+    private void writeClusterSlots(RespWriter out) {
+        List<ClusterState.SlotRange> ranges = cluster.slotRanges();
+        out.writeArrayHeader(ranges.size());
+        for (ClusterState.SlotRange range : ranges) {
+            out.writeArrayHeader(3);
+            out.writeInteger(range.start);
+            out.writeInteger(range.end);
+            out.writeArrayHeader(3);
+            out.writeBulkString(range.node.host());
+            out.writeInteger(range.node.port());
+            out.writeBulkString(range.node.id());
+        }
+    }
+
+    // ADDSLOTS / DELSLOTS slot..., ADDSLOTSRANGE / DELSLOTSRANGE start end...: all or nothing
+    private void changeSlots(RespWriter out, List<String> args, String sub) {
+        boolean add = sub.startsWith("ADD");
+        boolean ranges = sub.endsWith("RANGE");
+        if (args.size() < 3 || ranges && args.size() % 2 != 0) {
+            writeClusterSyntaxError(out, sub);
+            return;
+        }
+
+        boolean[] chosen = new boolean[KeySlot.SLOT_COUNT];
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 2; i < args.size(); i += ranges ? 2 : 1) {
+            int first = parseSlot(out, args.get(i));
+            int last = ranges ? parseSlot(out, args.get(i + 1)) : first;
+            if (first < 0 || last < 0) {
+                return;
+            }
+            if (last < first) {
+                out.writeError("ERR start slot number " + first + " is greater than end slot number " + last);
+                return;
+            }
+            for (int slot = first; slot <= last; slot++) {
+                if (chosen[slot]) {
+                    out.writeError("ERR Slot " + slot + " specified multiple times");
+                    return;
+                }
+                if (add && cluster.owner(slot) != null) {
+                    out.writeError("ERR Slot " + slot + " is already busy");
+                    return;
+                }
+                if (!add && cluster.owner(slot) == null) {
+                    out.writeError("ERR Slot " + slot + " is already unassigned");
+                    return;
+                }
+                chosen[slot] = true;
+                slots.add(slot);
+            }
+        }
+        for (int slot : slots) {
+            if (add) {
+                cluster.assign(slot, cluster.myself());
+            } else {
+                cluster.unassign(slot);
+            }
+        }
+        out.writeSimpleString("OK");
+    }
+
+    /**
+     * CLUSTER SETSLOT slot MIGRATING id | IMPORTING id | NODE id | STABLE.
+     * A slot moves with MIGRATING on its owner, IMPORTING on the target,
+     * MIGRATE of its keys in batches, then NODE target on both.
+     */
+    private void handleSetslot(RespWriter out, List<String> args) {
+        if (args.size() < 4) {
+            writeClusterSyntaxError(out, "SETSLOT");
+            return;
+        }
+        int slot = parseSlot(out, args.get(2));
+        if (slot < 0) {
+            return;
+        }
+        String action = args.get(3).toUpperCase(Locale.ROOT);
+        if (action.equals("STABLE") && args.size() == 4) {
+            cluster.setStable(slot);
+            out.writeSimpleString("OK");
+            return;
+        }
+        if (args.size() != 5 || !List.of("MIGRATING", "IMPORTING", "NODE").contains(action)) {
+            writeClusterSyntaxError(out, "SETSLOT");
+            return;
+        }
+        ClusterNode node = cluster.node(args.get(4));
+        if (node == null) {
+            out.writeError("ERR I don't know about node " + args.get(4));
+            return;
+        }
+        ClusterNode myself = cluster.myself();
+        switch (action) {
+            case "MIGRATING" -> {
+                if (cluster.owner(slot) != myself) {
+                    out.writeError("ERR I'm not the owner of hash slot " + slot);
+                    return;
+                }
+                if (node == myself) {
+                    out.writeError("ERR Can't MIGRATE to myself");
+                    return;
+                }
+                cluster.setMigrating(slot, node);
+            }
+            case "IMPORTING" -> {
+                if (cluster.owner(slot) == myself) {
+                    out.writeError("ERR I'm already the owner of hash slot " + slot);
+                    return;
+                }
+                if (node == myself) {
+                    out.writeError("ERR Can't IMPORT from myself");
+                    return;
+                }
+                cluster.setImporting(slot, node);
+            }
+            default -> {
+                if (cluster.owner(slot) == myself && node != myself && store.countKeysInSlot(slot) > 0) {
+                    out.writeError("ERR Can't assign hashslot " + slot
+                            + " to a different node while I still hold keys for this hash slot.");
+                    return;
+                }
+                cluster.setSlotNode(slot, node);
+            }
+        }
+        out.writeSimpleString("OK");
+    }
+
+    // ASKING: the next command may use a slot this node is importing
+    void handleAsking(ClientSession client, List<String> args) {
+        if (cluster == null) {
+            client.writer().writeError("ERR This instance has cluster support disabled");
+            return;
+        }
+        client.setAsking(true);
+        client.writer().writeSimpleString("OK");
+    }
+
+    void handleDump(RespWriter out, List<String> args) {
+        String key = args.get(1);
+        ValueType type = store.type(key, System.currentTimeMillis());
+        if (type == null) {
+            out.writeNullBulkString();
+            return;
+        }
+        out.writeBulkString(DumpPayload.encode(type, valueItems(key, type)));
+    }
+
+    // A key's value as DumpPayload items
+    private List<String> valueItems(String key, ValueType type) {
+        return switch (type) {
+            case STRING -> List.of(store.get(key, System.currentTimeMillis()));
+            case LIST -> listStore.lrange(key, 0, -1);
+            case HASH -> hashStore.hgetall(key);
+            case SET -> setStore.smembers(key);
+            case ZSET -> {
+                List<ScoredMember> members = zsetStore.zrange(key, 0, -1);
+                List<String> items = new ArrayList<>(members.size() * 2);
+                for (ScoredMember member : members) {
+                    items.add(member.member());
+                    items.add(InMemorySortedSetStore.formatScore(member.score()));
+                }
+                yield items;
+            }
+            case STREAM -> streamStore.items(key);
+        };
+    }
+
+    // RESTORE key ttl payload [REPLACE] [ABSTTL]; ttl 0 = no expiry
+    void handleRestore(RespWriter out, List<String> args) {
+        String key = args.get(1);
+        boolean replace = false;
+        boolean absolute = false;
+        for (int i = 4; i < args.size(); i++) {
+            String opt = args.get(i);
+            if (opt.equalsIgnoreCase("REPLACE")) {
+                replace = true;
+            } else if (opt.equalsIgnoreCase("ABSTTL")) {
+                absolute = true;
+            } else {
+                out.writeError("ERR syntax error");
+                return;
+            }
+        }
+        long ttl;
+        try {
+            ttl = Long.parseLong(args.get(2));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR value is not an integer or out of range");
+            return;
+        }
+        if (ttl < 0) {
+            out.writeError("ERR Invalid TTL value, must be >= 0");
+            return;
+        }
+        DumpPayload payload = DumpPayload.decode(args.get(3));
+        if (payload == null) {
+            out.writeError("ERR DUMP payload version or checksum are wrong");
+            return;
+        }
+
+        List<String> items = payload.items;
+        int groupSize = payload.type == ValueType.HASH || payload.type == ValueType.ZSET ? 2 : 1;
+        boolean valid = switch (payload.type) {
+            case STRING -> items.size() == 1;
+            case STREAM -> InMemoryStreamStore.isValidItems(items);
+            default -> !items.isEmpty() && items.size() % groupSize == 0;
+        };
+        double[] scores = null;
+        if (valid && payload.type == ValueType.ZSET) {
+            scores = new double[items.size() / 2];
+            try {
+                for (int i = 0; i < scores.length; i++) {
+                    scores[i] = InMemorySortedSetStore.parseScore(items.get(2 * i + 1));
+                }
+            } catch (NumberFormatException e) {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            out.writeError("ERR Bad data format");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (store.exists(key, now)) {
+            if (!replace) {
+                out.writeError("BUSYKEY Target key name already exists.");
+                return;
+            }
+            store.delete(key);
+            server.propagate(List.of("DEL", key));
+        }
+        long expireAtMs = ttl == 0 ? InMemoryKeyValueStore.NO_EXPIRY : absolute ? ttl : now + ttl;
+        if (ttl == 0 || expireAtMs > now) {
+            restoreValue(key, payload, scores, expireAtMs, now);
+        }
+        out.writeSimpleString("OK");
+    }
+
+    // Logged as the commands an AOF rewrite would write for the key; a stream as a RESTORE
+    private void restoreValue(String key, DumpPayload payload, double[] scores, long expireAtMs, long now) {
+        List<String> items = payload.items;
+        boolean expires = expireAtMs != InMemoryKeyValueStore.NO_EXPIRY;
+        if (payload.type == ValueType.STREAM) {
+            streamStore.restore(key, items);
+            String encoded = DumpPayload.encode(ValueType.STREAM, items);
+            if (expires) {
+                store.expire(key, expireAtMs, now);
+                server.propagate(List.of("RESTORE", key, Long.toString(expireAtMs), encoded, "ABSTTL"));
+            } else {
+                server.propagate(List.of("RESTORE", key, "0", encoded));
+            }
+            return;
+        }
+        if (payload.type == ValueType.STRING) {
+            store.set(key, items.get(0), expires ? expireAtMs : null);
+            server.propagate(expires
+                    ? List.of("SET", key, items.get(0), "PXAT", Long.toString(expireAtMs))
+                    : List.of("SET", key, items.get(0)));
+            return;
+        }
+
+        List<String> command = new ArrayList<>(items.size() + 2);
+        command.add(switch (payload.type) {
+            case LIST -> "RPUSH";
+            case HASH -> "HSET";
+            case SET -> "SADD";
+            default -> "ZADD";
+        });
+        command.add(key);
+        switch (payload.type) {
+            case LIST -> listStore.rpush(key, items);
+            case HASH -> hashStore.hset(key, items);
+            case SET -> setStore.sadd(key, items);
+            default -> {
+                List<String> members = new ArrayList<>(scores.length);
+                for (int i = 0; i < scores.length; i++) {
+                    members.add(items.get(2 * i));
+                }
+                zsetStore.zadd(key, scores, members, false, false, false);
+            }
+        }
+        if (payload.type == ValueType.ZSET) {
+            for (int i = 0; i < scores.length; i++) {
+                command.add(items.get(2 * i + 1));
+                command.add(items.get(2 * i));
+            }
+        } else {
+            command.addAll(items);
+        }
+        server.propagate(command);
+        if (expires) {
+            store.expire(key, expireAtMs, now);
+            server.propagate(List.of("PEXPIREAT", key, Long.toString(expireAtMs)));
+        }
+        if (payload.type == ValueType.LIST) {
+            server.signalKeyReady(key);
+        }
+    }
+
+    /**
+     * MIGRATE host port key|"" destination-db timeout [COPY] [REPLACE] [KEYS key ...]
+     *
+     * Sends the keys to the other node as RESTORE-ASKING commands in one
+     * batch, waits for its replies, then deletes the keys it accepted. Like
+     * Redis, this blocks the event loop until the target replies or the
+     * timeout passes, so slots are moved a batch of keys at a time.
+     */
+    void handleMigrate(RespWriter out, List<String> args) {
+        String host = args.get(1);
+        int port;
+        int db;
+        int timeoutMs;
+        try {
+            port = Integer.parseInt(args.get(2));
+            db = Integer.parseInt(args.get(4));
+            timeoutMs = Integer.parseInt(args.get(5));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR value is not an integer or out of range");
+            return;
+        }
+        if (db != 0) {
+            out.writeError("ERR DB index is out of range");
+            return;
+        }
+        if (timeoutMs <= 0) {
+            timeoutMs = MIGRATE_DEFAULT_TIMEOUT_MS;
+        }
+
+        boolean copy = false;
+        boolean replace = false;
+        List<String> keys = new ArrayList<>();
+        for (int i = 6; i < args.size(); i++) {
+            String opt = args.get(i);
+            if (opt.equalsIgnoreCase("COPY")) {
+                copy = true;
+            } else if (opt.equalsIgnoreCase("REPLACE")) {
+                replace = true;
+            } else if (opt.equalsIgnoreCase("KEYS")) {
+                if (!args.get(3).isEmpty()) {
+                    out.writeError("ERR When using MIGRATE KEYS option, the key argument must be set to the empty string");
+                    return;
+                }
+                keys.addAll(args.subList(i + 1, args.size()));
+                break;
+            } else {
+                out.writeError("ERR syntax error");
+                return;
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.add(args.get(3));
+        }
+
+        long now = System.currentTimeMillis();
+        List<String> found = new ArrayList<>(keys.size());
+        List<List<String>> restores = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            ValueType type = store.type(key, now);
+            if (type == null) {
+                continue;
+            }
+            long ttl = store.ttl(key, now);
+            List<String> restore = new ArrayList<>(List.of("RESTORE-ASKING", key, Long.toString(Math.max(ttl, 0)),
+                    DumpPayload.encode(type, valueItems(key, type))));
+            if (replace) {
+                restore.add("REPLACE");
+            }
+            found.add(key);
+            restores.add(restore);
+        }
+        if (found.isEmpty()) {
+            out.writeSimpleString("NOKEY");
+            return;
+        }
+
+        String address = host + ":" + port;
+        List<String> accepted = new ArrayList<>(found.size());
+        String error = null;
+        try {
+            ClusterConnection connection = migrateConnections.get(address);
+            if (connection == null) {
+                connection = new ClusterConnection(host, port, timeoutMs);
+                migrateConnections.put(address, connection);
+            } else {
+                connection.setTimeout(timeoutMs);
+            }
+            for (List<String> restore : restores) {
+                connection.send(restore);
+            }
+            connection.flush();
+            for (String key : found) {
+                String reply = connection.readLine();
+                if (reply.startsWith("-")) {
+                    if (error == null) {
+                        error = reply.substring(1);
+                    }
+                } else {
+                    accepted.add(key);
+                }
+            }
+        } catch (IOException e) {
+            // Whatever the target did with the batch, the keys stay here too
+            ClusterConnection broken = migrateConnections.remove(address);
+            if (broken != null) {
+                broken.close();
+            }
+            out.writeError("IOERR error or timeout reading to target instance");
+            return;
+        }
+
+        if (!copy && !accepted.isEmpty()) {
+            List<String> del = new ArrayList<>(accepted.size() + 1);
+            del.add("DEL");
+            for (String key : accepted) {
+                store.delete(key);
+                del.add(key);
+            }
+            server.propagate(del);
+        }
+        if (error != null) {
+            out.writeError("ERR Target instance replied with error: " + error);
+        } else {
+            out.writeSimpleString("OK");
+        }
+    }
+
+    // Closes MIGRATE connections left unused for a while
+    private void closeIdleMigrateConnections(long now) {
+        Iterator<ClusterConnection> it = migrateConnections.values().iterator();
+        while (it.hasNext()) {
+            ClusterConnection connection = it.next();
+            if (now - connection.lastUsedMs() > MIGRATE_CONNECTION_TTL_MS) {
+                connection.close();
+                it.remove();
+            }
+        }
+    }
+}
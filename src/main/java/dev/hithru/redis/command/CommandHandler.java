@@ -1,23 +1,76 @@
 package dev.hithru.redis.command;
 import java.io.IOException;
-import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
 
-import java.io.IOException;
-import java.nio.channels.SocketChannel;
-import java.util.List;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
 
 /**
  * CommandHandler:
  *  - Handles Redis-style commands parsed from RESP.
  *  - commandArgs.get(0) is the command name (e.g. "PING", "ECHO").
  *  - Remaining elements are arguments.
+ *  - commandArgs is only valid during the call; copy() it to keep it.
+ *  - Replies go to client.writer(); the server flushes them after the call.
  */
 public interface CommandHandler {
-    void handleCommand(SocketChannel clientChannel, List<String> commandArgs) throws IOException;
+    void handleCommand(ClientSession client, RespCommand commandArgs) throws IOException;
+
+    /**
+     * Index of the argument that decides which keyspace shard runs the command,
+     * or -1 if the command has no key and can run on any shard.
+     */
+    default int firstKeyIndex(RespCommand commandArgs) {
+        return commandArgs.size() > 1 ? 1 : -1;
+    }
+
+    /**
+     * Called once by the event loop that will run this handler, with a way to
+     * run tasks on that loop's thread from other threads (e.g. data received
+     * by a background connection), and the loop's timers for time-based work
+     * (e.g. BLPOP timeouts). The loop sleeps until the earliest timer at most,
+     * so anything periodic must be a timer too.
+     */
+    default void attach(Executor loop, Timers timers) {
+    }
 
-    // Called periodically by the server to handle time-based tasks (like BLPOP timeouts)
+    /**
+     * Called once per event loop iteration, after I/O, tasks and timers and
+     * before replies are flushed (e.g. to write the AOF first).
+     */
     default void onTick() throws IOException {
         // default no-op
     }
+
+    /**
+     * True if onTick() has work left over (e.g. a KEYS walk in progress), so
+     * the server should call it again without waiting for I/O.
+     */
+    default boolean hasPendingWork() {
+        return false;
+    }
+
+    /** Called when a client connects to the reactor running this handler. */
+    default void clientConnected(ClientSession client) {
+    }
+
+    /** Called once the connection of a client of this reactor is closed. */
+    default void clientDisconnected(ClientSession client) {
+    }
+
+    /**
+     * Called on every other shard once the connection of a client of another
+     * event loop is closed: commands it had forwarded here may have left it
+     * waiting (e.g. in BLPOP).
+     */
+    default void remoteClientDisconnected(ClientSession client) {
+    }
+
+    /**
+     * Time one event loop iteration spent working (not waiting in select),
+     * for the stats.
+     */
+    default void recordLoopCycle(long busyNanos) {
+    }
 }
 
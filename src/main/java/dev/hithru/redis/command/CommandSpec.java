@@ -0,0 +1,144 @@
+package dev.hithru.redis.command;
+
+import java.io.IOException;
+import java.util.List;
+
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+
+/**
+ * CommandSpec
+ *
+ * One entry of the command table: what COMMAND INFO reports about a command
+ * (name, arity, flags, key positions), the code that runs it, and its
+ * statistics for INFO commandstats.
+ *
+ * - arity counts the command name, like Redis: N means exactly N arguments,
+ *   -N means at least N
+ * - firstKey / lastKey / keyStep locate the keys; lastKey -1 is the last
+ *   argument, -2 the one before it. firstKey 0 means the command has no keys,
+ *   unless it has MOVABLE_KEYS: then keyIndexes() finds them in the arguments
+ *
+ * Statistics are plain fields: a spec belongs to one handler, and so to one
+ * event loop thread. Besides the totals, every call's duration goes into a
+ * LatencyHistogram (INFO latencystats, LATENCY HISTOGRAM).
+ */
+final class CommandSpec {
+
+    // Flags, as listed by COMMAND INFO
+    static final int WRITE = 1;
+    static final int READONLY = 1 << 1;
+    static final int DENYOOM = 1 << 2;   // may use more memory; refused over maxmemory
+    static final int ADMIN = 1 << 3;
+    static final int FAST = 1 << 4;      // O(1) or O(log n)
+    static final int BLOCKING = 1 << 5;  // may park the client until data arrives
+    static final int ASKING = 1 << 6;    // may use a slot being imported, as if after ASKING
+    static final int PUBSUB = 1 << 7;    // Pub/Sub messaging
+    static final int NO_MULTI = 1 << 8;  // refused inside MULTI
+    static final int MOVABLE_KEYS = 1 << 9; // keys follow a STREAMS argument
+
+    private static final String[] FLAG_NAMES = {
+            "write", "readonly", "denyoom", "admin", "fast", "blocking", "asking", "pubsub", "no_multi",
+            "movablekeys" };
+
+    private static final int[] NO_KEYS = new int[0];
+
+    /**
+     * Runs a command whose arity has already been checked.
+     */
+    @FunctionalInterface
+    interface Action {
+        void execute(ClientSession client, RespCommand args) throws IOException;
+    }
+
+    final String name; // lower case, as Redis reports it
+    final int arity;
+    final int flags;
+    final int firstKey;
+    final int lastKey;
+    final int keyStep;
+    final Action action;
+
+    long calls;
+    long nanos;
+    long rejectedCalls; // refused before running: arity, OOM
+    long failedCalls;   // ran and replied with an error
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    CommandSpec(String name, int arity, int flags, int firstKey, int lastKey, int keyStep, Action action) {
+        this.name = name;
+        this.arity = arity;
+        this.flags = flags;
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+        this.keyStep = keyStep;
+        this.action = action;
+    }
+
+    boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    boolean arityMatches(int argc) {
+        return arity >= 0 ? argc == arity : argc >= -arity;
+    }
+
+    /**
+     * Positions of the keys in args (the command name at 0).
+     */
+    int[] keyIndexes(List<String> args) {
+        int first = firstKey;
+        int last = lastKey < 0 ? args.size() + lastKey : lastKey;
+        int step = keyStep;
+        if (has(MOVABLE_KEYS)) {
+            // XREAD / XREADGROUP: STREAMS key... id..., as many IDs as keys
+            first = streamsKeys(args);
+            last = first + (args.size() - first) / 2 - 1;
+            step = 1;
+        }
+        if (first <= 0 || first > last || first >= args.size()) {
+            return NO_KEYS;
+        }
+        last = Math.min(last, args.size() - 1);
+        int[] indexes = new int[(last - first) / step + 1];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = first + i * step;
+        }
+        return indexes;
+    }
+
+    // Index after the STREAMS option, skipping GROUP's arguments; 0 if missing
+    private static int streamsKeys(List<String> args) {
+        for (int i = 1; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equalsIgnoreCase("GROUP")) {
+                i += 2;
+            } else if (arg.equalsIgnoreCase("STREAMS")) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Names of the set flags, in COMMAND INFO order.
+     */
+    String[] flagNames() {
+        String[] names = new String[Integer.bitCount(flags)];
+        int n = 0;
+        for (int i = 0; i < FLAG_NAMES.length; i++) {
+            if ((flags & (1 << i)) != 0) {
+                names[n++] = FLAG_NAMES[i];
+            }
+        }
+        return names;
+    }
+
+    void resetStats() {
+        calls = 0;
+        nanos = 0;
+        rejectedCalls = 0;
+        failedCalls = 0;
+        latency.reset();
+    }
+}
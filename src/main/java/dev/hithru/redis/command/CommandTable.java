@@ -0,0 +1,104 @@
+package dev.hithru.redis.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * CommandTable
+ *
+ * The commands a handler knows, looked up straight from the name's bytes in
+ * the input buffer: an open-addressing table keyed by a case-insensitive
+ * hash, compared with RespCommand.equalsIgnoreCase. No String is decoded or
+ * upper-cased per command.
+ *
+ * Filled once at startup, then only read.
+ */
+final class CommandTable {
+
+    private final List<CommandSpec> commands = new ArrayList<>();
+    private CommandSpec[] slots = new CommandSpec[64];
+
+    void add(CommandSpec spec) {
+        if ((commands.size() + 1) * 2 > slots.length) {
+            CommandSpec[] old = slots;
+            slots = new CommandSpec[old.length * 2];
+            for (CommandSpec existing : commands) {
+                insert(existing);
+            }
+        }
+        if (find(spec.name) != null) {
+            throw new IllegalArgumentException("Duplicate command " + spec.name);
+        }
+        commands.add(spec);
+        insert(spec);
+    }
+
+    /**
+     * @return the spec of the command named by args' first argument, or null
+     */
+    CommandSpec lookup(RespCommand args) {
+        int length = args.length(0);
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + fold(args.byteAt(0, i) & 0xff);
+        }
+
+        int mask = slots.length - 1;
+        for (int i = spread(h) & mask; ; i = (i + 1) & mask) {
+            CommandSpec spec = slots[i];
+            if (spec == null || args.equalsIgnoreCase(0, spec.name)) {
+                return spec;
+            }
+        }
+    }
+
+    /**
+     * Case-insensitive lookup by name, for COMMAND INFO and the like.
+     */
+    CommandSpec find(String name) {
+        int mask = slots.length - 1;
+        for (int i = spread(hash(name)) & mask; ; i = (i + 1) & mask) {
+            CommandSpec spec = slots[i];
+            if (spec == null || spec.name.equalsIgnoreCase(name)) {
+                return spec;
+            }
+        }
+    }
+
+    /**
+     * Every command, in registration order.
+     */
+    List<CommandSpec> all() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    private void insert(CommandSpec spec) {
+        int mask = slots.length - 1;
+        int i = spread(hash(spec.name)) & mask;
+        while (slots[i] != null) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = spec;
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + fold(name.charAt(i));
+        }
+        return h;
+    }
+
+    // Same value for both cases of a letter; other bytes may collide with
+    // each other, which the equality check sorts out
+    private static int fold(int c) {
+        return c | 0x20;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,120 @@
+package dev.hithru.redis.command;
+import java.util.Arrays;
+
+/**
+ * Min-heap of entries ordered by deadline, like the keyspace's ExpiryIndex
+ * but for objects: every entry knows its heap position, so one that leaves
+ * early (served, disconnected) is removed in O(log n) right away, and
+ * finding what timed out only looks at entries that did.
+ */
+final class DeadlineHeap<E extends DeadlineHeap.Entry> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Something with a deadline; in at most one heap at a time.
+     */
+    abstract static class Entry {
+        final long deadline;
+        int heapIndex = -1;
+
+        Entry(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    private Entry[] heap = new Entry[INITIAL_CAPACITY];
+    private int size;
+
+    void add(E entry) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        set(size, entry);
+        siftUp(size++);
+    }
+
+    /**
+     * Removes entry if it is in the heap.
+     */
+    void remove(E entry) {
+        int i = entry.heapIndex;
+        if (i < 0) {
+            return;
+        }
+        entry.heapIndex = -1;
+
+        int last = --size;
+        if (i != last) {
+            set(i, heap[last]);
+            siftDown(i);
+            siftUp(i);
+        }
+        heap[last] = null;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The earliest deadline; the heap must not be empty.
+     */
+    long firstDeadline() {
+        return heap[0].deadline;
+    }
+
+    /**
+     * Removes and returns the entry with the earliest deadline if it is at
+     * or before now, null otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    E pollExpired(long now) {
+        if (size == 0 || heap[0].deadline > now) {
+            return null;
+        }
+        E first = (E) heap[0];
+        remove(first);
+        return first;
+    }
+
+    private void set(int i, Entry entry) {
+        heap[i] = entry;
+        entry.heapIndex = i;
+    }
+
+    private void siftUp(int i) {
+        Entry entry = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].deadline <= entry.deadline) {
+                break;
+            }
+            set(i, heap[parent]);
+            i = parent;
+        }
+        set(i, entry);
+    }
+
+    private void siftDown(int i) {
+        Entry entry = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].deadline < heap[child].deadline) {
+                child = right;
+            }
+            if (entry.deadline <= heap[child].deadline) {
+                break;
+            }
+            set(i, heap[child]);
+            i = child;
+        }
+        set(i, entry);
+    }
+}
@@ -0,0 +1,117 @@
+package dev.hithru.redis.command;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import dev.hithru.redis.store.ValueType;
+
+/**
+ * DumpPayload
+ *
+ * The value of one key as DUMP returns it and RESTORE / MIGRATE take it:
+ * the type name and the items as a RESP array of bulk strings, then a
+ * version byte and a CRC32 of everything before it, like the RDB version
+ * and CRC64 trailer of Redis' payloads.
+ *
+ * Items are what the snapshot visitors get: the value of a string, the
+ * elements of a list or set, field, value... of a hash, member, score... of
+ * a sorted set and a stream flattened as for SnapshotVisitor.stream. Bytes
+ * are kept as the protocol's ISO-8859-1 chars.
+ */
+final class DumpPayload {
+
+    private static final int VERSION = 1;
+    private static final int TRAILER_LENGTH = 5;
+
+    final ValueType type;
+    final List<String> items;
+
+    private DumpPayload(ValueType type, List<String> items) {
+        this.type = type;
+        this.items = items;
+    }
+
+    static String encode(ValueType type, List<String> items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('*').append(items.size() + 1).append("\r\n");
+        appendBulk(sb, type.typeName());
+        for (String item : items) {
+            appendBulk(sb, item);
+        }
+        sb.append((char) VERSION);
+
+        CRC32 crc = new CRC32();
+        crc.update(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        long value = crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            sb.append((char) ((value >>> shift) & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the decoded payload, or null if it is truncated, corrupt or of
+     *         another version
+     */
+    static DumpPayload decode(String payload) {
+        int bodyEnd = payload.length() - TRAILER_LENGTH;
+        if (bodyEnd < 0 || payload.charAt(bodyEnd) != VERSION) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.substring(0, bodyEnd + 1).getBytes(StandardCharsets.ISO_8859_1));
+        long expected = 0;
+        for (int i = bodyEnd + 1; i < payload.length(); i++) {
+            expected = (expected << 8) | (payload.charAt(i) & 0xff);
+        }
+        if (crc.getValue() != expected) {
+            return null;
+        }
+
+        try {
+            int[] pos = { 0 };
+            int count = readLength(payload, pos, '*');
+            if (count < 1) {
+                return null;
+            }
+            ValueType type = ValueType.fromTypeName(readBulk(payload, pos));
+            List<String> items = new ArrayList<>(count - 1);
+            for (int i = 1; i < count; i++) {
+                items.add(readBulk(payload, pos));
+            }
+            if (type == null || pos[0] != bodyEnd) {
+                return null;
+            }
+            return new DumpPayload(type, items);
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void appendBulk(StringBuilder sb, String s) {
+        sb.append('$').append(s.length()).append("\r\n").append(s).append("\r\n");
+    }
+
+    private static String readBulk(String payload, int[] pos) {
+        int length = readLength(payload, pos, '$');
+        String s = payload.substring(pos[0], pos[0] + length);
+        pos[0] += length + 2;
+        return s;
+    }
+
+    // "<prefix><n>\r\n" at pos, which is moved past it
+    private static int readLength(String payload, int[] pos, char prefix) {
+        if (payload.charAt(pos[0]) != prefix) {
+            throw new NumberFormatException("expected " + prefix);
+        }
+        int end = payload.indexOf('\r', pos[0]);
+        int length = Integer.parseInt(payload.substring(pos[0] + 1, end));
+        if (length < 0) {
+            throw new NumberFormatException("negative length");
+        }
+        pos[0] = end + 2;
+        return length;
+    }
+}
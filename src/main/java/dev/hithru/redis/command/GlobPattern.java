@@ -0,0 +1,163 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * GlobPattern
+ *
+ * Redis-style glob matching (KEYS, SCAN MATCH), over raw bytes so it is
+ * binary safe like the keys themselves:
+ *  - *       any run of bytes, including none
+ *  - ?       any single byte
+ *  - [abc]   one of the listed bytes; [^abc] any other; [a-z] a range
+ *  - \x      x literally
+ *
+ * Matching is iterative: on a mismatch it only backtracks to the last *,
+ * so no pattern costs more than O(pattern * key).
+ */
+public final class GlobPattern {
+
+    private final byte[] pattern;
+    private final boolean matchesAll;
+
+    public GlobPattern(byte[] pattern) {
+        this.pattern = pattern;
+        boolean allStars = true;
+        for (byte b : pattern) {
+            allStars &= b == '*';
+        }
+        this.matchesAll = allStars && pattern.length > 0;
+    }
+
+    public static GlobPattern compile(String pattern) {
+        return new GlobPattern(pattern.getBytes(RespCommand.CHARSET));
+    }
+
+    /**
+     * True for "*" (and "**"...), so callers can skip matching altogether.
+     */
+    public boolean matchesAll() {
+        return matchesAll;
+    }
+
+    public boolean matches(byte[] s) {
+        byte[] pat = pattern;
+        int p = 0;
+        int i = 0;
+        int starP = -1; // pattern position just after the last *
+        int starI = 0;  // where that * started matching in s
+
+        while (i < s.length) {
+            if (p < pat.length) {
+                if (pat[p] == '*') {
+                    while (p < pat.length && pat[p] == '*') {
+                        p++;
+                    }
+                    if (p == pat.length) {
+                        return true;
+                    }
+                    starP = p;
+                    starI = i;
+                    continue;
+                }
+                int next = matchOne(p, s[i] & 0xff);
+                if (next >= 0) {
+                    p = next;
+                    i++;
+                    continue;
+                }
+            }
+            if (starP < 0) {
+                return false;
+            }
+            // Let the last * swallow one more byte and retry from there
+            p = starP;
+            i = ++starI;
+        }
+
+        while (p < pat.length && pat[p] == '*') {
+            p++;
+        }
+        return p == pat.length;
+    }
+
+    /**
+     * Position of the token after the single-byte token at pattern[p], for
+     * GlobTrie, which splits patterns the same way matches() reads them.
+     */
+    int tokenEnd(int p) {
+        byte[] pat = pattern;
+        switch (pat[p]) {
+            case '\\':
+                return p + 1 < pat.length ? p + 2 : p + 1;
+            case '[': {
+                int i = p + 1;
+                if (i < pat.length && pat[i] == '^') {
+                    i++;
+                }
+                while (i < pat.length && pat[i] != ']') {
+                    if (pat[i] == '\\' && i + 1 < pat.length) {
+                        i++;
+                    } else if (i + 2 < pat.length && pat[i + 1] == '-') {
+                        i += 2;
+                    }
+                    i++;
+                }
+                return i < pat.length ? i + 1 : i;
+            }
+            default:
+                return p + 1;
+        }
+    }
+
+    /**
+     * Matches the single-byte token at pattern[p] against b.
+     *
+     * @return position of the next token, or -1 if b doesn't match
+     */
+    int matchOne(int p, int b) {
+        byte[] pat = pattern;
+        switch (pat[p]) {
+            case '?':
+                return p + 1;
+            case '\\':
+                if (p + 1 < pat.length) {
+                    return (pat[p + 1] & 0xff) == b ? p + 2 : -1;
+                }
+                return b == '\\' ? p + 1 : -1;
+            case '[':
+                return matchClass(p + 1, b);
+            default:
+                return (pat[p] & 0xff) == b ? p + 1 : -1;
+        }
+    }
+
+    // [...] starting at p (just past the '['); an unterminated class ends
+    // with the pattern, like in Redis
+    private int matchClass(int p, int b) {
+        byte[] pat = pattern;
+        boolean negate = p < pat.length && pat[p] == '^';
+        if (negate) {
+            p++;
+        }
+
+        boolean matched = false;
+        while (p < pat.length && pat[p] != ']') {
+            if (pat[p] == '\\' && p + 1 < pat.length) {
+                p++;
+                matched |= (pat[p] & 0xff) == b;
+            } else if (p + 2 < pat.length && pat[p + 1] == '-') {
+                int start = pat[p] & 0xff;
+                int end = pat[p + 2] & 0xff;
+                matched |= b >= Math.min(start, end) && b <= Math.max(start, end);
+                p += 2;
+            } else {
+                matched |= (pat[p] & 0xff) == b;
+            }
+            p++;
+        }
+
+        int next = p < pat.length ? p + 1 : p;
+        return matched != negate ? next : -1;
+    }
+}
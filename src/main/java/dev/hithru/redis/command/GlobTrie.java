@@ -0,0 +1,305 @@
+package dev.hithru.redis.command;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * GlobTrie
+ *
+ * Values keyed by glob patterns (PSUBSCRIBE), finding every pattern that
+ * matches a string in one pass instead of trying them one by one:
+ * - patterns are split into the tokens GlobPattern matches (literal byte,
+ *   ?, [class], *) and stored as paths of a trie, so patterns sharing a
+ *   prefix like "cache:user:*" and "cache:user:?" share their nodes
+ * - matching walks the trie like an NFA: the set of nodes the string so far
+ *   can be at advances one byte at a time. A node reached through * stays
+ *   in the set for every byte after it. Each node is in the set at most once
+ *   per position, so a match costs O(length * active nodes) however many
+ *   patterns there are, and patterns that fail on their first byte cost
+ *   nothing
+ *
+ * Consecutive stars are one token, so "a*" and "a**" end on the same node;
+ * each keeps its own value there. Only used from one thread.
+ */
+final class GlobTrie<V> {
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private static final class Node<V> {
+        // Literal bytes (sorted) and where they lead
+        byte[] literals = NO_BYTES;
+        List<Node<V>> literalNext = new ArrayList<>(0);
+        Node<V> any;                          // ?
+        List<long[]> classSets;               // [...] as 256-bit sets
+        List<Node<V>> classNext;
+        Node<V> star;                         // *
+        boolean loops;                        // reached through *: matches any byte and stays
+
+        // Patterns ending here
+        List<byte[]> patterns;
+        List<V> values;
+
+        int mark; // last match step that put this node in the set
+
+        boolean isEmpty() {
+            return literals.length == 0 && any == null && classSets == null && star == null && patterns == null;
+        }
+    }
+
+    private final Node<V> root = new Node<>();
+    private int size;
+
+    // Reused between matches
+    private List<Node<V>> current = new ArrayList<>();
+    private List<Node<V>> next = new ArrayList<>();
+    private int mark;
+
+    public int size() {
+        return size;
+    }
+
+    public V get(byte[] pattern) {
+        Node<V> node = find(pattern, false);
+        int i = node == null ? -1 : indexOf(node, pattern);
+        return i < 0 ? null : node.values.get(i);
+    }
+
+    /**
+     * @return the previous value for pattern, or null
+     */
+    public V put(byte[] pattern, V value) {
+        Node<V> node = find(pattern, true);
+        int i = indexOf(node, pattern);
+        if (i >= 0) {
+            return node.values.set(i, value);
+        }
+        if (node.patterns == null) {
+            node.patterns = new ArrayList<>(1);
+            node.values = new ArrayList<>(1);
+        }
+        node.patterns.add(pattern.clone());
+        node.values.add(value);
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes pattern and the nodes only it used.
+     *
+     * @return its value, or null if it wasn't there
+     */
+    public V remove(byte[] pattern) {
+        List<Node<V>> path = new ArrayList<>();
+        Node<V> node = root;
+        path.add(node);
+        GlobPattern glob = new GlobPattern(pattern);
+        int p = 0;
+        while (p < pattern.length) {
+            int end = tokenEnd(glob, pattern, p);
+            node = child(node, glob, pattern, p, end, false);
+            if (node == null) {
+                return null;
+            }
+            path.add(node);
+            p = end;
+        }
+        int i = indexOf(node, pattern);
+        if (i < 0) {
+            return null;
+        }
+        node.patterns.remove(i);
+        V value = node.values.remove(i);
+        if (node.patterns.isEmpty()) {
+            node.patterns = null;
+            node.values = null;
+        }
+        size--;
+
+        // Unlink nodes left without patterns or children, deepest first
+        for (int depth = path.size() - 1; depth > 0 && path.get(depth).isEmpty(); depth--) {
+            unlink(path.get(depth - 1), path.get(depth));
+        }
+        return value;
+    }
+
+    /**
+     * Passes every pattern matching s, with its value, to visitor, once.
+     * The visitor must not change the trie.
+     */
+    public void match(byte[] s, BiConsumer<byte[], V> visitor) {
+        current.clear();
+        enter(root, current, ++mark);
+        for (int i = 0; i < s.length && !current.isEmpty(); i++) {
+            int b = s[i] & 0xff;
+            int step = ++mark;
+            next.clear();
+            for (Node<V> node : current) {
+                if (node.loops) {
+                    enter(node, next, step);
+                }
+                int at = Arrays.binarySearch(node.literals, (byte) b);
+                if (at >= 0) {
+                    enter(node.literalNext.get(at), next, step);
+                }
+                if (node.any != null) {
+                    enter(node.any, next, step);
+                }
+                if (node.classSets != null) {
+                    for (int c = 0; c < node.classSets.size(); c++) {
+                        if ((node.classSets.get(c)[b >>> 6] & (1L << b)) != 0) {
+                            enter(node.classNext.get(c), next, step);
+                        }
+                    }
+                }
+            }
+            List<Node<V>> swap = current;
+            current = next;
+            next = swap;
+        }
+        for (Node<V> node : current) {
+            if (node.patterns != null) {
+                for (int i = 0; i < node.patterns.size(); i++) {
+                    visitor.accept(node.patterns.get(i), node.values.get(i));
+                }
+            }
+        }
+    }
+
+    // Adds node to the set, and what * can reach from it without a byte
+    private static <V> void enter(Node<V> node, List<Node<V>> set, int step) {
+        while (node != null && node.mark != step) {
+            node.mark = step;
+            set.add(node);
+            node = node.star;
+        }
+    }
+
+    private Node<V> find(byte[] pattern, boolean create) {
+        GlobPattern glob = new GlobPattern(pattern);
+        Node<V> node = root;
+        int p = 0;
+        while (p < pattern.length && node != null) {
+            int end = tokenEnd(glob, pattern, p);
+            node = child(node, glob, pattern, p, end, create);
+            p = end;
+        }
+        return node;
+    }
+
+    private static int tokenEnd(GlobPattern glob, byte[] pattern, int p) {
+        if (pattern[p] != '*') {
+            return glob.tokenEnd(p);
+        }
+        while (p < pattern.length && pattern[p] == '*') {
+            p++;
+        }
+        return p;
+    }
+
+    // The node the token pattern[p, end) leads to from node
+    private static <V> Node<V> child(Node<V> node, GlobPattern glob, byte[] pattern, int p, int end, boolean create) {
+        switch (pattern[p]) {
+            case '*':
+                if (node.star == null && create) {
+                    node.star = new Node<>();
+                    node.star.loops = true;
+                }
+                return node.star;
+            case '?':
+                if (node.any == null && create) {
+                    node.any = new Node<>();
+                }
+                return node.any;
+            case '[':
+                return classChild(node, glob, p, create);
+            case '\\':
+                return literalChild(node, end - p == 2 ? pattern[p + 1] : (byte) '\\', create);
+            default:
+                return literalChild(node, pattern[p], create);
+        }
+    }
+
+    private static <V> Node<V> literalChild(Node<V> node, byte b, boolean create) {
+        int at = Arrays.binarySearch(node.literals, b);
+        if (at >= 0) {
+            return node.literalNext.get(at);
+        }
+        if (!create) {
+            return null;
+        }
+        int insert = -at - 1;
+        byte[] literals = new byte[node.literals.length + 1];
+        System.arraycopy(node.literals, 0, literals, 0, insert);
+        literals[insert] = b;
+        System.arraycopy(node.literals, insert, literals, insert + 1, node.literals.length - insert);
+        node.literals = literals;
+        Node<V> child = new Node<>();
+        node.literalNext.add(insert, child);
+        return child;
+    }
+
+    private static <V> Node<V> classChild(Node<V> node, GlobPattern glob, int p, boolean create) {
+        long[] set = new long[4];
+        for (int b = 0; b < 256; b++) {
+            if (glob.matchOne(p, b) >= 0) {
+                set[b >>> 6] |= 1L << b;
+            }
+        }
+        if (node.classSets != null) {
+            for (int c = 0; c < node.classSets.size(); c++) {
+                if (Arrays.equals(node.classSets.get(c), set)) {
+                    return node.classNext.get(c);
+                }
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        if (node.classSets == null) {
+            node.classSets = new ArrayList<>(1);
+            node.classNext = new ArrayList<>(1);
+        }
+        Node<V> child = new Node<>();
+        node.classSets.add(set);
+        node.classNext.add(child);
+        return child;
+    }
+
+    private static <V> void unlink(Node<V> parent, Node<V> child) {
+        if (parent.star == child) {
+            parent.star = null;
+        } else if (parent.any == child) {
+            parent.any = null;
+        } else {
+            int at = parent.literalNext.indexOf(child);
+            if (at >= 0) {
+                parent.literalNext.remove(at);
+                byte[] literals = new byte[parent.literals.length - 1];
+                System.arraycopy(parent.literals, 0, literals, 0, at);
+                System.arraycopy(parent.literals, at + 1, literals, at, literals.length - at);
+                parent.literals = literals;
+                return;
+            }
+            at = parent.classNext.indexOf(child);
+            parent.classSets.remove(at);
+            parent.classNext.remove(at);
+            if (parent.classSets.isEmpty()) {
+                parent.classSets = null;
+                parent.classNext = null;
+            }
+        }
+    }
+
+    private static int indexOf(Node<?> node, byte[] pattern) {
+        if (node.patterns == null) {
+            return -1;
+        }
+        for (int i = 0; i < node.patterns.size(); i++) {
+            if (Arrays.equals(node.patterns.get(i), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,221 @@
+package dev.hithru.redis.command;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.server.ClientSession;
+
+/**
+ * PubSub
+ *
+ * One shard's subscribers: the clients of its event loop, by channel and by
+ * pattern. Clients track their own subscriptions (Subscriptions); this is
+ * the reverse index PUBLISH uses.
+ *
+ * - A message is encoded once per publish and the same read-only buffer is
+ *   queued on every subscriber's writer, each with its own position, instead
+ *   of being encoded (and copied) per subscriber. Pattern subscribers get a
+ *   pmessage, encoded once per matching pattern
+ * - Patterns live in a GlobTrie: a publish walks the channel name through the
+ *   trie once, instead of trying every pattern
+ * - A subscriber that doesn't read fast enough is disconnected once its
+ *   unsent output would pass the limit, like Redis'
+ *   client-output-buffer-limit pubsub, instead of queueing without bound
+ *
+ * Only used from the shard's thread; messages from other shards are handed
+ * over through its task queue.
+ */
+final class PubSub {
+
+    /** Default limit on a subscriber's unsent output, in bytes. */
+    static final long DEFAULT_OUTPUT_LIMIT = 32L * 1024 * 1024;
+
+    private final Map<String, Set<ClientSession>> channels = new HashMap<>();
+    // The same subscriber sets by pattern, for publishing and by name
+    private final GlobTrie<Set<ClientSession>> patternTrie = new GlobTrie<>();
+    private final Map<String, Set<ClientSession>> patterns = new HashMap<>();
+
+    // Closes a client from the handler's side
+    private final Consumer<ClientSession> closeClient;
+    private long outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+    // Set while a publish is delivering; closed once it's done
+    private final List<ClientSession> slow = new ArrayList<>();
+    private int receivers;
+
+    PubSub(Consumer<ClientSession> closeClient) {
+        this.closeClient = closeClient;
+    }
+
+    /**
+     * @param bytes unsent output a subscriber may have before it is disconnected, 0 = no limit
+     */
+    void setOutputLimit(long bytes) {
+        this.outputLimit = bytes;
+    }
+
+    /** @return false if client was already subscribed to channel */
+    boolean subscribe(ClientSession client, String channel) {
+        if (!client.subscriptions().addChannel(channel)) {
+            return false;
+        }
+        channels.computeIfAbsent(channel, c -> new LinkedHashSet<>()).add(client);
+        return true;
+    }
+
+    /** @return false if client wasn't subscribed to channel */
+    boolean unsubscribe(ClientSession client, String channel) {
+        if (!client.subscriptions().removeChannel(channel)) {
+            return false;
+        }
+        Set<ClientSession> subscribers = channels.get(channel);
+        subscribers.remove(client);
+        if (subscribers.isEmpty()) {
+            channels.remove(channel);
+        }
+        return true;
+    }
+
+    /** @return false if client was already subscribed to pattern */
+    boolean psubscribe(ClientSession client, String pattern) {
+        if (!client.subscriptions().addPattern(pattern)) {
+            return false;
+        }
+        Set<ClientSession> subscribers = patterns.get(pattern);
+        if (subscribers == null) {
+            subscribers = new LinkedHashSet<>();
+            patterns.put(pattern, subscribers);
+            patternTrie.put(pattern.getBytes(RespCommand.CHARSET), subscribers);
+        }
+        subscribers.add(client);
+        return true;
+    }
+
+    /** @return false if client wasn't subscribed to pattern */
+    boolean punsubscribe(ClientSession client, String pattern) {
+        if (!client.subscriptions().removePattern(pattern)) {
+            return false;
+        }
+        Set<ClientSession> subscribers = patterns.get(pattern);
+        subscribers.remove(client);
+        if (subscribers.isEmpty()) {
+            patterns.remove(pattern);
+            patternTrie.remove(pattern.getBytes(RespCommand.CHARSET));
+        }
+        return true;
+    }
+
+    /**
+     * Drops every subscription of client, e.g. once it disconnected.
+     */
+    void unsubscribeAll(ClientSession client) {
+        for (String channel : new ArrayList<>(client.subscriptions().channels())) {
+            unsubscribe(client, channel);
+        }
+        for (String pattern : new ArrayList<>(client.subscriptions().patterns())) {
+            punsubscribe(client, pattern);
+        }
+    }
+
+    /**
+     * Encodes the message subscribers of channel get, ready to be shared.
+     */
+    static ByteBuffer encodeMessage(String channel, String message) {
+        RespWriter encoder = new RespWriter(() -> { }, Long.MAX_VALUE);
+        encoder.writeArrayHeader(3);
+        encoder.writeBulkString("message");
+        encoder.writeBulkString(channel);
+        encoder.writeBulkString(message);
+        return encoder.drain().asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer encodePatternMessage(byte[] pattern, String channel, String message) {
+        RespWriter encoder = new RespWriter(() -> { }, Long.MAX_VALUE);
+        encoder.writeArrayHeader(4);
+        encoder.writeBulkString("pmessage");
+        encoder.writeBulkString(pattern);
+        encoder.writeBulkString(channel);
+        encoder.writeBulkString(message);
+        return encoder.drain().asReadOnlyBuffer();
+    }
+
+    /**
+     * Delivers a message to this shard's subscribers of channel and of the
+     * patterns matching it.
+     *
+     * @param encoded encodeMessage(channel, message); only read through duplicates,
+     *                so other shards may share it
+     * @return the number of clients that got it
+     */
+    int publish(String channel, String message, ByteBuffer encoded) {
+        receivers = 0;
+        Set<ClientSession> subscribers = channels.get(channel);
+        if (subscribers != null) {
+            deliver(subscribers, encoded);
+        }
+        if (!patterns.isEmpty()) {
+            patternTrie.match(channel.getBytes(RespCommand.CHARSET), (pattern, clients) ->
+                    deliver(clients, encodePatternMessage(pattern, channel, message)));
+        }
+
+        // Only now: closing a client changes the sets iterated above
+        for (ClientSession client : slow) {
+            Log.warning("Closing client {} over pub/sub output buffer limit", client.address());
+            closeClient.accept(client);
+        }
+        slow.clear();
+        return receivers;
+    }
+
+    private void deliver(Set<ClientSession> subscribers, ByteBuffer encoded) {
+        for (ClientSession client : subscribers) {
+            // Only clients that really got the message count as receivers
+            if (client.isClosed() || slow.contains(client)) {
+                continue;
+            }
+            RespWriter out = client.writer();
+            if (outputLimit > 0 && out.pendingBytes() + encoded.remaining() > outputLimit) {
+                slow.add(client);
+            } else {
+                out.appendChunk(encoded.duplicate());
+                receivers++;
+            }
+        }
+    }
+
+    /** Channels with at least one subscriber here. */
+    int channelCount() {
+        return channels.size();
+    }
+
+    /** Patterns subscribed to here. */
+    Set<String> activePatterns() {
+        return patterns.keySet();
+    }
+
+    int subscriberCount(String channel) {
+        Set<ClientSession> subscribers = channels.get(channel);
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    /**
+     * Channels with subscribers here, those matching pattern if not null.
+     */
+    List<String> activeChannels(GlobPattern pattern) {
+        List<String> names = new ArrayList<>();
+        for (String channel : channels.keySet()) {
+            if (pattern == null || pattern.matches(channel.getBytes(RespCommand.CHARSET))) {
+                names.add(channel);
+            }
+        }
+        return names;
+    }
+}
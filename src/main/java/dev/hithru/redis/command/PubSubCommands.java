@@ -0,0 +1,160 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.server.ClientSession;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The Pub/Sub commands of a SimpleCommandHandler: (P)SUBSCRIBE and
+ * (P)UNSUBSCRIBE on its own shard's PubSub, and PUBLISH and PUBSUB, which
+ * reach every shard's subscribers through the handler's onAllShards.
+ */
+final class PubSubCommands {
+
+    private final SimpleCommandHandler server;
+    private final PubSub pubSub;
+
+    PubSubCommands(SimpleCommandHandler server, PubSub pubSub) {
+        this.server = server;
+        this.pubSub = pubSub;
+    }
+
+    // SUBSCRIBE channel [channel ...] -> [subscribe, channel, subscriptions] per channel
+    void handleSubscribe(ClientSession client, List<String> args) {
+        if (refuseSubscription(client)) {
+            return;
+        }
+        for (int i = 1; i < args.size(); i++) {
+            pubSub.subscribe(client, args.get(i));
+            writeSubscription(client, "subscribe", args.get(i));
+        }
+    }
+
+    // UNSUBSCRIBE [channel ...], all channels without arguments
+    void handleUnsubscribe(ClientSession client, List<String> args) {
+        List<String> channels = args.size() > 1
+                ? args.subList(1, args.size()) : new ArrayList<>(client.subscriptions().channels());
+        if (channels.isEmpty()) {
+            writeSubscription(client, "unsubscribe", null);
+        }
+        for (String channel : channels) {
+            pubSub.unsubscribe(client, channel);
+            writeSubscription(client, "unsubscribe", channel);
+        }
+    }
+
+    // PSUBSCRIBE pattern [pattern ...] -> [psubscribe, pattern, subscriptions] per pattern
+    void handlePsubscribe(ClientSession client, List<String> args) {
+        if (refuseSubscription(client)) {
+            return;
+        }
+        for (int i = 1; i < args.size(); i++) {
+            pubSub.psubscribe(client, args.get(i));
+            writeSubscription(client, "psubscribe", args.get(i));
+        }
+    }
+
+    // PUNSUBSCRIBE [pattern ...], all patterns without arguments
+    void handlePunsubscribe(ClientSession client, List<String> args) {
+        List<String> patterns = args.size() > 1
+                ? args.subList(1, args.size()) : new ArrayList<>(client.subscriptions().patterns());
+        if (patterns.isEmpty()) {
+            writeSubscription(client, "punsubscribe", null);
+        }
+        for (String pattern : patterns) {
+            pubSub.punsubscribe(client, pattern);
+            writeSubscription(client, "punsubscribe", pattern);
+        }
+    }
+
+    // Messages are pushed to the client's socket by its own event loop; a
+    // thread-per-connection client only gets replies to what it sent
+    private static boolean refuseSubscription(ClientSession client) {
+        if (client.getChannel() != null) {
+            return false;
+        }
+        client.writer().writeError("ERR Pub/Sub subscriptions need --server-mode reactor");
+        return true;
+    }
+
+    private static void writeSubscription(ClientSession client, String kind, String name) {
+        RespWriter out = client.writer();
+        out.writeArrayHeader(3);
+        out.writeBulkString(kind);
+        if (name == null) {
+            out.writeNullBulkString();
+        } else {
+            out.writeBulkString(name);
+        }
+        out.writeInteger(client.subscriptions().count());
+    }
+
+    // PUBLISH channel message -> number of clients that got it, on all shards
+    void handlePublish(ClientSession client, List<String> args) {
+        String channel = args.get(1);
+        String message = args.get(2);
+        // Encoded once, shared by every subscriber of every shard
+        ByteBuffer encoded = PubSub.encodeMessage(channel, message);
+        server.onAllShards(client, shard -> shard.pubSub.publish(channel, message, encoded),
+                (out, counts) -> out.writeInteger(counts.stream().mapToLong(Integer::longValue).sum()));
+    }
+
+    // PUBSUB CHANNELS [pattern] | NUMSUB [channel ...] | NUMPAT, over all shards
+    void handlePubsub(ClientSession client, List<String> args) {
+        RespWriter out = client.writer();
+        switch (args.get(1).toLowerCase(Locale.ROOT)) {
+            case "channels" -> {
+                if (args.size() > 3) {
+                    out.writeError("ERR wrong number of arguments for 'pubsub|channels' command");
+                    return;
+                }
+                GlobPattern pattern = args.size() == 3 ? GlobPattern.compile(args.get(2)) : null;
+                server.onAllShards(client, shard -> shard.pubSub.activeChannels(pattern), (o, lists) -> {
+                    Set<String> channels = new LinkedHashSet<>();
+                    lists.forEach(channels::addAll);
+                    o.writeArrayOfBulkStrings(new ArrayList<>(channels));
+                });
+            }
+            case "numsub" -> {
+                List<String> channels = List.copyOf(args.subList(2, args.size()));
+                server.onAllShards(client, shard -> {
+                    long[] counts = new long[channels.size()];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = shard.pubSub.subscriberCount(channels.get(i));
+                    }
+                    return counts;
+                }, (o, results) -> {
+                    o.writeArrayHeader(2 * channels.size());
+                    for (int i = 0; i < channels.size(); i++) {
+                        long total = 0;
+                        for (long[] counts : results) {
+                            total += counts[i];
+                        }
+                        o.writeBulkString(channels.get(i));
+                        o.writeInteger(total);
+                    }
+                });
+            }
+            case "numpat" -> {
+                if (args.size() != 2) {
+                    out.writeError("ERR wrong number of arguments for 'pubsub|numpat' command");
+                    return;
+                }
+                // Distinct patterns: the same one may be subscribed to on several shards
+                server.onAllShards(client, shard -> List.copyOf(shard.pubSub.activePatterns()), (o, lists) -> {
+                    Set<String> patterns = new HashSet<>();
+                    lists.forEach(patterns::addAll);
+                    o.writeInteger(patterns.size());
+                });
+            }
+            default -> out.writeError("ERR unknown subcommand '" + args.get(1) + "'. Try PUBSUB HELP.");
+        }
+    }
+}
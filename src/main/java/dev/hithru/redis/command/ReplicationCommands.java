@@ -0,0 +1,214 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.replication.ReplicationLink;
+import dev.hithru.redis.replication.ReplicationSource;
+import dev.hithru.redis.server.ClientSession;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Replication for a SimpleCommandHandler: its side as a primary (the
+ * ReplicationSource that PSYNC / REPLCONF talk to and every write is fed
+ * to) and as a replica (the ReplicationLink to its primary, whose commands
+ * run through the handler), with REPLICAOF and ROLE. Off until configure().
+ */
+final class ReplicationCommands {
+
+    private final SimpleCommandHandler server;
+
+    // null = not configured
+    private ReplicationSource replication;
+    private Path replicationDir;
+    private int listeningPort;
+    // Set while this server is a replica: it then refuses writes from clients
+    private ReplicationLink primaryLink;
+    private Executor loop;
+
+    ReplicationCommands(SimpleCommandHandler server) {
+        this.server = server;
+    }
+
+    void configure(Path dir, int backlogSize, int listeningPort) {
+        this.replicationDir = dir;
+        this.listeningPort = listeningPort;
+        this.replication = new ReplicationSource(dir, backlogSize, server::snapshot, server::closeClient);
+    }
+
+    boolean isEnabled() {
+        return replication != null;
+    }
+
+    boolean isReplica() {
+        return primaryLink != null;
+    }
+
+    // Connects to the primary, if any, once the handler has its event loop
+    void start(Executor loop) {
+        this.loop = loop;
+        if (primaryLink != null) {
+            primaryLink.start();
+        }
+    }
+
+    // Becomes a replica of host:port, or a primary again if host is null
+    void replicaOf(String host, int port) {
+        if (primaryLink != null) {
+            primaryLink.stop();
+            primaryLink = null;
+        }
+        if (host == null) {
+            // Keeps the data; replicas of this server start a new history with it
+            replication.reset();
+            return;
+        }
+        primaryLink = new ReplicationLink(host, port, listeningPort, replicationDir, task -> loop.execute(task),
+                new ReplicationLink.Target() {
+                    @Override
+                    public void loadFullSync(Path file) throws IOException {
+                        // Replicas of this server have to resync too
+                        replication.reset();
+                        server.loadFromPrimary(file);
+                    }
+
+                    @Override
+                    public void apply(List<RespCommand> commands) throws IOException {
+                        for (RespCommand command : commands) {
+                            server.handleCommand(server.primarySession, command);
+                        }
+                    }
+                });
+        if (loop != null) {
+            primaryLink.start();
+        }
+    }
+
+    void disconnected(ClientSession client) {
+        if (replication != null) {
+            replication.disconnected(client);
+        }
+    }
+
+    // A write to send to the replicas
+    void propagate(List<String> args) {
+        if (replication != null) {
+            replication.propagate(args);
+        }
+    }
+
+    void onTick(long now) {
+        if (replication != null) {
+            replication.onTick(now);
+        }
+    }
+
+    boolean hasPeriodicWork() {
+        return replication != null && replication.hasPeriodicWork();
+    }
+
+    // INFO replication
+    void appendInfo(StringBuilder info) {
+        info.append("role:").append(primaryLink == null ? "master" : "slave").append("\r\n");
+        if (primaryLink != null) {
+            primaryLink.appendInfo(info);
+        }
+        if (replication != null) {
+            replication.appendInfo(info);
+        }
+    }
+
+    // INFO stats' full and partial resync counts
+    void appendStats(StringBuilder info) {
+        if (replication != null) {
+            info.append("sync_full:").append(replication.getFullSyncs()).append("\r\n")
+                    .append("sync_partial_ok:").append(replication.getPartialSyncs()).append("\r\n")
+                    .append("sync_partial_err:").append(replication.getRefusedPartialSyncs()).append("\r\n");
+        }
+    }
+
+    // REPLICAOF host port | NO ONE
+    void handleReplicaof(RespWriter out, List<String> args) {
+        if (replication == null) {
+            out.writeError("ERR replication needs --io-threads 1");
+            return;
+        }
+        if (args.get(1).equalsIgnoreCase("no") && args.get(2).equalsIgnoreCase("one")) {
+            if (primaryLink != null) {
+                Log.notice("Stopped replicating {}:{}, now a primary", primaryLink.host(), primaryLink.port());
+                replicaOf(null, 0);
+            }
+            out.writeSimpleString("OK");
+            return;
+        }
+
+        int port;
+        try {
+            port = Integer.parseInt(args.get(2));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR Invalid master port");
+            return;
+        }
+        if (primaryLink != null && primaryLink.host().equals(args.get(1)) && primaryLink.port() == port) {
+            out.writeSimpleString("OK Already connected to specified master");
+            return;
+        }
+        replicaOf(args.get(1), port);
+        out.writeSimpleString("OK");
+    }
+
+    // PSYNC replid offset, sent by a replica
+    void handlePsync(ClientSession client, RespCommand args) {
+        if (replication == null) {
+            client.writer().writeError("ERR replication needs --io-threads 1");
+            return;
+        }
+        if (primaryLink != null && !primaryLink.isUp()) {
+            client.writer().writeError("NOMASTERLINK Can't SYNC while not connected with my master");
+            return;
+        }
+        long offset;
+        try {
+            offset = Long.parseLong(args.get(2));
+        } catch (NumberFormatException e) {
+            client.writer().writeError("ERR value is not an integer or out of range");
+            return;
+        }
+        replication.psync(client, args.get(1), offset);
+    }
+
+    void handleReplconf(ClientSession client, RespCommand args) {
+        if (replication == null) {
+            client.writer().writeError("ERR replication needs --io-threads 1");
+            return;
+        }
+        replication.replconf(client, args, client.writer());
+    }
+
+    void handleRole(RespWriter out) {
+        if (primaryLink != null) {
+            out.writeArrayHeader(5);
+            out.writeBulkString("slave");
+            out.writeBulkString(primaryLink.host());
+            out.writeInteger(primaryLink.port());
+            out.writeBulkString(primaryLink.isSyncing() ? "sync" : primaryLink.isUp() ? "connected" : "connect");
+            out.writeInteger(primaryLink.offset());
+            return;
+        }
+        List<String[]> replicas = replication == null ? List.of() : replication.replicaRoles();
+        out.writeArrayHeader(3);
+        out.writeBulkString("master");
+        out.writeInteger(replication == null ? 0 : replication.offset());
+        out.writeArrayHeader(replicas.size());
+        for (String[] replica : replicas) {
+            out.writeArrayHeader(3);
+            out.writeBulkString(replica[0]);
+            out.writeBulkString(replica[1]);
+            out.writeBulkString(replica[2]);
+        }
+    }
+}
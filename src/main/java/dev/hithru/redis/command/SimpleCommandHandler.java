@@ -1,99 +1,810 @@
 package dev.hithru.redis.command;
 
+import dev.hithru.redis.cluster.ClusterState;
+import dev.hithru.redis.persistence.AppendOnlyFile;
+import dev.hithru.redis.persistence.DatasetSnapshot;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.persistence.SnapshotFile;
+import dev.hithru.redis.persistence.SnapshotSaver;
+import dev.hithru.redis.persistence.SnapshotVisitor;
+import dev.hithru.redis.protocol.RespCommand;
 import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.server.KeySlot;
+import dev.hithru.redis.server.MultiState;
 import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.KeyValueSnapshot;
+import dev.hithru.redis.store.ValueType;
+import dev.hithru.redis.store.WrongTypeException;
+import dev.hithru.redis.store.eviction.EvictionPolicy;
+import dev.hithru.redis.store.eviction.Evictor;
+import dev.hithru.redis.store.hash.InMemoryHashStore;
 import dev.hithru.redis.store.list.InMemoryListStore;
+import dev.hithru.redis.store.set.InMemorySetStore;
+import dev.hithru.redis.store.stream.InMemoryStreamStore;
+import dev.hithru.redis.store.stream.StreamEntry;
+import dev.hithru.redis.store.zset.InMemorySortedSetStore;
+import dev.hithru.redis.store.zset.ScoreRange;
+import dev.hithru.redis.store.zset.ScoredMember;
 
 import java.io.IOException;
-import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class SimpleCommandHandler implements CommandHandler {
 
+    // Time the active expiry cycle may take per run
+    private static final long ACTIVE_EXPIRE_BUDGET_NANOS = 1_000_000;
+    // Period of the cron (cluster gossip, replica pings, idle rehashing...),
+    // only scheduled while there is such work; 10 Hz like Redis' default hz
+    private static final long CRON_INTERVAL_MS = 100;
+    // Time finishing an incremental rehash of the keyspace may take per tick
+    private static final long REHASH_BUDGET_NANOS = 100_000;
+    // Time a running KEYS may take per tick, and keys it collects between clock checks
+    private static final long KEYS_BUDGET_NANOS = 1_000_000;
+    private static final int KEYS_STEP_COUNT = 256;
+
+    // Deadline of a client blocked without a timeout
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // SCAN's default COUNT, like Redis
+    private static final int SCAN_DEFAULT_COUNT = 10;
+
+    /** Default slowlog-log-slower-than, in microseconds. */
+    public static final long DEFAULT_SLOWLOG_SLOWER_THAN = SlowLog.DEFAULT_THRESHOLD_USEC;
+    /** Default slowlog-max-len. */
+    public static final int DEFAULT_SLOWLOG_MAX_LEN = SlowLog.DEFAULT_MAX_LENGTH;
+    /** Default client-output-buffer-limit for Pub/Sub subscribers, in bytes. */
+    public static final long DEFAULT_PUBSUB_OUTPUT_LIMIT = PubSub.DEFAULT_OUTPUT_LIMIT;
+
+    // Percentiles reported by INFO latencystats
+    private static final double[] LATENCY_PERCENTILES = { 50, 99, 99.9 };
+
+    // The keyspace, holding keys of every type; the type stores work on its values
     private final InMemoryKeyValueStore store = new InMemoryKeyValueStore();
-    private final InMemoryListStore listStore = new InMemoryListStore();
+    private final InMemoryListStore listStore = new InMemoryListStore(store);
+    private final InMemoryHashStore hashStore = new InMemoryHashStore(store);
+    private final InMemorySetStore setStore = new InMemorySetStore(store);
+    private final InMemorySortedSetStore zsetStore = new InMemorySortedSetStore(store);
+    private final InMemoryStreamStore streamStore = new InMemoryStreamStore(store);
+    private final StreamCommands streams = new StreamCommands(this, streamStore);
+    private final Evictor evictor;
+
+    private final CommandTable commands = new CommandTable();
+    private final SlowLog slowLog = new SlowLog();
+
+    // Stats of this shard's event loop and clients, for INFO
+    private final long startTimeMs = System.currentTimeMillis();
+    private final LatencyHistogram loopCycles = new LatencyHistogram();
+    private long loopCycleNanos;
+    private int connectedClients;
+    private long totalConnections;
+
+    // Clients blocked on lists and streams: FIFO per key, and by connection
+    // for disconnects; those with a timeout also have a timer
+    private final Map<String, Set<BlockedClient>> blockedByKey = new HashMap<>();
+    private final Map<ClientSession, BlockedClient> blockedByClient = new HashMap<>();
+    // Lists and streams with blocked clients added to by the running command
+    private final Set<String> readyKeys = new LinkedHashSet<>();
+    // Blocked clients that got their reply; resumed at the end of the tick
+    private final Deque<ClientSession> unblocked = new ArrayDeque<>();
+
+    // Subscribers among this loop's clients, by channel and pattern
+    final PubSub pubSub = new PubSub(this::closeClient);
+    private final PubSubCommands pubSubCommands = new PubSubCommands(this, pubSub);
+    // The other shards, which PUBLISH also delivers to; empty with a single shard
+    private List<SimpleCommandHandler> peers = List.of();
+
+    // KEYS commands still walking the keyspace; their clients are paused
+    private final List<KeysJob> keysJobs = new ArrayList<>();
+
+    // Set while EXEC runs a transaction, and once it logged its MULTI
+    private boolean inExec;
+    private boolean execLogged;
+
+    // Write commands are logged here; null = persistence off
+    private AppendOnlyFile aof;
+
+    // Shared by all shards for SAVE / BGSAVE; null = snapshots off
+    private SnapshotSaver snapshotSaver;
+    private int shardIndex;
+
+    // Runs commands replayed from disk; their replies are dropped
+    private final ClientSession replaySession = new ClientSession(null, session -> { }, 0);
+
+    // Replication, only with a single shard
+    private final ReplicationCommands replication = new ReplicationCommands(this);
+    // Runs the commands received from the primary
+    final ClientSession primarySession = new ClientSession(null, session -> { }, 0);
+    private Executor loop;
+
+    // The event loop's timers; a private set until the handler is attached
+    private Timers timers = new Timers();
+    // Due at the earliest key TTL, and the next cron run; null = not scheduled
+    private Timers.Timer expiryTimer;
+    private Timers.Timer cronTimer;
+
+    // Cluster mode, only with a single shard
+    private final ClusterCommands cluster =
+            new ClusterCommands(this, store, listStore, hashStore, setStore, zsetStore, streamStore);
+
+    public SimpleCommandHandler() {
+        this(0, EvictionPolicy.NOEVICTION, Evictor.DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param maxMemory estimated bytes this handler's stores may use, 0 = unlimited
+     */
+    public SimpleCommandHandler(long maxMemory, EvictionPolicy policy, int samples) {
+        store.setEvictionPolicy(policy);
+        // An evicted key is deleted on replicas and in the AOF too
+        this.evictor = new Evictor(maxMemory, policy, samples, List.of(store),
+                key -> propagate(List.of("DEL", key)));
+        registerCommands();
+    }
+
+    private void registerCommands() {
+        int write = CommandSpec.WRITE;
+        int grow = CommandSpec.WRITE | CommandSpec.DENYOOM;
+        int read = CommandSpec.READONLY;
+        int fast = CommandSpec.FAST;
+        int admin = CommandSpec.ADMIN;
+
+        // name, arity, flags, first key, last key, key step
+        command("ping", -1, fast, 0, 0, 0, this::handlePing);
+        command("echo", 2, fast, 0, 0, 0, (c, a) -> handleEcho(c.writer(), a));
+        command("command", -1, 0, 0, 0, 0, (c, a) -> handleCommandCommand(c.writer(), a));
+        command("info", -1, 0, 0, 0, 0, (c, a) -> handleInfo(c.writer(), a));
+        command("slowlog", -2, admin, 0, 0, 0, (c, a) -> handleSlowlog(c.writer(), a));
+        command("latency", -2, admin, 0, 0, 0, (c, a) -> handleLatency(c.writer(), a));
+        command("config", -2, admin, 0, 0, 0, (c, a) -> handleConfig(c.writer(), a));
+        command("replicaof", 3, admin, 0, 0, 0, (c, a) -> replication.handleReplicaof(c.writer(), a));
+        command("slaveof", 3, admin, 0, 0, 0, (c, a) -> replication.handleReplicaof(c.writer(), a));
+        command("psync", 3, admin, 0, 0, 0, replication::handlePsync);
+        command("replconf", -1, admin, 0, 0, 0, replication::handleReplconf);
+        command("role", 1, fast, 0, 0, 0, (c, a) -> replication.handleRole(c.writer()));
+        command("cluster", -2, admin, 0, 0, 0, cluster::handleCluster);
+        command("asking", 1, fast, 0, 0, 0, cluster::handleAsking);
+        command("dump", 2, read, 1, 1, 1, (c, a) -> cluster.handleDump(c.writer(), a));
+        command("restore", -4, grow, 1, 1, 1, (c, a) -> cluster.handleRestore(c.writer(), a));
+        command("restore-asking", -4, grow | CommandSpec.ASKING, 1, 1, 1, (c, a) -> cluster.handleRestore(c.writer(), a));
+        command("migrate", -6, write, 0, 0, 0, (c, a) -> cluster.handleMigrate(c.writer(), a));
+
+        int pubsub = CommandSpec.PUBSUB;
+        int subscribe = pubsub | CommandSpec.NO_MULTI;
+        command("subscribe", -2, subscribe, 0, 0, 0, pubSubCommands::handleSubscribe);
+        command("unsubscribe", -1, subscribe, 0, 0, 0, pubSubCommands::handleUnsubscribe);
+        command("psubscribe", -2, subscribe, 0, 0, 0, pubSubCommands::handlePsubscribe);
+        command("punsubscribe", -1, subscribe, 0, 0, 0, pubSubCommands::handlePunsubscribe);
+        command("publish", 3, pubsub | fast, 0, 0, 0, pubSubCommands::handlePublish);
+        command("pubsub", -2, pubsub, 0, 0, 0, pubSubCommands::handlePubsub);
+
+        command("multi", 1, fast, 0, 0, 0, (c, a) -> handleMulti(c));
+        command("exec", 1, 0, 0, 0, 0, (c, a) -> handleExec(c));
+        command("discard", 1, fast, 0, 0, 0, (c, a) -> handleDiscard(c));
+        command("watch", -2, fast, 1, -1, 1, this::handleWatch);
+        command("unwatch", 1, fast, 0, 0, 0, (c, a) -> handleUnwatch(c));
+
+        command("get", 2, read | fast, 1, 1, 1, (c, a) -> handleGet(c.writer(), a));
+        command("set", -3, grow, 1, 1, 1, (c, a) -> handleSet(c.writer(), a));
+
+        command("del", -2, write, 1, -1, 1, (c, a) -> handleDel(c.writer(), a));
+        command("exists", -2, read | fast, 1, -1, 1, (c, a) -> handleExists(c.writer(), a));
+        command("type", 2, read | fast, 1, 1, 1, (c, a) -> handleType(c.writer(), a));
+        command("expire", 3, write | fast, 1, 1, 1, (c, a) -> handleExpire(c.writer(), a, 1000, false));
+        command("pexpire", 3, write | fast, 1, 1, 1, (c, a) -> handleExpire(c.writer(), a, 1, false));
+        command("expireat", 3, write | fast, 1, 1, 1, (c, a) -> handleExpire(c.writer(), a, 1000, true));
+        command("pexpireat", 3, write | fast, 1, 1, 1, (c, a) -> handleExpire(c.writer(), a, 1, true));
+        command("ttl", 2, read | fast, 1, 1, 1, (c, a) -> handleTtl(c.writer(), a, 1000));
+        command("pttl", 2, read | fast, 1, 1, 1, (c, a) -> handleTtl(c.writer(), a, 1));
+        command("persist", 2, write | fast, 1, 1, 1, (c, a) -> handlePersist(c.writer(), a));
+        command("object", -2, read, 2, 2, 1, (c, a) -> handleObject(c.writer(), a));
+        command("scan", -2, read, 0, 0, 0, (c, a) -> handleScan(c.writer(), a));
+        command("keys", 2, read, 0, 0, 0, this::handleKeys);
+
+        command("rpush", -3, grow | fast, 1, 1, 1, (c, a) -> handleRpush(c.writer(), a));
+        command("lpush", -3, grow | fast, 1, 1, 1, (c, a) -> handleLpush(c.writer(), a));
+        command("lrange", 4, read, 1, 1, 1, (c, a) -> handleLrange(c.writer(), a));
+        command("llen", 2, read | fast, 1, 1, 1, (c, a) -> handleLlen(c.writer(), a));
+        command("lpop", -2, write | fast, 1, 1, 1, (c, a) -> handlePop(c.writer(), a, true));
+        command("rpop", -2, write | fast, 1, 1, 1, (c, a) -> handlePop(c.writer(), a, false));
+        command("lmove", 5, grow, 1, 2, 1, (c, a) -> handleLmove(c.writer(), a));
+        command("rpoplpush", 3, grow, 1, 2, 1, (c, a) -> handleLmove(c.writer(), a));
+        command("blpop", -3, write | CommandSpec.BLOCKING, 1, -2, 1, (c, a) -> handleBlockingPop(c, a, true));
+        command("brpop", -3, write | CommandSpec.BLOCKING, 1, -2, 1, (c, a) -> handleBlockingPop(c, a, false));
+        command("blmove", 6, grow | CommandSpec.BLOCKING, 1, 2, 1, this::handleBlmove);
+        command("brpoplpush", 4, grow | CommandSpec.BLOCKING, 1, 2, 1, this::handleBlmove);
+
+        command("hset", -4, grow | fast, 1, 1, 1, (c, a) -> handleHset(c.writer(), a));
+        command("hget", 3, read | fast, 1, 1, 1, (c, a) -> handleHget(c.writer(), a));
+        command("hdel", -3, write | fast, 1, 1, 1, (c, a) -> handleHdel(c.writer(), a));
+        command("hgetall", 2, read, 1, 1, 1, (c, a) -> handleHgetall(c.writer(), a));
+
+        command("sadd", -3, grow | fast, 1, 1, 1, (c, a) -> handleSadd(c.writer(), a));
+        command("srem", -3, write | fast, 1, 1, 1, (c, a) -> handleSrem(c.writer(), a));
+        command("sismember", 3, read | fast, 1, 1, 1, (c, a) -> handleSismember(c.writer(), a));
+        command("smembers", 2, read, 1, 1, 1, (c, a) -> handleSmembers(c.writer(), a));
+
+        command("zadd", -4, grow | fast, 1, 1, 1, (c, a) -> handleZadd(c.writer(), a));
+        command("zrem", -3, write | fast, 1, 1, 1, (c, a) -> handleZrem(c.writer(), a));
+        command("zscore", 3, read | fast, 1, 1, 1, (c, a) -> handleZscore(c.writer(), a));
+        command("zcard", 2, read | fast, 1, 1, 1, (c, a) -> handleZcard(c.writer(), a));
+        command("zrank", 3, read | fast, 1, 1, 1, (c, a) -> handleZrank(c.writer(), a));
+        command("zrange", -4, read, 1, 1, 1, (c, a) -> handleZrange(c.writer(), a));
+        command("zrangebyscore", -4, read, 1, 1, 1, (c, a) -> handleZrangeByScore(c.writer(), a));
+
+        int movable = CommandSpec.MOVABLE_KEYS;
+        command("xadd", -5, grow | fast, 1, 1, 1, (c, a) -> streams.handleXadd(c.writer(), a));
+        command("xrange", -4, read, 1, 1, 1, (c, a) -> streams.handleXrange(c.writer(), a, false));
+        command("xrevrange", -4, read, 1, 1, 1, (c, a) -> streams.handleXrange(c.writer(), a, true));
+        command("xlen", 2, read | fast, 1, 1, 1, (c, a) -> streams.handleXlen(c.writer(), a));
+        command("xtrim", -4, write, 1, 1, 1, (c, a) -> streams.handleXtrim(c.writer(), a));
+        command("xdel", -3, write | fast, 1, 1, 1, (c, a) -> streams.handleXdel(c.writer(), a));
+        command("xsetid", 3, write | fast, 1, 1, 1, (c, a) -> streams.handleXsetid(c.writer(), a));
+        command("xread", -4, read | CommandSpec.BLOCKING | movable, 0, 0, 0, (c, a) -> streams.handleXread(c, a, false));
+        command("xreadgroup", -7, write | CommandSpec.BLOCKING | movable, 0, 0, 0, (c, a) -> streams.handleXread(c, a, true));
+        command("xgroup", -2, write, 2, 2, 1, (c, a) -> streams.handleXgroup(c.writer(), a));
+        command("xack", -4, write | fast, 1, 1, 1, (c, a) -> streams.handleXack(c.writer(), a));
+        command("xpending", -3, read, 1, 1, 1, (c, a) -> streams.handleXpending(c.writer(), a));
+        command("xclaim", -6, write | fast, 1, 1, 1, (c, a) -> streams.handleXclaim(c.writer(), a));
+
+        command("bgrewriteaof", 1, admin, 0, 0, 0, (c, a) -> handleBgrewriteaof(c.writer()));
+        command("save", 1, admin, 0, 0, 0, (c, a) -> handleSave(c.writer(), false));
+        command("bgsave", 1, admin, 0, 0, 0, (c, a) -> handleSave(c.writer(), true));
+        command("lastsave", 1, fast, 0, 0, 0, (c, a) -> handleLastsave(c.writer()));
+    }
+
+    private void command(String name, int arity, int flags, int firstKey, int lastKey, int keyStep,
+                         CommandSpec.Action action) {
+        commands.add(new CommandSpec(name, arity, flags, firstKey, lastKey, keyStep, action));
+    }
+
+    /**
+     * Keeps string values of at least minValueSize bytes in off-heap memory.
+     */
+    public void enableOffHeapValues(int minValueSize) {
+        store.enableOffHeapValues(minValueSize);
+    }
+
+    /**
+     * Hashes with more fields, or a longer field or value, leave the compact encoding.
+     */
+    public void setHashListpackLimits(int maxEntries, int maxValue) {
+        hashStore.setListpackLimits(maxEntries, maxValue);
+    }
+
+    /**
+     * Sets with more members, or a longer member, leave the compact encoding.
+     */
+    public void setSetListpackLimits(int maxEntries, int maxValue) {
+        setStore.setListpackLimits(maxEntries, maxValue);
+    }
+
+    /**
+     * Sorted sets with more members, or a longer member, leave the compact encoding.
+     */
+    public void setZsetListpackLimits(int maxEntries, int maxValue) {
+        zsetStore.setListpackLimits(maxEntries, maxValue);
+    }
+
+    /**
+     * @param slowerThanUsec log commands that take longer; negative disables the slow log
+     * @param maxLen         number of slow log entries kept
+     */
+    public void setSlowlog(long slowerThanUsec, int maxLen) {
+        slowLog.configure(slowerThanUsec, maxLen);
+    }
+
+    /**
+     * @param bytes unsent output a Pub/Sub subscriber may have before it is
+     *              disconnected, 0 = no limit
+     */
+    public void setPubSubOutputLimit(long bytes) {
+        pubSub.setOutputLimit(bytes);
+    }
+
+    /**
+     * Tells this shard about all of them, so PUBLISH reaches the subscribers
+     * connected to the other event loops too.
+     */
+    public void setShards(List<SimpleCommandHandler> shards) {
+        List<SimpleCommandHandler> others = new ArrayList<>(shards);
+        others.remove(this);
+        this.peers = List.copyOf(others);
+    }
+
+    /**
+     * Enables REPLICAOF / PSYNC. Only for a server with a single shard: a
+     * full resync needs one snapshot matching one offset of the stream.
+     *
+     * @param dir           where snapshots for full resyncs are kept while sent or received
+     * @param listeningPort this server's port, reported to a primary
+     */
+    public void configureReplication(Path dir, int backlogSize, int listeningPort) {
+        replication.configure(dir, backlogSize, listeningPort);
+    }
+
+    /**
+     * Becomes a replica of host:port, or a primary again if host is null.
+     * Connects once the handler is attached to its event loop.
+     */
+    public void replicaOf(String host, int port) {
+        replication.replicaOf(host, port);
+    }
+
+    /**
+     * Serves only the hash slots the cluster assigns to this node, and
+     * redirects clients to the right node for the others. Only for a server
+     * with a single shard. The bus starts once the handler is attached.
+     */
+    public void enableCluster(ClusterState cluster) {
+        this.cluster.enable(cluster);
+    }
+
+    @Override
+    public void attach(Executor loop, Timers timers) {
+        this.loop = loop;
+        this.timers = timers;
+        if (snapshotSaver != null) {
+            // Another shard started a SAVE / BGSAVE
+            snapshotSaver.onSnapshotWanted(shardIndex, () -> loop.execute(this::submitSnapshot));
+        }
+        replication.start(loop);
+        cluster.start(loop);
+    }
+
+    /**
+     * Logs every write from now on. Attach after replaying the existing file.
+     */
+    public void setAppendOnlyFile(AppendOnlyFile aof) {
+        this.aof = aof;
+    }
+
+    /**
+     * @param shardIndex this handler's position among the shards
+     */
+    public void setSnapshotSaver(SnapshotSaver snapshotSaver, int shardIndex) {
+        this.snapshotSaver = snapshotSaver;
+        this.shardIndex = shardIndex;
+    }
+
+    /**
+     * Inserts keys read from a snapshot file. Not logged to the AOF.
+     */
+    public SnapshotVisitor loader() {
+        return new SnapshotVisitor() {
+            @Override
+            public void string(String key, String value, Long expireAtMs) {
+                store.set(key, value, expireAtMs);
+            }
+
+            @Override
+            public void list(String key, Iterable<String> items, Long expireAtMs) {
+                listStore.rpush(key, toList(items));
+                loadExpiry(key, expireAtMs);
+            }
+
+            @Override
+            public void hash(String key, Iterable<String> fieldsAndValues, Long expireAtMs) {
+                hashStore.hset(key, toList(fieldsAndValues));
+                loadExpiry(key, expireAtMs);
+            }
+
+            @Override
+            public void set(String key, Iterable<String> members, Long expireAtMs) {
+                setStore.sadd(key, toList(members));
+                loadExpiry(key, expireAtMs);
+            }
+
+            @Override
+            public void zset(String key, Iterable<String> membersAndScores, Long expireAtMs) {
+                List<String> flat = toList(membersAndScores);
+                double[] scores = new double[flat.size() / 2];
+                List<String> members = new ArrayList<>(scores.length);
+                for (int i = 0; i < scores.length; i++) {
+                    members.add(flat.get(2 * i));
+                    scores[i] = InMemorySortedSetStore.parseScore(flat.get(2 * i + 1));
+                }
+                zsetStore.zadd(key, scores, members, false, false, false);
+                loadExpiry(key, expireAtMs);
+            }
+
+            @Override
+            public void stream(String key, Iterable<String> items, Long expireAtMs) {
+                streamStore.restore(key, items);
+                loadExpiry(key, expireAtMs);
+            }
+
+            private void loadExpiry(String key, Long expireAtMs) {
+                if (expireAtMs != null) {
+                    store.expire(key, expireAtMs, System.currentTimeMillis());
+                }
+            }
+        };
+    }
+
+    /**
+     * Re-executes a command read back from disk.
+     */
+    public void replay(RespCommand command) throws IOException {
+        handleCommand(replaySession, command);
+    }
+
+    /**
+     * Ends a replay. Drops the transaction of a file that ended between
+     * MULTI and EXEC (cut back to its MULTI on load), which would otherwise
+     * swallow every command replayed or run through this session later.
+     */
+    public void finishReplay() {
+        replaySession.multiState().end();
+    }
+
+    /**
+     * Point-in-time copy of this shard's data, for a rewrite or snapshot
+     * written by another thread.
+     */
+    public DatasetSnapshot snapshot() {
+        KeyValueSnapshot keys = store.snapshot();
+        return new DatasetSnapshot() {
+            @Override
+            public void accept(SnapshotVisitor visitor) throws IOException {
+                for (int i = 0; i < keys.slots(); i++) {
+                    byte[] rawKey = keys.key(i);
+                    if (rawKey == null) {
+                        continue;
+                    }
+                    String key = new String(rawKey, RespCommand.CHARSET);
+                    long deadline = keys.expireAtMs(i);
+                    Long expireAtMs = deadline == InMemoryKeyValueStore.NO_EXPIRY ? null : deadline;
+                    switch (keys.type(i)) {
+                        case STRING -> visitor.string(key, new String(keys.value(i), RespCommand.CHARSET), expireAtMs);
+                        case LIST -> visitor.list(key, keys.items(i), expireAtMs);
+                        case HASH -> visitor.hash(key, keys.items(i), expireAtMs);
+                        case SET -> visitor.set(key, keys.items(i), expireAtMs);
+                        case ZSET -> visitor.zset(key, keys.items(i), expireAtMs);
+                        case STREAM -> visitor.stream(key, keys.items(i), expireAtMs);
+                    }
+                }
+            }
+
+            @Override
+            public void release() {
+                // Lets the off-heap arena reuse memory freed since the snapshot
+                keys.release();
+            }
+        };
+    }
 
-    private final Map<String, Deque<BlpopWaiter>> blpopWaiters = new HashMap<>();
+    /**
+     * A client waiting in BLPOP / BRPOP (destination null) or BLMOVE /
+     * BRPOPLPUSH for an element on one of its keys, or in XREAD /
+     * XREADGROUP ... BLOCK (streamRead set) for entries on one of them.
+     */
+    private static final class BlockedClient {
+        final ClientSession client;
+        final List<String> keys;
+        final boolean fromLeft;
+        final String destination;
+        final boolean toLeft;
+        final StreamCommands.StreamRead streamRead;
+        final long deadline;
+        Timers.Timer timeout; // null = waits forever
+
+        BlockedClient(ClientSession client, List<String> keys, boolean fromLeft,
+                      String destination, boolean toLeft, long deadline) {
+            this(client, keys, fromLeft, destination, toLeft, null, deadline);
+        }
+
+        BlockedClient(ClientSession client, List<String> keys, StreamCommands.StreamRead streamRead, long deadline) {
+            this(client, keys, false, null, false, streamRead, deadline);
+        }
 
+        private BlockedClient(ClientSession client, List<String> keys, boolean fromLeft, String destination,
+                              boolean toLeft, StreamCommands.StreamRead streamRead, long deadline) {
+            this.deadline = deadline;
+            this.client = client;
+            this.keys = keys;
+            this.fromLeft = fromLeft;
+            this.destination = destination;
+            this.toLeft = toLeft;
+            this.streamRead = streamRead;
+        }
+    }
 
-    private static class BlpopWaiter {
-        final SocketChannel channel;
-        final Long deadlineMillis; // null = infinite wait
+    /**
+     * A KEYS command in progress. A set, since a key can come up twice when
+     * the keyspace shrinks between two steps of the walk.
+     */
+    private static final class KeysJob implements Consumer<byte[]> {
+        final ClientSession client;
+        final GlobPattern pattern; // null = every key
+        final Set<String> keys = new LinkedHashSet<>();
+        long cursor;
+
+        KeysJob(ClientSession client, GlobPattern pattern) {
+            this.client = client;
+            this.pattern = pattern.matchesAll() ? null : pattern;
+        }
 
-        BlpopWaiter(SocketChannel channel, Long deadlineMillis) {
-            this.channel = channel;
-            this.deadlineMillis = deadlineMillis;
+        @Override
+        public void accept(byte[] key) {
+            if (pattern == null || pattern.matches(key)) {
+                keys.add(new String(key, RespCommand.CHARSET));
+            }
         }
     }
 
     @Override
-    public void handleCommand(SocketChannel clientChannel, List<String> commandArgs) throws IOException {
+    public void handleCommand(ClientSession client, RespCommand commandArgs) throws IOException {
+        RespWriter out = client.writer();
         if (commandArgs == null || commandArgs.isEmpty()) {
-            RespWriter.writeError(clientChannel, "ERR empty command");
+            out.writeError("ERR empty command");
+            return;
+        }
+
+        CommandSpec spec = commands.lookup(commandArgs);
+        if (spec == null) {
+            out.writeError("ERR unknown command '" + commandArgs.get(0) + "'");
+            flagTransaction(client);
+            return;
+        }
+        if (!spec.arityMatches(commandArgs.size())) {
+            spec.rejectedCalls++;
+            out.writeError("ERR wrong number of arguments for '" + spec.name + "' command");
+            flagTransaction(client);
+            return;
+        }
+
+        // A subscribed client only manages its subscriptions, like in Redis
+        if (client.isSubscribed() && !allowedWhileSubscribed(spec)) {
+            spec.rejectedCalls++;
+            out.writeError("ERR Can't execute '" + spec.name
+                    + "': only (P|S)SUBSCRIBE / (P|S)UNSUBSCRIBE / PING / QUIT / RESET are allowed in this context");
+            return;
+        }
+
+        // With several shards a command runs on its first key's, which has to
+        // own the others too: LMOVE's destination, every key BLPOP waits on...
+        if (!peers.isEmpty() && client != replaySession && !keysInOneShard(spec, commandArgs)) {
+            spec.rejectedCalls++;
+            out.writeError("CROSSSLOT Keys in request don't hash to the same slot");
+            flagTransaction(client);
+            return;
+        }
+
+        // ASKING only lasts for the command after it
+        boolean asking = client.isAsking() || spec.has(CommandSpec.ASKING);
+        client.setAsking(false);
+        if (cluster.isEnabled() && client != primarySession && client != replaySession
+                && !cluster.checkSlot(out, spec, commandArgs, asking)) {
+            flagTransaction(client);
+            return;
+        }
+
+        // A replica only changes through its primary
+        if (replication.isReplica() && spec.has(CommandSpec.WRITE) && client != primarySession) {
+            spec.rejectedCalls++;
+            out.writeError("READONLY You can't write against a read only replica.");
+            flagTransaction(client);
+            return;
+        }
+
+        // Make room before a write, like Redis' performEvictions(). Not for
+        // the primary's or the log's writes: refusing or evicting to fit
+        // them would leave this dataset different from theirs
+        if (spec.has(CommandSpec.DENYOOM) && client != primarySession && client != replaySession
+                && !evictor.ensureMemory()) {
+            spec.rejectedCalls++;
+            out.writeError("OOM command not allowed when used memory > 'maxmemory'.");
+            flagTransaction(client);
+            return;
+        }
+
+        // Inside MULTI, commands that pass the checks wait for EXEC
+        if (client.inMulti() && spec.has(CommandSpec.NO_MULTI)) {
+            spec.rejectedCalls++;
+            out.writeError("ERR Command not allowed inside a transaction");
+            flagTransaction(client);
+            return;
+        }
+        if (client.inMulti() && !controlsTransaction(spec)) {
+            if (!inTransactionShard(out, client.multiState(), spec, commandArgs)) {
+                spec.rejectedCalls++;
+                flagTransaction(client);
+                return;
+            }
+            client.multiState().queue(commandArgs.copy());
+            out.writeSimpleString("QUEUED");
             return;
         }
 
-        String cmd = commandArgs.get(0).toUpperCase(Locale.ROOT);
+        call(client, spec, commandArgs);
+        if (!readyKeys.isEmpty()) {
+            serveBlockedClients();
+        }
+    }
 
-        switch (cmd) {
-            case "PING" -> handlePing(clientChannel, commandArgs);
-            case "ECHO" -> handleEcho(clientChannel, commandArgs);
-            case "SET"  -> handleSet(clientChannel, commandArgs);
-            case "GET"  -> handleGet(clientChannel, commandArgs);
-            case "RPUSH" -> handleRpush(clientChannel, commandArgs);
-            case "LPUSH"  -> handleLpush(clientChannel, commandArgs);
-            case "LRANGE" -> handleLrange(clientChannel, commandArgs);
-            case "LLEN"   -> handleLlen(clientChannel, commandArgs);
-            case "LPOP"   -> handleLpop(clientChannel, commandArgs);
-            case "BLPOP"  -> handleBlpop(clientChannel, commandArgs);
-            default -> RespWriter.writeError(clientChannel, "ERR unknown command '" + cmd + "'");
+    // Runs a command that passed the checks, and records its stats
+    private void call(ClientSession client, CommandSpec spec, RespCommand commandArgs) throws IOException {
+        RespWriter out = client.writer();
+        long errors = out.errorCount();
+        long start = System.nanoTime();
+        try {
+            spec.action.execute(client, commandArgs);
+        } catch (WrongTypeException e) {
+            // Thrown by the key's lookup, before the command changed anything
+            out.writeError(e.getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        spec.nanos += elapsed;
+        spec.calls++;
+        spec.latency.record(elapsed);
+        if (out.errorCount() != errors) {
+            spec.failedCalls++;
         }
+        slowLog.record(commandArgs, elapsed, client);
     }
 
-    private void handlePing(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() == 1) {
-            RespWriter.writeSimpleString(clientChannel, "PONG");
-        } else {
-            String msg = args.get(1);
-            RespWriter.writeBulkString(clientChannel, msg);
+    // A command refused inside MULTI makes EXEC discard the transaction
+    private static void flagTransaction(ClientSession client) {
+        if (client.inMulti()) {
+            client.multiState().fail();
         }
     }
 
-    private void handleEcho(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() < 2) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'ECHO'");
-            return;
+    // Shard owning a hash slot, the way the event loops route commands
+    private int shardOf(int slot) {
+        return slot % (peers.size() + 1);
+    }
+
+    private boolean keysInOneShard(CommandSpec spec, RespCommand args) {
+        int[] keys = spec.keyIndexes(args);
+        if (keys.length < 2) {
+            return true;
         }
-        String msg = args.get(1);
-        RespWriter.writeBulkString(clientChannel, msg);
+        int shard = shardOf(KeySlot.slot(args, keys[0]));
+        for (int i = 1; i < keys.length; i++) {
+            if (shardOf(KeySlot.slot(args, keys[i])) != shard) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    // SET key value [PX ms]
-    private void handleSet(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() < 3) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'SET'");
-            return;
+    /**
+     * With several shards, EXEC runs a transaction on the shard of the first
+     * key it watched or queued, where every other key has to live too.
+     * Remembers that key's slot. A command's own keys were checked already.
+     *
+     * @return false, after replying CROSSSLOT, if a key belongs to another shard
+     */
+    private boolean inTransactionShard(RespWriter out, MultiState multi, CommandSpec spec, RespCommand args) {
+        int[] keys = spec.keyIndexes(args);
+        if (peers.isEmpty() || keys.length == 0) {
+            return true;
         }
+        int slot = KeySlot.slot(args, keys[0]);
+        if (multi.slot() < 0) {
+            multi.setSlot(slot);
+        } else if (shardOf(slot) != shardOf(multi.slot())) {
+            out.writeError("CROSSSLOT Keys in request don't hash to the same slot");
+            return false;
+        }
+        return true;
+    }
 
-        String key = args.get(1);
-        String value = args.get(2);
+    // These run right away inside MULTI instead of being queued, like in Redis
+    private static boolean controlsTransaction(CommandSpec spec) {
+        return switch (spec.name) {
+            case "multi", "exec", "discard", "watch" -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean allowedWhileSubscribed(CommandSpec spec) {
+        return switch (spec.name) {
+            case "subscribe", "unsubscribe", "psubscribe", "punsubscribe", "ping" -> true;
+            default -> false;
+        };
+    }
+
+    @Override
+    public void clientConnected(ClientSession client) {
+        connectedClients++;
+        totalConnections++;
+    }
+
+    @Override
+    public void clientDisconnected(ClientSession client) {
+        connectedClients--;
+        remoteClientDisconnected(client);
+        replication.disconnected(client);
+        if (client.isSubscribed()) {
+            pubSub.unsubscribeAll(client);
+        }
+    }
+
+    @Override
+    public void remoteClientDisconnected(ClientSession client) {
+        BlockedClient waiter = blockedByClient.get(client);
+        if (waiter != null) {
+            unblock(waiter);
+        }
+    }
+
+    // Closes a connection from the handler's side
+    void closeClient(ClientSession client) {
+        if (!client.isClosed()) {
+            client.close();
+            clientDisconnected(client);
+        }
+    }
+
+    @Override
+    public void recordLoopCycle(long busyNanos) {
+        loopCycles.record(busyNanos);
+        loopCycleNanos += busyNanos;
+    }
+
+    @Override
+    public int firstKeyIndex(RespCommand commandArgs) {
+        if (commandArgs.isEmpty()) {
+            return -1;
+        }
+        CommandSpec spec = commands.lookup(commandArgs);
+        int[] keys = spec == null ? null : spec.keyIndexes(commandArgs);
+        return keys == null || keys.length == 0 ? -1 : keys[0];
+    }
+
+    // PING [message]; a subscribed client gets it as a push-like array, like in Redis
+    private void handlePing(ClientSession client, List<String> args) {
+        RespWriter out = client.writer();
+        if (client.isSubscribed()) {
+            out.writeArrayHeader(2);
+            out.writeBulkString("pong");
+            out.writeBulkString(args.size() == 1 ? "" : args.get(1));
+        } else if (args.size() == 1) {
+            out.writeSimpleString("PONG");
+        } else {
+            String msg = args.get(1);
+            out.writeBulkString(msg);
+        }
+    }
 
-        Long expireAtMs = null;
+    private void handleEcho(RespWriter out, List<String> args) {
+        String msg = args.get(1);
+        out.writeBulkString(msg);
+    }
+
+    // SET key value [PX ms | PXAT unix-ms]
+    private void handleSet(RespWriter out, RespCommand args) {
+        long expireAtMs = InMemoryKeyValueStore.NO_EXPIRY;
         int i = 3;
         long now = System.currentTimeMillis();
 
         while (i < args.size()) {
             String opt = args.get(i);
-            if ("PX".equalsIgnoreCase(opt)) {
+            boolean relative = "PX".equalsIgnoreCase(opt);
+            if (relative || "PXAT".equalsIgnoreCase(opt)) {
                 if (i + 1 >= args.size()) {
-                    RespWriter.writeError(clientChannel, "ERR syntax error");
+                    out.writeError("ERR syntax error");
                     return;
                 }
                 String ttlStr = args.get(i + 1);
@@ -101,45 +812,39 @@ public class SimpleCommandHandler implements CommandHandler {
                 try {
                     ttlMs = Long.parseLong(ttlStr);
                 } catch (NumberFormatException e) {
-                    RespWriter.writeError(clientChannel, "ERR value is not an integer or out of range");
+                    out.writeError("ERR value is not an integer or out of range");
                     return;
                 }
-                expireAtMs = now + ttlMs;
+                expireAtMs = relative ? now + ttlMs : ttlMs;
                 i += 2;
             } else {
-                RespWriter.writeError(clientChannel, "ERR syntax error");
+                out.writeError("ERR syntax error");
                 return;
             }
         }
 
-        store.set(key, value, expireAtMs);
-        RespWriter.writeSimpleString(clientChannel, "OK");
-    }
+        // Straight from the input buffer: large values may go to off-heap memory
+        store.set(args.getBytes(1), args.slice(2), expireAtMs);
 
-    private void handleGet(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() < 2) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'GET'");
-            return;
+        // Log an absolute deadline so a replay doesn't extend the TTL
+        if (expireAtMs == InMemoryKeyValueStore.NO_EXPIRY) {
+            propagate(args);
+        } else {
+            propagate(List.of("SET", args.get(1), args.get(2), "PXAT", Long.toString(expireAtMs)));
         }
+        out.writeSimpleString("OK");
+    }
 
-        String key = args.get(1);
+    private void handleGet(RespWriter out, RespCommand args) {
         long now = System.currentTimeMillis();
-        String value = store.get(key, now);
-
-        if (value == null) {
-            RespWriter.writeNullBulkString(clientChannel);
-        } else {
-            RespWriter.writeBulkString(clientChannel, value);
+        // Off-heap values go to the socket from where they are stored
+        if (!store.readValue(args.getBytes(1), now, out::writeBulkString)) {
+            out.writeNullBulkString();
         }
     }
 
     // RPUSH key value [value ...] -> :<new_length>
-    private void handleRpush(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() < 3) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'RPUSH'");
-            return;
-        }
-
+    private void handleRpush(RespWriter out, List<String> args) {
         String key = args.get(1);
 
         List<String> valuesToAppend = new ArrayList<>(args.size() - 2);
@@ -148,18 +853,14 @@ public class SimpleCommandHandler implements CommandHandler {
         }
 
         int newLength = listStore.rpush(key, valuesToAppend);
+        propagate(args);
 
-        satisfyBlpopWaiters(key);
+        signalKeyReady(key);
 
-        RespWriter.writeInteger(clientChannel, newLength);
+        out.writeInteger(newLength);
     }
 
-    private void handleLpush(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() < 3) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'LPUSH'");
-            return;
-        }
-
+    private void handleLpush(RespWriter out, List<String> args) {
         String key = args.get(1);
 
         List<String> valuesToPrepend = new ArrayList<>(args.size() - 2);
@@ -168,19 +869,15 @@ public class SimpleCommandHandler implements CommandHandler {
         }
 
         int newLength = listStore.lpush(key, valuesToPrepend);
+        propagate(args);
 
-        satisfyBlpopWaiters(key);
+        signalKeyReady(key);
 
-        RespWriter.writeInteger(clientChannel, newLength);
+        out.writeInteger(newLength);
     }
 
-    private void handleLrange(SocketChannel clientChannel, List<String> args) throws IOException {
+    private void handleLrange(RespWriter out, List<String> args) {
         // LRANGE key start stop
-        if (args.size() < 4) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'LRANGE'");
-            return;
-        }
-
         String key = args.get(1);
         int start;
         int stop;
@@ -188,185 +885,1414 @@ public class SimpleCommandHandler implements CommandHandler {
             start = Integer.parseInt(args.get(2));
             stop = Integer.parseInt(args.get(3));
         } catch (NumberFormatException e) {
-            RespWriter.writeError(clientChannel, "ERR value is not an integer or out of range");
+            out.writeError("ERR value is not an integer or out of range");
             return;
         }
 
 
         List<String> range = listStore.lrange(key, start, stop);
 
-        RespWriter.writeArrayOfBulkStrings(clientChannel, range);
+        out.writeArrayOfBulkStrings(range);
     }
 
-    private void handleLlen(SocketChannel clientChannel, List<String> args) throws IOException {
-        if (args.size() < 2) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'LLEN'");
-            return;
-        }
-
+    private void handleLlen(RespWriter out, List<String> args) {
         String key = args.get(1);
         int length = listStore.size(key);
 
-        RespWriter.writeInteger(clientChannel, length);
+        out.writeInteger(length);
     }
 
-    private void handleLpop(SocketChannel clientChannel, List<String> args) throws IOException {
-
-        if (args.size() < 2) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'LPOP'");
-            return;
-        }
-
+    // LPOP / RPOP key [count]
+    private void handlePop(RespWriter out, List<String> args, boolean left) {
         String key = args.get(1);
 
         if (args.size() == 2) {
-            String value = listStore.lpop(key);
+            String value = left ? listStore.lpop(key) : listStore.rpop(key);
             if (value == null) {
-                RespWriter.writeNullBulkString(clientChannel);
+                out.writeNullBulkString();
             } else {
-                RespWriter.writeBulkString(clientChannel, value);
+                propagate(args);
+                out.writeBulkString(value);
             }
         } else if (args.size() == 3) {
             int count;
             try {
                 count = Integer.parseInt(args.get(2));
             } catch (NumberFormatException e) {
-                RespWriter.writeError(clientChannel, "ERR value is not an integer or out of range");
+                out.writeError("ERR value is not an integer or out of range");
                 return;
             }
 
             if (count <= 0) {
-                RespWriter.writeArrayOfBulkStrings(clientChannel, List.of());
+                out.writeArrayOfBulkStrings(List.of());
                 return;
             }
 
-            var removed = listStore.lpopMany(key, count);
-            RespWriter.writeArrayOfBulkStrings(clientChannel, removed);
+            var removed = left ? listStore.lpopMany(key, count) : listStore.rpopMany(key, count);
+            if (!removed.isEmpty()) {
+                propagate(args);
+            }
+            out.writeArrayOfBulkStrings(removed);
         } else {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'LPOP'");
+            out.writeError("ERR wrong number of arguments for '" + (left ? "lpop" : "rpop") + "' command");
         }
     }
 
-    private void handleBlpop(SocketChannel clientChannel, List<String> args) throws IOException {
-        // BLPOP key timeout
-        if (args.size() < 3) {
-            RespWriter.writeError(clientChannel, "ERR wrong number of arguments for 'BLPOP'");
+    // LMOVE source destination LEFT|RIGHT LEFT|RIGHT, RPOPLPUSH source destination
+    private void handleLmove(RespWriter out, List<String> args) {
+        boolean rpoplpush = args.size() == 3;
+        Boolean fromLeft = rpoplpush ? Boolean.FALSE : parseSide(args.get(3));
+        Boolean toLeft = rpoplpush ? Boolean.TRUE : parseSide(args.get(4));
+        if (fromLeft == null || toLeft == null) {
+            out.writeError("ERR syntax error");
             return;
         }
 
-        String key = args.get(1);
-        String timeoutStr = args.get(2);
-
-        double timeoutSeconds;
-        try {
-            timeoutSeconds = Double.parseDouble(timeoutStr);
-        } catch (NumberFormatException e) {
-            RespWriter.writeError(clientChannel, "ERR value is not a valid timeout");
-            return;
+        String value = move(args.get(1), args.get(2), fromLeft, toLeft);
+        if (value == null) {
+            out.writeNullBulkString();
+        } else {
+            out.writeBulkString(value);
         }
+    }
 
-        long timeoutMs = (long) (timeoutSeconds * 1000);
+    // LEFT -> true, RIGHT -> false, anything else null
+    private static Boolean parseSide(String arg) {
+        if (arg.equalsIgnoreCase("LEFT")) {
+            return Boolean.TRUE;
+        }
+        return arg.equalsIgnoreCase("RIGHT") ? Boolean.FALSE : null;
+    }
 
-        // 1. Try immediate pop first
-        String value = listStore.lpop(key);
+    // Logged as LMOVE whichever command moved it, like Redis
+    private String move(String source, String destination, boolean fromLeft, boolean toLeft) {
+        String value = listStore.lmove(source, destination, fromLeft, toLeft);
         if (value != null) {
-            RespWriter.writeArrayOfBulkStrings(clientChannel, List.of(key, value));
+            propagate(List.of("LMOVE", source, destination,
+                    fromLeft ? "LEFT" : "RIGHT", toLeft ? "LEFT" : "RIGHT"));
+            signalKeyReady(destination);
+        }
+        return value;
+    }
+
+    // BLPOP / BRPOP key [key ...] timeout -> [key, element] from the first non-empty list
+    private void handleBlockingPop(ClientSession client, List<String> args, boolean left) {
+        long deadline = parseBlockDeadline(client.writer(), args.get(args.size() - 1));
+        if (deadline < 0) {
             return;
         }
 
-        // 2. If no element and timeout <= 0 -> infinite wait
-        if (timeoutMs <= 0) {
-            registerBlpopWaiter(key, clientChannel, null);
-            return; // no immediate response
+        List<String> keys = List.copyOf(args.subList(1, args.size() - 1));
+        for (String key : keys) {
+            String value = left ? listStore.lpop(key) : listStore.rpop(key);
+            if (value != null) {
+                propagate(List.of(left ? "LPOP" : "RPOP", key));
+                client.writer().writeArrayOfBulkStrings(List.of(key, value));
+                return;
+            }
         }
+        block(new BlockedClient(client, keys, left, null, false, deadline));
+    }
 
-        // 3. Finite timeout: register waiter with deadline
-        long now = System.currentTimeMillis();
-        long deadline = now + timeoutMs;
-        registerBlpopWaiter(key, clientChannel, deadline);
-        // response will be sent on push or timeout
+    // BLMOVE source destination LEFT|RIGHT LEFT|RIGHT timeout, BRPOPLPUSH source destination timeout
+    private void handleBlmove(ClientSession client, List<String> args) {
+        RespWriter out = client.writer();
+        boolean brpoplpush = args.size() == 4;
+        Boolean fromLeft = brpoplpush ? Boolean.FALSE : parseSide(args.get(3));
+        Boolean toLeft = brpoplpush ? Boolean.TRUE : parseSide(args.get(4));
+        if (fromLeft == null || toLeft == null) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        long deadline = parseBlockDeadline(out, args.get(args.size() - 1));
+        if (deadline < 0) {
+            return;
+        }
+
+        String source = args.get(1);
+        String destination = args.get(2);
+        String value = move(source, destination, fromLeft, toLeft);
+        if (value != null) {
+            out.writeBulkString(value);
+            return;
+        }
+        block(new BlockedClient(client, List.of(source), fromLeft, destination, toLeft, deadline));
     }
 
-    private void registerBlpopWaiter(String key, SocketChannel clientChannel, Long deadlineMillis) {
-        blpopWaiters
-                .computeIfAbsent(key, k -> new ArrayDeque<>())
-                .addLast(new BlpopWaiter(clientChannel, deadlineMillis));
+    /**
+     * A blocking command's timeout in seconds (fractions allowed, 0 = wait
+     * forever) as a deadline, NO_DEADLINE, or -1 after replying with an error.
+     */
+    private static long parseBlockDeadline(RespWriter out, String arg) {
+        double seconds;
+        try {
+            seconds = Double.parseDouble(arg);
+        } catch (NumberFormatException e) {
+            out.writeError("ERR value is not a valid timeout");
+            return -1;
+        }
+        if (Double.isNaN(seconds)) {
+            out.writeError("ERR value is not a valid timeout");
+            return -1;
+        }
+        if (seconds < 0) {
+            out.writeError("ERR timeout is negative");
+            return -1;
+        }
+        if (seconds == 0 || seconds >= Long.MAX_VALUE / 2000.0) {
+            return NO_DEADLINE;
+        }
+        return System.currentTimeMillis() + Math.max(1, (long) Math.ceil(seconds * 1000));
     }
 
-    // Wake up BLPOP waiters when new elements are pushed to this key
-    private void satisfyBlpopWaiters(String key) {
-        Deque<BlpopWaiter> waiters = blpopWaiters.get(key);
-        if (waiters == null || waiters.isEmpty()) {
+    /**
+     * Parks a client until an element arrives on one of its keys or its
+     * deadline passes. The client is paused meanwhile, so commands it
+     * pipelined behind the blocking one wait too and replies stay in order.
+     */
+    private void block(BlockedClient waiter) {
+        // Inside EXEC there's no waiting: it times out right away, like Redis
+        if (inExec) {
+            waiter.client.writer().writeNullArray();
+            return;
+        }
+        // Gone while its command was on its way here: nobody to tell
+        if (waiter.client.isClosed()) {
             return;
         }
+        for (String key : waiter.keys) {
+            blockedByKey.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(waiter);
+        }
+        // By connection: a forwarded command's stand-in is found on disconnect too
+        blockedByClient.put(waiter.client.connection(), waiter);
+        if (waiter.deadline != NO_DEADLINE) {
+            waiter.timeout = timers.schedule(waiter.deadline, () -> timeOut(waiter));
+        }
+        waiter.client.pause();
+    }
 
-        while (!waiters.isEmpty()) {
-            BlpopWaiter waiter = waiters.pollFirst();
+    // XREAD / XREADGROUP ... BLOCK with nothing to read yet
+    void blockOnStreams(ClientSession client, List<String> keys, StreamCommands.StreamRead read, long deadline) {
+        block(new BlockedClient(client, keys, read, deadline));
+    }
 
-            String popped = listStore.lpop(key);
-            if (popped == null) {
-                // No more elements; stop here
-                break;
-            }
+    private void timeOut(BlockedClient waiter) {
+        unblock(waiter);
+        waiter.client.writer().writeNullArray();
+        unblocked.add(waiter.client);
+    }
 
-            try {
-                // BLPOP reply: [key, value]
-                RespWriter.writeArrayOfBulkStrings(waiter.channel, List.of(key, popped));
-            } catch (IOException e) {
-                // Client may have disconnected; ignore and continue
+    // Forgets a blocked client everywhere it is indexed
+    private void unblock(BlockedClient waiter) {
+        for (String key : waiter.keys) {
+            Set<BlockedClient> waiters = blockedByKey.get(key);
+            if (waiters != null && waiters.remove(waiter) && waiters.isEmpty()) {
+                blockedByKey.remove(key);
             }
         }
-
-        if (waiters.isEmpty()) {
-            blpopWaiters.remove(key);
+        blockedByClient.remove(waiter.client.connection());
+        if (waiter.timeout != null) {
+            waiter.timeout.cancel();
         }
     }
 
-    @Override
-    public void onTick() {
-        if (blpopWaiters.isEmpty()) {
-            return;
+    // A push to a list or an XADD to a stream may serve blocked clients once the command is done
+    void signalKeyReady(String key) {
+        if (blockedByKey.containsKey(key)) {
+            readyKeys.add(key);
         }
+    }
 
+    /**
+     * Hands the elements pushed by the last command to the clients blocked on
+     * those lists, longest waiting first. Serving a BLMOVE pushes to another
+     * list, which may serve more clients in turn.
+     *
+     * Entries added to a stream aren't used up: every reader blocked on it
+     * gets them, except that readers of the same group share its new entries.
+     */
+    private void serveBlockedClients() {
         long now = System.currentTimeMillis();
+        while (!readyKeys.isEmpty()) {
+            Iterator<String> it = readyKeys.iterator();
+            String key = it.next();
+            it.remove();
 
-        Iterator<Map.Entry<String, Deque<BlpopWaiter>>> mapIt = blpopWaiters.entrySet().iterator();
-        while (mapIt.hasNext()) {
-            Map.Entry<String, Deque<BlpopWaiter>> entry = mapIt.next();
-            Deque<BlpopWaiter> queue = entry.getValue();
-
-            if (queue.isEmpty()) {
-                mapIt.remove();
+            if (store.type(key, now) == ValueType.STREAM) {
+                serveStreamReaders(key, now);
                 continue;
             }
+            BlockedClient waiter = nextPopper(key);
+            while (waiter != null && store.type(key, now) == ValueType.LIST) {
+                unblock(waiter);
+                // A client of another reactor may have gone in the meantime
+                if (!waiter.client.isClosed()) {
+                    serve(waiter, key);
+                    unblocked.add(waiter.client);
+                }
+                waiter = nextPopper(key);
+            }
+        }
+    }
 
-            Iterator<BlpopWaiter> qIt = queue.iterator();
-            while (qIt.hasNext()) {
-                BlpopWaiter waiter = qIt.next();
-
-                if (waiter.deadlineMillis == null) {
-                    // Infinite wait, no timeout
-                    continue;
+    // The longest waiting BLPOP / BLMOVE... on key, skipping stream readers
+    private BlockedClient nextPopper(String key) {
+        Set<BlockedClient> waiters = blockedByKey.get(key);
+        if (waiters != null) {
+            for (BlockedClient waiter : waiters) {
+                if (waiter.streamRead == null) {
+                    return waiter;
                 }
+            }
+        }
+        return null;
+    }
 
-                if (now >= waiter.deadlineMillis) {
-                    // Timeout: respond with null array
-                    try {
-                        RespWriter.writeNullArray(waiter.channel);
-                    } catch (IOException e) {
-                        // Ignore write failure; client may be gone
-                    }
-                    qIt.remove();
+    private void serveStreamReaders(String key, long now) {
+        Set<BlockedClient> waiters = blockedByKey.get(key);
+        if (waiters == null) {
+            return;
+        }
+        for (BlockedClient waiter : List.copyOf(waiters)) {
+            if (waiter.streamRead == null) {
+                continue;
+            }
+            if (waiter.client.isClosed()) {
+                unblock(waiter);
+                continue;
+            }
+            RespWriter out = waiter.client.writer();
+            Map<String, List<StreamEntry>> result = streams.readStreams(out, waiter.streamRead, waiter.keys, now);
+            if (result == null || !result.isEmpty()) {
+                // Replied with the entries, or with NOGROUP if the group went meanwhile
+                unblock(waiter);
+                if (result != null) {
+                    StreamCommands.writeStreamReply(out, result);
                 }
+                unblocked.add(waiter.client);
             }
+        }
+    }
 
-            if (queue.isEmpty()) {
-                mapIt.remove();
+    private void serve(BlockedClient waiter, String key) {
+        RespWriter out = waiter.client.writer();
+        try {
+            if (waiter.destination == null) {
+                String value = waiter.fromLeft ? listStore.lpop(key) : listStore.rpop(key);
+                propagate(List.of(waiter.fromLeft ? "LPOP" : "RPOP", key));
+                out.writeArrayOfBulkStrings(List.of(key, value));
+            } else {
+                out.writeBulkString(move(key, waiter.destination, waiter.fromLeft, waiter.toLeft));
             }
+        } catch (WrongTypeException e) {
+            // BLMOVE's destination became another type while it waited
+            out.writeError(e.getMessage());
+        }
+    }
+
+    // HSET key field value [field value ...] -> :<fields added>
+    private void handleHset(RespWriter out, List<String> args) {
+        if (args.size() % 2 != 0) {
+            out.writeError("ERR wrong number of arguments for 'hset' command");
+            return;
+        }
+
+        int added = hashStore.hset(args.get(1), args.subList(2, args.size()));
+        propagate(args);
+        out.writeInteger(added);
+    }
+
+    private void handleHget(RespWriter out, List<String> args) {
+        String value = hashStore.hget(args.get(1), args.get(2));
+        if (value == null) {
+            out.writeNullBulkString();
+        } else {
+            out.writeBulkString(value);
+        }
+    }
+
+    private void handleHdel(RespWriter out, List<String> args) {
+        int removed = hashStore.hdel(args.get(1), args.subList(2, args.size()));
+        if (removed > 0) {
+            propagate(args);
         }
+        out.writeInteger(removed);
     }
 
+    private void handleHgetall(RespWriter out, List<String> args) {
+        out.writeArrayOfBulkStrings(hashStore.hgetall(args.get(1)));
+    }
 
+    private void handleSadd(RespWriter out, List<String> args) {
+        int added = setStore.sadd(args.get(1), args.subList(2, args.size()));
+        if (added > 0) {
+            propagate(args);
+        }
+        out.writeInteger(added);
+    }
+
+    private void handleSrem(RespWriter out, List<String> args) {
+        int removed = setStore.srem(args.get(1), args.subList(2, args.size()));
+        if (removed > 0) {
+            propagate(args);
+        }
+        out.writeInteger(removed);
+    }
+
+    private void handleSismember(RespWriter out, List<String> args) {
+        out.writeInteger(setStore.sismember(args.get(1), args.get(2)) ? 1 : 0);
+    }
+
+    private void handleSmembers(RespWriter out, List<String> args) {
+        out.writeArrayOfBulkStrings(setStore.smembers(args.get(1)));
+    }
+
+    // ZADD key [NX|XX] [CH] score member [score member ...]
+    private void handleZadd(RespWriter out, List<String> args) {
+        boolean nx = false;
+        boolean xx = false;
+        boolean ch = false;
+        int i = 2;
+        for (; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if (option.equals("NX")) {
+                nx = true;
+            } else if (option.equals("XX")) {
+                xx = true;
+            } else if (option.equals("CH")) {
+                ch = true;
+            } else {
+                break;
+            }
+        }
+
+        int pairs = args.size() - i;
+        if (pairs == 0 || pairs % 2 != 0) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        if (nx && xx) {
+            out.writeError("ERR XX and NX options at the same time are not compatible");
+            return;
+        }
+
+        // Parse every score first: a bad one must not leave a partial update
+        double[] scores = new double[pairs / 2];
+        List<String> members = new ArrayList<>(scores.length);
+        for (int j = 0; j < scores.length; j++) {
+            try {
+                scores[j] = InMemorySortedSetStore.parseScore(args.get(i + 2 * j));
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not a valid float");
+                return;
+            }
+            members.add(args.get(i + 2 * j + 1));
+        }
+
+        int count = zsetStore.zadd(args.get(1), scores, members, nx, xx, ch);
+        propagate(args);
+        out.writeInteger(count);
+    }
+
+    private void handleZrem(RespWriter out, List<String> args) {
+        int removed = zsetStore.zrem(args.get(1), args.subList(2, args.size()));
+        if (removed > 0) {
+            propagate(args);
+        }
+        out.writeInteger(removed);
+    }
+
+    private void handleZscore(RespWriter out, List<String> args) {
+        Double score = zsetStore.zscore(args.get(1), args.get(2));
+        if (score == null) {
+            out.writeNullBulkString();
+        } else {
+            out.writeBulkString(InMemorySortedSetStore.formatScore(score));
+        }
+    }
+
+    private void handleZcard(RespWriter out, List<String> args) {
+        out.writeInteger(zsetStore.zcard(args.get(1)));
+    }
+
+    private void handleZrank(RespWriter out, List<String> args) {
+        long rank = zsetStore.zrank(args.get(1), args.get(2));
+        if (rank < 0) {
+            out.writeNullBulkString();
+        } else {
+            out.writeInteger(rank);
+        }
+    }
+
+    // ZRANGE key start stop [WITHSCORES]
+    private void handleZrange(RespWriter out, List<String> args) {
+        if (args.size() > 5) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        boolean withScores = args.size() == 5;
+        if (withScores && !args.get(4).equalsIgnoreCase("WITHSCORES")) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+
+        int start;
+        int stop;
+        try {
+            start = Integer.parseInt(args.get(2));
+            stop = Integer.parseInt(args.get(3));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR value is not an integer or out of range");
+            return;
+        }
+
+        writeScoredMembers(out, zsetStore.zrange(args.get(1), start, stop), withScores);
+    }
+
+    // ZRANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count]
+    private void handleZrangeByScore(RespWriter out, List<String> args) {
+        ScoreRange range;
+        try {
+            range = parseScoreRange(args.get(2), args.get(3));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR min or max is not a float");
+            return;
+        }
+
+        boolean withScores = false;
+        int offset = 0;
+        int count = -1;
+        for (int i = 4; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if (option.equals("WITHSCORES")) {
+                withScores = true;
+            } else if (option.equals("LIMIT") && i + 2 < args.size()) {
+                try {
+                    offset = Integer.parseInt(args.get(i + 1));
+                    count = Integer.parseInt(args.get(i + 2));
+                } catch (NumberFormatException e) {
+                    out.writeError("ERR value is not an integer or out of range");
+                    return;
+                }
+                i += 2;
+            } else {
+                out.writeError("ERR syntax error");
+                return;
+            }
+        }
+
+        writeScoredMembers(out, zsetStore.zrangeByScore(args.get(1), range, offset, count), withScores);
+    }
+
+    // "(1.5" is exclusive, "-inf" / "+inf" unbounded
+    private static ScoreRange parseScoreRange(String min, String max) {
+        boolean minExclusive = min.startsWith("(");
+        boolean maxExclusive = max.startsWith("(");
+        return new ScoreRange(
+                InMemorySortedSetStore.parseScore(minExclusive ? min.substring(1) : min), minExclusive,
+                InMemorySortedSetStore.parseScore(maxExclusive ? max.substring(1) : max), maxExclusive);
+    }
+
+    private static void writeScoredMembers(RespWriter out, List<ScoredMember> elements, boolean withScores) {
+        out.writeArrayHeader(withScores ? elements.size() * 2 : elements.size());
+        for (ScoredMember element : elements) {
+            out.writeBulkString(element.member());
+            if (withScores) {
+                out.writeBulkString(InMemorySortedSetStore.formatScore(element.score()));
+            }
+        }
+    }
+
+    private static List<String> toList(Iterable<String> items) {
+        List<String> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
+
+    // DEL key [key ...] -> :<keys removed>, any type
+    private void handleDel(RespWriter out, List<String> args) {
+        int removed = 0;
+        for (int i = 1; i < args.size(); i++) {
+            if (store.delete(args.get(i))) {
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            propagate(args);
+        }
+        out.writeInteger(removed);
+    }
+
+    // EXISTS key [key ...] -> :<keys that exist>, counting repeats
+    private void handleExists(RespWriter out, List<String> args) {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (int i = 1; i < args.size(); i++) {
+            if (store.exists(args.get(i), now)) {
+                count++;
+            }
+        }
+        out.writeInteger(count);
+    }
+
+    private void handleType(RespWriter out, List<String> args) {
+        ValueType type = store.type(args.get(1), System.currentTimeMillis());
+        out.writeSimpleString(type == null ? "none" : type.typeName());
+    }
+
+    /**
+     * EXPIRE / PEXPIRE key ttl, EXPIREAT / PEXPIREAT key deadline -> :1, or :0
+     * if the key doesn't exist.
+     *
+     * @param unitMs   1000 for seconds, 1 for milliseconds
+     * @param absolute true if the argument is a unix time rather than a TTL
+     */
+    private void handleExpire(RespWriter out, List<String> args, long unitMs, boolean absolute) {
+        long amount;
+        try {
+            amount = Long.parseLong(args.get(2));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR value is not an integer or out of range");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expireAtMs;
+        try {
+            expireAtMs = Math.addExact(absolute ? 0 : now, Math.multiplyExact(amount, unitMs));
+        } catch (ArithmeticException e) {
+            out.writeError("ERR invalid expire time in '" + args.get(0).toLowerCase(Locale.ROOT) + "' command");
+            return;
+        }
+
+        String key = args.get(1);
+        if (!store.expire(key, expireAtMs, now)) {
+            out.writeInteger(0);
+            return;
+        }
+        // Log an absolute deadline so a replay doesn't extend the TTL; a
+        // deadline in the past has deleted the key
+        if (expireAtMs <= now) {
+            propagate(List.of("DEL", key));
+        } else {
+            propagate(List.of("PEXPIREAT", key, Long.toString(expireAtMs)));
+        }
+        out.writeInteger(1);
+    }
+
+    // TTL / PTTL key -> remaining time, -1 without expiry, -2 if missing
+    private void handleTtl(RespWriter out, List<String> args, long unitMs) {
+        long ttl = store.ttl(args.get(1), System.currentTimeMillis());
+        if (ttl < 0) {
+            out.writeInteger(ttl);
+        } else {
+            // Round to the nearest second, like Redis
+            out.writeInteger((ttl + unitMs / 2) / unitMs);
+        }
+    }
+
+    private void handlePersist(RespWriter out, List<String> args) {
+        boolean removed = store.persist(args.get(1), System.currentTimeMillis());
+        if (removed) {
+            propagate(args);
+        }
+        out.writeInteger(removed ? 1 : 0);
+    }
+
+    // OBJECT ENCODING key
+    private void handleObject(RespWriter out, List<String> args) {
+        if (args.size() != 3 || !args.get(1).equalsIgnoreCase("ENCODING")) {
+            out.writeError("ERR unknown subcommand or wrong number of arguments for 'OBJECT'");
+            return;
+        }
+
+        String encoding = store.encoding(args.get(2), System.currentTimeMillis());
+        if (encoding == null) {
+            out.writeNullBulkString();
+        } else {
+            out.writeBulkString(encoding);
+        }
+    }
+
+    // SCAN cursor [MATCH pattern] [COUNT count] [TYPE type] -> [next cursor, [key ...]]
+    private void handleScan(RespWriter out, List<String> args) {
+        if (args.size() % 2 != 0) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+
+        long cursor;
+        try {
+            cursor = Long.parseUnsignedLong(args.get(1));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR invalid cursor");
+            return;
+        }
+
+        GlobPattern pattern = null;
+        int count = SCAN_DEFAULT_COUNT;
+        ValueType type = null;
+        for (int i = 2; i < args.size(); i += 2) {
+            String option = args.get(i);
+            String value = args.get(i + 1);
+            if (option.equalsIgnoreCase("MATCH")) {
+                pattern = GlobPattern.compile(value);
+            } else if (option.equalsIgnoreCase("COUNT")) {
+                try {
+                    count = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    out.writeError("ERR value is not an integer or out of range");
+                    return;
+                }
+                if (count < 1) {
+                    out.writeError("ERR syntax error");
+                    return;
+                }
+            } else if (option.equalsIgnoreCase("TYPE")) {
+                type = ValueType.fromTypeName(value);
+                if (type == null) {
+                    out.writeError("ERR unknown type name '" + value + "'");
+                    return;
+                }
+            } else {
+                out.writeError("ERR syntax error");
+                return;
+            }
+        }
+
+        List<byte[]> keys = new ArrayList<>();
+        GlobPattern match = pattern == null || pattern.matchesAll() ? null : pattern;
+        long next = store.scan(cursor, count, type, System.currentTimeMillis(), key -> {
+            if (match == null || match.matches(key)) {
+                keys.add(key);
+            }
+        });
+
+        out.writeArrayHeader(2);
+        out.writeBulkString(Long.toUnsignedString(next));
+        out.writeArrayHeader(keys.size());
+        for (byte[] key : keys) {
+            out.writeBulkString(key);
+        }
+    }
+
+    /**
+     * KEYS pattern. Walks the keyspace with the SCAN cursor, one time slice
+     * per event loop iteration, so a large keyspace never stalls other
+     * clients; the calling client is paused until the reply is complete.
+     */
+    private void handleKeys(ClientSession client, List<String> args) {
+        KeysJob job = new KeysJob(client, GlobPattern.compile(args.get(1)));
+        // Inside EXEC the reply can't wait for later iterations
+        if (inExec) {
+            advanceKeys(job, Long.MAX_VALUE);
+            return;
+        }
+        if (!advanceKeys(job, KEYS_BUDGET_NANOS)) {
+            client.pause();
+            keysJobs.add(job);
+        }
+    }
+
+    /**
+     * Continues a KEYS walk for up to budgetNanos.
+     *
+     * @return true once the walk is complete and the reply written
+     */
+    private boolean advanceKeys(KeysJob job, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        do {
+            job.cursor = store.scan(job.cursor, KEYS_STEP_COUNT, null, System.currentTimeMillis(), job);
+            if (job.cursor == 0) {
+                RespWriter out = job.client.writer();
+                out.writeArrayHeader(job.keys.size());
+                for (String key : job.keys) {
+                    out.writeBulkString(key);
+                }
+                return true;
+            }
+        } while (System.nanoTime() - deadline < 0);
+        return false;
+    }
+
+    /**
+     * COMMAND, COMMAND COUNT, COMMAND LIST, COMMAND INFO [name ...],
+     * COMMAND GETKEYS command [arg ...], COMMAND DOCS (always empty)
+     */
+    private void handleCommandCommand(RespWriter out, List<String> args) {
+        String sub = args.size() > 1 ? args.get(1).toUpperCase(Locale.ROOT) : "";
+        switch (sub) {
+            case "" -> writeCommandInfos(out, commands.all());
+            case "COUNT" -> out.writeInteger(commands.all().size());
+            case "LIST" -> {
+                out.writeArrayHeader(commands.all().size());
+                for (CommandSpec spec : commands.all()) {
+                    out.writeBulkString(spec.name);
+                }
+            }
+            case "INFO" -> {
+                if (args.size() == 2) {
+                    writeCommandInfos(out, commands.all());
+                    return;
+                }
+                List<CommandSpec> specs = new ArrayList<>();
+                for (int i = 2; i < args.size(); i++) {
+                    specs.add(commands.find(args.get(i)));
+                }
+                writeCommandInfos(out, specs);
+            }
+            case "GETKEYS" -> handleCommandGetkeys(out, args);
+            case "DOCS" -> out.writeArrayHeader(0);
+            default -> out.writeError("ERR unknown subcommand '" + args.get(1) + "'. Try COMMAND HELP.");
+        }
+    }
+
+    // [name, arity, [flag ...], first key, last key, step] per command, nil if unknown
+    private static void writeCommandInfos(RespWriter out, List<CommandSpec> specs) {
+        out.writeArrayHeader(specs.size());
+        for (CommandSpec spec : specs) {
+            if (spec == null) {
+                out.writeNullArray();
+                continue;
+            }
+            out.writeArrayHeader(6);
+            out.writeBulkString(spec.name);
+            out.writeInteger(spec.arity);
+            String[] flags = spec.flagNames();
+            out.writeArrayHeader(flags.length);
+            for (String flag : flags) {
+                out.writeSimpleString(flag);
+            }
+            out.writeInteger(spec.firstKey);
+            out.writeInteger(spec.lastKey);
+            out.writeInteger(spec.keyStep);
+        }
+    }
+
+    private void handleCommandGetkeys(RespWriter out, List<String> args) {
+        if (args.size() < 3) {
+            out.writeError("ERR wrong number of arguments for 'command|getkeys' command");
+            return;
+        }
+        List<String> command = args.subList(2, args.size());
+        CommandSpec spec = commands.find(command.get(0));
+        if (spec == null) {
+            out.writeError("ERR Invalid command specified");
+            return;
+        }
+        if (!spec.arityMatches(command.size())) {
+            out.writeError("ERR Invalid number of arguments specified for command");
+            return;
+        }
+        int[] indexes = spec.keyIndexes(command);
+        if (indexes.length == 0) {
+            out.writeError("ERR The command has no key arguments");
+            return;
+        }
+
+        List<String> keys = new ArrayList<>(indexes.length);
+        for (int i : indexes) {
+            keys.add(command.get(i));
+        }
+        out.writeArrayOfBulkStrings(keys);
+    }
+
+    /**
+     * INFO [section]. Sections: server, clients, memory, persistence,
+     * replication, cluster, stats, commandstats, latencystats, keyspace;
+     * "default" leaves out the per-command ones, "all" / "everything" include
+     * them. Figures are this shard's.
+     */
+    private void handleInfo(RespWriter out, List<String> args) {
+        String section = args.size() > 1 ? args.get(1).toLowerCase(Locale.ROOT) : "default";
+        boolean all = section.equals("all") || section.equals("everything");
+        boolean basic = all || section.equals("default");
+
+        StringBuilder info = new StringBuilder();
+        if (basic || section.equals("server")) {
+            info.append("# Server\r\n")
+                    .append("process_id:").append(ProcessHandle.current().pid()).append("\r\n")
+                    .append("java_version:").append(Runtime.version()).append("\r\n")
+                    .append("uptime_in_seconds:").append((System.currentTimeMillis() - startTimeMs) / 1000).append("\r\n")
+                    .append("\r\n");
+        }
+        if (basic || section.equals("clients")) {
+            info.append("# Clients\r\n")
+                    .append("connected_clients:").append(connectedClients).append("\r\n")
+                    .append("blocked_clients:").append(blockedClients()).append("\r\n")
+                    .append("\r\n");
+        }
+        if (basic || section.equals("memory")) {
+            Runtime runtime = Runtime.getRuntime();
+            info.append("# Memory\r\n")
+                    .append("used_memory:").append(evictor.usedMemory()).append("\r\n")
+                    .append("used_memory_offheap:").append(store.offHeapUsedBytes()).append("\r\n")
+                    .append("offheap_reserved_bytes:").append(store.offHeapReservedBytes()).append("\r\n")
+                    .append("jvm_heap_used:").append(runtime.totalMemory() - runtime.freeMemory()).append("\r\n")
+                    .append("jvm_heap_max:").append(runtime.maxMemory()).append("\r\n")
+                    .append("maxmemory:").append(evictor.getMaxMemory()).append("\r\n")
+                    .append("maxmemory_policy:").append(evictor.getPolicy().configName()).append("\r\n")
+                    .append("\r\n");
+        }
+        if (basic || section.equals("persistence")) {
+            info.append("# Persistence\r\n");
+            if (snapshotSaver != null) {
+                info.append("rdb_bgsave_in_progress:").append(snapshotSaver.isSaveInProgress() ? 1 : 0).append("\r\n")
+                        .append("rdb_last_save_time:").append(snapshotSaver.getLastSaveTime()).append("\r\n")
+                        .append("rdb_last_bgsave_status:").append(snapshotSaver.isLastSaveOk() ? "ok" : "err").append("\r\n");
+            }
+            info.append("aof_enabled:").append(aof == null ? 0 : 1).append("\r\n");
+            if (aof != null) {
+                info.append("aof_rewrite_in_progress:").append(aof.isRewriteInProgress() ? 1 : 0).append("\r\n")
+                        .append("aof_rewrites:").append(aof.getRewrites()).append("\r\n")
+                        .append("aof_last_bgrewrite_status:").append(aof.isLastRewriteOk() ? "ok" : "err").append("\r\n")
+                        .append("aof_current_size:").append(aof.getCurrentSize()).append("\r\n")
+                        .append("aof_base_size:").append(aof.getBaseSize()).append("\r\n");
+            }
+            info.append("\r\n");
+        }
+        if (basic || section.equals("replication")) {
+            info.append("# Replication\r\n");
+            replication.appendInfo(info);
+            info.append("\r\n");
+        }
+        if (basic || section.equals("cluster")) {
+            info.append("# Cluster\r\n")
+                    .append("cluster_enabled:").append(cluster.isEnabled() ? 1 : 0).append("\r\n")
+                    .append("\r\n");
+        }
+        if (basic || section.equals("stats")) {
+            long commandsProcessed = 0;
+            for (CommandSpec spec : commands.all()) {
+                commandsProcessed += spec.calls;
+            }
+            info.append("# Stats\r\n")
+                    .append("total_connections_received:").append(totalConnections).append("\r\n")
+                    .append("total_commands_processed:").append(commandsProcessed).append("\r\n")
+                    .append("expired_keys:").append(store.getExpiredKeys()).append("\r\n")
+                    .append("expired_keys_active:").append(store.getReclaimedKeys()).append("\r\n")
+                    .append("evicted_keys:").append(evictor.getEvictedKeys()).append("\r\n")
+                    .append("pubsub_channels:").append(pubSub.channelCount()).append("\r\n")
+                    .append("pubsub_patterns:").append(pubSub.activePatterns().size()).append("\r\n")
+                    .append("eventloop_cycles:").append(loopCycles.count()).append("\r\n")
+                    .append("eventloop_duration_sum:").append(loopCycleNanos / 1000).append("\r\n")
+                    .append("eventloop_duration_p99_usec:").append(usec(loopCycles.percentile(99))).append("\r\n")
+                    .append("eventloop_duration_max_usec:").append(usec(loopCycles.max())).append("\r\n");
+            replication.appendStats(info);
+            info.append("\r\n");
+        }
+        if (all || section.equals("commandstats")) {
+            info.append("# Commandstats\r\n");
+            for (CommandSpec spec : commands.all()) {
+                if (spec.calls == 0 && spec.rejectedCalls == 0) {
+                    continue;
+                }
+                long usec = spec.nanos / 1000;
+                info.append("cmdstat_").append(spec.name)
+                        .append(":calls=").append(spec.calls)
+                        .append(",usec=").append(usec)
+                        .append(",usec_per_call=")
+                        .append(String.format(Locale.ROOT, "%.2f", spec.calls == 0 ? 0.0 : (double) usec / spec.calls))
+                        .append(",rejected_calls=").append(spec.rejectedCalls)
+                        .append(",failed_calls=").append(spec.failedCalls).append("\r\n");
+            }
+            info.append("\r\n");
+        }
+        if (all || section.equals("latencystats")) {
+            info.append("# Latencystats\r\n");
+            for (CommandSpec spec : commands.all()) {
+                if (spec.latency.count() == 0) {
+                    continue;
+                }
+                info.append("latency_percentiles_usec_").append(spec.name).append(':');
+                for (int i = 0; i < LATENCY_PERCENTILES.length; i++) {
+                    double p = LATENCY_PERCENTILES[i];
+                    info.append(i == 0 ? "p" : ",p")
+                            .append(p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p))
+                            .append('=').append(usec(spec.latency.percentile(p)));
+                }
+                info.append("\r\n");
+            }
+            info.append("\r\n");
+        }
+        if (basic || section.equals("keyspace")) {
+            info.append("# Keyspace\r\n")
+                    .append("db0:keys=").append(store.size())
+                    .append(",expires=").append(store.volatileSize()).append("\r\n");
+        }
+
+        out.writeBulkString(info.toString());
+    }
+
+    // Nanoseconds as microseconds with three decimals, like Redis' latency stats
+    private static String usec(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private int blockedClients() {
+        return keysJobs.size() + blockedByClient.size();
+    }
+
+    // SLOWLOG GET [count] | LEN | RESET
+    private void handleSlowlog(RespWriter out, List<String> args) {
+        String sub = args.get(1).toUpperCase(Locale.ROOT);
+        if (sub.equals("LEN") && args.size() == 2) {
+            out.writeInteger(slowLog.length());
+        } else if (sub.equals("RESET") && args.size() == 2) {
+            slowLog.reset();
+            out.writeSimpleString("OK");
+        } else if (sub.equals("GET") && args.size() <= 3) {
+            int count = 10;
+            if (args.size() == 3) {
+                try {
+                    count = Integer.parseInt(args.get(2));
+                } catch (NumberFormatException e) {
+                    out.writeError("ERR value is not an integer or out of range");
+                    return;
+                }
+                if (count < -1) {
+                    out.writeError("ERR count should be greater than or equal to -1");
+                    return;
+                }
+            }
+            List<SlowLog.Entry> entries = slowLog.get(count);
+            out.writeArrayHeader(entries.size());
+            for (SlowLog.Entry entry : entries) {
+                // id, unix time, microseconds, [arg ...], client address, client name
+                out.writeArrayHeader(6);
+                out.writeInteger(entry.id);
+                out.writeInteger(entry.timestampSeconds);
+                out.writeInteger(entry.durationUsec);
+                out.writeArrayOfBulkStrings(entry.args);
+                out.writeBulkString(entry.client);
+                out.writeBulkString("");
+            }
+        } else {
+            out.writeError("ERR unknown subcommand or wrong number of arguments for 'slowlog'");
+        }
+    }
+
+    /**
+     * LATENCY HISTOGRAM [command ...]: per command, its calls and a cumulative
+     * count per power-of-two microsecond bucket (only buckets that add calls).
+     */
+    private void handleLatency(RespWriter out, List<String> args) {
+        if (!args.get(1).equalsIgnoreCase("HISTOGRAM")) {
+            out.writeError("ERR unknown subcommand '" + args.get(1) + "'");
+            return;
+        }
+
+        List<CommandSpec> specs = new ArrayList<>();
+        if (args.size() == 2) {
+            specs.addAll(commands.all());
+        } else {
+            for (int i = 2; i < args.size(); i++) {
+                CommandSpec spec = commands.find(args.get(i));
+                if (spec != null && !specs.contains(spec)) {
+                    specs.add(spec);
+                }
+            }
+        }
+        specs.removeIf(spec -> spec.latency.count() == 0);
+
+        out.writeArrayHeader(specs.size() * 2);
+        for (CommandSpec spec : specs) {
+            LatencyHistogram latency = spec.latency;
+            List<long[]> buckets = new ArrayList<>();
+            long previous = 0;
+            for (long bucketUsec = 1; previous < latency.count(); bucketUsec <<= 1) {
+                long cumulative = latency.countAtOrBelow(bucketUsec * 1000);
+                if (cumulative > previous) {
+                    buckets.add(new long[] { bucketUsec, cumulative });
+                    previous = cumulative;
+                }
+            }
+
+            out.writeBulkString(spec.name);
+            out.writeArrayHeader(4);
+            out.writeBulkString("calls");
+            out.writeInteger(latency.count());
+            out.writeBulkString("histogram_usec");
+            out.writeArrayHeader(buckets.size() * 2);
+            for (long[] bucket : buckets) {
+                out.writeInteger(bucket[0]);
+                out.writeInteger(bucket[1]);
+            }
+        }
+    }
+
+    // CONFIG RESETSTAT; settings are only taken from the command line
+    private void handleConfig(RespWriter out, List<String> args) {
+        if (!args.get(1).equalsIgnoreCase("RESETSTAT") || args.size() != 2) {
+            out.writeError("ERR unknown subcommand or wrong number of arguments for 'config'");
+            return;
+        }
+        for (CommandSpec spec : commands.all()) {
+            spec.resetStats();
+        }
+        loopCycles.reset();
+        loopCycleNanos = 0;
+        totalConnections = connectedClients;
+        out.writeSimpleString("OK");
+    }
+
+    /**
+     * Replaces the data with a full resync's snapshot. The AOF is rewritten
+     * from the new data.
+     */
+    void loadFromPrimary(Path file) throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            store.clear();
+            SnapshotFile.LoadResult result = SnapshotFile.load(file, List.of(loader()), key -> 0,
+                    Runtime.getRuntime().availableProcessors());
+            Log.notice("Loaded {} keys from the primary in {} ms", result.loaded, System.currentTimeMillis() - start);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        if (aof != null) {
+            aof.requestRewrite();
+        }
+    }
+
+    /**
+     * Runs query against every shard on the shard's own thread, this one
+     * first, then reply with the results on this thread. Meanwhile the client
+     * is paused, so its next command waits for the reply. Inside EXEC, which
+     * can't pause, the other shards still run the query (a PUBLISH still
+     * reaches their subscribers) but the reply only has this shard's result.
+     */
+    <T> void onAllShards(ClientSession client, Function<SimpleCommandHandler, T> query,
+                                 BiConsumer<RespWriter, List<T>> reply) {
+        T local = query.apply(this);
+        if (peers.isEmpty() || inExec) {
+            for (SimpleCommandHandler peer : peers) {
+                peer.loop.execute(() -> query.apply(peer));
+            }
+            reply.accept(client.writer(), List.of(local));
+            return;
+        }
+
+        List<T> results = new ArrayList<>(Collections.nCopies(peers.size() + 1, null));
+        results.set(0, local);
+        int[] pending = { peers.size() };
+        client.pause();
+        for (int i = 0; i < peers.size(); i++) {
+            SimpleCommandHandler peer = peers.get(i);
+            int index = i + 1;
+            peer.loop.execute(() -> {
+                T result = query.apply(peer);
+                loop.execute(() -> {
+                    results.set(index, result);
+                    if (--pending[0] == 0) {
+                        reply.accept(client.writer(), results);
+                        unblocked.add(client);
+                    }
+                });
+            });
+        }
+    }
+
+    private void handleMulti(ClientSession client) {
+        MultiState multi = client.multiState();
+        if (multi.isActive()) {
+            client.writer().writeError("ERR MULTI calls can not be nested");
+            return;
+        }
+        multi.begin();
+        client.writer().writeSimpleString("OK");
+    }
+
+    /**
+     * EXEC: runs the queued commands back to back, so no other client's
+     * command comes in between, and replies with all their replies in one
+     * array (sent with the loop's single flush). Replies with a null array
+     * instead if a WATCHed key changed, and EXECABORT if a command was
+     * refused while queueing.
+     */
+    private void handleExec(ClientSession client) throws IOException {
+        RespWriter out = client.writer();
+        MultiState multi = client.multiState();
+        if (!multi.isActive()) {
+            out.writeError("ERR EXEC without MULTI");
+            return;
+        }
+        boolean failed = multi.isFailed();
+        boolean watchedKeyChanged = !failed && watchedKeyChanged(multi);
+        List<RespCommand> queued = multi.end();
+        if (failed) {
+            out.writeError("EXECABORT Transaction discarded because of previous errors.");
+            return;
+        }
+        if (watchedKeyChanged) {
+            out.writeNullArray();
+            return;
+        }
+
+        out.writeArrayHeader(queued.size());
+        inExec = true;
+        try {
+            for (RespCommand command : queued) {
+                call(client, commands.lookup(command), command);
+            }
+        } finally {
+            inExec = false;
+            if (execLogged) {
+                execLogged = false;
+                log(List.of("EXEC"));
+            }
+        }
+    }
+
+    private boolean watchedKeyChanged(MultiState multi) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> watched : multi.watched().entrySet()) {
+            if (store.changedSince(watched.getKey(), watched.getValue(), now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handleDiscard(ClientSession client) {
+        MultiState multi = client.multiState();
+        if (!multi.isActive()) {
+            client.writer().writeError("ERR DISCARD without MULTI");
+            return;
+        }
+        multi.end();
+        client.writer().writeSimpleString("OK");
+    }
+
+    // WATCH key [key ...]: the next EXEC fails if one of them changes first.
+    // The token is this shard's, and so is the EXEC checking it
+    private void handleWatch(ClientSession client, RespCommand args) {
+        MultiState multi = client.multiState();
+        if (multi.isActive()) {
+            client.writer().writeError("ERR WATCH inside MULTI is not allowed");
+            return;
+        }
+        if (!inTransactionShard(client.writer(), multi, commands.lookup(args), args)) {
+            return;
+        }
+        long token = store.watchToken();
+        for (int i = 1; i < args.size(); i++) {
+            multi.watch(args.get(i), token);
+        }
+        client.writer().writeSimpleString("OK");
+    }
+
+    private void handleUnwatch(ClientSession client) {
+        client.multiState().unwatch();
+        client.writer().writeSimpleString("OK");
+    }
+
+    private void handleBgrewriteaof(RespWriter out) {
+        if (aof == null) {
+            out.writeError("ERR Append only file is disabled");
+            return;
+        }
+        if (aof.isRewriteInProgress()) {
+            out.writeError("ERR Background append only file rewriting already in progress");
+            return;
+        }
+        // Picked up by every shard on its next tick
+        aof.requestRewrite();
+        out.writeSimpleString("Background append only file rewriting started");
+    }
+
+    // SAVE waits until the file is written; this blocks only this shard's
+    // event loop, the others keep serving while they hand over their snapshots
+    private void handleSave(RespWriter out, boolean background) {
+        if (snapshotSaver == null) {
+            out.writeError("ERR snapshots are disabled");
+            return;
+        }
+        CompletableFuture<Long> done = snapshotSaver.requestSave();
+        if (done == null) {
+            out.writeError("ERR Background save already in progress");
+            return;
+        }
+        snapshotSaver.submit(shardIndex, snapshot());
+
+        if (background) {
+            out.writeSimpleString("Background saving started");
+            return;
+        }
+        try {
+            done.get();
+            out.writeSimpleString("OK");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.writeError("ERR save interrupted");
+        } catch (ExecutionException e) {
+            out.writeError("ERR " + e.getCause().getMessage());
+        }
+    }
+
+    private void handleLastsave(RespWriter out) {
+        if (snapshotSaver == null) {
+            out.writeError("ERR snapshots are disabled");
+            return;
+        }
+        out.writeInteger(snapshotSaver.getLastSaveTime());
+    }
+
+    // Logs a write that changed the dataset, and stamps its keys for WATCH
+    void propagate(List<String> args) {
+        if (store.tracksChanges()) {
+            touchKeys(args);
+        }
+        // A transaction's writes are logged between MULTI and EXEC, so a
+        // replica or an AOF replay applies them all at once too
+        if (inExec && !execLogged && (aof != null || replication.isEnabled())) {
+            execLogged = true;
+            log(List.of("MULTI"));
+        }
+        log(args);
+    }
+
+    private void log(List<String> args) {
+        if (aof != null) {
+            aof.append(args);
+        }
+        replication.propagate(args);
+    }
+
+    // Every write is logged in a form whose key positions the table knows
+    private void touchKeys(List<String> args) {
+        CommandSpec spec = commands.find(args.get(0));
+        if (spec == null) {
+            return;
+        }
+        for (int i : spec.keyIndexes(args)) {
+            store.touch(args.get(i));
+        }
+    }
+
+    @Override
+    public void onTick() throws IOException {
+        long now = System.currentTimeMillis();
+
+        store.rehashFor(REHASH_BUDGET_NANOS);
+        resumeUnblocked();
+        advanceKeysJobs();
+
+        // Replicas get this iteration's writes with the replies
+        replication.onTick(now);
+
+        cluster.saveIfChanged();
+
+        // Group commit: everything this loop iteration logged goes out in one
+        // write (and fsync), before the reactor sends the replies
+        if (aof != null) {
+            if (aof.rewriteDue()) {
+                aof.startRewrite(snapshot());
+            }
+            aof.flush();
+        }
+
+        scheduleExpiry();
+        scheduleCron();
+    }
+
+    // Keeps the expiry timer at the earliest TTL, which this iteration's
+    // commands may have moved
+    private void scheduleExpiry() {
+        long next = store.nextExpireAtMs();
+        if (expiryTimer != null) {
+            if (expiryTimer.deadline == next) {
+                return;
+            }
+            expiryTimer.cancel();
+            expiryTimer = null;
+        }
+        if (next != Long.MAX_VALUE) {
+            expiryTimer = timers.schedule(next, this::activeExpire);
+        }
+    }
+
+    // Reclaims keys whose TTL passed even if nobody reads them again; what
+    // doesn't fit in the budget is left due, so the loop comes right back
+    private void activeExpire() {
+        expiryTimer = null;
+        store.activeExpireCycle(System.currentTimeMillis(), ACTIVE_EXPIRE_BUDGET_NANOS);
+    }
+
+    // Without periodic work the loop sleeps until a client or another timer
+    // needs it. Checked after every command, so the cron starts again as soon
+    // as, say, a replica connects
+    private void scheduleCron() {
+        if (cronTimer == null && hasPeriodicWork()) {
+            cronTimer = timers.schedule(System.currentTimeMillis() + CRON_INTERVAL_MS, this::cron);
+        }
+    }
+
+    private boolean hasPeriodicWork() {
+        return store.isRehashing() || aof != null || cluster.isEnabled()
+                || replication.hasPeriodicWork();
+    }
+
+    // The rest runs in onTick, which follows every wakeup: replica pings and
+    // lag checks, AOF rewrite checks, rehashing
+    private void cron() {
+        cronTimer = null;
+        cluster.cron(System.currentTimeMillis());
+    }
+
+    // Hands this shard's snapshot to a save started by another shard
+    private void submitSnapshot() {
+        if (snapshotSaver.isSnapshotWanted(shardIndex)) {
+            snapshotSaver.submit(shardIndex, snapshot());
+        }
+    }
+
+    @Override
+    public boolean hasPendingWork() {
+        return !keysJobs.isEmpty();
+    }
+
+    private void advanceKeysJobs() throws IOException {
+        if (keysJobs.isEmpty()) {
+            return;
+        }
+
+        // Split the budget between the running walks
+        long budget = Math.max(KEYS_BUDGET_NANOS / keysJobs.size(), 1);
+        List<ClientSession> finished = new ArrayList<>();
+        Iterator<KeysJob> it = keysJobs.iterator();
+        while (it.hasNext()) {
+            KeysJob job = it.next();
+            if (job.client.isClosed()) {
+                it.remove();
+            } else if (advanceKeys(job, budget)) {
+                it.remove();
+                finished.add(job.client);
+            }
+        }
+        // Only now: the commands that queued up behind KEYS may start new jobs
+        for (ClientSession client : finished) {
+            client.resume();
+            if (client.isClosed()) {
+                // Protocol error in what it sent meanwhile
+                clientDisconnected(client);
+            }
+        }
+    }
+
+    // Clients that got their blocking reply continue with what they sent meanwhile
+    private void resumeUnblocked() throws IOException {
+        while (!unblocked.isEmpty()) {
+            ClientSession client = unblocked.pollFirst();
+            if (client.isClosed()) {
+                continue;
+            }
+            client.resume();
+            if (client.isClosed()) {
+                // Protocol error in what it sent meanwhile
+                clientDisconnected(client);
+            }
+        }
+    }
 
     InMemoryKeyValueStore getStringStore() {
         return store;
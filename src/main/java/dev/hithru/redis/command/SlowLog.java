@@ -0,0 +1,112 @@
+package dev.hithru.redis.command;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+
+/**
+ * SlowLog
+ *
+ * The last maxLength commands that took longer than the threshold, newest
+ * first, like Redis' SLOWLOG. Commands under the threshold cost one
+ * comparison; only slow ones copy their (truncated) arguments.
+ */
+final class SlowLog {
+
+    /** Default threshold, in microseconds (Redis' slowlog-log-slower-than). */
+    static final long DEFAULT_THRESHOLD_USEC = 10_000;
+    /** Default number of entries kept (Redis' slowlog-max-len). */
+    static final int DEFAULT_MAX_LENGTH = 128;
+
+    // Same truncation as Redis
+    private static final int MAX_ARGS = 32;
+    private static final int MAX_ARG_LENGTH = 128;
+
+    static final class Entry {
+        final long id;
+        final long timestampSeconds;
+        final long durationUsec;
+        final List<String> args;
+        final String client;
+
+        Entry(long id, long timestampSeconds, long durationUsec, List<String> args, String client) {
+            this.id = id;
+            this.timestampSeconds = timestampSeconds;
+            this.durationUsec = durationUsec;
+            this.args = args;
+            this.client = client;
+        }
+    }
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private long thresholdNanos = DEFAULT_THRESHOLD_USEC * 1000;
+    private int maxLength = DEFAULT_MAX_LENGTH;
+    private long nextId;
+
+    /**
+     * @param thresholdUsec log commands slower than this; negative disables the log
+     */
+    void configure(long thresholdUsec, int maxLength) {
+        this.thresholdNanos = thresholdUsec < 0 ? Long.MAX_VALUE : thresholdUsec * 1000;
+        this.maxLength = Math.max(0, maxLength);
+        trim();
+    }
+
+    /**
+     * Logs the command if it took longer than the threshold.
+     */
+    void record(RespCommand args, long durationNanos, ClientSession client) {
+        if (durationNanos <= thresholdNanos || maxLength == 0) {
+            return;
+        }
+
+        int argc = Math.min(args.size(), MAX_ARGS);
+        List<String> copy = new ArrayList<>(argc);
+        for (int i = 0; i < argc; i++) {
+            int length = args.length(i);
+            if (i == MAX_ARGS - 1 && args.size() > MAX_ARGS) {
+                copy.add("... (" + (args.size() - MAX_ARGS + 1) + " more arguments)");
+            } else if (length > MAX_ARG_LENGTH) {
+                String head = args.get(i).substring(0, MAX_ARG_LENGTH);
+                copy.add(head + "... (" + (length - MAX_ARG_LENGTH) + " more bytes)");
+            } else {
+                copy.add(args.get(i));
+            }
+        }
+
+        entries.addFirst(new Entry(nextId++, System.currentTimeMillis() / 1000,
+                durationNanos / 1000, copy, client.address()));
+        trim();
+    }
+
+    /**
+     * Up to count entries, newest first (all of them if count is negative).
+     */
+    List<Entry> get(int count) {
+        List<Entry> result = new ArrayList<>();
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext() && (count < 0 || result.size() < count)) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    int length() {
+        return entries.size();
+    }
+
+    void reset() {
+        entries.clear();
+    }
+
+    private void trim() {
+        while (entries.size() > maxLength) {
+            entries.removeLast();
+        }
+    }
+}
@@ -0,0 +1,802 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.store.stream.InMemoryStreamStore;
+import dev.hithru.redis.store.stream.PendingEntry;
+import dev.hithru.redis.store.stream.PendingSummary;
+import dev.hithru.redis.store.stream.StreamEntry;
+import dev.hithru.redis.store.stream.StreamId;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The stream commands of a SimpleCommandHandler (XADD, XRANGE, XREAD,
+ * XREADGROUP, XGROUP, XPENDING, XCLAIM...), over its InMemoryStreamStore.
+ * Writes are logged through the handler, and a blocking XREAD / XREADGROUP
+ * waits among the handler's other blocked clients.
+ */
+final class StreamCommands {
+
+    private final SimpleCommandHandler server;
+    private final InMemoryStreamStore streamStore;
+
+    StreamCommands(SimpleCommandHandler server, InMemoryStreamStore streamStore) {
+        this.server = server;
+        this.streamStore = streamStore;
+    }
+
+    /**
+     * The reading part of an XREAD / XREADGROUP: entries after after[i] on
+     * the i-th key, or for a group, after[i] null (">") for entries never
+     * delivered to it.
+     */
+    static final class StreamRead {
+        final String group;    // null = XREAD
+        final String consumer;
+        final List<StreamId> after;
+        final long count;      // 0 = no limit
+        final boolean noAck;
+
+        StreamRead(String group, String consumer, List<StreamId> after, long count, boolean noAck) {
+            this.group = group;
+            this.consumer = consumer;
+            this.after = after;
+            this.count = count;
+            this.noAck = noAck;
+        }
+    }
+
+    // XADD key [NOMKSTREAM] [MAXLEN|MINID [=|~] threshold [LIMIT count]] id|* field value [field value ...]
+    void handleXadd(RespWriter out, List<String> args) {
+        String key = args.get(1);
+        boolean noMkStream = false;
+        StreamTrim trim = null;
+        int i = 2;
+        while (i < args.size()) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if (option.equals("NOMKSTREAM")) {
+                noMkStream = true;
+                i++;
+            } else if (option.equals("MAXLEN") || option.equals("MINID")) {
+                trim = parseStreamTrim(out, args, i);
+                if (trim == null) {
+                    return;
+                }
+                i = trim.next;
+            } else {
+                break;
+            }
+        }
+        int fields = args.size() - i - 1;
+        if (fields <= 0 || fields % 2 != 0) {
+            out.writeError("ERR wrong number of arguments for 'xadd' command");
+            return;
+        }
+        if (noMkStream && !streamStore.exists(key)) {
+            out.writeNullBulkString();
+            return;
+        }
+        StreamId id = resolveXaddId(out, args.get(i), streamStore.lastId(key), System.currentTimeMillis());
+        if (id == null) {
+            return;
+        }
+
+        List<String> fieldsAndValues = args.subList(i + 1, args.size());
+        streamStore.xadd(key, id, fieldsAndValues);
+        boolean trimmed = trim != null && trimStream(key, trim) > 0;
+
+        // Logged with the ID it got, and trimming as the exact cut it made
+        List<String> command = new ArrayList<>(fieldsAndValues.size() + 6);
+        command.add("XADD");
+        command.add(key);
+        if (trimmed) {
+            command.addAll(exactTrim(key));
+        }
+        command.add(id.toString());
+        command.addAll(fieldsAndValues);
+        server.propagate(command);
+        server.signalKeyReady(key);
+        out.writeBulkString(id.toString());
+    }
+
+    /**
+     * XADD's "*" (now, or after the last ID), "ms-*" (the next sequence of
+     * that millisecond) or "ms[-seq]", which must be after the last ID.
+     * Null after replying with an error.
+     */
+    private static StreamId resolveXaddId(RespWriter out, String arg, StreamId last, long now) {
+        StreamId id;
+        if (arg.equals("*")) {
+            id = last == null || now > last.ms ? new StreamId(now, 0) : last.next();
+        } else if (arg.endsWith("-*")) {
+            StreamId ms = StreamId.parse(arg.substring(0, arg.length() - 2), 0);
+            if (ms == null || arg.indexOf('-') != arg.length() - 2) {
+                out.writeError("ERR Invalid stream ID specified as stream command argument");
+                return null;
+            }
+            if (last != null && ms.ms == last.ms) {
+                id = last.next();
+                if (id != null && id.ms != ms.ms) {
+                    id = null;
+                }
+            } else {
+                id = new StreamId(ms.ms, ms.ms == 0 ? 1 : 0);
+            }
+        } else {
+            id = StreamId.parse(arg, 0);
+            if (id == null) {
+                out.writeError("ERR Invalid stream ID specified as stream command argument");
+                return null;
+            }
+            if (id.equals(StreamId.MIN)) {
+                out.writeError("ERR The ID specified in XADD must be greater than 0-0");
+                return null;
+            }
+        }
+        if (id == null) {
+            out.writeError("ERR The stream has exhausted the last possible ID, unable to add more items");
+            return null;
+        }
+        if (last != null && id.compareTo(last) <= 0) {
+            out.writeError("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+            return null;
+        }
+        return id;
+    }
+
+    /**
+     * XADD / XTRIM's MAXLEN|MINID [=|~] threshold [LIMIT count].
+     */
+    private static final class StreamTrim {
+        boolean byMinId;
+        long maxLen;
+        StreamId minId;
+        boolean approx;
+        long limit;
+        int next; // index after the clause
+    }
+
+    // The trim clause starting at args[i]; null after replying with an error
+    private static StreamTrim parseStreamTrim(RespWriter out, List<String> args, int i) {
+        StreamTrim trim = new StreamTrim();
+        trim.byMinId = args.get(i).equalsIgnoreCase("MINID");
+        i++;
+        if (i < args.size() && (args.get(i).equals("=") || args.get(i).equals("~"))) {
+            trim.approx = args.get(i).equals("~");
+            i++;
+        }
+        if (i >= args.size()) {
+            out.writeError("ERR syntax error");
+            return null;
+        }
+        String threshold = args.get(i++);
+        if (trim.byMinId) {
+            trim.minId = StreamId.parse(threshold, 0);
+            if (trim.minId == null) {
+                out.writeError("ERR Invalid stream ID specified as stream command argument");
+                return null;
+            }
+        } else {
+            try {
+                trim.maxLen = Long.parseLong(threshold);
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not an integer or out of range");
+                return null;
+            }
+            if (trim.maxLen < 0) {
+                out.writeError("ERR The MAXLEN argument must be >= 0.");
+                return null;
+            }
+        }
+
+        trim.limit = trim.approx ? InMemoryStreamStore.DEFAULT_TRIM_LIMIT : 0;
+        if (i + 1 < args.size() && args.get(i).equalsIgnoreCase("LIMIT")) {
+            if (!trim.approx) {
+                out.writeError("ERR syntax error, LIMIT cannot be used without the special ~ option");
+                return null;
+            }
+            try {
+                trim.limit = Long.parseLong(args.get(i + 1));
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not an integer or out of range");
+                return null;
+            }
+            if (trim.limit < 0) {
+                out.writeError("ERR The LIMIT argument must be >= 0.");
+                return null;
+            }
+            i += 2;
+        }
+        trim.next = i;
+        return trim;
+    }
+
+    private long trimStream(String key, StreamTrim trim) {
+        return trim.byMinId
+                ? streamStore.trimToMinId(key, trim.minId, trim.approx, trim.limit)
+                : streamStore.trimToLength(key, trim.maxLen, trim.approx, trim.limit);
+    }
+
+    // A trim clause cutting key exactly where it now starts, so replaying it doesn't depend on node sizes
+    private List<String> exactTrim(String key) {
+        List<StreamEntry> first = streamStore.xrange(key, StreamId.MIN, StreamId.MAX, 1, false);
+        return first.isEmpty() ? List.of("MAXLEN", "=", "0") : List.of("MINID", "=", first.get(0).id().toString());
+    }
+
+    // XRANGE key start end [COUNT count], XREVRANGE key end start [COUNT count]
+    void handleXrange(RespWriter out, List<String> args, boolean reverse) {
+        StreamId start = parseRangeId(args.get(reverse ? 3 : 2), false);
+        StreamId end = parseRangeId(args.get(reverse ? 2 : 3), true);
+        if (start == null || end == null) {
+            out.writeError("ERR Invalid stream ID specified as stream command argument");
+            return;
+        }
+        long count = 0;
+        if (args.size() == 6 && args.get(4).equalsIgnoreCase("COUNT")) {
+            try {
+                count = Long.parseLong(args.get(5));
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not an integer or out of range");
+                return;
+            }
+            if (count <= 0) {
+                out.writeArrayHeader(0);
+                return;
+            }
+        } else if (args.size() != 4) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        writeStreamEntries(out, streamStore.xrange(args.get(1), start, end, count, reverse));
+    }
+
+    /**
+     * A range bound: "-" / "+", "ms-seq", "ms" (from its first or to its
+     * last sequence), "(" before an ID to exclude it. Null if invalid.
+     */
+    private static StreamId parseRangeId(String arg, boolean end) {
+        if (arg.equals("-")) {
+            return StreamId.MIN;
+        }
+        if (arg.equals("+")) {
+            return StreamId.MAX;
+        }
+        boolean exclusive = arg.startsWith("(");
+        StreamId id = StreamId.parse(exclusive ? arg.substring(1) : arg, end ? Long.MAX_VALUE : 0);
+        if (id == null || !exclusive) {
+            return id;
+        }
+        return end ? id.previous() : id.next();
+    }
+
+    void handleXlen(RespWriter out, List<String> args) {
+        out.writeInteger(streamStore.xlen(args.get(1)));
+    }
+
+    // XTRIM key MAXLEN|MINID [=|~] threshold [LIMIT count] -> :<entries removed>
+    void handleXtrim(RespWriter out, List<String> args) {
+        String option = args.get(2);
+        if (!option.equalsIgnoreCase("MAXLEN") && !option.equalsIgnoreCase("MINID")) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        StreamTrim trim = parseStreamTrim(out, args, 2);
+        if (trim == null) {
+            return;
+        }
+        if (trim.next != args.size()) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        String key = args.get(1);
+        long removed = trimStream(key, trim);
+        if (removed > 0) {
+            List<String> command = new ArrayList<>(List.of("XTRIM", key));
+            command.addAll(exactTrim(key));
+            server.propagate(command);
+        }
+        out.writeInteger(removed);
+    }
+
+    // XDEL key id [id ...] -> :<entries deleted>
+    void handleXdel(RespWriter out, List<String> args) {
+        List<StreamId> ids = parseStreamIds(out, args, 2);
+        if (ids == null) {
+            return;
+        }
+        int deleted = streamStore.xdel(args.get(1), ids);
+        if (deleted > 0) {
+            server.propagate(args);
+        }
+        out.writeInteger(deleted);
+    }
+
+    // "ms[-seq]" IDs from args[from] on; null after replying with an error
+    private static List<StreamId> parseStreamIds(RespWriter out, List<String> args, int from) {
+        List<StreamId> ids = new ArrayList<>(args.size() - from);
+        for (int i = from; i < args.size(); i++) {
+            StreamId id = StreamId.parse(args.get(i), 0);
+            if (id == null) {
+                out.writeError("ERR Invalid stream ID specified as stream command argument");
+                return null;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    // XSETID key last-id
+    void handleXsetid(RespWriter out, List<String> args) {
+        String key = args.get(1);
+        StreamId id = StreamId.parse(args.get(2), 0);
+        if (id == null) {
+            out.writeError("ERR Invalid stream ID specified as stream command argument");
+            return;
+        }
+        if (!streamStore.exists(key)) {
+            out.writeError("ERR no such key");
+            return;
+        }
+        if (!streamStore.setLastId(key, id)) {
+            out.writeError("ERR The ID specified in XSETID is smaller than the target stream top item");
+            return;
+        }
+        server.propagate(args);
+        out.writeSimpleString("OK");
+    }
+
+    /**
+     * XREAD [COUNT count] [BLOCK ms] STREAMS key [key ...] id [id ...]
+     * XREADGROUP GROUP group consumer [COUNT count] [BLOCK ms] [NOACK] STREAMS key [key ...] id [id ...]
+     *
+     * Replies with the streams that have entries, or blocks until one does
+     * (null array on timeout). XREAD's "$" means entries added from now on;
+     * XREADGROUP's ">" entries new to the group, any other ID the consumer's
+     * pending entries after it, which never blocks.
+     */
+    void handleXread(ClientSession client, List<String> args, boolean grouped) {
+        RespWriter out = client.writer();
+        String name = grouped ? "xreadgroup" : "xread";
+        String group = null;
+        String consumer = null;
+        long count = 0;
+        long blockMs = -1;
+        boolean noAck = false;
+        int streams = -1;
+        for (int i = 1; i < args.size() && streams < 0; i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            boolean hasValue = i + 1 < args.size();
+            if (option.equals("COUNT") && hasValue) {
+                try {
+                    count = Math.max(0, Long.parseLong(args.get(++i)));
+                } catch (NumberFormatException e) {
+                    out.writeError("ERR value is not an integer or out of range");
+                    return;
+                }
+            } else if (option.equals("BLOCK") && hasValue) {
+                try {
+                    blockMs = Long.parseLong(args.get(++i));
+                } catch (NumberFormatException e) {
+                    out.writeError("ERR timeout is not an integer or out of range");
+                    return;
+                }
+                if (blockMs < 0) {
+                    out.writeError("ERR timeout is negative");
+                    return;
+                }
+            } else if (grouped && option.equals("GROUP") && i + 2 < args.size()) {
+                group = args.get(++i);
+                consumer = args.get(++i);
+            } else if (grouped && option.equals("NOACK")) {
+                noAck = true;
+            } else if (option.equals("STREAMS")) {
+                streams = i + 1;
+            } else {
+                out.writeError("ERR syntax error");
+                return;
+            }
+        }
+        int keyCount = streams < 0 ? 0 : (args.size() - streams) / 2;
+        if (keyCount == 0 || (args.size() - streams) % 2 != 0) {
+            out.writeError("ERR Unbalanced '" + name + "' list of streams: for each stream key an ID or '"
+                    + (grouped ? ">" : "$") + "' must be specified.");
+            return;
+        }
+        if (grouped && group == null) {
+            out.writeError("ERR Missing GROUP option for XREADGROUP");
+            return;
+        }
+
+        List<String> keys = List.copyOf(args.subList(streams, streams + keyCount));
+        List<StreamId> after = new ArrayList<>(keyCount);
+        boolean history = false;
+        for (int i = 0; i < keyCount; i++) {
+            String arg = args.get(streams + keyCount + i);
+            StreamId id;
+            if (grouped && arg.equals(">")) {
+                id = null;
+            } else if (!grouped && arg.equals("$")) {
+                StreamId last = streamStore.lastId(keys.get(i));
+                id = last == null ? StreamId.MIN : last;
+            } else {
+                id = StreamId.parse(arg, 0);
+                if (id == null) {
+                    out.writeError("ERR Invalid stream ID specified as stream command argument");
+                    return;
+                }
+                history |= grouped;
+            }
+            after.add(id);
+        }
+
+        StreamRead read = new StreamRead(group, consumer, after, count, noAck);
+        Map<String, List<StreamEntry>> result = readStreams(out, read, keys, System.currentTimeMillis());
+        if (result == null) {
+            return;
+        }
+        if (!result.isEmpty() || history) {
+            writeStreamReply(out, result);
+        } else if (blockMs < 0) {
+            out.writeNullArray();
+        } else {
+            long deadline = blockMs == 0 ? SimpleCommandHandler.NO_DEADLINE : System.currentTimeMillis() + blockMs;
+            server.blockOnStreams(client, keys, read, deadline);
+        }
+    }
+
+    /**
+     * Reads the streams for an XREAD / XREADGROUP, by key, leaving out those
+     * without entries (but not a group's history reads, which show empty).
+     * Null after replying NOGROUP if a key or group is missing.
+     */
+    Map<String, List<StreamEntry>> readStreams(RespWriter out, StreamRead read, List<String> keys, long now) {
+        if (read.group != null) {
+            for (String key : keys) {
+                if (!streamStore.groupExists(key, read.group)) {
+                    out.writeError("NOGROUP No such key '" + key + "' or consumer group '" + read.group
+                            + "' in XREADGROUP with GROUP option");
+                    return null;
+                }
+            }
+        }
+        Map<String, List<StreamEntry>> result = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            StreamId after = read.after.get(i);
+            if (read.group == null) {
+                StreamId start = after.next();
+                List<StreamEntry> entries = start == null
+                        ? List.of() : streamStore.xrange(key, start, StreamId.MAX, read.count, false);
+                if (!entries.isEmpty()) {
+                    result.put(key, entries);
+                }
+                continue;
+            }
+            boolean newConsumer = !streamStore.consumerExists(key, read.group, read.consumer);
+            List<StreamEntry> entries = streamStore.readGroup(key, read.group, read.consumer, after,
+                    read.count, read.noAck, now);
+            propagateDeliveries(key, read, newConsumer, after != null ? List.of() : entries, now);
+            if (after != null || !entries.isEmpty()) {
+                result.put(key, entries);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Logs what an XREADGROUP changed the way an AOF rewrite writes groups:
+     * each entry delivered as an XCLAIM ... FORCE that also moves the
+     * group's last delivered ID, or with NOACK just the last delivered ID.
+     * History reads only change the consumer's seen time, which isn't logged.
+     */
+    private void propagateDeliveries(String key, StreamRead read, boolean newConsumer,
+                                     List<StreamEntry> entries, long now) {
+        if (newConsumer) {
+            server.propagate(List.of("XGROUP", "CREATECONSUMER", key, read.group, read.consumer));
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (read.noAck) {
+            String last = entries.get(entries.size() - 1).id().toString();
+            server.propagate(List.of("XGROUP", "SETID", key, read.group, last));
+            return;
+        }
+        for (StreamEntry entry : entries) {
+            String id = entry.id().toString();
+            server.propagate(List.of("XCLAIM", key, read.group, read.consumer, "0", id,
+                    "TIME", Long.toString(now), "FORCE", "JUSTID", "LASTID", id));
+        }
+    }
+
+    // [[key, [[id, [field, value...]]...]]...]
+    static void writeStreamReply(RespWriter out, Map<String, List<StreamEntry>> result) {
+        out.writeArrayHeader(result.size());
+        for (Map.Entry<String, List<StreamEntry>> stream : result.entrySet()) {
+            out.writeArrayHeader(2);
+            out.writeBulkString(stream.getKey());
+            writeStreamEntries(out, stream.getValue());
+        }
+    }
+
+    // [[id, [field, value...]]...]; an entry deleted while pending has a null array instead
+    private static void writeStreamEntries(RespWriter out, List<StreamEntry> entries) {
+        out.writeArrayHeader(entries.size());
+        for (StreamEntry entry : entries) {
+            out.writeArrayHeader(2);
+            out.writeBulkString(entry.id().toString());
+            if (entry.fieldsAndValues() == null) {
+                out.writeNullArray();
+            } else {
+                out.writeArrayOfBulkStrings(entry.fieldsAndValues());
+            }
+        }
+    }
+
+    /**
+     * XGROUP CREATE key group id|$ [MKSTREAM], SETID key group id|$,
+     * DESTROY key group, CREATECONSUMER key group consumer,
+     * DELCONSUMER key group consumer
+     */
+    void handleXgroup(RespWriter out, List<String> args) {
+        String sub = args.get(1).toLowerCase(Locale.ROOT);
+        int arity = switch (sub) {
+            case "create" -> args.size() == 6 ? 6 : 5;
+            case "setid", "createconsumer", "delconsumer" -> 5;
+            case "destroy" -> 4;
+            default -> -1;
+        };
+        if (arity < 0 || args.size() != arity) {
+            out.writeError("ERR unknown subcommand or wrong number of arguments for 'xgroup|" + sub + "'");
+            return;
+        }
+        String key = args.get(2);
+        String group = args.get(3);
+        boolean mkStream = sub.equals("create") && args.size() == 6;
+        if (mkStream && !args.get(5).equalsIgnoreCase("MKSTREAM")) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        if (!mkStream && !streamStore.exists(key)) {
+            out.writeError("ERR The XGROUP subcommand requires the key to exist. Note that for CREATE you may "
+                    + "want to use the MKSTREAM option to create an empty stream automatically.");
+            return;
+        }
+        if (!sub.equals("create") && !streamStore.groupExists(key, group)) {
+            out.writeError("NOGROUP No such consumer group '" + group + "' for key name '" + key + "'");
+            return;
+        }
+
+        switch (sub) {
+            case "create", "setid" -> {
+                // "$" is logged as the ID it stood for
+                StreamId id = args.get(4).equals("$") ? null : StreamId.parse(args.get(4), 0);
+                if (id == null && !args.get(4).equals("$")) {
+                    out.writeError("ERR Invalid stream ID specified as stream command argument");
+                    return;
+                }
+                if (sub.equals("create") && !streamStore.createGroup(key, group, id, mkStream)) {
+                    out.writeError("BUSYGROUP Consumer Group name already exists");
+                    return;
+                }
+                if (sub.equals("setid")) {
+                    streamStore.setGroupId(key, group, id);
+                }
+                String resolved = (id == null ? streamStore.lastId(key) : id).toString();
+                server.propagate(sub.equals("create") && mkStream
+                        ? List.of("XGROUP", "CREATE", key, group, resolved, "MKSTREAM")
+                        : List.of("XGROUP", sub.toUpperCase(Locale.ROOT), key, group, resolved));
+                out.writeSimpleString("OK");
+            }
+            case "destroy" -> {
+                boolean destroyed = streamStore.destroyGroup(key, group);
+                server.propagate(args);
+                out.writeInteger(destroyed ? 1 : 0);
+            }
+            case "createconsumer" -> {
+                int created = streamStore.createConsumer(key, group, args.get(4), System.currentTimeMillis());
+                if (created > 0) {
+                    server.propagate(args);
+                }
+                out.writeInteger(created);
+            }
+            default -> {
+                long pending = streamStore.deleteConsumer(key, group, args.get(4));
+                server.propagate(args);
+                out.writeInteger(pending);
+            }
+        }
+    }
+
+    // XACK key group id [id ...] -> :<entries no longer pending>
+    void handleXack(RespWriter out, List<String> args) {
+        List<StreamId> ids = parseStreamIds(out, args, 3);
+        if (ids == null) {
+            return;
+        }
+        int acked = streamStore.xack(args.get(1), args.get(2), ids);
+        if (acked > 0) {
+            server.propagate(args);
+        }
+        out.writeInteger(acked);
+    }
+
+    /**
+     * XPENDING key group -> [count, smallest, largest, [[consumer, count]...]]
+     * XPENDING key group [IDLE min-idle] start end count [consumer]
+     *     -> [[id, consumer, idle ms, deliveries]...]
+     */
+    void handleXpending(RespWriter out, List<String> args) {
+        String key = args.get(1);
+        String group = args.get(2);
+        if (!streamStore.groupExists(key, group)) {
+            out.writeError("NOGROUP No such key '" + key + "' or consumer group '" + group + "'");
+            return;
+        }
+        if (args.size() == 3) {
+            PendingSummary summary = streamStore.pendingSummary(key, group);
+            out.writeArrayHeader(4);
+            out.writeInteger(summary.count());
+            if (summary.count() == 0) {
+                out.writeNullBulkString();
+                out.writeNullBulkString();
+                out.writeNullArray();
+                return;
+            }
+            out.writeBulkString(summary.smallest().toString());
+            out.writeBulkString(summary.largest().toString());
+            out.writeArrayHeader(summary.byConsumer().size());
+            for (Map.Entry<String, Long> consumer : summary.byConsumer().entrySet()) {
+                out.writeArrayOfBulkStrings(List.of(consumer.getKey(), Long.toString(consumer.getValue())));
+            }
+            return;
+        }
+
+        int i = 3;
+        long minIdle = 0;
+        long count;
+        if (args.get(i).equalsIgnoreCase("IDLE") && i + 1 < args.size()) {
+            try {
+                minIdle = Long.parseLong(args.get(i + 1));
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not an integer or out of range");
+                return;
+            }
+            i += 2;
+        }
+        if (args.size() - i != 3 && args.size() - i != 4) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        StreamId start = parseRangeId(args.get(i), false);
+        StreamId end = parseRangeId(args.get(i + 1), true);
+        if (start == null || end == null) {
+            out.writeError("ERR Invalid stream ID specified as stream command argument");
+            return;
+        }
+        try {
+            count = Long.parseLong(args.get(i + 2));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR value is not an integer or out of range");
+            return;
+        }
+        if (count <= 0) {
+            out.writeArrayHeader(0);
+            return;
+        }
+        String consumer = args.size() - i == 4 ? args.get(i + 3) : null;
+
+        long now = System.currentTimeMillis();
+        List<PendingEntry> entries = streamStore.pending(key, group, start, end, count, consumer, minIdle, now);
+        out.writeArrayHeader(entries.size());
+        for (PendingEntry entry : entries) {
+            out.writeArrayHeader(4);
+            out.writeBulkString(entry.id().toString());
+            out.writeBulkString(entry.consumer());
+            out.writeInteger(Math.max(0, now - entry.deliveryTime()));
+            out.writeInteger(entry.deliveryCount());
+        }
+    }
+
+    /**
+     * XCLAIM key group consumer min-idle-time id [id ...] [IDLE ms] [TIME unix-ms]
+     *        [RETRYCOUNT count] [FORCE] [JUSTID] [LASTID id]
+     *
+     * Logged with the IDs it claimed, an idle time of 0 and its TIME, so
+     * replaying it claims the same entries whenever it runs.
+     */
+    void handleXclaim(RespWriter out, List<String> args) {
+        String key = args.get(1);
+        String group = args.get(2);
+        String consumer = args.get(3);
+        long now = System.currentTimeMillis();
+        long minIdle;
+        try {
+            minIdle = Long.parseLong(args.get(4));
+        } catch (NumberFormatException e) {
+            out.writeError("ERR Invalid min-idle-time argument for XCLAIM");
+            return;
+        }
+
+        // IDs run until the first argument that isn't one
+        List<StreamId> ids = new ArrayList<>();
+        int i = 5;
+        for (StreamId id; i < args.size() && (id = StreamId.parse(args.get(i), 0)) != null; i++) {
+            ids.add(id);
+        }
+        long deliveryTime = now;
+        long retryCount = -1;
+        boolean force = false;
+        boolean justId = false;
+        StreamId lastId = null;
+        for (; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            boolean hasValue = i + 1 < args.size();
+            try {
+                if (option.equals("FORCE")) {
+                    force = true;
+                } else if (option.equals("JUSTID")) {
+                    justId = true;
+                } else if (option.equals("IDLE") && hasValue) {
+                    deliveryTime = now - Long.parseLong(args.get(++i));
+                } else if (option.equals("TIME") && hasValue) {
+                    deliveryTime = Long.parseLong(args.get(++i));
+                } else if (option.equals("RETRYCOUNT") && hasValue) {
+                    retryCount = Long.parseLong(args.get(++i));
+                } else if (option.equals("LASTID") && hasValue) {
+                    lastId = StreamId.parse(args.get(++i), 0);
+                    if (lastId == null) {
+                        out.writeError("ERR Invalid stream ID specified as stream command argument");
+                        return;
+                    }
+                } else {
+                    out.writeError("ERR Unrecognized XCLAIM option '" + args.get(i) + "'");
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not an integer or out of range");
+                return;
+            }
+        }
+        if (!streamStore.groupExists(key, group)) {
+            out.writeError("NOGROUP No such key '" + key + "' or consumer group '" + group + "'");
+            return;
+        }
+
+        List<StreamEntry> claimed = streamStore.claim(key, group, consumer, Math.max(0, minIdle), ids,
+                deliveryTime, retryCount, force, justId, lastId, now);
+        if (!claimed.isEmpty() || lastId != null) {
+            List<String> command = new ArrayList<>(List.of("XCLAIM", key, group, consumer, "0"));
+            for (StreamEntry entry : claimed) {
+                command.add(entry.id().toString());
+            }
+            command.addAll(List.of("TIME", Long.toString(deliveryTime)));
+            if (retryCount >= 0) {
+                command.addAll(List.of("RETRYCOUNT", Long.toString(retryCount)));
+            }
+            if (force) {
+                command.add("FORCE");
+            }
+            if (justId) {
+                command.add("JUSTID");
+            }
+            if (lastId != null) {
+                command.addAll(List.of("LASTID", lastId.toString()));
+            }
+            server.propagate(command);
+        }
+        if (justId) {
+            out.writeArrayHeader(claimed.size());
+            for (StreamEntry entry : claimed) {
+                out.writeBulkString(entry.id().toString());
+            }
+        } else {
+            writeStreamEntries(out, claimed);
+        }
+    }
+}
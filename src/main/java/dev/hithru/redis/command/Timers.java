@@ -0,0 +1,68 @@
+package dev.hithru.redis.command;
+
+/**
+ * Timers
+ *
+ * The timers of one event loop: tasks that run on the loop's thread once
+ * their deadline (epoch milliseconds) has passed. The loop sleeps in select()
+ * no longer than until the earliest deadline, so a timer fires within about a
+ * millisecond instead of at the next fixed poll, and a loop without timers
+ * doesn't wake up at all until there is I/O.
+ *
+ * Kept in a DeadlineHeap: scheduling and cancelling are O(log n), and a loop
+ * iteration only looks at timers that are due.
+ *
+ * Only used from the loop's thread.
+ */
+public final class Timers {
+
+    /**
+     * A scheduled task; cancel() drops it if it hasn't run yet.
+     */
+    public final class Timer extends DeadlineHeap.Entry {
+        private final Runnable task;
+
+        private Timer(long deadline, Runnable task) {
+            super(deadline);
+            this.task = task;
+        }
+
+        public void cancel() {
+            heap.remove(this);
+        }
+    }
+
+    private final DeadlineHeap<Timer> heap = new DeadlineHeap<>();
+
+    /**
+     * Runs task on the loop's thread at deadlineMs or shortly after, never
+     * before.
+     */
+    public Timer schedule(long deadlineMs, Runnable task) {
+        Timer timer = new Timer(deadlineMs, task);
+        heap.add(timer);
+        return timer;
+    }
+
+    /**
+     * @return the earliest deadline, or Long.MAX_VALUE if nothing is scheduled
+     */
+    public long nextDeadline() {
+        return heap.isEmpty() ? Long.MAX_VALUE : heap.firstDeadline();
+    }
+
+    /**
+     * Runs the tasks whose deadline is at or before nowMs, earliest first,
+     * including ones they schedule for a time that has already passed.
+     */
+    public void runDue(long nowMs) {
+        Timer timer;
+        while ((timer = heap.pollExpired(nowMs)) != null) {
+            timer.task.run();
+        }
+    }
+
+    public int size() {
+        return heap.size();
+    }
+}
@@ -0,0 +1,102 @@
+package dev.hithru.redis.log;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Log
+ *
+ * The server's logger. Calling it never does I/O: a record (level, template,
+ * arguments) goes into a LogRing and a background LogWriter thread formats
+ * and writes it, so a burst of connects or errors cannot stall an event loop
+ * on a slow console or disk. When the ring is full, records are dropped and
+ * the writer reports how many.
+ *
+ * Messages are templates with "{}" placeholders, filled in on the writer
+ * thread; arguments must not change after the call (strings, numbers,
+ * addresses).
+ *
+ * Logs at NOTICE to stdout until configure() is called. Queued records are
+ * written out when the JVM exits.
+ */
+public final class Log {
+
+    /** Records held while the writer catches up. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /** Times one message template is logged per second before it is suppressed. */
+    public static final int DEFAULT_RATE_LIMIT = 10;
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+
+    private static final LogRing RING = new LogRing(DEFAULT_BUFFER_SIZE);
+    private static final LogWriter WRITER = new LogWriter(RING, stdout(), DEFAULT_RATE_LIMIT);
+    private static volatile LogLevel level = LogLevel.NOTICE;
+
+    static {
+        Thread thread = new Thread(WRITER, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                WRITER.stop(SHUTDOWN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @param file      appended to; null logs to stdout
+     * @param rateLimit per message template and second; 0 disables rate limiting
+     */
+    public static void configure(LogLevel minLevel, Path file, int rateLimit) throws IOException {
+        if (file == null) {
+            WRITER.setOutput(stdout(), false);
+        } else {
+            WRITER.setOutput(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), true);
+        }
+        WRITER.setRateLimit(rateLimit);
+        level = minLevel;
+    }
+
+    public static boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    public static void debug(String template, Object... args) {
+        log(LogLevel.DEBUG, template, args);
+    }
+
+    public static void verbose(String template, Object... args) {
+        log(LogLevel.VERBOSE, template, args);
+    }
+
+    public static void notice(String template, Object... args) {
+        log(LogLevel.NOTICE, template, args);
+    }
+
+    public static void warning(String template, Object... args) {
+        log(LogLevel.WARNING, template, args);
+    }
+
+    public static void log(LogLevel messageLevel, String template, Object... args) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        RING.offer(messageLevel, template, args);
+        WRITER.wakeUp();
+    }
+
+    private static Writer stdout() {
+        return new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+    }
+}
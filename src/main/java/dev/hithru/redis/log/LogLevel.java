@@ -0,0 +1,45 @@
+package dev.hithru.redis.log;
+
+/**
+ * Log levels, Redis' names and markers. A level logs itself and every level
+ * above it.
+ *
+ * - DEBUG:   lots of detail
+ * - VERBOSE: per-connection events (accepted, closed)
+ * - NOTICE:  startup, persistence, what an operator wants to see (default)
+ * - WARNING: errors only
+ */
+public enum LogLevel {
+    DEBUG("debug", '.'),
+    VERBOSE("verbose", '-'),
+    NOTICE("notice", '*'),
+    WARNING("warning", '#');
+
+    private final String configName;
+    private final char marker;
+
+    LogLevel(String configName, char marker) {
+        this.configName = configName;
+        this.marker = marker;
+    }
+
+    public String configName() {
+        return configName;
+    }
+
+    /**
+     * Character printed before the message, as in Redis' log lines.
+     */
+    char marker() {
+        return marker;
+    }
+
+    public static LogLevel fromConfigName(String name) {
+        for (LogLevel level : values()) {
+            if (level.configName.equalsIgnoreCase(name)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("unknown loglevel '" + name + "'");
+    }
+}
@@ -0,0 +1,124 @@
+package dev.hithru.redis.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LogRing
+ *
+ * Bounded lock-free queue of log records: many producers (the event loops,
+ * the persistence threads), one consumer (the LogWriter).
+ *
+ * - a producer claims a sequence number with a CAS on tail, fills the slot
+ *   with plain writes, then publishes it by storing the sequence into the
+ *   slot's entry of published (a release store)
+ * - the consumer reads slot head once published holds head, clears it and
+ *   moves head on, which frees the slot for sequence head + capacity
+ * - a full ring never blocks: the record is dropped and counted
+ *
+ * Messages are kept as a template and its arguments; the text is only built
+ * on the writer thread.
+ */
+final class LogRing {
+
+    /**
+     * One record, copied out of its slot by poll.
+     */
+    static final class Record {
+        long timeMillis;
+        LogLevel level;
+        String thread;
+        String template;
+        Object[] args;
+    }
+
+    private final int mask;
+    private final long[] times;
+    private final LogLevel[] levels;
+    private final String[] threads;
+    private final String[] templates;
+    private final Object[][] args;
+    private final AtomicLongArray published;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    LogRing(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.times = new long[size];
+        this.levels = new LogLevel[size];
+        this.threads = new String[size];
+        this.templates = new String[size];
+        this.args = new Object[size][];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return false if the ring was full and the record was dropped
+     */
+    boolean offer(LogLevel level, String template, Object[] arguments) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        int i = (int) seq & mask;
+        times[i] = System.currentTimeMillis();
+        levels[i] = level;
+        threads[i] = Thread.currentThread().getName();
+        templates[i] = template;
+        args[i] = arguments;
+        published.lazySet(i, seq);
+        return true;
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return false if no record is ready
+     */
+    boolean poll(Record into) {
+        long seq = head;
+        int i = (int) seq & mask;
+        if (published.get(i) != seq) {
+            return false;
+        }
+        into.timeMillis = times[i];
+        into.level = levels[i];
+        into.thread = threads[i];
+        into.template = templates[i];
+        into.args = args[i];
+        threads[i] = null;
+        templates[i] = null;
+        args[i] = null;
+        head = seq + 1;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+
+    /**
+     * Records dropped since the last call.
+     */
+    long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+}
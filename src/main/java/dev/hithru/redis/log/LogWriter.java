@@ -0,0 +1,267 @@
+package dev.hithru.redis.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LogWriter
+ *
+ * The one consumer of a LogRing: formats records into Redis-style lines
+ * ("pid:thread 16 Oct 2026 10:00:00.123 * message") and writes them to stdout
+ * or a file, flushing once per batch. All I/O happens on this thread.
+ *
+ * Repeated messages are rate limited per template: once a template has been
+ * logged rateLimit times within a second, further records are only counted,
+ * and a single "suppressed" line reports them when the second is over. A
+ * rateLimit of 0 logs everything.
+ *
+ * Sleeps while the ring is empty; producers wake it through wakeUp().
+ */
+final class LogWriter implements Runnable {
+
+    private static final int BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+    private static final long WINDOW_MS = 1000;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm:ss.SSS", Locale.ROOT).withZone(ZoneId.systemDefault());
+    private static final String PID = Long.toString(ProcessHandle.current().pid());
+
+    private static final class Window {
+        long start;
+        int logged;
+        long suppressed;
+        LogLevel level;
+    }
+
+    private final LogRing ring;
+    private final LogRing.Record record = new LogRing.Record();
+    private final Map<String, Window> windows = new HashMap<>();
+    private final StringBuilder line = new StringBuilder(256);
+
+    private Writer out;
+    private boolean closeOut;
+    // Handed over by configure, picked up by the writer thread
+    private volatile Writer nextOut;
+    private volatile boolean nextCloseOut;
+    private volatile int rateLimit;
+
+    private volatile Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean stopping;
+    private long lastSweep;
+
+    LogWriter(LogRing ring, Writer out, int rateLimit) {
+        this.ring = ring;
+        this.out = out;
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Switches to another destination before the next batch.
+     *
+     * @param close whether the writer owns it and closes it when replaced
+     */
+    void setOutput(Writer out, boolean close) {
+        nextCloseOut = close;
+        nextOut = out;
+        wakeUp();
+    }
+
+    void setRateLimit(int rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Cheap when the writer is busy: one volatile read.
+     */
+    void wakeUp() {
+        if (sleeping) {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Writes out what is queued, then stops the thread; waits at most timeoutMs.
+     */
+    void stop(long timeoutMs) throws InterruptedException {
+        stopping = true;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            t.join(timeoutMs);
+        }
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (true) {
+            boolean last = stopping;
+            int written = drain(System.currentTimeMillis());
+            if (written == 0) {
+                if (last) {
+                    return;
+                }
+                sleeping = true;
+                if (ring.isEmpty() && !stopping && nextOut == null) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    /**
+     * Writes one batch of records plus any due suppressed / dropped reports.
+     *
+     * @return number of records taken from the ring
+     */
+    int drain(long nowMs) {
+        Writer replacement = nextOut;
+        if (replacement != null) {
+            nextOut = null;
+            closeOutput();
+            out = replacement;
+            closeOut = nextCloseOut;
+        }
+
+        int taken = 0;
+        boolean wrote = false;
+        while (taken < BATCH && ring.poll(record)) {
+            taken++;
+            if (admit(record)) {
+                format(record.timeMillis, record.thread, record.level, record.template, record.args);
+                wrote |= write();
+            }
+            record.template = null;
+            record.args = null;
+        }
+
+        if (nowMs - lastSweep >= WINDOW_MS) {
+            lastSweep = nowMs;
+            wrote |= sweep(nowMs);
+            long dropped = ring.takeDropped();
+            if (dropped > 0) {
+                format(nowMs, Thread.currentThread().getName(), LogLevel.WARNING,
+                        "Log buffer full, {} messages dropped", new Object[] { dropped });
+                wrote |= write();
+            }
+        }
+
+        if (wrote) {
+            try {
+                out.flush();
+            } catch (IOException ignored) {
+                // Nowhere left to report it
+            }
+        }
+        return taken;
+    }
+
+    private boolean admit(LogRing.Record r) {
+        int limit = rateLimit;
+        if (limit <= 0) {
+            return true;
+        }
+        Window window = windows.get(r.template);
+        if (window == null) {
+            window = new Window();
+            window.start = r.timeMillis;
+            window.level = r.level;
+            windows.put(r.template, window);
+        } else if (r.timeMillis - window.start >= WINDOW_MS) {
+            reportSuppressed(r.template, window, r.timeMillis);
+            window.start = r.timeMillis;
+            window.logged = 0;
+        }
+        if (window.logged < limit) {
+            window.logged++;
+            return true;
+        }
+        window.suppressed++;
+        return false;
+    }
+
+    // Reports and forgets windows that are over
+    private boolean sweep(long nowMs) {
+        boolean wrote = false;
+        Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Window> entry = it.next();
+            Window window = entry.getValue();
+            if (nowMs - window.start >= WINDOW_MS) {
+                wrote |= reportSuppressed(entry.getKey(), window, nowMs);
+                it.remove();
+            }
+        }
+        return wrote;
+    }
+
+    private boolean reportSuppressed(String template, Window window, long nowMs) {
+        if (window.suppressed == 0) {
+            return false;
+        }
+        format(nowMs, Thread.currentThread().getName(), window.level,
+                "Suppressed {} more messages like: {}", new Object[] { window.suppressed, template });
+        window.suppressed = 0;
+        return write();
+    }
+
+    private void format(long timeMillis, String threadName, LogLevel level, String template, Object[] args) {
+        line.setLength(0);
+        line.append(PID).append(':').append(threadName).append(' ');
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(timeMillis), line);
+        line.append(' ').append(level.marker()).append(' ');
+        appendMessage(line, template, args);
+        line.append('\n');
+    }
+
+    /**
+     * Replaces each "{}" in the template with the next argument.
+     */
+    static void appendMessage(StringBuilder sb, String template, Object[] args) {
+        int from = 0;
+        int arg = 0;
+        if (args != null) {
+            int at;
+            while (arg < args.length && (at = template.indexOf("{}", from)) >= 0) {
+                sb.append(template, from, at).append(args[arg++]);
+                from = at + 2;
+            }
+        }
+        sb.append(template, from, template.length());
+    }
+
+    private boolean write() {
+        try {
+            out.append(line);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void closeOutput() {
+        try {
+            if (closeOut) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // Replaced anyway
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package dev.hithru.redis.persistence;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.protocol.RespParser;
+import dev.hithru.redis.protocol.RespProtocolException;
+import dev.hithru.redis.protocol.RespWriter;
+
+/**
+ * AppendOnlyFile
+ *
+ * Logs the write commands of one keyspace shard in RESP form, so the dataset
+ * can be rebuilt on restart by replaying them.
+ *
+ * - append() only encodes into memory. flush() is called once per event-loop
+ *   iteration, before that iteration's replies are sent, and hands everything
+ *   logged in between to the file with one gathering write (group commit)
+ * - fsync follows the FsyncPolicy; with everysec a background thread does it,
+ *   so the event loop never waits for the disk
+ * - Rewrite: a background thread writes a compact file from a DatasetSnapshot
+ *   while commands keep going to the current file and, in memory, to the new
+ *   one. Once the thread is done, flush() appends those, fsyncs and renames the
+ *   new file over the old one
+ *
+ * Not thread-safe: an instance belongs to the event loop that owns its shard.
+ */
+public class AppendOnlyFile implements Closeable {
+
+    // Auto-rewrite once the file has doubled since the last rewrite, but not
+    // before it is this big (auto-aof-rewrite-percentage / -min-size in Redis)
+    static final long AUTO_REWRITE_MIN_SIZE = 64L * 1024 * 1024;
+    private static final int AUTO_REWRITE_PERCENTAGE = 100;
+
+    // Elements (or field / member pairs) per command in a rewritten file (Redis' AOF_REWRITE_ITEMS_PER_CMD)
+    private static final int ITEMS_PER_COMMAND = 64;
+
+    // Rewrite output is written out whenever this much is buffered
+    private static final int REWRITE_FLUSH_BYTES = 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final long FSYNC_INTERVAL_MS = 1000;
+
+    private final Path path;
+    private final FsyncPolicy fsyncPolicy;
+
+    // Read by the fsync thread; replaced when a rewrite completes
+    private volatile FileChannel channel;
+
+    // Commands logged since the last flush()
+    private final RespWriter pending = new RespWriter(() -> { }, Long.MAX_VALUE);
+
+    private long currentSize;
+    private long baseSize; // size right after the last rewrite (or at open)
+
+    // Set when something was written that the fsync thread hasn't synced yet
+    private volatile boolean dirty;
+    private volatile boolean closed;
+    private final Thread fsyncThread;
+
+    // Files of every shard, so BGREWRITEAOF reaches all of them
+    private AppendOnlyFile[] group = new AppendOnlyFile[] { this };
+    private volatile boolean rewriteRequested;
+    private RewriteJob rewrite;
+    private long rewrites;
+    private boolean lastRewriteOk = true;
+
+    public AppendOnlyFile(Path path, FsyncPolicy fsyncPolicy) throws IOException {
+        this.path = path;
+        this.fsyncPolicy = fsyncPolicy;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.currentSize = channel.size();
+        this.baseSize = currentSize;
+
+        if (fsyncPolicy == FsyncPolicy.EVERYSEC) {
+            fsyncThread = new Thread(this::fsyncLoop, "aof-fsync-" + path.getFileName());
+            fsyncThread.setDaemon(true);
+            fsyncThread.start();
+        } else {
+            fsyncThread = null;
+        }
+    }
+
+    public void setGroup(AppendOnlyFile[] group) {
+        this.group = group;
+    }
+
+    /**
+     * Logs one command. Nothing is written until the next flush().
+     * The arguments are encoded right away, so a RespCommand may be passed
+     * while it is still backed by the input buffer.
+     */
+    public void append(List<String> args) {
+        pending.writeArrayOfBulkStrings(args);
+        if (rewrite != null) {
+            rewrite.incremental.writeArrayOfBulkStrings(args);
+        }
+    }
+
+    /**
+     * Group commit: writes everything logged since the last call, fsyncs it
+     * when the policy is always, and completes a finished rewrite.
+     */
+    public void flush() throws IOException {
+        if (pending.hasPendingOutput()) {
+            long bytes = pending.pendingBytes();
+            pending.flushTo(channel);
+            currentSize += bytes;
+
+            switch (fsyncPolicy) {
+                case ALWAYS -> channel.force(false);
+                case EVERYSEC -> dirty = true;
+                case NO -> { }
+            }
+        }
+
+        if (rewrite != null && rewrite.done) {
+            finishRewrite();
+        }
+    }
+
+    /**
+     * Asks every shard's file to rewrite itself (BGREWRITEAOF).
+     */
+    public void requestRewrite() {
+        for (AppendOnlyFile aof : group) {
+            aof.rewriteRequested = true;
+        }
+    }
+
+    /**
+     * True if a rewrite was requested, or the file grew enough since the last one.
+     */
+    public boolean rewriteDue() {
+        if (rewrite != null) {
+            return false;
+        }
+        if (rewriteRequested) {
+            return true;
+        }
+        return currentSize >= AUTO_REWRITE_MIN_SIZE
+                && currentSize - baseSize >= baseSize * AUTO_REWRITE_PERCENTAGE / 100;
+    }
+
+    /**
+     * Starts writing a compact file from the snapshot on a background thread.
+     */
+    public void startRewrite(DatasetSnapshot snapshot) {
+        rewriteRequested = false;
+        rewrite = new RewriteJob(snapshot, tempPath());
+
+        Thread thread = new Thread(rewrite, "aof-rewrite-" + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Replaces the file with one written from the snapshot, on the calling thread.
+     */
+    public void rewriteNow(DatasetSnapshot snapshot) throws IOException {
+        flush();
+        if (rewrite != null) {
+            throw new IllegalStateException("rewrite already in progress");
+        }
+        RewriteJob job = new RewriteJob(snapshot, tempPath());
+        job.run();
+        rewrite = job;
+        finishRewrite();
+    }
+
+    public boolean isRewriteInProgress() {
+        return rewrite != null;
+    }
+
+    public long getRewrites() {
+        return rewrites;
+    }
+
+    public boolean isLastRewriteOk() {
+        return lastRewriteOk;
+    }
+
+    public long getCurrentSize() {
+        return currentSize;
+    }
+
+    public long getBaseSize() {
+        return baseSize;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        closed = true;
+        if (fsyncThread != null) {
+            fsyncThread.interrupt();
+        }
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * Replays the commands stored at path, if the file exists.
+     * A command cut off at the end (crash in the middle of a write) is dropped
+     * and the file truncated before it, like Redis' aof-load-truncated. So is
+     * a transaction whose EXEC never made it: the file is cut back to its
+     * MULTI, and the sink has then received a MULTI it should discard.
+     *
+     * @return number of commands replayed
+     */
+    public static long replay(Path path, Consumer<RespCommand> sink) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            RespParser parser = new RespParser();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long consumed = 0; // bytes of complete commands
+            long commands = 0;
+            long openMulti = -1; // offset of a MULTI not yet followed by EXEC
+
+            while (true) {
+                int needed = parser.bytesNeeded();
+                if (!buffer.hasRemaining() || needed > buffer.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+
+                if (in.read(buffer) < 0) {
+                    break;
+                }
+
+                buffer.flip();
+                int start = buffer.position();
+                try {
+                    RespCommand command;
+                    int commandStart = buffer.position();
+                    while ((command = parser.tryParse(buffer)) != null) {
+                        if (command.equalsIgnoreCase(0, "multi")) {
+                            openMulti = consumed + commandStart - start;
+                        } else if (command.equalsIgnoreCase(0, "exec")) {
+                            openMulti = -1;
+                        }
+                        sink.accept(command);
+                        commands++;
+                        commandStart = buffer.position();
+                    }
+                } catch (RespProtocolException e) {
+                    throw new IOException("Bad file format reading the append only file " + path
+                            + " at offset " + (consumed + buffer.position() - start) + ": " + e.getMessage());
+                }
+                consumed += buffer.position() - start;
+                buffer.compact();
+            }
+
+            if (openMulti >= 0) {
+                Log.warning("AOF {} ends inside a transaction, truncating {} bytes back to its MULTI",
+                        path, in.size() - openMulti);
+                in.truncate(openMulti);
+            } else if (consumed < in.size()) {
+                Log.warning("AOF {} ends with an incomplete command, truncating {} bytes",
+                        path, in.size() - consumed);
+                in.truncate(consumed);
+            }
+            return commands;
+        }
+    }
+
+    /**
+     * File of one shard: the plain name with a single shard, name.N otherwise.
+     */
+    public static Path shardPath(Path dir, String fileName, int shard, int shards) {
+        return shards == 1 ? dir.resolve(fileName) : dir.resolve(fileName + "." + shard);
+    }
+
+    /**
+     * Every AOF (any shard layout) found in dir.
+     */
+    public static List<Path> existingFiles(Path dir, String fileName) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (var stream = Files.list(dir)) {
+            stream.filter(p -> isShardFile(p.getFileName().toString(), fileName))
+                    .sorted()
+                    .forEach(files::add);
+        }
+        return files;
+    }
+
+    private static boolean isShardFile(String name, String fileName) {
+        if (name.equals(fileName)) {
+            return true;
+        }
+        if (!name.startsWith(fileName + ".") || name.length() == fileName.length() + 1) {
+            return false;
+        }
+        for (int i = fileName.length() + 1; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path tempPath() {
+        return path.resolveSibling(path.getFileName() + ".rewrite");
+    }
+
+    private void finishRewrite() throws IOException {
+        RewriteJob job = rewrite;
+        rewrite = null;
+
+        if (job.failure != null) {
+            lastRewriteOk = false;
+            Log.warning("AOF rewrite of {} failed: {}", path, job.failure.getMessage());
+            if (job.out != null) {
+                job.out.close();
+            }
+            Files.deleteIfExists(job.tempPath);
+            return;
+        }
+
+        // Commands logged while the snapshot was being written
+        job.incremental.flushTo(job.out);
+        job.out.force(false);
+        Files.move(job.tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        FileChannel old = channel;
+        channel = job.out;
+        old.close();
+
+        currentSize = channel.size();
+        baseSize = currentSize;
+        rewrites++;
+        lastRewriteOk = true;
+    }
+
+    private void fsyncLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(FSYNC_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!dirty) {
+                continue;
+            }
+            dirty = false;
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Swapped by a rewrite, which fsynced the new file itself
+            } catch (IOException e) {
+                dirty = true;
+                Log.warning("AOF fsync of {} failed: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot as the shortest command sequence that recreates it.
+     * Runs on its own thread; `done` publishes the result to the event loop.
+     */
+    private static final class RewriteJob implements Runnable {
+        final DatasetSnapshot snapshot;
+        final Path tempPath;
+
+        // Logged by the event loop while the job runs, appended when it's done
+        final RespWriter incremental = new RespWriter(() -> { }, Long.MAX_VALUE);
+
+        FileChannel out;
+        IOException failure;
+        volatile boolean done;
+
+        RewriteJob(DatasetSnapshot snapshot, Path tempPath) {
+            this.snapshot = snapshot;
+            this.tempPath = tempPath;
+        }
+
+        @Override
+        public void run() {
+            try {
+                out = FileChannel.open(tempPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                RespWriter buffer = new RespWriter(() -> { }, Long.MAX_VALUE);
+                long now = System.currentTimeMillis();
+
+                snapshot.accept(new SnapshotVisitor() {
+                    @Override
+                    public void string(String key, String value, Long expireAtMs) throws IOException {
+                        if (expireAtMs == null) {
+                            buffer.writeArrayOfBulkStrings(List.of("SET", key, value));
+                        } else if (expireAtMs > now) {
+                            buffer.writeArrayOfBulkStrings(List.of("SET", key, value, "PXAT", Long.toString(expireAtMs)));
+                        }
+                        writeIfFull(buffer);
+                    }
+
+                    @Override
+                    public void list(String key, Iterable<String> items, Long expireAtMs) throws IOException {
+                        collection("RPUSH", key, items, 1, false, expireAtMs);
+                    }
+
+                    @Override
+                    public void hash(String key, Iterable<String> fieldsAndValues, Long expireAtMs)
+                            throws IOException {
+                        collection("HSET", key, fieldsAndValues, 2, false, expireAtMs);
+                    }
+
+                    @Override
+                    public void set(String key, Iterable<String> members, Long expireAtMs) throws IOException {
+                        collection("SADD", key, members, 1, false, expireAtMs);
+                    }
+
+                    @Override
+                    public void zset(String key, Iterable<String> membersAndScores, Long expireAtMs)
+                            throws IOException {
+                        // ZADD takes score before member
+                        collection("ZADD", key, membersAndScores, 2, true, expireAtMs);
+                    }
+
+                    /**
+                     * XADD per entry, XSETID for the last ID (an empty stream is
+                     * made by adding and trimming one), then the groups, their
+                     * consumers and pending entries the way XREADGROUP propagates
+                     * deliveries, as XCLAIM ... FORCE. Entries deleted from the
+                     * stream while pending are dropped, as XCLAIM would drop them.
+                     */
+                    @Override
+                    public void stream(String key, Iterable<String> items, Long expireAtMs) throws IOException {
+                        if (expireAtMs != null && expireAtMs <= now) {
+                            return;
+                        }
+                        Iterator<String> it = items.iterator();
+                        String lastId = it.next();
+                        long entries = Long.parseLong(it.next());
+                        if (entries == 0) {
+                            String id = lastId.equals("0-0") ? "0-1" : lastId;
+                            buffer.writeArrayOfBulkStrings(List.of("XADD", key, "MAXLEN", "0", id, "x", "y"));
+                        }
+                        for (long i = 0; i < entries; i++) {
+                            List<String> command = new ArrayList<>();
+                            command.add("XADD");
+                            command.add(key);
+                            command.add(it.next());
+                            int fields = Integer.parseInt(it.next());
+                            for (int f = 0; f < fields * 2; f++) {
+                                command.add(it.next());
+                            }
+                            buffer.writeArrayOfBulkStrings(command);
+                            writeIfFull(buffer);
+                        }
+                        buffer.writeArrayOfBulkStrings(List.of("XSETID", key, lastId));
+
+                        int groups = Integer.parseInt(it.next());
+                        for (int g = 0; g < groups; g++) {
+                            String group = it.next();
+                            buffer.writeArrayOfBulkStrings(List.of("XGROUP", "CREATE", key, group, it.next()));
+                            int consumers = Integer.parseInt(it.next());
+                            for (int c = 0; c < consumers; c++) {
+                                String consumer = it.next();
+                                it.next(); // seen time, not kept
+                                buffer.writeArrayOfBulkStrings(List.of("XGROUP", "CREATECONSUMER", key, group, consumer));
+                                int pending = Integer.parseInt(it.next());
+                                for (int p = 0; p < pending; p++) {
+                                    String id = it.next();
+                                    String deliveryTime = it.next();
+                                    String deliveryCount = it.next();
+                                    buffer.writeArrayOfBulkStrings(List.of("XCLAIM", key, group, consumer, "0", id,
+                                            "TIME", deliveryTime, "RETRYCOUNT", deliveryCount, "FORCE", "JUSTID"));
+                                    writeIfFull(buffer);
+                                }
+                            }
+                        }
+                        if (expireAtMs != null) {
+                            buffer.writeArrayOfBulkStrings(List.of("PEXPIREAT", key, Long.toString(expireAtMs)));
+                        }
+                        writeIfFull(buffer);
+                    }
+
+                    // Like Redis: the elements, then the deadline as a separate command
+                    private void collection(String name, String key, Iterable<String> items,
+                                            int groupSize, boolean swapPairs, Long expireAtMs) throws IOException {
+                        if (expireAtMs != null && expireAtMs <= now) {
+                            return;
+                        }
+                        writeBatched(name, key, items, groupSize, swapPairs);
+                        if (expireAtMs != null) {
+                            buffer.writeArrayOfBulkStrings(List.of("PEXPIREAT", key, Long.toString(expireAtMs)));
+                            writeIfFull(buffer);
+                        }
+                    }
+
+                    /**
+                     * Writes items as "name key item..." commands of at most
+                     * ITEMS_PER_COMMAND groups of groupSize items each.
+                     */
+                    private void writeBatched(String name, String key, Iterable<String> items,
+                                              int groupSize, boolean swapPairs) throws IOException {
+                        int limit = ITEMS_PER_COMMAND * groupSize + 2;
+                        List<String> command = new ArrayList<>(limit);
+                        String pending = null;
+                        for (String item : items) {
+                            if (command.isEmpty()) {
+                                command.add(name);
+                                command.add(key);
+                            }
+                            if (swapPairs && pending == null) {
+                                pending = item;
+                                continue;
+                            }
+                            command.add(item);
+                            if (pending != null) {
+                                command.add(pending);
+                                pending = null;
+                            }
+                            if (command.size() == limit) {
+                                buffer.writeArrayOfBulkStrings(command);
+                                command.clear();
+                                writeIfFull(buffer);
+                            }
+                        }
+                        if (!command.isEmpty()) {
+                            buffer.writeArrayOfBulkStrings(command);
+                            writeIfFull(buffer);
+                        }
+                    }
+                });
+
+                buffer.flushTo(out);
+                out.force(false);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            } finally {
+                snapshot.release();
+                done = true;
+            }
+        }
+
+        private void writeIfFull(RespWriter buffer) throws IOException {
+            if (buffer.pendingBytes() >= REWRITE_FLUSH_BYTES) {
+                buffer.flushTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package dev.hithru.redis.persistence;
+
+import java.io.IOException;
+
+/**
+ * A point-in-time copy of a keyspace shard that can be walked from another
+ * thread while the live stores keep changing.
+ *
+ * Whoever takes a snapshot calls release() once done with it, read or not,
+ * so the stores can free what they kept around for it.
+ */
+@FunctionalInterface
+public interface DatasetSnapshot {
+
+    void accept(SnapshotVisitor visitor) throws IOException;
+
+    default void release() {
+    }
+}
@@ -0,0 +1,33 @@
+package dev.hithru.redis.persistence;
+
+/**
+ * When the append-only file is fsynced (Redis' appendfsync).
+ *
+ * - ALWAYS:   after every group commit, before its replies are sent
+ * - EVERYSEC: once a second from a background thread; a crash loses at most ~1s
+ * - NO:       never explicitly, the OS decides
+ */
+public enum FsyncPolicy {
+    ALWAYS("always"),
+    EVERYSEC("everysec"),
+    NO("no");
+
+    private final String configName;
+
+    FsyncPolicy(String configName) {
+        this.configName = configName;
+    }
+
+    public String configName() {
+        return configName;
+    }
+
+    public static FsyncPolicy fromConfigName(String name) {
+        for (FsyncPolicy policy : values()) {
+            if (policy.configName.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("unknown appendfsync policy '" + name + "'");
+    }
+}
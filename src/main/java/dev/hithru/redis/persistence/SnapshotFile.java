@@ -0,0 +1,612 @@
+package dev.hithru.redis.persistence;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * SnapshotFile
+ *
+ * Compact binary point-in-time dump of the dataset (like Redis' RDB).
+ *
+ * Layout (all integers big-endian):
+ *   header:  "HRDB" | version:int
+ *   block*:  payloadLength:int | entryCount:int | crc32c(payload):int | payload
+ *   footer:  -1:int | total entries:long
+ *
+ * Each block holds ~1 MB of whole entries and its own checksum, so blocks can
+ * be verified and decoded independently. Entry inside a payload:
+ *   type:byte (STRING / LIST / HASH / SET / ZSET / STREAM, | HAS_EXPIRY) | [expireAtMs:long] | key
+ *   STRING: value        others: count:int, item*
+ * where key / value / item are varint length + raw bytes. A hash's items are
+ * field, value pairs, a sorted set's member, score pairs (score as text), a
+ * stream's its entries and groups flattened (see SnapshotVisitor.stream).
+ * Older files still load: version 1 only has strings and lists, version 2
+ * no streams.
+ *
+ * Loading memory-maps the file and decodes blocks in parallel, dropping keys
+ * that have expired, while one thread per shard (a shard's stores are
+ * single-threaded) inserts the blocks already decoded. Bounded queues between
+ * the two keep only a few blocks in memory, and values stay raw bytes until
+ * the inserter turns them into strings.
+ */
+public final class SnapshotFile {
+
+    private static final byte[] MAGIC = { 'H', 'R', 'D', 'B' };
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int END_OF_BLOCKS = -1;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_LIST = 1;
+    private static final byte TYPE_HASH = 2;
+    private static final byte TYPE_SET = 3;
+    private static final byte TYPE_ZSET = 4;
+    private static final byte TYPE_STREAM = 5;
+    private static final byte HAS_EXPIRY = (byte) 0x80;
+
+    // A block is closed once its payload reaches this size
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    // Blocks are mapped in regions of at most this size (a mapping is int-indexed)
+    private static final long MAX_REGION = 1L << 30;
+
+    // Decoded blocks waiting for each shard's inserter
+    private static final int QUEUED_BLOCKS = 4;
+
+    // Tells an inserter no more blocks are coming
+    private static final List<Entry> END = new ArrayList<>();
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    private SnapshotFile() {
+        // utility class, no instances
+    }
+
+    /**
+     * Writes the snapshots (one per shard) to a temporary file, fsyncs it and
+     * renames it over path, so a crash never leaves a half-written dump.
+     *
+     * @return number of keys written
+     */
+    public static long write(Path path, List<DatasetSnapshot> snapshots) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).putInt(VERSION).flip();
+            writeFully(out, header);
+
+            BlockWriter blocks = new BlockWriter(out);
+            SnapshotVisitor visitor = new SnapshotVisitor() {
+                @Override
+                public void string(String key, String value, Long expireAtMs) throws IOException {
+                    if (expireAtMs != null && expireAtMs <= now) {
+                        return;
+                    }
+                    blocks.beginEntry(TYPE_STRING, expireAtMs, key);
+                    blocks.putString(value);
+                    blocks.endEntry();
+                }
+
+                @Override
+                public void list(String key, Iterable<String> items, Long expireAtMs) throws IOException {
+                    collection(TYPE_LIST, key, items, expireAtMs);
+                }
+
+                @Override
+                public void hash(String key, Iterable<String> fieldsAndValues, Long expireAtMs) throws IOException {
+                    collection(TYPE_HASH, key, fieldsAndValues, expireAtMs);
+                }
+
+                @Override
+                public void set(String key, Iterable<String> members, Long expireAtMs) throws IOException {
+                    collection(TYPE_SET, key, members, expireAtMs);
+                }
+
+                @Override
+                public void zset(String key, Iterable<String> membersAndScores, Long expireAtMs) throws IOException {
+                    collection(TYPE_ZSET, key, membersAndScores, expireAtMs);
+                }
+
+                @Override
+                public void stream(String key, Iterable<String> items, Long expireAtMs) throws IOException {
+                    collection(TYPE_STREAM, key, items, expireAtMs);
+                }
+
+                private void collection(byte type, String key, Iterable<String> items, Long expireAtMs)
+                        throws IOException {
+                    if (expireAtMs != null && expireAtMs <= now) {
+                        return;
+                    }
+                    blocks.beginEntry(type, expireAtMs, key);
+                    int countPos = blocks.reserveInt();
+                    int count = 0;
+                    for (String item : items) {
+                        blocks.putString(item);
+                        count++;
+                    }
+                    if (count == 0) {
+                        blocks.abortEntry();
+                        return;
+                    }
+                    blocks.patchInt(countPos, count);
+                    blocks.endEntry();
+                }
+            };
+            for (DatasetSnapshot snapshot : snapshots) {
+                snapshot.accept(visitor);
+            }
+            blocks.finish();
+
+            ByteBuffer footer = ByteBuffer.allocate(12).putInt(END_OF_BLOCKS).putLong(blocks.totalEntries).flip();
+            writeFully(out, footer);
+            out.force(false);
+
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return blocks.totalEntries;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            for (DatasetSnapshot snapshot : snapshots) {
+                snapshot.release();
+            }
+        }
+    }
+
+    /**
+     * Loads the file into the shards.
+     *
+     * @param shards  receives the keys of shard i; each is called from one thread only
+     * @param shardOf shard index of a key
+     * @param threads decoding parallelism
+     */
+    public static LoadResult load(Path path, List<SnapshotVisitor> shards,
+                                  ToIntFunction<String> shardOf, int threads) throws IOException {
+        long now = System.currentTimeMillis();
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Block> blocks = readBlockIndex(in, path);
+            mapRegions(in, blocks);
+
+            // Decoders and inserters run at the same time, each in their own pool
+            ExecutorService decoders = Executors.newFixedThreadPool(Math.max(1, threads));
+            ExecutorService inserters = Executors.newFixedThreadPool(Math.max(1, shards.size()));
+            try {
+                // 1. Inserters, one thread per shard, take its buckets in file order
+                List<BlockingQueue<List<Entry>>> queues = new ArrayList<>(shards.size());
+                List<Future<Void>> inserts = new ArrayList<>(shards.size());
+                for (int s = 0; s < shards.size(); s++) {
+                    BlockingQueue<List<Entry>> queue = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+                    SnapshotVisitor target = shards.get(s);
+                    queues.add(queue);
+                    inserts.add(inserters.submit(() -> {
+                        for (List<Entry> bucket = queue.take(); bucket != END; bucket = queue.take()) {
+                            for (Entry entry : bucket) {
+                                entry.applyTo(target);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+
+                // 2. Verify and decode blocks, a few ahead of the inserters, and
+                // hand each shard its bucket; a full queue holds decoding back
+                int window = Math.max(1, threads) * 2;
+                List<Future<List<List<Entry>>>> decoded = new ArrayList<>(blocks.size());
+                long loaded = 0;
+                long expired = 0;
+                for (int i = 0; i < blocks.size(); i++) {
+                    while (decoded.size() < blocks.size() && decoded.size() < i + window) {
+                        Block block = blocks.get(decoded.size());
+                        decoded.add(decoders.submit(() -> decode(block, path, now, shards.size(), shardOf)));
+                    }
+                    List<List<Entry>> buckets = await(decoded.get(i));
+                    decoded.set(i, null);
+                    blocks.get(i).data = null;
+                    int kept = 0;
+                    for (int s = 0; s < shards.size(); s++) {
+                        kept += buckets.get(s).size();
+                        hand(queues.get(s), buckets.get(s), inserts.get(s));
+                    }
+                    loaded += kept;
+                    expired += blocks.get(i).entryCount - kept;
+                }
+                for (int s = 0; s < shards.size(); s++) {
+                    hand(queues.get(s), END, inserts.get(s));
+                }
+                for (Future<Void> insert : inserts) {
+                    await(insert);
+                }
+                return new LoadResult(loaded, expired);
+            } finally {
+                decoders.shutdownNow();
+                // Stops inserters still waiting for blocks if decoding failed
+                inserters.shutdownNow();
+            }
+        }
+    }
+
+    // Queues a bucket for an inserter, giving up if the inserter has failed
+    private static void hand(BlockingQueue<List<Entry>> queue, List<Entry> bucket, Future<Void> insert)
+            throws IOException {
+        try {
+            while (!queue.offer(bucket, 100, TimeUnit.MILLISECONDS)) {
+                if (insert.isDone()) {
+                    await(insert);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Snapshot load interrupted");
+        }
+    }
+
+    /**
+     * Number of keys loaded and of keys skipped because they had expired.
+     */
+    public static final class LoadResult {
+        public final long loaded;
+        public final long expired;
+
+        LoadResult(long loaded, long expired) {
+            this.loaded = loaded;
+            this.expired = expired;
+        }
+    }
+
+    /**
+     * Walks the block headers (a few bytes each) to find where every block is.
+     */
+    private static List<Block> readBlockIndex(FileChannel in, Path path) throws IOException {
+        long size = in.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(in, header, 0, path);
+        byte[] magic = new byte[MAGIC.length];
+        header.flip().get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a snapshot file: " + path);
+        }
+        int version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + " in " + path);
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        long pos = HEADER_SIZE;
+        long entries = 0;
+        while (true) {
+            blockHeader.clear();
+            readFully(in, blockHeader, pos, path);
+            blockHeader.flip();
+            int length = blockHeader.getInt();
+            if (length == END_OF_BLOCKS) {
+                // The footer is the rest of this header plus 4 more bytes
+                ByteBuffer footer = ByteBuffer.allocate(8);
+                readFully(in, footer, pos + 4, path);
+                long expectedEntries = footer.flip().getLong();
+                if (expectedEntries != entries || pos + 12 != size) {
+                    throw new IOException("Snapshot footer mismatch in " + path);
+                }
+                return blocks;
+            }
+            if (length < 0 || pos + BLOCK_HEADER_SIZE + length > size) {
+                throw new IOException("Snapshot file is truncated or corrupt: " + path);
+            }
+
+            Block block = new Block(pos + BLOCK_HEADER_SIZE, length, blockHeader.getInt(), blockHeader.getInt());
+            blocks.add(block);
+            entries += block.entryCount;
+            pos += BLOCK_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Maps consecutive blocks together in regions of up to MAX_REGION bytes,
+     * and gives each block its slice.
+     */
+    private static void mapRegions(FileChannel in, List<Block> blocks) throws IOException {
+        int first = 0;
+        while (first < blocks.size()) {
+            long regionStart = blocks.get(first).offset;
+            int last = first;
+            while (last + 1 < blocks.size()
+                    && blocks.get(last + 1).end() - regionStart <= MAX_REGION) {
+                last++;
+            }
+
+            MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY,
+                    regionStart, blocks.get(last).end() - regionStart);
+            for (int i = first; i <= last; i++) {
+                Block block = blocks.get(i);
+                block.data = region.slice((int) (block.offset - regionStart), block.length);
+            }
+            first = last + 1;
+        }
+    }
+
+    private static List<List<Entry>> decode(Block block, Path path, long now, int shardCount,
+                                            ToIntFunction<String> shardOf) throws IOException {
+        ByteBuffer data = block.data;
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        if ((int) crc.getValue() != block.checksum) {
+            throw new IOException("Snapshot checksum mismatch in " + path + " at offset " + block.offset);
+        }
+
+        List<List<Entry>> buckets = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            buckets.add(new ArrayList<>());
+        }
+
+        try {
+            for (int i = 0; i < block.entryCount; i++) {
+                byte type = data.get();
+                Long expireAtMs = (type & HAS_EXPIRY) != 0 ? data.getLong() : null;
+                String key = getString(data);
+
+                Entry entry;
+                switch (type & ~HAS_EXPIRY) {
+                    case TYPE_STRING -> entry = new Entry(TYPE_STRING, key, getBytes(data), expireAtMs, null);
+                    case TYPE_LIST, TYPE_HASH, TYPE_SET, TYPE_ZSET, TYPE_STREAM -> {
+                        int count = data.getInt();
+                        byte[][] items = new byte[count][];
+                        for (int j = 0; j < count; j++) {
+                            items[j] = getBytes(data);
+                        }
+                        entry = new Entry((byte) (type & ~HAS_EXPIRY), key, null, expireAtMs, items);
+                    }
+                    default -> throw new IOException("Unknown entry type " + type + " in " + path);
+                }
+
+                if (expireAtMs == null || expireAtMs > now) {
+                    buckets.get(shardCount == 1 ? 0 : shardOf.applyAsInt(key)).add(entry);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot block in " + path + " at offset " + block.offset, e);
+        }
+        return buckets;
+    }
+
+    private static String getString(ByteBuffer data) {
+        return new String(getBytes(data), CHARSET);
+    }
+
+    private static byte[] getBytes(ByteBuffer data) {
+        byte[] bytes = new byte[getVarint(data)];
+        data.get(bytes);
+        return bytes;
+    }
+
+    private static int getVarint(ByteBuffer data) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Snapshot load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position, Path path) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Snapshot file is truncated: " + path);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static final class Block {
+        final long offset; // of the payload
+        final int length;
+        final int entryCount;
+        final int checksum;
+        ByteBuffer data;
+
+        Block(long offset, int length, int entryCount, int checksum) {
+            this.offset = offset;
+            this.length = length;
+            this.entryCount = entryCount;
+            this.checksum = checksum;
+        }
+
+        long end() {
+            return offset + length;
+        }
+    }
+
+    /**
+     * A decoded key, its value still raw bytes: strings are only built by
+     * the inserter, as the visitor reads them.
+     */
+    private static final class Entry {
+        final byte type;
+        final String key;
+        final byte[] value;
+        final Long expireAtMs;
+        final byte[][] items;
+
+        Entry(byte type, String key, byte[] value, Long expireAtMs, byte[][] items) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.expireAtMs = expireAtMs;
+            this.items = items;
+        }
+
+        void applyTo(SnapshotVisitor visitor) throws IOException {
+            Iterable<String> items = this::items;
+            switch (type) {
+                case TYPE_STRING -> visitor.string(key, new String(value, CHARSET), expireAtMs);
+                case TYPE_LIST -> visitor.list(key, items, expireAtMs);
+                case TYPE_HASH -> visitor.hash(key, items, expireAtMs);
+                case TYPE_SET -> visitor.set(key, items, expireAtMs);
+                case TYPE_ZSET -> visitor.zset(key, items, expireAtMs);
+                default -> visitor.stream(key, items, expireAtMs);
+            }
+        }
+
+        private Iterator<String> items() {
+            return new Iterator<>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < items.length;
+                }
+
+                @Override
+                public String next() {
+                    if (next == items.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return new String(items[next++], CHARSET);
+                }
+            };
+        }
+    }
+
+    /**
+     * Packs entries into checksummed blocks and writes each block when full.
+     */
+    private static final class BlockWriter {
+        private final FileChannel out;
+        private byte[] buf = new byte[BLOCK_SIZE + 64 * 1024];
+        private int length;
+        private int entryStart;
+        private int entries;
+        long totalEntries;
+
+        BlockWriter(FileChannel out) {
+            this.out = out;
+        }
+
+        void beginEntry(byte type, Long expireAtMs, String key) {
+            entryStart = length;
+            ensure(9);
+            if (expireAtMs == null) {
+                buf[length++] = type;
+            } else {
+                buf[length++] = (byte) (type | HAS_EXPIRY);
+                ByteBuffer.wrap(buf, length, 8).putLong(expireAtMs);
+                length += 8;
+            }
+            putString(key);
+        }
+
+        void abortEntry() {
+            length = entryStart;
+        }
+
+        // Entries never span blocks, so a reserved slot stays in the buffer
+        int reserveInt() {
+            ensure(4);
+            length += 4;
+            return length - 4;
+        }
+
+        void patchInt(int pos, int value) {
+            ByteBuffer.wrap(buf, pos, 4).putInt(value);
+        }
+
+        void endEntry() throws IOException {
+            entries++;
+            totalEntries++;
+            if (length >= BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+
+        void putString(String value) {
+            int n = value.length();
+            putVarint(n);
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                buf[length++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void putVarint(int value) {
+            ensure(5);
+            while (value >= 0x80) {
+                buf[length++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            buf[length++] = (byte) value;
+        }
+
+        void finish() throws IOException {
+            if (entries > 0) {
+                writeBlock();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            CRC32C crc = new CRC32C();
+            crc.update(buf, 0, length);
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE)
+                    .putInt(length).putInt(entries).putInt((int) crc.getValue()).flip();
+            ByteBuffer payload = ByteBuffer.wrap(buf, 0, length);
+            while (header.hasRemaining() || payload.hasRemaining()) {
+                out.write(new ByteBuffer[] { header, payload });
+            }
+            length = 0;
+            entries = 0;
+        }
+
+        private void ensure(int n) {
+            if (length + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + n));
+            }
+        }
+    }
+}
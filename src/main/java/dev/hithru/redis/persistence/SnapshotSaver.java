@@ -0,0 +1,150 @@
+package dev.hithru.redis.persistence;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import dev.hithru.redis.log.Log;
+
+/**
+ * SnapshotSaver
+ *
+ * Coordinates SAVE / BGSAVE across the keyspace shards, which live on
+ * different threads: a save is requested once, every shard hands over a
+ * DatasetSnapshot from its own thread (the requesting one right away, the
+ * others once their event loop is woken up), and when all are in a
+ * background thread writes them into one SnapshotFile.
+ *
+ * Thread-safe; shared by every shard.
+ */
+public class SnapshotSaver {
+    private final Path path;
+    private final int shards;
+
+    // Cheap check for the shards' ticks: a save is waiting for snapshots
+    private volatile boolean collecting;
+
+    // Guarded by this
+    private DatasetSnapshot[] collected;
+    private int received;
+    private CompletableFuture<Long> current;
+
+    private volatile long lastSaveTime;
+    private volatile boolean lastSaveOk = true;
+
+    // Per shard: tells it a snapshot is wanted; null = it checks by itself
+    private final Runnable[] wakers;
+
+    public SnapshotSaver(Path path, int shards) {
+        this.path = path;
+        this.shards = shards;
+        this.wakers = new Runnable[shards];
+        this.lastSaveTime = System.currentTimeMillis() / 1000;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Sets what a save request runs to have a shard hand over its snapshot,
+     * e.g. queueing a task on the shard's event loop. Safe from any thread.
+     */
+    public synchronized void onSnapshotWanted(int shard, Runnable wake) {
+        wakers[shard] = wake;
+    }
+
+    /**
+     * Starts a save unless one is already running.
+     *
+     * @return completes with the number of keys written once the file is on
+     *         disk, or null if a save is already in progress
+     */
+    public synchronized CompletableFuture<Long> requestSave() {
+        if (current != null) {
+            return null;
+        }
+        current = new CompletableFuture<>();
+        collected = new DatasetSnapshot[shards];
+        received = 0;
+        collecting = true;
+        for (Runnable wake : wakers) {
+            if (wake != null) {
+                wake.run();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * True if a save is waiting for this shard's snapshot.
+     */
+    public boolean isSnapshotWanted(int shard) {
+        if (!collecting) {
+            return false;
+        }
+        synchronized (this) {
+            return collected != null && collected[shard] == null;
+        }
+    }
+
+    /**
+     * Hands over a shard's snapshot; the last one starts the write.
+     */
+    public void submit(int shard, DatasetSnapshot snapshot) {
+        List<DatasetSnapshot> all;
+        CompletableFuture<Long> done;
+        synchronized (this) {
+            if (collected == null || collected[shard] != null) {
+                snapshot.release();
+                return;
+            }
+            collected[shard] = snapshot;
+            if (++received < shards) {
+                return;
+            }
+            all = Arrays.asList(collected);
+            done = current;
+            collected = null;
+            collecting = false;
+        }
+
+        Thread writer = new Thread(() -> write(all, done), "snapshot-save");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public synchronized boolean isSaveInProgress() {
+        return current != null;
+    }
+
+    /**
+     * Unix time in seconds of the last successful save (or of startup).
+     */
+    public long getLastSaveTime() {
+        return lastSaveTime;
+    }
+
+    public boolean isLastSaveOk() {
+        return lastSaveOk;
+    }
+
+    private void write(List<DatasetSnapshot> snapshots, CompletableFuture<Long> done) {
+        try {
+            long keys = SnapshotFile.write(path, snapshots);
+            lastSaveTime = System.currentTimeMillis() / 1000;
+            lastSaveOk = true;
+            finish();
+            done.complete(keys);
+        } catch (Exception e) {
+            lastSaveOk = false;
+            Log.warning("Snapshot save to {} failed: {}", path, e.getMessage());
+            finish();
+            done.completeExceptionally(e);
+        }
+    }
+
+    private synchronized void finish() {
+        current = null;
+    }
+}
@@ -0,0 +1,39 @@
+package dev.hithru.redis.persistence;
+
+import java.io.IOException;
+
+/**
+ * Receives the keys of a DatasetSnapshot, one call per key. Every
+ * expireAtMs is an absolute unix time in ms, null = no expiry.
+ */
+public interface SnapshotVisitor {
+
+    void string(String key, String value, Long expireAtMs) throws IOException;
+
+    /**
+     * @param items elements head to tail
+     */
+    void list(String key, Iterable<String> items, Long expireAtMs) throws IOException;
+
+    /**
+     * @param fieldsAndValues field, value, field, value...
+     */
+    void hash(String key, Iterable<String> fieldsAndValues, Long expireAtMs) throws IOException;
+
+    void set(String key, Iterable<String> members, Long expireAtMs) throws IOException;
+
+    /**
+     * @param membersAndScores member, score, member, score... in score order,
+     *                         scores as formatted for replies
+     */
+    void zset(String key, Iterable<String> membersAndScores, Long expireAtMs) throws IOException;
+
+    /**
+     * @param items lastId, entryCount, then per entry: id, fieldCount,
+     *              field, value...; then groupCount, per group: name,
+     *              lastDeliveredId, consumerCount, per consumer: name,
+     *              seenTime, pendingCount, per pending entry: id,
+     *              deliveryTime, deliveryCount
+     */
+    void stream(String key, Iterable<String> items, Long expireAtMs) throws IOException;
+}
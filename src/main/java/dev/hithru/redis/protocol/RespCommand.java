@@ -0,0 +1,154 @@
+package dev.hithru.redis.protocol;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * RespCommand
+ *
+ * A parsed RESP Array of Bulk Strings whose arguments are slices of the
+ * connection's input buffer. Nothing is copied until an argument is asked for.
+ *
+ * - size() / get(i) give the List<String> view used by the command handler.
+ * - getBytes(i), slice(i), equalsIgnoreCase(i, ...) work on the raw bytes.
+ *
+ * Strings are decoded as ISO-8859-1, which maps every byte to exactly one char
+ * and back, so binary values survive a round trip through the stores.
+ *
+ * A command returned by RespParser is only valid until the input buffer is
+ * compacted (i.e. until handleCommand returns). Use copy() to keep one.
+ */
+public final class RespCommand extends AbstractList<String> implements RandomAccess {
+
+    /** Charset used for every argument <-> String conversion in the server. */
+    public static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    private final ByteBuffer buffer;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    RespCommand(ByteBuffer buffer, int[] offsets, int[] lengths) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Builds a self-contained command from plain strings (tests, replays, etc.).
+     */
+    public static RespCommand of(String... args) {
+        return of(List.of(args));
+    }
+
+    public static RespCommand of(List<String> args) {
+        byte[][] encoded = new byte[args.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = args.get(i).getBytes(CHARSET);
+        }
+        return ofBytes(encoded);
+    }
+
+    public static RespCommand ofBytes(byte[]... args) {
+        int total = 0;
+        for (byte[] arg : args) {
+            total += arg.length;
+        }
+
+        byte[] data = new byte[total];
+        int[] offsets = new int[args.length];
+        int[] lengths = new int[args.length];
+
+        int pos = 0;
+        for (int i = 0; i < args.length; i++) {
+            System.arraycopy(args[i], 0, data, pos, args[i].length);
+            offsets[i] = pos;
+            lengths[i] = args[i].length;
+            pos += args[i].length;
+        }
+        return new RespCommand(ByteBuffer.wrap(data), offsets, lengths);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Decodes argument i into a new String.
+     */
+    @Override
+    public String get(int index) {
+        int offset = offsets[index];
+        int length = lengths[index];
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, CHARSET);
+        }
+        return new String(getBytes(index), CHARSET);
+    }
+
+    /**
+     * Length in bytes of argument i.
+     */
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Copies argument i into a new byte array.
+     */
+    public byte[] getBytes(int index) {
+        byte[] out = new byte[lengths[index]];
+        buffer.get(offsets[index], out);
+        return out;
+    }
+
+    /**
+     * Read-only view over argument i, sharing the underlying buffer.
+     */
+    public ByteBuffer slice(int index) {
+        return buffer.slice(offsets[index], lengths[index]).asReadOnlyBuffer();
+    }
+
+    public byte byteAt(int index, int pos) {
+        return buffer.get(offsets[index] + pos);
+    }
+
+    /**
+     * ASCII case-insensitive comparison of argument i against a literal,
+     * without decoding the argument.
+     */
+    public boolean equalsIgnoreCase(int index, String ascii) {
+        int length = lengths[index];
+        if (length != ascii.length()) {
+            return false;
+        }
+        int offset = offsets[index];
+        for (int i = 0; i < length; i++) {
+            int b = buffer.get(offset + i);
+            int c = ascii.charAt(i);
+            if (b != c && toUpper(b) != toUpper(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy backed by its own storage, safe to keep after the
+     * input buffer has been reused.
+     */
+    public RespCommand copy() {
+        byte[][] args = new byte[size()][];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = getBytes(i);
+        }
+        return ofBytes(args);
+    }
+
+    private static int toUpper(int c) {
+        return (c >= 'a' && c <= 'z') ? c - ('a' - 'A') : c;
+    }
+}
@@ -1,108 +1,198 @@
 package dev.hithru.redis.protocol;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 /**
  * RespParser
  *
- * Parses RESP2 values. For now we only need:
- * - Arrays of Bulk Strings (commands): ["PING"], ["SET", "foo", "bar"], etc.
+ * Incremental RESP2 parser for Arrays of Bulk Strings (commands):
+ * ["PING"], ["SET", "foo", "bar"], etc.
  *
- * The main method operates on a StringBuilder buffer and:
- * - Returns a parsed List<String> when a full Array is available.
- * - Removes the consumed bytes from the buffer.
- * - Returns null if there's not enough data yet.
+ * The parser works directly on the bytes of a connection's input ByteBuffer
+ * (in read mode, i.e. between position and limit):
+ * - Returns a RespCommand when a full Array is available and advances the
+ *   buffer position past it. Arguments are slices of the buffer, not copies.
+ * - Returns null if there's not enough data yet. The position is left at the
+ *   start of the partial command, and the parser remembers how far it got, so
+ *   the next call resumes there instead of re-scanning from the beginning.
+ *   The caller may compact() the buffer in between.
+ * - Throws RespProtocolException on input that can never be valid.
+ *
+ * One parser instance belongs to one connection.
  */
 public class RespParser {
 
-    private static final String CRLF = "\r\n";
+    /** Upper bound for a single bulk string (same default as Redis' proto-max-bulk-len). */
+    public static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    private static final int MAX_ARRAY_LENGTH = 1024 * 1024;
+
+    // "*<count>\r\n" and "$<len>\r\n" never need more than this many bytes
+    private static final int MAX_HEADER_LINE = 32;
+
+    // Resumable state, all offsets are relative to the start of the command
+    private int cursor;            // next byte to look at
+    private int expectedArgs = -1; // -1 = array header not parsed yet
+    private int parsedArgs;
+    private int pendingBulkLen = -1; // -1 = next "$<len>" line not parsed yet
+    private int[] offsets;
+    private int[] lengths;
 
     /**
-     * Tries to parse a single RESP Array of Bulk Strings from the start of inputBuffer.
-     *
-     * On success:
-     *  - returns List<String> representing array elements
-     *  - removes consumed text from inputBuffer
-     *
-     * On incomplete data or invalid syntax:
-     *  - returns null and leaves inputBuffer unchanged
+     * Tries to parse a single RESP Array of Bulk Strings at the buffer's position.
      */
-    public List<String> tryParseArrayOfBulkStrings(StringBuilder inputBuffer) {
-        if (inputBuffer.length() == 0) {
-            return null;
-        }
+    public RespCommand tryParse(ByteBuffer buffer) throws RespProtocolException {
+        while (true) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int pos = start + cursor;
+
+            if (expectedArgs < 0) {
+                if (pos >= limit) {
+                    return null;
+                }
+                if (buffer.get(pos) != '*') {
+                    throw new RespProtocolException("expected '*', got '" + (char) buffer.get(pos) + "'");
+                }
+
+                int lineEnd = findLineEnd(buffer, pos + 1, limit);
+                if (lineEnd < 0) {
+                    return null; // not even a full first line yet
+                }
+
+                int count = parseNumber(buffer, pos + 1, lineEnd, "invalid multibulk length");
+                if (count > MAX_ARRAY_LENGTH) {
+                    throw new RespProtocolException("invalid multibulk length");
+                }
+
+                pos = lineEnd + 2;
+                if (count <= 0) {
+                    // "*0" / "*-1": nothing to execute, skip it
+                    buffer.position(pos);
+                    reset();
+                    continue;
+                }
+
+                expectedArgs = count;
+                offsets = new int[count];
+                lengths = new int[count];
+                cursor = pos - start;
+            }
 
-        int len = inputBuffer.length();
-        int idx = 0;
+            while (parsedArgs < expectedArgs) {
+                if (pendingBulkLen < 0) {
+                    if (pos >= limit) {
+                        return null;
+                    }
+                    if (buffer.get(pos) != '$') {
+                        throw new RespProtocolException("expected '$', got '" + (char) buffer.get(pos) + "'");
+                    }
+
+                    int lineEnd = findLineEnd(buffer, pos + 1, limit);
+                    if (lineEnd < 0) {
+                        return null;
+                    }
+
+                    int bulkLen = parseNumber(buffer, pos + 1, lineEnd, "invalid bulk length");
+                    if (bulkLen < 0 || bulkLen > MAX_BULK_LENGTH) {
+                        throw new RespProtocolException("invalid bulk length");
+                    }
+
+                    pendingBulkLen = bulkLen;
+                    pos = lineEnd + 2;
+                    cursor = pos - start;
+                }
+
+                // Need bulkLen bytes + trailing CRLF
+                if ((long) limit - pos < (long) pendingBulkLen + 2) {
+                    return null;
+                }
+
+                int end = pos + pendingBulkLen;
+                if (buffer.get(end) != '\r' || buffer.get(end + 1) != '\n') {
+                    throw new RespProtocolException("bulk string not terminated by CRLF");
+                }
+
+                offsets[parsedArgs] = pos - start;
+                lengths[parsedArgs] = pendingBulkLen;
+                parsedArgs++;
+
+                pos = end + 2;
+                cursor = pos - start;
+                pendingBulkLen = -1;
+            }
 
-        // Expect an Array
-        if (inputBuffer.charAt(idx) != '*') {
-            // For now, commands are always sent as Arrays.
-            // If something else appears, we currently ignore it.
-            return null;
-        }
+            // Successfully parsed a full array; offsets become absolute now that
+            // the command can no longer move inside the buffer.
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] += start;
+            }
+            RespCommand command = new RespCommand(buffer, offsets, lengths);
 
-        // Read "*<count>\r\n"
-        int lineEnd = inputBuffer.indexOf(CRLF, idx);
-        if (lineEnd == -1) {
-            // Not even a full first line yet
-            return null;
+            buffer.position(pos);
+            reset();
+            return command;
         }
+    }
 
-        String countStr = inputBuffer.substring(idx + 1, lineEnd);
-        int count;
-        try {
-            count = Integer.parseInt(countStr);
-        } catch (NumberFormatException e) {
-            // Invalid RESP; for this toy server, bail out gracefully.
-            return null;
+    /**
+     * Minimum number of bytes the buffer must be able to hold, counted from the
+     * start of the partial command, for the next call to make progress.
+     * Lets the caller grow its buffer once for a large bulk string.
+     */
+    public int bytesNeeded() {
+        if (pendingBulkLen < 0) {
+            return cursor + MAX_HEADER_LINE;
         }
+        return cursor + pendingBulkLen + 2;
+    }
 
-        idx = lineEnd + CRLF.length(); // after the array header line
-
-        List<String> elements = new ArrayList<>(count);
-
-        for (int i = 0; i < count; i++) {
-            // Expect "$<len>\r\n"
-            if (idx >= len || inputBuffer.charAt(idx) != '$') {
-                return null; // incomplete or invalid
-            }
+    private void reset() {
+        cursor = 0;
+        expectedArgs = -1;
+        parsedArgs = 0;
+        pendingBulkLen = -1;
+        offsets = null;
+        lengths = null;
+    }
 
-            int bulkLenLineEnd = inputBuffer.indexOf(CRLF, idx);
-            if (bulkLenLineEnd == -1) {
-                return null; // incomplete
+    /**
+     * Returns the index of the '\r' of the next CRLF, or -1 if it hasn't arrived yet.
+     */
+    private static int findLineEnd(ByteBuffer buffer, int from, int limit) throws RespProtocolException {
+        int max = Math.min(limit - 1, from + MAX_HEADER_LINE);
+        for (int i = from; i < max; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                return i;
             }
+        }
+        if (limit - from > MAX_HEADER_LINE) {
+            throw new RespProtocolException("header line too long");
+        }
+        return -1;
+    }
 
-            String bulkLenStr = inputBuffer.substring(idx + 1, bulkLenLineEnd);
-            int bulkLen;
-            try {
-                bulkLen = Integer.parseInt(bulkLenStr);
-            } catch (NumberFormatException e) {
-                return null;
-            }
+    private static int parseNumber(ByteBuffer buffer, int from, int to, String error) throws RespProtocolException {
+        if (from == to) {
+            throw new RespProtocolException(error);
+        }
 
-            idx = bulkLenLineEnd + CRLF.length(); // now at start of bulk data
+        boolean negative = buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            throw new RespProtocolException(error);
+        }
 
-            // Need bulkLen bytes + trailing CRLF
-            if (idx + bulkLen + CRLF.length() > len) {
-                return null; // incomplete
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new RespProtocolException(error);
             }
-
-            String value = inputBuffer.substring(idx, idx + bulkLen);
-            elements.add(value);
-
-            idx += bulkLen;
-
-            // Expect trailing CRLF
-            if (!inputBuffer.substring(idx, idx + CRLF.length()).equals(CRLF)) {
-                return null; // invalid
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw new RespProtocolException(error);
             }
-            idx += CRLF.length();
         }
-
-        // Successfully parsed a full array; remove consumed data
-        inputBuffer.delete(0, idx);
-
-        return elements;
+        return (int) (negative ? -value : value);
     }
 }
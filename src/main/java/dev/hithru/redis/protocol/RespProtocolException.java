@@ -0,0 +1,15 @@
+package dev.hithru.redis.protocol;
+import java.io.IOException;
+
+/**
+ * Thrown by RespParser when the client sends bytes that can never become a
+ * valid command. The connection should be answered with an error and closed.
+ */
+public class RespProtocolException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RespProtocolException(String message) {
+        super(message);
+    }
+}
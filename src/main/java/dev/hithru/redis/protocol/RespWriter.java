@@ -1,84 +1,422 @@
 package dev.hithru.redis.protocol;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 /**
  * RespWriter
  *
- * Utility class for writing RESP2-encoded responses to a SocketChannel.
+ * Per-client outbound buffer for RESP2-encoded responses.
  * Supports:
  *  - Simple Strings (+OK\r\n)
  *  - Bulk Strings ($3\r\nfoo\r\n)
  *  - Null Bulk Strings ($-1\r\n)
  *  - Errors (-ERR ...\r\n)
+ *  - Integers (:1\r\n)
+ *  - Arrays of Bulk Strings and Null Arrays
+ *
+ * The write* methods only encode into memory; nothing touches the socket until
+ * flushTo(), which sends everything queued with a single gathering write.
+ * Small replies are packed into one reusable chunk, large values become their
+ * own chunk so they are not copied twice. A chunk can carry a release
+ * callback (e.g. to unpin off-heap memory), run once it has been sent or
+ * dropped.
+ *
+ * Not thread-safe: a writer belongs to the event loop that owns its client.
  */
 public class RespWriter {
 
     private static final String CRLF = "\r\n";
 
-    private RespWriter() {
-        // utility class, no instances
+    // Same byte <-> char mapping as RespCommand, so binary values come back unchanged
+    private static final Charset CHARSET = RespCommand.CHARSET;
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    // Values at least this big get their own chunk instead of being copied into the tail
+    private static final int LARGE_VALUE = 4 * 1024;
+
+    // Keeps each gathering write under the kernel's IOV_MAX
+    private static final int MAX_GATHER = 64;
+
+    private static final byte[] DIGITS = "0123456789".getBytes(CHARSET);
+
+    private final Runnable onPendingOutput;
+    private final long maxPendingBytes;
+
+    // Sealed chunks in read mode, written before the tail
+    private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+    // Chunk currently being filled, in write mode
+    private ByteBuffer tail = ByteBuffer.allocate(CHUNK_SIZE);
+    // Chunks with a release callback, in queue order, and their callbacks
+    private final Deque<ByteBuffer> releasedChunks = new ArrayDeque<>();
+    private final Deque<Runnable> releases = new ArrayDeque<>();
+
+    private long pendingBytes;
+    private long errors; // error replies written, for command stats
+    private boolean scheduled;
+    private boolean overLimit;
+
+    /**
+     * @param onPendingOutput called when output is queued on an idle writer, so the
+     *                        owner can schedule a flush
+     * @param maxPendingBytes hard limit for unsent output; once exceeded the writer
+     *                        drops further output and isOverLimit() turns true
+     */
+    public RespWriter(Runnable onPendingOutput, long maxPendingBytes) {
+        this.onPendingOutput = onPendingOutput;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public void writeSimpleString(String value) {
+        reserve(value.length() + 3);
+        tail.put((byte) '+');
+        putAscii(value);
+        putCrlf();
+        added(value.length() + 3);
     }
 
-    public static void writeSimpleString(SocketChannel channel, String value) throws IOException {
-        String resp = "+" + value + CRLF;
-        writeAll(channel, resp.getBytes(StandardCharsets.UTF_8));
+    public void writeBulkString(String value) {
+        int length = value.length();
+        if (length >= LARGE_VALUE) {
+            writeBulkString(value.getBytes(CHARSET));
+            return;
+        }
+
+        reserve(length + 16);
+        int start = tail.position();
+        tail.put((byte) '$');
+        putLong(length);
+        putCrlf();
+        putAscii(value);
+        putCrlf();
+        added(tail.position() - start);
     }
 
-    public static void writeBulkString(SocketChannel channel, String value) throws IOException {
-        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-        String header = "$" + bytes.length + CRLF;
+    public void writeBulkString(byte[] value) {
+        if (value.length >= LARGE_VALUE) {
+            writeBulkHeader(value.length);
+            appendChunk(ByteBuffer.wrap(value));
+            writeRaw(CRLF);
+            return;
+        }
 
-        ByteBuffer[] buffers = new ByteBuffer[] {
-                ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)),
-                ByteBuffer.wrap(bytes),
-                ByteBuffer.wrap(CRLF.getBytes(StandardCharsets.UTF_8))
-        };
+        reserve(value.length + 16);
+        int start = tail.position();
+        tail.put((byte) '$');
+        putLong(value.length);
+        putCrlf();
+        tail.put(value);
+        putCrlf();
+        added(tail.position() - start);
+    }
 
-        for (ByteBuffer buffer : buffers) {
-            while (buffer.hasRemaining()) {
-                channel.write(buffer);
-            }
+    /**
+     * Writes value's remaining bytes as a bulk string. Large values are
+     * queued as they are, so value must not change until onSent runs; small
+     * ones are copied and onSent runs right away. onSent may be null.
+     */
+    public void writeBulkString(ByteBuffer value, Runnable onSent) {
+        int length = value.remaining();
+        if (length >= LARGE_VALUE) {
+            writeBulkHeader(length);
+            appendChunk(value, onSent);
+            writeRaw(CRLF);
+            return;
+        }
+
+        reserve(length + 16);
+        int start = tail.position();
+        tail.put((byte) '$');
+        putLong(length);
+        putCrlf();
+        tail.put(tail.position(), value, value.position(), length);
+        tail.position(tail.position() + length);
+        putCrlf();
+        added(tail.position() - start);
+        if (onSent != null) {
+            onSent.run();
         }
     }
 
-    public static void writeNullBulkString(SocketChannel channel) throws IOException {
-        String resp = "$-1" + CRLF;
-        writeAll(channel, resp.getBytes(StandardCharsets.UTF_8));
+    public void writeNullBulkString() {
+        writeRaw("$-1" + CRLF);
     }
 
-    public static void writeError(SocketChannel channel, String message) throws IOException {
-        String resp = "-" + message + CRLF;
-        writeAll(channel, resp.getBytes(StandardCharsets.UTF_8));
+    public void writeError(String message) {
+        errors++;
+        reserve(message.length() + 3);
+        tail.put((byte) '-');
+        putAscii(message);
+        putCrlf();
+        added(message.length() + 3);
     }
 
-    public static void writeInteger(SocketChannel channel, long value) throws IOException {
-        String resp = ":" + value + CRLF;
-        writeAll(channel, resp.getBytes(StandardCharsets.UTF_8));
+    public void writeInteger(long value) {
+        reserve(24);
+        int start = tail.position();
+        tail.put((byte) ':');
+        putLong(value);
+        putCrlf();
+        added(tail.position() - start);
     }
 
-    private static void writeAll(SocketChannel channel, byte[] data) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
-        }
+    public void writeArrayHeader(int count) {
+        reserve(16);
+        int start = tail.position();
+        tail.put((byte) '*');
+        putLong(count);
+        putCrlf();
+        added(tail.position() - start);
     }
 
-    public static void writeArrayOfBulkStrings(SocketChannel channel, List<String> values) throws IOException {
+    public void writeArrayOfBulkStrings(List<String> values) {
         // Array header: *<count>\r\n
-        String header = "*" + values.size() + CRLF;
-        writeAll(channel, header.getBytes(StandardCharsets.UTF_8));
+        writeArrayHeader(values.size());
 
         for (String value : values) {
-            writeBulkString(channel, value);
+            writeBulkString(value);
+        }
+    }
+
+    public void writeNullArray() {
+        writeRaw("*-1" + CRLF);
+    }
+
+    /**
+     * Queues an already encoded buffer without copying it.
+     * The buffer's content must not change until it has been flushed.
+     */
+    public void appendChunk(ByteBuffer encoded) {
+        appendChunk(encoded, null);
+    }
+
+    /**
+     * Same as appendChunk(ByteBuffer), running onSent (if not null) once the
+     * buffer has been written out or the output was dropped.
+     */
+    public void appendChunk(ByteBuffer encoded, Runnable onSent) {
+        int size = encoded.remaining();
+        if (size == 0) {
+            if (onSent != null) {
+                onSent.run();
+            }
+            return;
+        }
+        if (tail.position() > 0) {
+            // Keep ordering: whatever is in the tail goes out before this chunk
+            tail.flip();
+            chunks.addLast(tail);
+            tail = ByteBuffer.allocate(CHUNK_SIZE);
+        }
+        chunks.addLast(encoded);
+        if (onSent != null) {
+            releasedChunks.addLast(encoded);
+            releases.addLast(onSent);
+        }
+        added(size);
+    }
+
+    /**
+     * Number of error replies written so far.
+     */
+    public long errorCount() {
+        return errors;
+    }
+
+    public boolean hasPendingOutput() {
+        return pendingBytes > 0;
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public boolean isOverLimit() {
+        return overLimit;
+    }
+
+    /**
+     * Writes as much queued output as the channel accepts without blocking.
+     *
+     * @return true if everything was sent, false if the socket buffer is full
+     */
+    public boolean flushTo(GatheringByteChannel channel) throws IOException {
+        while (pendingBytes > 0) {
+            ByteBuffer[] batch = new ByteBuffer[Math.min(chunks.size() + 1, MAX_GATHER)];
+            int count = 0;
+            for (ByteBuffer chunk : chunks) {
+                if (count == batch.length) {
+                    break;
+                }
+                batch[count++] = chunk;
+            }
+
+            boolean tailIncluded = count < batch.length && tail.position() > 0;
+            if (tailIncluded) {
+                tail.flip();
+                batch[count++] = tail;
+            }
+
+            long written;
+            try {
+                written = channel.write(batch, 0, count);
+            } finally {
+                if (tailIncluded) {
+                    tail.compact();
+                }
+            }
+            pendingBytes -= written;
+
+            while (!chunks.isEmpty() && !chunks.peekFirst().hasRemaining()) {
+                ByteBuffer sent = chunks.pollFirst();
+                if (releasedChunks.peekFirst() == sent) {
+                    releasedChunks.pollFirst();
+                    releases.pollFirst().run();
+                }
+            }
+
+            if (written == 0) {
+                return false;
+            }
+        }
+
+        scheduled = false;
+        return true;
+    }
+
+    /**
+     * Removes all queued output and returns it as one buffer in read mode,
+     * e.g. to hand a reply over to another thread.
+     */
+    public ByteBuffer drain() {
+        ByteBuffer out = ByteBuffer.allocate((int) pendingBytes);
+        for (ByteBuffer chunk : chunks) {
+            out.put(chunk);
+        }
+        tail.flip();
+        out.put(tail);
+
+        chunks.clear();
+        tail.clear();
+        pendingBytes = 0;
+        scheduled = false;
+        runReleases();
+        return out.flip();
+    }
+
+    /**
+     * Drops queued output (the client is gone) and runs pending release callbacks.
+     */
+    public void close() {
+        discard();
+        scheduled = false;
+    }
+
+    private void writeBulkHeader(int length) {
+        reserve(16);
+        int start = tail.position();
+        tail.put((byte) '$');
+        putLong(length);
+        putCrlf();
+        added(tail.position() - start);
+    }
+
+    private void writeRaw(String ascii) {
+        reserve(ascii.length());
+        putAscii(ascii);
+        added(ascii.length());
+    }
+
+    /**
+     * Makes sure the tail has room for n more bytes, sealing it if it doesn't.
+     */
+    private void reserve(int n) {
+        if (tail.remaining() >= n) {
+            return;
+        }
+        if (tail.position() > 0) {
+            tail.flip();
+            chunks.addLast(tail);
+        }
+        tail = ByteBuffer.allocate(Math.max(CHUNK_SIZE, n));
+    }
+
+    private void added(int bytes) {
+        if (overLimit) {
+            discard();
+            return;
+        }
+
+        pendingBytes += bytes;
+        if (pendingBytes > maxPendingBytes) {
+            // Drop what's queued; the owner is expected to close this client
+            overLimit = true;
+            discard();
+        }
+
+        if (!scheduled) {
+            scheduled = true;
+            onPendingOutput.run();
+        }
+    }
+
+    private void discard() {
+        chunks.clear();
+        tail.clear();
+        pendingBytes = 0;
+        runReleases();
+    }
+
+    private void runReleases() {
+        releasedChunks.clear();
+        Runnable release;
+        while ((release = releases.pollFirst()) != null) {
+            release.run();
         }
     }
 
-    public static void writeNullArray(SocketChannel channel) throws IOException {
-        String resp = "*-1" + CRLF;
-        writeAll(channel, resp.getBytes(StandardCharsets.UTF_8));
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            tail.put((byte) s.charAt(i));
+        }
+    }
+
+    private void putCrlf() {
+        tail.put((byte) '\r');
+        tail.put((byte) '\n');
+    }
+
+    /**
+     * Writes the decimal digits of value without going through a String.
+     */
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            tail.put((byte) '-');
+            value = -value;
+        }
+        if (value < 10) {
+            tail.put(DIGITS[(int) value]);
+            return;
+        }
+
+        int digits = 0;
+        for (long v = value; v > 0; v /= 10) {
+            digits++;
+        }
+        int end = tail.position() + digits;
+        for (int i = end - 1; i >= tail.position(); i--) {
+            tail.put(i, DIGITS[(int) (value % 10)]);
+            value /= 10;
+        }
+        tail.position(end);
     }
 }
@@ -0,0 +1,129 @@
+package dev.hithru.redis.replication;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * ReplicationBacklog
+ *
+ * The most recent part of the replication stream (the write commands sent
+ * to replicas, RESP-encoded), in a fixed circular buffer. Bytes are
+ * addressed by their offset in the whole stream, so a replica that
+ * reconnects and asks to continue from offset N can be served from here as
+ * long as N is still held, instead of getting a full copy of the data.
+ *
+ * It is also what replicas are fed from: each keeps its own read offset and
+ * copies what it has not sent yet.
+ *
+ * Not thread-safe; belongs to the event loop of the primary.
+ */
+public final class ReplicationBacklog {
+
+    /** Default size, like Redis' repl-backlog-size. */
+    public static final int DEFAULT_SIZE = 1024 * 1024;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final byte[] buffer;
+    private final byte[] header = new byte[24];
+    private int writeIndex; // where the next byte goes
+    private long offset;    // bytes in the stream so far
+    private int histlen;    // bytes currently held, at most buffer.length
+
+    /**
+     * @param startOffset stream offset the first appended byte gets
+     */
+    public ReplicationBacklog(int size, long startOffset) {
+        this.buffer = new byte[size];
+        this.offset = startOffset;
+    }
+
+    /**
+     * Appends one command, encoded as a RESP array of bulk strings.
+     */
+    public void append(List<String> args) {
+        appendHeader('*', args.size());
+        for (String arg : args) {
+            appendHeader('$', arg.length());
+            for (int i = 0; i < arg.length(); i++) {
+                put((byte) arg.charAt(i)); // chars are bytes, see RespCommand.CHARSET
+            }
+            append(CRLF, 0, CRLF.length);
+        }
+    }
+
+    void append(byte[] bytes, int from, int length) {
+        for (int i = 0; i < length; i++) {
+            put(bytes[from + i]);
+        }
+    }
+
+    /**
+     * Offset just past the last byte appended (Redis' master_repl_offset).
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Offset of the oldest byte still held.
+     */
+    public long firstOffset() {
+        return offset - histlen;
+    }
+
+    public int histlen() {
+        return histlen;
+    }
+
+    public int size() {
+        return buffer.length;
+    }
+
+    /**
+     * True if the stream can be continued from this offset.
+     */
+    public boolean holds(long from) {
+        return from >= firstOffset() && from <= offset;
+    }
+
+    /**
+     * Copies up to maxBytes of the stream starting at from, which must be held.
+     */
+    public ByteBuffer read(long from, int maxBytes) {
+        if (!holds(from)) {
+            throw new IllegalArgumentException("offset " + from + " is not in the backlog");
+        }
+        int length = (int) Math.min(maxBytes, offset - from);
+        byte[] out = new byte[length];
+        int start = Math.floorMod(writeIndex - (int) (offset - from), buffer.length);
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(buffer, start, out, 0, first);
+        System.arraycopy(buffer, 0, out, first, length - first);
+        return ByteBuffer.wrap(out);
+    }
+
+    private void appendHeader(char type, int count) {
+        int n = header.length;
+        header[--n] = '\n';
+        header[--n] = '\r';
+        int value = count;
+        do {
+            header[--n] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        header[--n] = (byte) type;
+        append(header, n, header.length - n);
+    }
+
+    private void put(byte b) {
+        buffer[writeIndex] = b;
+        if (++writeIndex == buffer.length) {
+            writeIndex = 0;
+        }
+        offset++;
+        if (histlen < buffer.length) {
+            histlen++;
+        }
+    }
+}
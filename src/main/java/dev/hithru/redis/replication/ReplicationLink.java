@@ -0,0 +1,374 @@
+package dev.hithru.redis.replication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.protocol.RespParser;
+
+/**
+ * ReplicationLink
+ *
+ * The replica side of replication: a background thread that connects to the
+ * primary, does the handshake (PING, REPLCONF listening-port, PSYNC) and
+ * then reads the replication stream. It never touches the data itself:
+ * a received snapshot, and every batch of parsed commands, is handed to the
+ * Target on the event loop thread through loop, in stream order.
+ *
+ * The offset (bytes of the stream received so far) and replication id are
+ * kept across reconnects, so a link that drops asks for a partial resync.
+ * The offset is acknowledged every second with REPLCONF ACK.
+ */
+public final class ReplicationLink implements Runnable {
+
+    /**
+     * Where the stream is applied; called on the event loop thread only.
+     */
+    public interface Target {
+        /**
+         * Replaces the whole data set with the snapshot in file.
+         */
+        void loadFullSync(Path file) throws IOException;
+
+        /**
+         * Runs commands received from the primary, in order.
+         */
+        void apply(List<RespCommand> commands) throws IOException;
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int ACK_INTERVAL_MS = 1000;
+    // The primary pings every 10 seconds; nothing for this long means it's gone
+    private static final long LINK_TIMEOUT_MS = 60_000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final int listeningPort;
+    private final Path dir;
+    private final Executor loop;
+    private final Target target;
+
+    private RespParser parser;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // write mode
+    private InputStream in;
+    private OutputStream out;
+
+    private volatile String replid = "?";
+    private volatile long offset = -1; // -1 = nothing received yet
+    private volatile boolean up;
+    private volatile boolean syncing;
+    private volatile boolean stopped;
+    private volatile Socket socket;
+    private volatile long lastReceivedMs;
+
+    /**
+     * @param listeningPort this server's port, reported to the primary
+     * @param dir           where a received snapshot is stored until loaded
+     * @param loop          runs tasks on the event loop that owns the data
+     */
+    public ReplicationLink(String host, int port, int listeningPort, Path dir, Executor loop, Target target) {
+        this.host = host;
+        this.port = port;
+        this.listeningPort = listeningPort;
+        this.dir = dir;
+        this.loop = loop;
+        this.target = target;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "replication-link");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Disconnects for good. Commands already received may still be applied.
+     */
+    public void stop() {
+        stopped = true;
+        closeSocket();
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public boolean isUp() {
+        return up;
+    }
+
+    public boolean isSyncing() {
+        return syncing;
+    }
+
+    /**
+     * Bytes of the replication stream received (slave_repl_offset).
+     */
+    public long offset() {
+        return Math.max(offset, 0);
+    }
+
+    /**
+     * The replica part of INFO replication.
+     */
+    public void appendInfo(StringBuilder info) {
+        long now = System.currentTimeMillis();
+        info.append("master_host:").append(host).append("\r\n")
+                .append("master_port:").append(port).append("\r\n")
+                .append("master_link_status:").append(up ? "up" : "down").append("\r\n")
+                .append("master_last_io_seconds_ago:")
+                .append(lastReceivedMs == 0 ? -1 : (now - lastReceivedMs) / 1000).append("\r\n")
+                .append("master_sync_in_progress:").append(syncing ? 1 : 0).append("\r\n")
+                .append("slave_repl_offset:").append(offset()).append("\r\n")
+                .append("slave_read_only:1\r\n");
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            try {
+                connectAndStream();
+            } catch (IOException e) {
+                if (!stopped) {
+                    Log.warning("Connection with primary {}:{} lost: {}", host, port, e.getMessage());
+                }
+            } finally {
+                up = false;
+                syncing = false;
+                closeSocket();
+            }
+            if (!stopped) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void connectAndStream() throws IOException {
+        Log.notice("Connecting to primary {}:{}", host, port);
+        Socket s = new Socket();
+        socket = s;
+        if (stopped) {
+            return;
+        }
+        s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        s.setSoTimeout(ACK_INTERVAL_MS);
+        s.setTcpNoDelay(true);
+        in = s.getInputStream();
+        out = s.getOutputStream();
+        buffer.clear();
+        parser = new RespParser();
+        lastReceivedMs = System.currentTimeMillis();
+
+        send("PING");
+        expectOk(readLine(), "PING");
+        send("REPLCONF", "listening-port", Integer.toString(listeningPort));
+        expectOk(readLine(), "REPLCONF");
+        send("REPLCONF", "capa", "psync2");
+        expectOk(readLine(), "REPLCONF");
+
+        String wantedId = offset < 0 ? "?" : replid;
+        send("PSYNC", wantedId, Long.toString(offset < 0 ? -1 : offset + 1));
+        String reply = readLine();
+        while (reply.isEmpty()) {
+            reply = readLine(); // keepalive newlines
+        }
+        if (reply.startsWith("+FULLRESYNC ")) {
+            String[] parts = reply.split(" ");
+            if (parts.length != 3) {
+                throw new IOException("bad PSYNC reply: " + reply);
+            }
+            receiveSnapshot();
+            replid = parts[1];
+            offset = Long.parseLong(parts[2]);
+        } else if (reply.startsWith("+CONTINUE")) {
+            String[] parts = reply.split(" ");
+            if (parts.length > 1) {
+                replid = parts[1];
+            }
+            Log.notice("Partial resynchronization with primary {}:{} from offset {}", host, port, offset);
+        } else {
+            throw new IOException("PSYNC refused: " + reply);
+        }
+
+        up = true;
+        Log.notice("Connected to primary {}:{}, replication id {}", host, port, replid);
+        stream();
+    }
+
+    // Reads "$size\r\n" and that many bytes into a file, then has it loaded
+    private void receiveSnapshot() throws IOException {
+        syncing = true;
+        String header = readLine();
+        while (header.isEmpty()) {
+            header = readLine();
+        }
+        if (!header.startsWith("$")) {
+            throw new IOException("bad snapshot header: " + header);
+        }
+        long remaining = Long.parseLong(header.substring(1));
+        Log.notice("Receiving {} bytes of snapshot from primary {}:{}", remaining, host, port);
+
+        Path file = dir.resolve("temp-repl-" + ProcessHandle.current().pid() + ".rdb");
+        try (OutputStream fileOut = Files.newOutputStream(file)) {
+            while (remaining > 0) {
+                buffer.flip();
+                int n = (int) Math.min(remaining, buffer.remaining());
+                fileOut.write(buffer.array(), buffer.position(), n);
+                buffer.position(buffer.position() + n);
+                buffer.compact();
+                remaining -= n;
+                if (remaining > 0) {
+                    fill();
+                }
+            }
+        }
+
+        loop.execute(() -> {
+            try {
+                target.loadFullSync(file);
+            } catch (IOException e) {
+                Log.warning("Loading the snapshot from the primary failed: {}", e.getMessage());
+            }
+        });
+        syncing = false;
+    }
+
+    private void stream() throws IOException {
+        long lastAck = 0;
+        while (!stopped) {
+            buffer.flip();
+            List<RespCommand> batch = new ArrayList<>();
+            int start = buffer.position();
+            try {
+                RespCommand command;
+                while ((command = parser.tryParse(buffer)) != null) {
+                    batch.add(command.copy());
+                }
+            } finally {
+                // Partial commands stay in the buffer; the parser resumes on them
+                offset += buffer.position() - start;
+                buffer.compact();
+            }
+            if (!batch.isEmpty()) {
+                loop.execute(() -> {
+                    try {
+                        target.apply(batch);
+                    } catch (IOException e) {
+                        Log.warning("Applying commands from the primary failed: {}", e.getMessage());
+                    }
+                });
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastAck >= ACK_INTERVAL_MS) {
+                lastAck = now;
+                send("REPLCONF", "ACK", Long.toString(offset));
+            }
+            ensureCapacity(parser.bytesNeeded());
+            fill();
+        }
+    }
+
+    /**
+     * Reads more of the stream into the buffer; returns after at most
+     * ACK_INTERVAL_MS even if nothing arrived.
+     */
+    private void fill() throws IOException {
+        if (!buffer.hasRemaining()) {
+            ensureCapacity(buffer.capacity() + 1);
+        }
+        int n;
+        try {
+            n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } catch (SocketTimeoutException e) {
+            if (System.currentTimeMillis() - lastReceivedMs > LINK_TIMEOUT_MS) {
+                throw new IOException("timeout, nothing received for " + LINK_TIMEOUT_MS / 1000 + " seconds");
+            }
+            return;
+        }
+        if (n < 0) {
+            throw new EOFException("closed by the primary");
+        }
+        buffer.position(buffer.position() + n);
+        lastReceivedMs = System.currentTimeMillis();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= buffer.capacity()) {
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+
+    // A reply line without its CRLF, for the handshake
+    private String readLine() throws IOException {
+        long deadline = System.currentTimeMillis() + LINK_TIMEOUT_MS;
+        while (true) {
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    int end = i > 0 && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                    String line = new String(buffer.array(), 0, end, StandardCharsets.ISO_8859_1);
+                    buffer.flip().position(i + 1);
+                    buffer.compact();
+                    return line;
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("timeout waiting for the primary's reply");
+            }
+            fill();
+        }
+    }
+
+    private static void expectOk(String reply, String command) throws IOException {
+        if (!reply.startsWith("+")) {
+            throw new IOException(command + " refused: " + reply);
+        }
+    }
+
+    private void send(String... args) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append('*').append(args.length).append("\r\n");
+        for (String arg : args) {
+            sb.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package dev.hithru.redis.replication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.persistence.DatasetSnapshot;
+import dev.hithru.redis.persistence.SnapshotFile;
+import dev.hithru.redis.protocol.RespWriter;
+import dev.hithru.redis.server.ClientSession;
+
+/**
+ * ReplicationSource
+ *
+ * The primary side of replication: every write command propagated by the
+ * handler goes into a ReplicationBacklog, and each replica connection is
+ * fed from it at its own pace. A replica asks with PSYNC replid offset:
+ *
+ * - same replication id and the offset still in the backlog: +CONTINUE, and
+ *   the stream resumes from there (partial resync)
+ * - otherwise: +FULLRESYNC replid offset, then a snapshot file of the data
+ *   as of offset (written by a background thread, sent as "$len\r\n" plus
+ *   its bytes), then the stream from offset on. Replicas arriving while a
+ *   snapshot is being written share it
+ *
+ * Replicas are refilled once their socket has taken what they were given,
+ * so a slow replica holds back at most one chunk of memory; one that falls
+ * so far behind that the backlog no longer holds its offset is
+ * disconnected and will resync.
+ *
+ * The backlog only exists once a replica has connected, like in Redis.
+ * Not thread-safe; belongs to the event loop of the (single) keyspace shard.
+ */
+public final class ReplicationSource {
+
+    // A replica is refilled while less than this is waiting in its socket buffer
+    private static final int FEED_CHUNK = 64 * 1024;
+    private static final int SNAPSHOT_CHUNK = 4 * 1024 * 1024;
+    // Keeps idle replicas from timing out, like Redis' repl-ping-replica-period
+    private static final long PING_INTERVAL_MS = 10_000;
+
+    private enum State {
+        HANDSHAKE("handshake"),         // sent REPLCONF, no PSYNC yet
+        WAIT_SNAPSHOT("wait_bgsave"),   // full resync, snapshot still being written
+        SEND_SNAPSHOT("send_bulk"),     // full resync, snapshot being sent
+        ONLINE("online");               // streaming from the backlog
+
+        final String infoName;
+
+        State(String infoName) {
+            this.infoName = infoName;
+        }
+    }
+
+    private static final class Replica {
+        final ClientSession session;
+        State state = State.HANDSHAKE;
+        int listeningPort;
+        long sentOffset;   // next stream byte to hand to the socket
+        long ackOffset;
+        long ackTimeMs;
+        FullSync sync;
+        FileChannel snapshot;
+        long snapshotPosition;
+
+        Replica(ClientSession session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * A snapshot being written for (or sent to) replicas doing a full resync.
+     */
+    private static final class FullSync {
+        final long offset;
+        final Path file;
+        final CompletableFuture<Long> written = new CompletableFuture<>();
+        int users; // replicas that still need the file
+
+        FullSync(long offset, Path file) {
+            this.offset = offset;
+            this.file = file;
+        }
+    }
+
+    private final Path dir;
+    private final int backlogSize;
+    private final Supplier<DatasetSnapshot> snapshots;
+    private final Consumer<ClientSession> closer;
+
+    private final Map<ClientSession, Replica> replicas = new LinkedHashMap<>();
+    private String replid = newReplid();
+    private long startOffset;
+    private ReplicationBacklog backlog;
+    private FullSync pendingSync; // accepting more replicas until written
+    private int syncCount;
+    private long fullSyncs;
+    private long partialSyncs;
+    private long refusedPartialSyncs;
+    private long lastPingMs;
+
+    /**
+     * @param dir       where snapshots for full resyncs are written
+     * @param snapshots point-in-time copy of the data, taken on this thread
+     * @param closer    disconnects a replica that fell behind
+     */
+    public ReplicationSource(Path dir, int backlogSize, Supplier<DatasetSnapshot> snapshots,
+                             Consumer<ClientSession> closer) {
+        this.dir = dir;
+        this.backlogSize = backlogSize;
+        this.snapshots = snapshots;
+        this.closer = closer;
+    }
+
+    public String replid() {
+        return replid;
+    }
+
+    /**
+     * Current offset of the replication stream (master_repl_offset).
+     */
+    public long offset() {
+        return backlog == null ? startOffset : backlog.offset();
+    }
+
+    /**
+     * PSYNCs answered with a full resync (sync_full).
+     */
+    public long getFullSyncs() {
+        return fullSyncs;
+    }
+
+    /**
+     * PSYNCs continued from the backlog (sync_partial_ok).
+     */
+    public long getPartialSyncs() {
+        return partialSyncs;
+    }
+
+    /**
+     * PSYNCs asking to continue that got a full resync instead (sync_partial_err).
+     */
+    public long getRefusedPartialSyncs() {
+        return refusedPartialSyncs;
+    }
+
+    /**
+     * Adds a write command to the stream, if anyone could need it.
+     */
+    public void propagate(List<String> args) {
+        if (backlog != null) {
+            backlog.append(args);
+        }
+    }
+
+    /**
+     * PSYNC replid offset, where offset is the next byte the replica wants
+     * (one past what it has, "? -1" on a first sync).
+     */
+    public void psync(ClientSession client, String requestedId, long requestedOffset) {
+        Replica replica = replicas.computeIfAbsent(client, Replica::new);
+        if (replica.state != State.HANDSHAKE) {
+            client.writer().writeError("ERR PSYNC already sent on this connection");
+            return;
+        }
+        replica.ackTimeMs = System.currentTimeMillis();
+
+        long from = requestedOffset - 1;
+        if (backlog != null && requestedId.equals(replid) && backlog.holds(from)) {
+            Log.notice("Partial resynchronization of replica {} from offset {}, {} bytes of backlog",
+                    client.address(), from, backlog.offset() - from);
+            client.writer().writeSimpleString("CONTINUE " + replid);
+            replica.sentOffset = from;
+            replica.state = State.ONLINE;
+            partialSyncs++;
+            return;
+        }
+        if (!requestedId.equals("?")) {
+            refusedPartialSyncs++;
+        }
+        fullSyncs++;
+
+        if (backlog == null) {
+            backlog = new ReplicationBacklog(backlogSize, startOffset);
+        }
+        if (pendingSync == null) {
+            pendingSync = startFullSync();
+        }
+        Log.notice("Full resynchronization of replica {} at offset {}", client.address(), pendingSync.offset);
+        client.writer().writeSimpleString("FULLRESYNC " + replid + " " + pendingSync.offset);
+        replica.sync = pendingSync;
+        replica.sync.users++;
+        replica.state = State.WAIT_SNAPSHOT;
+    }
+
+    /**
+     * REPLCONF listening-port port | capa ... | ack offset
+     */
+    public void replconf(ClientSession client, List<String> args, RespWriter out) {
+        if (args.size() % 2 == 0) {
+            out.writeError("ERR syntax error");
+            return;
+        }
+        Replica replica = replicas.computeIfAbsent(client, Replica::new);
+        for (int i = 1; i < args.size(); i += 2) {
+            String option = args.get(i);
+            String value = args.get(i + 1);
+            try {
+                if (option.equalsIgnoreCase("ack")) {
+                    replica.ackOffset = Long.parseLong(value);
+                    replica.ackTimeMs = System.currentTimeMillis();
+                    return; // no reply, like Redis
+                } else if (option.equalsIgnoreCase("listening-port")) {
+                    replica.listeningPort = Integer.parseInt(value);
+                } else if (!option.equalsIgnoreCase("capa")) {
+                    out.writeError("ERR Unrecognized REPLCONF option: " + option);
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                out.writeError("ERR value is not an integer or out of range");
+                return;
+            }
+        }
+        out.writeSimpleString("OK");
+    }
+
+    /**
+     * Sends finished snapshots and new stream bytes, pings idle replicas.
+     */
+    public void onTick(long nowMs) {
+        if (pendingSync != null && pendingSync.written.isDone()) {
+            FullSync done = pendingSync;
+            pendingSync = null;
+            deleteIfUnused(done);
+        }
+        if (backlog != null && nowMs - lastPingMs >= PING_INTERVAL_MS) {
+            lastPingMs = nowMs;
+            backlog.append(List.of("PING"));
+        }
+
+        List<ClientSession> lagging = null;
+        for (Replica replica : replicas.values()) {
+            if (!feed(replica)) {
+                if (lagging == null) {
+                    lagging = new ArrayList<>();
+                }
+                lagging.add(replica.session);
+            }
+        }
+        if (lagging != null) {
+            for (ClientSession session : lagging) {
+                closer.accept(session);
+            }
+        }
+    }
+
+    /**
+     * Whether onTick has anything to do: replicas to feed and ping, or a
+     * snapshot file to clean up once written. Without either the event loop
+     * needn't wake up for it.
+     */
+    public boolean hasPeriodicWork() {
+        return !replicas.isEmpty() || pendingSync != null;
+    }
+
+    /**
+     * Forgets a replica whose connection was closed.
+     */
+    public void disconnected(ClientSession client) {
+        Replica replica = replicas.remove(client);
+        if (replica != null && replica.state != State.HANDSHAKE) {
+            Log.notice("Connection with replica {} lost", client.address());
+            releaseSnapshot(replica);
+        }
+    }
+
+    /**
+     * Starts a new history (new replication id), e.g. once this server
+     * replaced its data with another primary's: its own replicas must resync.
+     */
+    public void reset() {
+        List<ClientSession> sessions = new ArrayList<>(replicas.keySet());
+        for (ClientSession session : sessions) {
+            closer.accept(session);
+        }
+        replicas.clear();
+        if (pendingSync != null) {
+            FullSync abandoned = pendingSync;
+            pendingSync = null;
+            deleteIfUnused(abandoned);
+        }
+        startOffset = offset();
+        backlog = null;
+        replid = newReplid();
+    }
+
+    /**
+     * Replicas that finished the handshake.
+     */
+    public int replicaCount() {
+        int count = 0;
+        for (Replica replica : replicas.values()) {
+            if (replica.state != State.HANDSHAKE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The primary part of INFO replication.
+     */
+    public void appendInfo(StringBuilder info) {
+        long now = System.currentTimeMillis();
+        info.append("connected_slaves:").append(replicaCount()).append("\r\n");
+        int n = 0;
+        for (Replica replica : replicas.values()) {
+            if (replica.state == State.HANDSHAKE) {
+                continue;
+            }
+            String address = replica.session.address();
+            int colon = address.lastIndexOf(':');
+            info.append("slave").append(n++)
+                    .append(":ip=").append(colon < 0 ? address : address.substring(0, colon))
+                    .append(",port=").append(replica.listeningPort)
+                    .append(",state=").append(replica.state.infoName)
+                    .append(",offset=").append(replica.ackOffset)
+                    .append(",lag=").append((now - replica.ackTimeMs) / 1000).append("\r\n");
+        }
+        info.append("master_replid:").append(replid).append("\r\n")
+                .append("master_repl_offset:").append(offset()).append("\r\n")
+                .append("repl_backlog_active:").append(backlog == null ? 0 : 1).append("\r\n")
+                .append("repl_backlog_size:").append(backlogSize).append("\r\n")
+                .append("repl_backlog_first_byte_offset:")
+                .append(backlog == null ? 0 : backlog.firstOffset() + 1).append("\r\n")
+                .append("repl_backlog_histlen:").append(backlog == null ? 0 : backlog.histlen()).append("\r\n");
+    }
+
+    /**
+     * ROLE's list of replicas: ip, listening port, acknowledged offset.
+     */
+    public List<String[]> replicaRoles() {
+        List<String[]> roles = new ArrayList<>();
+        for (Replica replica : replicas.values()) {
+            if (replica.state == State.ONLINE) {
+                String address = replica.session.address();
+                int colon = address.lastIndexOf(':');
+                roles.add(new String[] { colon < 0 ? address : address.substring(0, colon),
+                        Integer.toString(replica.listeningPort), Long.toString(replica.ackOffset) });
+            }
+        }
+        return roles;
+    }
+
+    private FullSync startFullSync() {
+        long pid = ProcessHandle.current().pid();
+        FullSync sync = new FullSync(backlog.offset(), dir.resolve("repl-sync-" + pid + "-" + (++syncCount) + ".rdb"));
+        DatasetSnapshot snapshot = snapshots.get();
+
+        Thread writer = new Thread(() -> {
+            try {
+                sync.written.complete(SnapshotFile.write(sync.file, List.of(snapshot)));
+            } catch (Exception e) {
+                Log.warning("Writing the snapshot for a full resync failed: {}", e.getMessage());
+                sync.written.completeExceptionally(e);
+            }
+        }, "replication-snapshot");
+        writer.setDaemon(true);
+        writer.start();
+        return sync;
+    }
+
+    /**
+     * @return false if the replica must be disconnected
+     */
+    private boolean feed(Replica replica) {
+        if (replica.state == State.HANDSHAKE) {
+            return true;
+        }
+        if (replica.state == State.WAIT_SNAPSHOT) {
+            if (!replica.sync.written.isDone()) {
+                return true;
+            }
+            if (!openSnapshot(replica)) {
+                return false;
+            }
+        }
+        if (replica.state == State.SEND_SNAPSHOT) {
+            if (!sendSnapshot(replica)) {
+                return false;
+            }
+            if (replica.state != State.ONLINE) {
+                return true;
+            }
+        }
+        return sendStream(replica);
+    }
+
+    private boolean openSnapshot(Replica replica) {
+        FullSync sync = replica.sync;
+        if (sync.written.isCompletedExceptionally()) {
+            return false;
+        }
+        if (!backlog.holds(sync.offset)) {
+            Log.warning("Replication backlog overrun while the snapshot for {} was written, disconnecting",
+                    replica.session.address());
+            return false;
+        }
+        try {
+            replica.snapshot = FileChannel.open(sync.file, StandardOpenOption.READ);
+            String header = "$" + replica.snapshot.size() + "\r\n";
+            replica.session.writer().appendChunk(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            Log.warning("Cannot send snapshot {} to replica: {}", sync.file, e.getMessage());
+            return false;
+        }
+        replica.snapshotPosition = 0;
+        replica.state = State.SEND_SNAPSHOT;
+        return true;
+    }
+
+    // Queues the next chunks of the file, mapped rather than read
+    private boolean sendSnapshot(Replica replica) {
+        RespWriter out = replica.session.writer();
+        try {
+            long size = replica.snapshot.size();
+            while (replica.snapshotPosition < size && out.pendingBytes() < SNAPSHOT_CHUNK) {
+                long length = Math.min(SNAPSHOT_CHUNK, size - replica.snapshotPosition);
+                out.appendChunk(replica.snapshot.map(FileChannel.MapMode.READ_ONLY, replica.snapshotPosition, length));
+                replica.snapshotPosition += length;
+            }
+            if (replica.snapshotPosition < size) {
+                return true;
+            }
+        } catch (IOException e) {
+            Log.warning("Cannot send snapshot {} to replica: {}", replica.sync.file, e.getMessage());
+            return false;
+        }
+
+        replica.sentOffset = replica.sync.offset;
+        releaseSnapshot(replica);
+        replica.state = State.ONLINE;
+        Log.notice("Snapshot sent to replica {}, streaming from offset {}", replica.session.address(), replica.sentOffset);
+        return true;
+    }
+
+    private boolean sendStream(Replica replica) {
+        RespWriter out = replica.session.writer();
+        while (replica.sentOffset < backlog.offset() && out.pendingBytes() < FEED_CHUNK) {
+            if (!backlog.holds(replica.sentOffset)) {
+                Log.warning("Replica {} fell behind the replication backlog, disconnecting", replica.session.address());
+                return false;
+            }
+            ByteBuffer chunk = backlog.read(replica.sentOffset, FEED_CHUNK);
+            replica.sentOffset += chunk.remaining();
+            out.appendChunk(chunk);
+        }
+        return true;
+    }
+
+    private void releaseSnapshot(Replica replica) {
+        FullSync sync = replica.sync;
+        if (sync == null) {
+            return;
+        }
+        replica.sync = null;
+        if (replica.snapshot != null) {
+            try {
+                replica.snapshot.close();
+            } catch (IOException ignored) {
+            }
+            replica.snapshot = null;
+        }
+        sync.users--;
+        deleteIfUnused(sync);
+    }
+
+    // The file goes once no replica can still need it; chunks already
+    // mapped stay readable after that
+    private void deleteIfUnused(FullSync sync) {
+        if (sync.users > 0 || sync == pendingSync) {
+            return;
+        }
+        sync.written.whenComplete((keys, error) -> {
+            try {
+                Files.deleteIfExists(sync.file);
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    private static String newReplid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder id = new StringBuilder(40);
+        for (int i = 0; i < 40; i++) {
+            id.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return id.toString();
+    }
+}
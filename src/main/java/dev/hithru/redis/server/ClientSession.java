@@ -1,28 +1,144 @@
 package dev.hithru.redis.server;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.util.function.Consumer;
 
-import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
 import dev.hithru.redis.protocol.RespParser;
+import dev.hithru.redis.protocol.RespProtocolException;
+import dev.hithru.redis.protocol.RespWriter;
 
 /**
  * Represents the state for a single client connection.
- * - Reads bytes from the client
- * - Accumulates them into an internal buffer
- * - Uses RespParser to parse RESP Arrays of Bulk Strings into List<String> commands
+ * - Reads bytes from the client into a per-connection ByteBuffer
+ * - Uses RespParser to parse RESP Arrays of Bulk Strings into RespCommands
+ *   (slices of that buffer, no per-argument copies)
+ * - Keeps partial commands in the buffer; the parser resumes where it stopped
+ * - Collects replies in a RespWriter; the server flushes them once per loop
+ *   iteration instead of writing to the socket for every reply
+ * - While a command runs on another shard's thread, stops parsing until its
+ *   reply comes back, so replies stay in request order
+ * - Likewise while the handler has paused it (a command that replies over
+ *   several loop iterations, e.g. KEYS), until it is resumed
+ * - Carries the client's MULTI / WATCH state and its Pub/Sub subscriptions,
+ *   created on first use
  */
 public class ClientSession {
-    private static final int BUFFER_SIZE = 1024;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // A single command can't be larger than this (one max-size bulk plus headers)
+    private static final int MAX_BUFFER_SIZE = RespParser.MAX_BULK_LENGTH + 64 * 1024;
+
+    /** Unsent replies above this size get the client disconnected. */
+    public static final long DEFAULT_MAX_OUTPUT_BYTES = 256L * 1024 * 1024;
 
     private final SocketChannel channel;
-    private final StringBuilder inputBuffer = new StringBuilder();
     private final RespParser respParser = new RespParser();
+    private final RespWriter writer;
+
+    // Kept in "write mode" between reads
+    private ByteBuffer inputBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    // Read by other reactors through the stand-in of a forwarded command
+    private volatile boolean closed;
+    private boolean awaitingReply;
+    private boolean paused;
+    // Set by ASKING (cluster mode): the next command may use a slot being imported
+    private boolean asking;
+    private MultiState multiState;
+    private Subscriptions subscriptions;
+
+    // What ran this session's commands last; resume() continues with it
+    private CommandDispatcher dispatcher;
+
+    private String address; // looked up on first use
 
-    public ClientSession(SocketChannel channel) {
+    /**
+     * @param onPendingOutput told when this session has replies waiting to be flushed
+     */
+    public ClientSession(SocketChannel channel, Consumer<ClientSession> onPendingOutput, long maxOutputBytes) {
         this.channel = channel;
+        this.writer = new RespWriter(() -> onPendingOutput.accept(this), maxOutputBytes);
+    }
+
+    /**
+     * Session without a socket, used to run a command on behalf of a client
+     * connected to another reactor.
+     */
+    ClientSession(Consumer<ClientSession> onPendingOutput, long maxOutputBytes) {
+        this(null, onPendingOutput, maxOutputBytes);
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public RespWriter writer() {
+        return writer;
+    }
+
+    /**
+     * The client's "ip:port", or "" for a session without a socket.
+     */
+    public String address() {
+        if (address == null) {
+            address = "";
+            try {
+                if (channel != null && channel.getRemoteAddress() instanceof InetSocketAddress remote) {
+                    address = remote.getAddress().getHostAddress() + ":" + remote.getPort();
+                }
+            } catch (IOException ignored) {
+                // Already closed: leave it empty
+            }
+        }
+        return address;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The connection this session stands for: itself, or for the stand-in of
+     * a command run on another shard, the client it runs the command for.
+     */
+    public ClientSession connection() {
+        return this;
+    }
+
+    public boolean isAsking() {
+        return asking;
+    }
+
+    public void setAsking(boolean asking) {
+        this.asking = asking;
+    }
+
+    public MultiState multiState() {
+        if (multiState == null) {
+            multiState = new MultiState();
+        }
+        return multiState;
+    }
+
+    /** True between MULTI and EXEC / DISCARD. */
+    public boolean inMulti() {
+        return multiState != null && multiState.isActive();
+    }
+
+    public Subscriptions subscriptions() {
+        if (subscriptions == null) {
+            subscriptions = new Subscriptions();
+        }
+        return subscriptions;
+    }
+
+    /** True while subscribed to a channel or pattern. */
+    public boolean isSubscribed() {
+        return subscriptions != null && subscriptions.count() > 0;
     }
 
     /**
@@ -30,41 +146,153 @@ public class ClientSession {
      *
      * @return true if connection remains open, false if client closed it.
      */
-    public boolean readFromClient(CommandHandler handler) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    boolean readFromClient(CommandDispatcher dispatcher) throws IOException {
+        this.dispatcher = dispatcher;
+        ensureCapacity(respParser.bytesNeeded());
 
-        int bytesRead = channel.read(buffer);
+        int bytesRead = channel.read(inputBuffer);
 
         if (bytesRead == -1) {
             // Client closed the connection
-            System.out.println("Client disconnected: " + channel.getRemoteAddress());
+            Log.verbose("Client closed connection {}", address());
             return false;
         }
 
-        if (bytesRead > 0) {
-            buffer.flip();
-            String chunk = StandardCharsets.UTF_8.decode(buffer).toString();
-            inputBuffer.append(chunk);
-
-            processCommands(handler);
+        if (bytesRead > 0 && !awaitingReply && !paused) {
+            return processInput(dispatcher);
         }
 
         // bytesRead == 0: nothing more to do right now
         return true;
     }
 
+    /**
+     * Called once the reply of a command that ran on another reactor has been
+     * queued; continues with the commands that arrived in the meantime.
+     *
+     * @return true if connection remains open
+     */
+    boolean resumeAfterReply(CommandDispatcher dispatcher) throws IOException {
+        awaitingReply = false;
+        if (closed) {
+            return false;
+        }
+        return paused || processInput(dispatcher);
+    }
+
+    /**
+     * Stops running this client's commands after the current one until
+     * resume(), for a command whose reply is written later. Only from the
+     * thread that runs the session's commands.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Runs the commands that arrived while paused. Call from the session's
+     * own reactor thread, outside of handleCommand. Closes the session on a
+     * protocol error, like a read would.
+     */
+    public void resume() throws IOException {
+        paused = false;
+        if (closed || awaitingReply || dispatcher == null) {
+            return;
+        }
+        if (!processInput(dispatcher)) {
+            close();
+        }
+    }
+
+    /**
+     * Sends queued replies without blocking.
+     *
+     * @return true if everything was written, false if the socket is full
+     */
+    public boolean flush() throws IOException {
+        if (closed || channel == null) {
+            return true;
+        }
+        return writer.flushTo(channel);
+    }
+
+    public void close() {
+        closed = true;
+        writer.close();
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private boolean processInput(CommandDispatcher dispatcher) throws IOException {
+        inputBuffer.flip();
+        try {
+            processCommands(dispatcher);
+        } catch (RespProtocolException e) {
+            writer.writeError("ERR Protocol error: " + e.getMessage());
+            flush();
+            return false;
+        } finally {
+            inputBuffer.compact();
+        }
+        shrinkIfIdle();
+        return true;
+    }
+
     /**
      * Try to parse as many full RESP Array commands as possible.
      */
-    private void processCommands(CommandHandler handler) throws IOException {
-        while (true) {
-            List<String> command = respParser.tryParseArrayOfBulkStrings(inputBuffer);
+    private void processCommands(CommandDispatcher dispatcher) throws IOException {
+        while (!awaitingReply && !paused) {
+            RespCommand command = respParser.tryParse(inputBuffer);
             if (command == null) {
                 // No full command available yet
                 break;
             }
 
-            handler.handleCommand(channel, command);
+            if (!dispatcher.dispatch(this, command)) {
+                awaitingReply = true;
+            }
+        }
+    }
+
+    /**
+     * Makes sure a partial command of the given size fits into the buffer,
+     * so a large bulk string is read with one resize instead of many.
+     */
+    private void ensureCapacity(int needed) throws RespProtocolException {
+        if (inputBuffer.hasRemaining() && needed <= inputBuffer.capacity()) {
+            return;
+        }
+
+        int newCapacity = Math.max(needed, inputBuffer.capacity() * 2);
+        if (newCapacity > MAX_BUFFER_SIZE) {
+            if (inputBuffer.capacity() >= MAX_BUFFER_SIZE) {
+                throw new RespProtocolException("query buffer limit exceeded");
+            }
+            newCapacity = MAX_BUFFER_SIZE;
+        }
+
+        ByteBuffer bigger = ByteBuffer.allocate(newCapacity);
+        inputBuffer.flip();
+        bigger.put(inputBuffer);
+        inputBuffer = bigger;
+    }
+
+    /**
+     * Drops a buffer that grew for one big command once it's no longer needed.
+     */
+    private void shrinkIfIdle() {
+        if (inputBuffer.position() == 0 && inputBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+            inputBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
         }
     }
 }
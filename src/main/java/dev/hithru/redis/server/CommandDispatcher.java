@@ -0,0 +1,17 @@
+package dev.hithru.redis.server;
+import java.io.IOException;
+
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * Decides where a parsed command runs: on the session's own thread, or on the
+ * reactor that owns the command's key.
+ */
+interface CommandDispatcher {
+
+    /**
+     * @return true if the command ran (and replied) synchronously, false if it was
+     *         handed to another thread and the session must wait for its reply
+     */
+    boolean dispatch(ClientSession session, RespCommand command) throws IOException;
+}
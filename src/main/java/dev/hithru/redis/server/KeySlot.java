@@ -0,0 +1,94 @@
+package dev.hithru.redis.server;
+
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * KeySlot
+ *
+ * Maps keys to one of 16384 hash slots the same way Redis Cluster does:
+ * CRC16 (XMODEM) of the key, or of the part between the first '{' and the
+ * next '}' when that part is non-empty ("{user1}.name" and "{user1}.age"
+ * share a slot).
+ */
+public final class KeySlot {
+
+    public static final int SLOT_COUNT = 16384;
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private KeySlot() {
+        // utility class, no instances
+    }
+
+    /**
+     * Slot of argument `index` of the command, computed on the raw bytes.
+     */
+    public static int slot(RespCommand command, int index) {
+        int length = command.length(index);
+
+        int start = 0;
+        int end = length;
+        for (int i = 0; i < length; i++) {
+            if (command.byteAt(index, i) == '{') {
+                for (int j = i + 1; j < length; j++) {
+                    if (command.byteAt(index, j) == '}') {
+                        if (j > i + 1) {
+                            start = i + 1;
+                            end = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ command.byteAt(index, i)) & 0xff]) & 0xffff;
+        }
+        return crc & (SLOT_COUNT - 1);
+    }
+
+    /**
+     * Slot of a key's raw bytes.
+     */
+    public static int slot(byte[] key) {
+        int start = 0;
+        int end = key.length;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == '{') {
+                for (int j = i + 1; j < key.length; j++) {
+                    if (key[j] == '}') {
+                        if (j > i + 1) {
+                            start = i + 1;
+                            end = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ key[i]) & 0xff]) & 0xffff;
+        }
+        return crc & (SLOT_COUNT - 1);
+    }
+
+    public static int slot(String key) {
+        return slot(key.getBytes(RespCommand.CHARSET));
+    }
+}
@@ -0,0 +1,105 @@
+package dev.hithru.redis.server;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * MultiState
+ *
+ * A client's MULTI / EXEC state, kept by the command handler:
+ * - the commands queued since MULTI, copied out of the input buffer
+ * - whether one of them was refused (unknown, wrong arity, ...), which makes
+ *   EXEC discard the whole transaction
+ * - the WATCHed keys, each with the token the keyspace handed out when it
+ *   was watched; EXEC compares them against the keyspace. Nothing is
+ *   registered anywhere else, so there's nothing to clean up on disconnect
+ * - with several shards, the hash slot of the first key it watched or
+ *   queued: EXEC runs on that slot's shard, so every other key has to
+ *   belong to the same shard too
+ *
+ * Only touched by the thread running the client's commands.
+ */
+public final class MultiState {
+
+    private List<RespCommand> queued; // null outside MULTI
+    private boolean failed;
+    private final Map<String, Long> watched = new LinkedHashMap<>();
+    private int slot = -1;
+
+    /** True between MULTI and EXEC / DISCARD. */
+    public boolean isActive() {
+        return queued != null;
+    }
+
+    public void begin() {
+        queued = new ArrayList<>();
+        failed = false;
+    }
+
+    /**
+     * @param command a copy that outlives the input buffer
+     */
+    public void queue(RespCommand command) {
+        queued.add(command);
+    }
+
+    /** Commands queued so far. */
+    public List<RespCommand> queued() {
+        return queued == null ? List.of() : Collections.unmodifiableList(queued);
+    }
+
+    /** A command was refused while queueing: EXEC will abort. */
+    public void fail() {
+        failed = true;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Leaves MULTI, also dropping the watches.
+     *
+     * @return the commands queued since MULTI
+     */
+    public List<RespCommand> end() {
+        List<RespCommand> commands = queued == null ? List.of() : queued;
+        queued = null;
+        failed = false;
+        watched.clear();
+        slot = -1;
+        return commands;
+    }
+
+    /**
+     * Watches key; watching it again keeps the first token, like Redis.
+     */
+    public void watch(String key, long token) {
+        watched.putIfAbsent(key, token);
+    }
+
+    /** Watched keys and their tokens, in WATCH order. */
+    public Map<String, Long> watched() {
+        return Collections.unmodifiableMap(watched);
+    }
+
+    public void unwatch() {
+        watched.clear();
+        if (queued == null) {
+            slot = -1;
+        }
+    }
+
+    /** Slot of the first key watched or queued, -1 if none yet. */
+    public int slot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+}
@@ -0,0 +1,391 @@
+package dev.hithru.redis.server;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.command.Timers;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * Reactor
+ * - One Selector driven by one thread, plus the CommandHandler (keyspace shard)
+ *   that only this thread ever touches
+ * - Serves the clients registered with it, and runs commands forwarded by other
+ *   reactors for keys that hash to its shard
+ * - Other threads talk to it only through a lock-free task queue + wakeup()
+ * - Sleeps in select() until the handler's earliest timer at most, not at all
+ *   while tasks or handler work are waiting, and indefinitely when idle
+ *
+ * With a single reactor every key is local and nothing is ever forwarded.
+ * A transaction is queued in the client's session wherever its commands go,
+ * and EXEC runs on the reactor that owns the transaction's first key; the
+ * handler refuses keys of other shards while it's queued (CROSSSLOT).
+ */
+class Reactor implements Runnable, CommandDispatcher {
+    private final int index;
+    private final CommandHandler commandHandler;
+    private final long maxOutputBytes;
+    private final Selector selector;
+
+    // Filled in by RedisServer once every reactor exists
+    private Reactor[] group = new Reactor[] { this };
+
+    // Sessions that queued output since the last flush
+    private final Deque<ClientSession> pendingWrites = new ArrayDeque<>();
+
+    // Work handed over by other threads (new connections, forwarded commands, replies)
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // The handler's timers, run on this thread
+    private final Timers timers = new Timers();
+
+    Reactor(int index, CommandHandler commandHandler, long maxOutputBytes) throws IOException {
+        this.index = index;
+        this.commandHandler = commandHandler;
+        this.maxOutputBytes = maxOutputBytes;
+        this.selector = Selector.open();
+        commandHandler.attach(this::execute, timers);
+    }
+
+    void setGroup(Reactor[] group) {
+        this.group = group;
+    }
+
+    /**
+     * Accepts connections directly on this reactor's selector (single-threaded mode).
+     */
+    void listen(ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands a freshly accepted connection to this reactor. Safe from any thread.
+     */
+    void adopt(SocketChannel clientChannel) {
+        execute(() -> {
+            try {
+                registerClient(clientChannel);
+            } catch (IOException e) {
+                Log.verbose("Client error: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Runs the task on this reactor's thread. Safe from any thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            eventLoop();
+        } catch (IOException e) {
+            Log.warning("Reactor {} stopped: {}", index, e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean dispatch(ClientSession session, RespCommand command) throws IOException {
+        int keyIndex = group.length == 1 ? -1 : commandHandler.firstKeyIndex(command);
+        int slot;
+        if (keyIndex >= 0 && keyIndex < command.size()) {
+            slot = KeySlot.slot(command, keyIndex);
+        } else if (group.length > 1 && session.inMulti() && command.equalsIgnoreCase(0, "exec")) {
+            slot = session.multiState().slot();
+        } else {
+            slot = -1;
+        }
+        if (slot < 0) {
+            commandHandler.handleCommand(session, command);
+            return true;
+        }
+
+        Reactor owner = group[slot % group.length];
+        if (owner == this) {
+            commandHandler.handleCommand(session, command);
+            return true;
+        }
+
+        // The buffer the command points into is reused once we return
+        RespCommand copy = command.copy();
+        owner.execute(() -> owner.runForwarded(this, session, copy));
+        return false;
+    }
+
+    private void eventLoop() throws IOException {
+        while (true) {
+            select();
+            long busyStart = System.nanoTime();
+
+            Set<SelectionKey> selectedKeys = selector.selectedKeys();
+            Iterator<SelectionKey> iter = selectedKeys.iterator();
+
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove(); // very important
+
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        handleAccept(key);
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        handleWrite(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        handleRead(key);
+                    }
+                } catch (IOException e) {
+                    closeKey(key);
+                    Log.verbose("Client error: {}", e.getMessage());
+                }
+            }
+
+            runTasks();
+            timers.runDue(System.currentTimeMillis());
+
+            // After handling I/O, let the handler finish the iteration
+            try {
+                commandHandler.onTick();
+            } catch (IOException e) {
+                Log.warning("Error in handler tick: {}", e.getMessage());
+            }
+
+            // Replies from this iteration (including ones for other clients,
+            // e.g. woken BLPOP waiters) go out in one write per client
+            flushPendingWrites();
+
+            commandHandler.recordLoopCycle(System.nanoTime() - busyStart);
+        }
+    }
+
+    // Waits for I/O until the next timer is due; a task queued meanwhile
+    // ends the wait through wakeup()
+    private void select() throws IOException {
+        if (!tasks.isEmpty() || commandHandler.hasPendingWork()) {
+            selector.selectNow();
+            return;
+        }
+        long deadline = timers.nextDeadline();
+        if (deadline == Long.MAX_VALUE) {
+            selector.select();
+            return;
+        }
+        long waitMs = deadline - System.currentTimeMillis();
+        if (waitMs <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select(waitMs);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void handleAccept(SelectionKey key) throws IOException {
+        ServerSocketChannel server = (ServerSocketChannel) key.channel();
+        SocketChannel clientChannel = server.accept(); // may be null in non-blocking mode
+        if (clientChannel == null) {
+            return;
+        }
+
+        clientChannel.configureBlocking(false);
+        registerClient(clientChannel);
+    }
+
+    private void registerClient(SocketChannel clientChannel) throws IOException {
+        ClientSession session = new ClientSession(clientChannel, pendingWrites::addLast, maxOutputBytes);
+        Log.verbose("Accepted {}", session.address());
+
+        // Attach session so we can get it back in handleRead
+        clientChannel.register(selector, SelectionKey.OP_READ, session);
+        commandHandler.clientConnected(session);
+    }
+
+    private void handleRead(SelectionKey key) throws IOException {
+        Object attachment = key.attachment();
+        if (!(attachment instanceof ClientSession)) {
+            closeKey(key);
+            return;
+        }
+
+        ClientSession session = (ClientSession) attachment;
+        boolean open = session.readFromClient(this);
+
+        if (!open) {
+            closeKey(key);
+        }
+    }
+
+    private void handleWrite(SelectionKey key) throws IOException {
+        ClientSession session = (ClientSession) key.attachment();
+        if (session.writer().isOverLimit()) {
+            Log.warning("Closing client {} over output buffer limit", ((ClientSession) key.attachment()).address());
+            closeKey(key);
+            return;
+        }
+        if (session.flush()) {
+            // Drained: stop asking for OP_WRITE until the socket fills up again
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Runs a command for a client of another reactor against this shard.
+     * The reply (possibly much later, for BLPOP) is shipped back on flush.
+     */
+    private void runForwarded(Reactor origin, ClientSession client, RespCommand command) {
+        ForwardedSession proxy = new ForwardedSession(origin, client, pendingWrites::addLast, maxOutputBytes);
+        try {
+            commandHandler.handleCommand(proxy, command);
+        } catch (IOException e) {
+            proxy.writer().writeError("ERR " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues the reply of a forwarded command and lets the client continue.
+     */
+    private void completeForwarded(ClientSession client, ByteBuffer reply) {
+        client.writer().appendChunk(reply);
+
+        SelectionKey key = client.getChannel().keyFor(selector);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            if (!client.resumeAfterReply(this)) {
+                closeKey(key);
+            }
+        } catch (IOException e) {
+            closeKey(key);
+            Log.verbose("Client error: {}", e.getMessage());
+        }
+    }
+
+    private void flushPendingWrites() {
+        ClientSession session;
+        while ((session = pendingWrites.pollFirst()) != null) {
+            if (session instanceof ForwardedSession forwarded) {
+                ByteBuffer reply = forwarded.writer().drain();
+                forwarded.origin.execute(() -> forwarded.origin.completeForwarded(forwarded.client, reply));
+                continue;
+            }
+
+            if (session.isClosed()) {
+                continue;
+            }
+
+            SelectionKey key = session.getChannel().keyFor(selector);
+            if (key == null || !key.isValid()) {
+                continue;
+            }
+
+            if (session.writer().isOverLimit()) {
+                Log.warning("Closing client {} over output buffer limit", ((ClientSession) key.attachment()).address());
+                closeKey(key);
+                continue;
+            }
+
+            try {
+                if (!session.flush()) {
+                    // Socket buffer full: finish when the client is ready to read more
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                closeKey(key);
+                Log.verbose("Client error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void closeKey(SelectionKey key) {
+        if (key.attachment() instanceof ClientSession session) {
+            if (!session.isClosed()) {
+                session.close();
+                commandHandler.clientDisconnected(session);
+                // It may be blocked on another shard through a forwarded command
+                for (Reactor other : group) {
+                    if (other != this) {
+                        other.execute(() -> other.commandHandler.remoteClientDisconnected(session));
+                    }
+                }
+            }
+        } else {
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+            }
+        }
+        key.cancel();
+    }
+
+    /**
+     * Stand-in for a client of another reactor while one of its commands runs here.
+     */
+    private static final class ForwardedSession extends ClientSession {
+        final Reactor origin;
+        final ClientSession client;
+
+        ForwardedSession(Reactor origin, ClientSession client,
+                         Consumer<ClientSession> onPendingOutput, long maxOutputBytes) {
+            super(onPendingOutput, maxOutputBytes);
+            this.origin = origin;
+            this.client = client;
+        }
+
+        @Override
+        public String address() {
+            return client.address();
+        }
+
+        // The client waits for this command's reply, so its state is ours meanwhile
+        // E.g. so a blocked client that went away isn't handed an element
+        @Override
+        public boolean isClosed() {
+            return client.isClosed();
+        }
+
+        @Override
+        public ClientSession connection() {
+            return client;
+        }
+
+        @Override
+        public MultiState multiState() {
+            return client.multiState();
+        }
+
+        @Override
+        public boolean inMulti() {
+            return client.inMulti();
+        }
+
+        // A subscribed client's keyed commands are refused here too
+        @Override
+        public boolean isSubscribed() {
+            return client.isSubscribed();
+        }
+    }
+}
@@ -1,120 +1,85 @@
 package dev.hithru.redis.server;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.*;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Supplier;
 
 import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.log.Log;
 
 /**
  * RedisServer
- * - Implements an event loop using Java NIO (Selector + Channels)
- * - Accepts multiple clients and delegates I/O to ClientSession
+ * - Implements an event loop using Java NIO (Selector + Channels), see Reactor
+ * - Single-threaded by default: one reactor accepts and serves every client
+ * - With ioThreads > 1: the calling thread only accepts connections and hands
+ *   them round-robin to N reactor threads. The keyspace is split into N shards
+ *   (one CommandHandler each) by key hash slot; each shard is owned by exactly
+ *   one reactor, and commands for another shard's keys are passed over through
+ *   lock-free queues instead of locking the stores
  */
 public class RedisServer {
     private final int port;
-    private final CommandHandler commandHandler;
-
-    private Selector selector;
-    private ServerSocketChannel serverChannel;
+    private final Supplier<CommandHandler> handlerFactory;
+    private final int ioThreads;
+    private final long maxOutputBytes;
 
     public RedisServer(int port, CommandHandler commandHandler) {
-        this.port = port;
-        this.commandHandler = commandHandler;
+        this(port, () -> commandHandler, 1, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
     }
 
-    public void start() throws IOException {
-        // 1. Open selector (multiplexes events)
-        selector = Selector.open();
-
-        // 2. Open non-blocking server channel
-        serverChannel = ServerSocketChannel.open();
-        serverChannel.configureBlocking(false);
-        serverChannel.bind(new InetSocketAddress(port));
-
-        // 3. Register server channel for ACCEPT events
-        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-
-        System.out.println("Server listening on port " + port + "...");
-
-        // 4. Run the event loop
-        eventLoop();
-    }
-
-    private void eventLoop() throws IOException {
-        while (true) {
-            // Wait up to 100ms for I/O, then we’ll also check timeouts
-            selector.select(100);
-
-            Set<SelectionKey> selectedKeys = selector.selectedKeys();
-            Iterator<SelectionKey> iter = selectedKeys.iterator();
-
-            while (iter.hasNext()) {
-                SelectionKey key = iter.next();
-                iter.remove(); // very important
-
-                try {
-                    if (!key.isValid()) {
-                        continue;
-                    }
-
-                    if (key.isAcceptable()) {
-                        handleAccept(key);
-                    } else if (key.isReadable()) {
-                        handleRead(key);
-                    }
-                } catch (IOException e) {
-                    closeKey(key);
-                    System.out.println("Client error: " + e.getMessage());
-                }
-            }
-
-            // After handling I/O, let the handler process timeouts
-            try {
-                commandHandler.onTick();
-            } catch (IOException e) {
-                System.out.println("Error in handler tick: " + e.getMessage());
-            }
+    /**
+     * @param handlerFactory creates one handler (keyspace shard) per reactor thread
+     */
+    public RedisServer(int port, Supplier<CommandHandler> handlerFactory, int ioThreads, long maxOutputBytes) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads must be >= 1");
         }
+        this.port = port;
+        this.handlerFactory = handlerFactory;
+        this.ioThreads = ioThreads;
+        this.maxOutputBytes = maxOutputBytes;
     }
 
-    private void handleAccept(SelectionKey key) throws IOException {
-        ServerSocketChannel server = (ServerSocketChannel) key.channel();
-        SocketChannel clientChannel = server.accept(); // may be null in non-blocking mode
-        if (clientChannel == null) {
-            return;
+    public void start() throws IOException {
+        // 1. One reactor (selector + shard) per I/O thread
+        Reactor[] reactors = new Reactor[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            reactors[i] = new Reactor(i, handlerFactory.get(), maxOutputBytes);
+        }
+        for (Reactor reactor : reactors) {
+            reactor.setGroup(reactors);
         }
 
-        clientChannel.configureBlocking(false);
-        System.out.println("Accepted connection from " + clientChannel.getRemoteAddress());
-
-        ClientSession session = new ClientSession(clientChannel);
+        // 2. Open server channel
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
 
-        // Attach session so we can get it back in handleRead
-        clientChannel.register(selector, SelectionKey.OP_READ, session);
-    }
+        Log.notice("Server listening on port {} with {} I/O thread(s)", port, ioThreads);
 
-    private void handleRead(SelectionKey key) throws IOException {
-        Object attachment = key.attachment();
-        if (!(attachment instanceof ClientSession)) {
-            closeKey(key);
+        if (ioThreads == 1) {
+            // 3a. Accept and serve on the calling thread, blocks forever
+            serverChannel.configureBlocking(false);
+            reactors[0].listen(serverChannel);
+            reactors[0].run();
             return;
         }
 
-        ClientSession session = (ClientSession) attachment;
-        boolean open = session.readFromClient(commandHandler);
-
-        if (!open) {
-            closeKey(key);
+        // 3b. Start the reactors, then accept on the calling thread
+        for (int i = 0; i < ioThreads; i++) {
+            new Thread(reactors[i], "reactor-" + i).start();
         }
+        acceptLoop(serverChannel, reactors);
     }
 
-    private void closeKey(SelectionKey key) {
-        try {
-            key.channel().close();
-        } catch (IOException ignored) {
+    private void acceptLoop(ServerSocketChannel serverChannel, Reactor[] reactors) throws IOException {
+        int next = 0;
+        while (true) {
+            SocketChannel clientChannel = serverChannel.accept(); // blocking
+            clientChannel.configureBlocking(false);
+
+            reactors[next].adopt(clientChannel);
+            next = (next + 1) % reactors.length;
         }
-        key.cancel();
     }
 }
@@ -0,0 +1,192 @@
+package dev.hithru.redis.server;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.command.Timers;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * ShardLoop
+ * - The thread-per-connection server's counterpart of a Reactor without the
+ *   selector: one thread that owns one CommandHandler (keyspace shard)
+ * - Connection threads hand it batches of commands through a lock-free task
+ *   queue and park until the batch's replies come back, so the shard itself
+ *   is never locked
+ * - Parks until the handler's earliest timer at most, not at all while tasks
+ *   or handler work are waiting
+ *
+ * A batch whose client gets paused (BLPOP, KEYS) keeps its place and goes on
+ * with the rest of its commands when the handler resumes it. Replies go back
+ * after the handler's tick, so the AOF is written before a client sees them.
+ */
+final class ShardLoop implements Runnable {
+    private final int index;
+    private final CommandHandler commandHandler;
+    private final long maxOutputBytes;
+
+    // Work handed over by connection threads
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // The handler's timers, run on this thread
+    private final Timers timers = new Timers();
+
+    // Batches that ran to the end this iteration; their replies go out after the tick
+    private final List<Batch> finished = new ArrayList<>();
+
+    private volatile Thread thread;
+
+    ShardLoop(int index, CommandHandler commandHandler, long maxOutputBytes) {
+        this.index = index;
+        this.commandHandler = commandHandler;
+        this.maxOutputBytes = maxOutputBytes;
+        commandHandler.attach(this::execute, timers);
+    }
+
+    CommandHandler handler() {
+        return commandHandler;
+    }
+
+    /**
+     * Runs the task on this shard's thread. Safe from any thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        Thread owner = thread;
+        if (owner != null) {
+            LockSupport.unpark(owner);
+        }
+    }
+
+    /**
+     * Runs commands for client in order. Safe from any thread.
+     *
+     * @param commands copies that outlive the client's input buffer
+     */
+    Batch submit(ClientSession client, List<RespCommand> commands) {
+        Batch batch = new Batch(client, commands);
+        execute(batch::runNext);
+        return batch;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        Log.verbose("Shard {} started", index);
+        while (true) {
+            waitForWork();
+            long busyStart = System.nanoTime();
+
+            runTasks();
+            timers.runDue(System.currentTimeMillis());
+
+            try {
+                commandHandler.onTick();
+            } catch (IOException e) {
+                Log.warning("Error in handler tick: {}", e.getMessage());
+            }
+
+            for (Batch batch : finished) {
+                batch.reply.complete(batch.writer().drain());
+            }
+            finished.clear();
+
+            commandHandler.recordLoopCycle(System.nanoTime() - busyStart);
+        }
+    }
+
+    // Parks until the next timer is due; execute() ends the wait early.
+    // Spurious wakeups just run an empty iteration
+    private void waitForWork() {
+        if (!tasks.isEmpty() || commandHandler.hasPendingWork()) {
+            return;
+        }
+        long deadline = timers.nextDeadline();
+        if (deadline == Long.MAX_VALUE) {
+            LockSupport.park(this);
+            return;
+        }
+        long waitMs = deadline - System.currentTimeMillis();
+        if (waitMs > 0) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitMs));
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Stand-in for a connection while a run of its commands executes here,
+     * like the reactor's ForwardedSession; the replies collect in its writer.
+     */
+    final class Batch extends ClientSession {
+        final ClientSession client;
+        final CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+        private final List<RespCommand> commands;
+        private int next;
+
+        private Batch(ClientSession client, List<RespCommand> commands) {
+            super(session -> { }, maxOutputBytes);
+            this.client = client;
+            this.commands = commands;
+        }
+
+        // Until a command pauses the client or all of them ran
+        private void runNext() {
+            while (next < commands.size() && !isPaused()) {
+                try {
+                    commandHandler.handleCommand(this, commands.get(next++));
+                } catch (IOException e) {
+                    writer().writeError("ERR " + e.getMessage());
+                }
+            }
+            if (!isPaused()) {
+                finished.add(this);
+            }
+        }
+
+        @Override
+        public void resume() throws IOException {
+            super.resume();
+            runNext();
+        }
+
+        @Override
+        public String address() {
+            return client.address();
+        }
+
+        // E.g. so a blocked client that went away isn't handed an element
+        @Override
+        public boolean isClosed() {
+            return client.isClosed();
+        }
+
+        @Override
+        public ClientSession connection() {
+            return client;
+        }
+
+        @Override
+        public MultiState multiState() {
+            return client.multiState();
+        }
+
+        @Override
+        public boolean inMulti() {
+            return client.inMulti();
+        }
+    }
+}
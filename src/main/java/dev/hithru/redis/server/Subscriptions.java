@@ -0,0 +1,54 @@
+package dev.hithru.redis.server;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Subscriptions
+ *
+ * The channels and patterns a client is subscribed to, kept by the command
+ * handler next to its own index of subscribers per channel / pattern. A
+ * client with any of them is in subscribed mode: it receives messages and
+ * may only run the (un)subscribe commands and PING.
+ *
+ * Only touched by the thread of the client's own event loop.
+ */
+public final class Subscriptions {
+
+    // In subscription order, which is the order UNSUBSCRIBE without arguments replies in
+    private final Set<String> channels = new LinkedHashSet<>();
+    private final Set<String> patterns = new LinkedHashSet<>();
+
+    /** @return false if already subscribed to channel */
+    public boolean addChannel(String channel) {
+        return channels.add(channel);
+    }
+
+    /** @return false if not subscribed to channel */
+    public boolean removeChannel(String channel) {
+        return channels.remove(channel);
+    }
+
+    /** @return false if already subscribed to pattern */
+    public boolean addPattern(String pattern) {
+        return patterns.add(pattern);
+    }
+
+    /** @return false if not subscribed to pattern */
+    public boolean removePattern(String pattern) {
+        return patterns.remove(pattern);
+    }
+
+    public Set<String> channels() {
+        return Collections.unmodifiableSet(channels);
+    }
+
+    public Set<String> patterns() {
+        return Collections.unmodifiableSet(patterns);
+    }
+
+    /** Channels plus patterns, the count the (un)subscribe replies carry. */
+    public int count() {
+        return channels.size() + patterns.size();
+    }
+}
@@ -0,0 +1,255 @@
+package dev.hithru.redis.server;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.log.Log;
+import dev.hithru.redis.protocol.RespCommand;
+
+/**
+ * ThreadPerConnectionServer
+ * - Alternative to RedisServer's selector loops: every connection gets its
+ *   own thread doing blocking reads and writes, a platform thread with a
+ *   small stack (a virtual thread if the JVM has them, which the Java 17
+ *   build never sees)
+ * - Connection threads don't run commands: the keyspace is still split into
+ *   ioThreads shards by key hash slot, each owned by one ShardLoop thread; a
+ *   connection thread hands the commands it parsed to the shard of their
+ *   keys and parks until the replies are back. Consecutive commands for the
+ *   same shard (a pipeline) go over as one batch
+ * - A blocking command (BLPOP...) simply keeps its connection thread parked;
+ *   meanwhile the thread checks every DISCONNECT_CHECK_MS whether the client
+ *   went away, reading ahead what it pipelined. Unlike with the selector, a
+ *   client that hangs up while blocked may still be handed an element within
+ *   that window: a parked read can't be woken up without closing the socket
+ *
+ * Replication and cluster mode need RedisServer.
+ */
+public class ThreadPerConnectionServer {
+
+    // How often a connection waiting for a reply checks for a hang-up
+    private static final long DISCONNECT_CHECK_MS = 100;
+    // Stack of a platform connection thread; request handling doesn't recurse
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+    private final int port;
+    private final Supplier<CommandHandler> handlerFactory;
+    private final int shardCount;
+    private final long maxOutputBytes;
+
+    /**
+     * @param handlerFactory creates one handler per keyspace shard
+     */
+    public ThreadPerConnectionServer(int port, Supplier<CommandHandler> handlerFactory, int shards,
+                                     long maxOutputBytes) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be >= 1");
+        }
+        this.port = port;
+        this.handlerFactory = handlerFactory;
+        this.shardCount = shards;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    public void start() throws IOException {
+        // 1. One thread per shard
+        ShardLoop[] shards = new ShardLoop[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ShardLoop(i, handlerFactory.get(), maxOutputBytes);
+            new Thread(shards[i], "shard-" + i).start();
+        }
+
+        // 2. Open server channel
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        ThreadFactory threads = connectionThreads();
+
+        Log.notice("Server listening on port {} with {} shard(s), one thread per connection", port, shardCount);
+
+        // 3. Accept on the calling thread, blocks forever; connections get
+        // their home shard (for commands without keys) round-robin
+        int next = 0;
+        while (true) {
+            SocketChannel clientChannel = serverChannel.accept();
+            Connection connection = new Connection(clientChannel, shards, shards[next], maxOutputBytes);
+            next = (next + 1) % shards.length;
+            threads.newThread(connection).start();
+        }
+    }
+
+    // Virtual threads if the JVM has them; looked up reflectively since the
+    // build targets Java 17
+    private static ThreadFactory connectionThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "client-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Log.notice("Connections run on virtual threads");
+            return factory;
+        } catch (ReflectiveOperationException e) {
+            Log.notice("Virtual threads need Java 21, connections run on platform threads");
+        }
+        AtomicLong ids = new AtomicLong();
+        return task -> {
+            Thread thread = new Thread(null, task, "client-" + ids.getAndIncrement(), PLATFORM_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One client connection, served by its own thread with blocking I/O.
+     */
+    private static final class Connection implements Runnable, CommandDispatcher {
+        private final ClientSession session;
+        private final ShardLoop[] shards;
+        private final ShardLoop home;
+
+        // Commands parsed from the input, not sent to a shard yet
+        private final List<RespCommand> parsed = new ArrayList<>();
+
+        Connection(SocketChannel channel, ShardLoop[] shards, ShardLoop home, long maxOutputBytes) {
+            // Replies are written once the batch they belong to is done
+            this.session = new ClientSession(channel, s -> { }, maxOutputBytes);
+            this.shards = shards;
+            this.home = home;
+        }
+
+        @Override
+        public void run() {
+            Log.verbose("Accepted {}", session.address());
+            home.execute(() -> home.handler().clientConnected(session));
+            try {
+                // Blocks until the client sends something
+                while (!session.isClosed() && session.readFromClient(this)) {
+                    while (!parsed.isEmpty() && !session.isClosed()) {
+                        if (!runParsed()) {
+                            return;
+                        }
+                        // Parses what arrived while waiting for the replies
+                        session.resume();
+                    }
+                    session.flush();
+                }
+            } catch (IOException e) {
+                Log.verbose("Client error: {}", e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        // Called while the input is parsed: commands run once it's done
+        @Override
+        public boolean dispatch(ClientSession client, RespCommand command) {
+            // The buffer the command points into is reused once we return
+            parsed.add(command.copy());
+            return true;
+        }
+
+        /**
+         * Runs the parsed commands in order, a run of consecutive commands
+         * for the same shard at a time, and queues their replies.
+         *
+         * @return false if the client went away meanwhile
+         */
+        private boolean runParsed() throws IOException {
+            List<RespCommand> commands = new ArrayList<>(parsed);
+            parsed.clear();
+            int start = 0;
+            while (start < commands.size()) {
+                ShardLoop shard = shardFor(commands.get(start));
+                int end = start + 1;
+                // EXEC goes where the transaction's keys are, known only
+                // once the commands before it have been queued
+                while (end < commands.size()
+                        && !(shards.length > 1 && commands.get(end).equalsIgnoreCase(0, "exec"))
+                        && shardFor(commands.get(end)) == shard) {
+                    end++;
+                }
+                ByteBuffer reply = await(shard.submit(session, commands.subList(start, end)));
+                if (reply == null) {
+                    return false;
+                }
+                session.writer().appendChunk(reply);
+                start = end;
+            }
+            return true;
+        }
+
+        private ShardLoop shardFor(RespCommand command) {
+            if (shards.length == 1) {
+                return home;
+            }
+            int keyIndex = home.handler().firstKeyIndex(command);
+            int slot;
+            if (keyIndex >= 0 && keyIndex < command.size()) {
+                slot = KeySlot.slot(command, keyIndex);
+            } else if (session.inMulti() && command.equalsIgnoreCase(0, "exec")) {
+                slot = session.multiState().slot();
+            } else {
+                slot = -1;
+            }
+            return slot < 0 ? home : shards[slot % shards.length];
+        }
+
+        /**
+         * Parks until the batch's replies are ready. The input is read ahead
+         * meanwhile, but only parsed once they are.
+         *
+         * @return the replies, or null if the client went away meanwhile
+         */
+        private ByteBuffer await(ShardLoop.Batch batch) throws IOException {
+            session.pause();
+            while (true) {
+                try {
+                    return batch.reply.get(DISCONNECT_CHECK_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (!readAhead()) {
+                        Log.verbose("Client closed connection {}", session.address());
+                        return null;
+                    }
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        // Reads what's there without blocking; false on end of stream
+        private boolean readAhead() throws IOException {
+            SocketChannel channel = session.getChannel();
+            channel.configureBlocking(false);
+            try {
+                return session.readFromClient(this);
+            } finally {
+                channel.configureBlocking(true);
+            }
+        }
+
+        private void close() {
+            // A batch still waiting in a shard (BLPOP) sees the session closed,
+            // and the shard forgets it
+            session.close();
+            home.execute(() -> home.handler().clientDisconnected(session));
+            for (ShardLoop shard : shards) {
+                if (shard != home) {
+                    shard.execute(() -> shard.handler().remoteClientDisconnected(session));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package dev.hithru.redis.store;
+
+/**
+ * A list, hash, set, sorted set or stream as kept in the keyspace. The type
+ * stores change it in place; the keyspace only needs to size it, name its
+ * encoding, copy it and hand it to snapshots.
+ */
+public interface CollectionValue {
+
+    /**
+     * Estimated bytes used, excluding the key.
+     */
+    long memoryUsage();
+
+    /**
+     * Name as reported by OBJECT ENCODING ("listpack", "hashtable", ...).
+     */
+    String encoding();
+
+    /**
+     * The elements in the layout SnapshotVisitor expects for this type, read
+     * from the value itself as they are iterated. Another thread may iterate
+     * them only while the value doesn't change, which is what a snapshot's
+     * copy-on-write guarantees (see InMemoryKeyValueStore.snapshot()).
+     */
+    Iterable<String> items();
+
+    /**
+     * Independent copy with the same elements and encoding, replacing this
+     * value in the keyspace when it is shared with a snapshot.
+     */
+    CollectionValue copy();
+}
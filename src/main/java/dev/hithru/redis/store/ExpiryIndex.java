@@ -0,0 +1,125 @@
+package dev.hithru.redis.store;
+import java.util.Arrays;
+
+/**
+ * Min-heap of the KeyspaceDict entry ids that have a TTL, ordered by deadline.
+ *
+ * All primitive: parallel id/deadline arrays for the heap, plus the heap
+ * position of every id, so an overwritten or deleted key leaves the index in
+ * O(log n) right away instead of lingering until its old deadline.
+ */
+final class ExpiryIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] deadlines = new long[INITIAL_CAPACITY];
+    private int size;
+
+    // Heap position by entry id, -1 when not indexed
+    private int[] positions = newPositions(INITIAL_CAPACITY);
+
+    void add(int id, long deadline) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            deadlines = Arrays.copyOf(deadlines, size * 2);
+        }
+        if (id >= positions.length) {
+            int old = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(old * 2, id + 1));
+            Arrays.fill(positions, old, positions.length, -1);
+        }
+        set(size, id, deadline);
+        siftUp(size++);
+    }
+
+    void remove(int id) {
+        int i = id < positions.length ? positions[id] : -1;
+        if (i < 0) {
+            return;
+        }
+        positions[id] = -1;
+
+        int last = --size;
+        if (i != last) {
+            set(i, ids[last], deadlines[last]);
+            siftDown(i);
+            siftUp(i);
+        }
+
+        maybeShrink();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Earliest deadline in the index; only valid when not empty.
+     */
+    long nextExpireAtMs() {
+        return deadlines[0];
+    }
+
+    int firstId() {
+        return ids[0];
+    }
+
+    private void set(int i, int id, long deadline) {
+        ids[i] = id;
+        deadlines[i] = deadline;
+        positions[id] = i;
+    }
+
+    private void siftUp(int i) {
+        int id = ids[i];
+        long deadline = deadlines[i];
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (deadlines[parent] <= deadline) {
+                break;
+            }
+            set(i, ids[parent], deadlines[parent]);
+            i = parent;
+        }
+        set(i, id, deadline);
+    }
+
+    private void siftDown(int i) {
+        int id = ids[i];
+        long deadline = deadlines[i];
+
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && deadlines[right] < deadlines[child]) {
+                child = right;
+            }
+            if (deadline <= deadlines[child]) {
+                break;
+            }
+            set(i, ids[child], deadlines[child]);
+            i = child;
+        }
+        set(i, id, deadline);
+    }
+
+    private void maybeShrink() {
+        if (ids.length > INITIAL_CAPACITY && size < ids.length / 4) {
+            ids = Arrays.copyOf(ids, ids.length / 2);
+            deadlines = Arrays.copyOf(deadlines, deadlines.length / 2);
+        }
+    }
+
+    private static int[] newPositions(int capacity) {
+        int[] p = new int[capacity];
+        Arrays.fill(p, -1);
+        return p;
+    }
+}
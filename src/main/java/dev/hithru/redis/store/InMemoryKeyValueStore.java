@@ -1,45 +1,749 @@
 package dev.hithru.redis.store;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import dev.hithru.redis.store.eviction.EvictableStore;
+import dev.hithru.redis.store.eviction.EvictionPolicy;
 
 /**
- * Simple in-memory KV store with passive expiry.
- * This can later be extended/replaced when you add lists, sets, etc.
+ * The keyspace: every key of every type, with expiry.
+ * - One KeyspaceDict (open addressing, incremental rehash) holds all keys,
+ *   each with a type tag, so a command finds its key with a single lookup and
+ *   a key can't exist as two types at once. Using a key as the wrong type
+ *   throws WrongTypeException.
+ * - String keys and values are byte arrays; the String methods are
+ *   conveniences on top, using the same ISO-8859-1 mapping as the protocol
+ *   layer. Lists, hashes, sets, sorted sets and streams are CollectionValues,
+ *   read through lookup() and changed through lookupForWrite() / add() by
+ *   the type stores (InMemoryListStore, ...), which report size changes
+ *   back via resized()
+ * - Optionally, values from a given size up live off the heap in a
+ *   ValueArena; readValue() hands them out without copying
+ * - Passive: an expired key is removed when it is read
+ * - Active: activeExpireCycle() reclaims expired keys nobody reads, in
+ *   deadline order, within a time budget so it never stalls the event loop
+ * - snapshot() is copy-on-write: it shares the collections, and the first
+ *   lookupForWrite() of a shared one while the snapshot is read swaps in a
+ *   copy
+ * - Any key can have a TTL (expire(), persist(), ttl())
+ * - scan() walks the keyspace with a cursor, a bounded slice per call
+ * - In cluster mode, keys are also indexed by hash slot (keysInSlot())
+ * - For WATCH, tells whether a key changed since a watchToken(). Removals,
+ *   expiry and eviction included are seen here; changes made in place by
+ *   the type stores are reported with touch()
+ * - Tracks an estimate of its memory use and per-key access data, so an
+ *   Evictor can keep it under maxmemory
  */
-public class InMemoryKeyValueStore {
+public class InMemoryKeyValueStore implements EvictableStore {
+
+    /** Expiry value meaning "no TTL". */
+    public static final long NO_EXPIRY = KeyspaceDict.NO_EXPIRY;
+
+    /** ttl() of a key that doesn't exist. */
+    public static final long TTL_MISSING = -2;
+    /** ttl() of a key without expiry. */
+    public static final long TTL_NONE = -1;
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    private static final byte STRING = ValueType.STRING.tag();
+
+    // Redis' OBJECT ENCODING limits for short strings
+    private static final int EMBSTR_MAX_LENGTH = 44;
+    private static final int INT_MAX_LENGTH = 20;
+
+    // Check the clock every this many reclaimed keys
+    private static final int BUDGET_CHECK_INTERVAL = 16;
+
+    // Rough JVM footprint of one entry besides the key/value bytes: two array
+    // headers, the entry's slots in the dict arrays, its share of the index
+    private static final long ENTRY_OVERHEAD = 64;
+    // Expiry heap slots plus the position by id
+    private static final long TTL_OVERHEAD = 16;
+
+    private final KeyspaceDict dict = new KeyspaceDict();
+    private final ExpiryIndex expiryIndex = new ExpiryIndex();
+
+    private ValueArena arena; // null = every value on the heap
+    private int offHeapMinValue;
+
+    private EvictionPolicy evictionPolicy = EvictionPolicy.NOEVICTION;
+    private long usedMemory;
+
+    // Ids found by the current scan() step
+    private int[] scanIds = new int[16];
+    private int scanCount;
+    private final IntConsumer scanCollector = this::addScanId;
+
+    // Bumped by every snapshot(); a collection stamped with an older epoch
+    // may be shared with a snapshot that is still being read
+    private int snapshotEpoch;
+    private final AtomicInteger openSnapshots = new AtomicInteger();
+
+    private long expiredKeys;   // removed because their TTL passed (passive + active)
+    private long reclaimedKeys; // the subset removed by the active cycle
+
+    /**
+     * Decides how accesses are recorded (LRU clock vs LFU counter).
+     */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * Keeps values of at least minValueSize bytes off the heap from now on.
+     */
+    public void enableOffHeapValues(int minValueSize) {
+        if (arena == null) {
+            arena = new ValueArena();
+        }
+        offHeapMinValue = minValueSize;
+    }
+
+    /**
+     * Stores value under key, replacing any previous value (of any type) and TTL. Both
+     * arrays are kept as they are, so callers must not modify them afterwards.
+     *
+     * @param expireAtMs absolute deadline, or NO_EXPIRY
+     */
+    public void set(byte[] key, byte[] value, long expireAtMs) {
+        if (isOffHeap(value.length)) {
+            set(key, ByteBuffer.wrap(value), expireAtMs);
+            return;
+        }
+        int id = prepareSet(key);
+        dict.setValue(id, value);
+        finishSet(id, expireAtMs);
+    }
 
-    private final Map<String, ValueEntry> store = new HashMap<>();
+    /**
+     * Same as set(byte[], byte[], long), copying the value's remaining bytes
+     * straight to where they are kept (e.g. from the input buffer to the arena).
+     */
+    public void set(byte[] key, ByteBuffer value, long expireAtMs) {
+        if (!isOffHeap(value.remaining())) {
+            byte[] bytes = new byte[value.remaining()];
+            value.get(value.position(), bytes);
+            set(key, bytes, expireAtMs);
+            return;
+        }
+        int id = prepareSet(key);
+        dict.setRef(id, arena.store(value));
+        finishSet(id, expireAtMs);
+    }
 
     public void set(String key, String value, Long expireAtMs) {
-        store.put(key, new ValueEntry(value, expireAtMs));
+        set(key.getBytes(CHARSET), value.getBytes(CHARSET), expireAtMs == null ? NO_EXPIRY : expireAtMs);
     }
 
-    public ValueEntry getRaw(String key) {
-        return store.get(key);
+    /**
+     * @return the value, or null if the key is missing or expired
+     * @throws WrongTypeException if the key is not a string
+     */
+    public byte[] get(byte[] key, long nowMs) {
+        int id = access(key, nowMs);
+        if (id < 0) {
+            return null;
+        }
+        checkType(id, STRING);
+        long ref = dict.ref(id);
+        return ref == 0 ? (byte[]) dict.value(id) : arena.copy(ref);
+    }
+
+    /**
+     * Hands key's value to sink without copying it: a wrapped heap array, or
+     * a view of off-heap memory that stays valid until release is run.
+     *
+     * @return false if the key is missing or expired
+     * @throws WrongTypeException if the key is not a string
+     */
+    public boolean readValue(byte[] key, long nowMs, ValueSink sink) {
+        int id = access(key, nowMs);
+        if (id < 0) {
+            return false;
+        }
+        checkType(id, STRING);
+        long ref = dict.ref(id);
+        if (ref == 0) {
+            sink.accept(ByteBuffer.wrap((byte[]) dict.value(id)), null);
+        } else {
+            arena.pin(ref);
+            sink.accept(arena.read(ref), () -> arena.unpin(ref));
+        }
+        return true;
     }
 
     public String get(String key, long nowMs) {
-        ValueEntry entry = store.get(key);
-        if (entry == null) {
+        byte[] value = get(key.getBytes(CHARSET), nowMs);
+        return value == null ? null : new String(value, CHARSET);
+    }
+
+    /**
+     * True if the key exists, of any type. Not counted as an access.
+     */
+    public boolean exists(String key, long nowMs) {
+        return live(key.getBytes(CHARSET), nowMs) >= 0;
+    }
+
+    /**
+     * The key's collection, or null if the key is missing or expired.
+     * Counts as an access.
+     *
+     * @throws WrongTypeException if the key holds another type
+     */
+    public CollectionValue lookup(String key, ValueType type, long nowMs) {
+        int id = access(key.getBytes(CHARSET), nowMs);
+        if (id < 0) {
             return null;
         }
-        if (entry.isExpired(nowMs)) {
-            store.remove(key);
+        checkType(id, type.tag());
+        return (CollectionValue) dict.value(id);
+    }
+
+    public CollectionValue lookup(String key, ValueType type) {
+        return lookup(key, type, System.currentTimeMillis());
+    }
+
+    /**
+     * lookup() for a caller about to change the collection. If a snapshot
+     * being read shares it, a copy replaces it first, so the snapshot keeps
+     * the state it was taken at.
+     */
+    public CollectionValue lookupForWrite(String key, ValueType type, long nowMs) {
+        int id = access(key.getBytes(CHARSET), nowMs);
+        if (id < 0) {
             return null;
         }
-        return entry.getValue();
+        checkType(id, type.tag());
+        CollectionValue value = (CollectionValue) dict.value(id);
+        if (dict.epoch(id) != snapshotEpoch && openSnapshots.get() > 0) {
+            CollectionValue copy = value.copy();
+            usedMemory += copy.memoryUsage() - value.memoryUsage();
+            dict.setValue(id, copy);
+            dict.setEpoch(id, snapshotEpoch);
+            return copy;
+        }
+        return value;
     }
 
-    public boolean exists(String key, long nowMs) {
-        return get(key, nowMs) != null;
+    public CollectionValue lookupForWrite(String key, ValueType type) {
+        return lookupForWrite(key, type, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores a new collection under a key that lookup() just found missing.
+     */
+    public void add(String key, ValueType type, CollectionValue value) {
+        int id = dict.insert(key.getBytes(CHARSET));
+        dict.setType(id, type.tag());
+        dict.setValue(id, value);
+        if (snapshotEpoch > 0) {
+            dict.setEpoch(id, snapshotEpoch);
+        }
+        finishSet(id, NO_EXPIRY);
+    }
+
+    /**
+     * Records that a collection grew or shrank in place by deltaBytes
+     * (its memoryUsage() after minus before).
+     */
+    public void resized(long deltaBytes) {
+        usedMemory += deltaBytes;
+    }
+
+    /**
+     * @return the key's type, or null if it is missing or expired
+     */
+    public ValueType type(String key, long nowMs) {
+        int id = live(key.getBytes(CHARSET), nowMs);
+        return id < 0 ? null : ValueType.of(dict.type(id));
+    }
+
+    /**
+     * How the key's value is stored, as OBJECT ENCODING reports it, or null
+     * if the key is missing or expired.
+     */
+    public String encoding(String key, long nowMs) {
+        int id = live(key.getBytes(CHARSET), nowMs);
+        if (id < 0) {
+            return null;
+        }
+        if (dict.type(id) != STRING) {
+            return ((CollectionValue) dict.value(id)).encoding();
+        }
+        if (dict.ref(id) != 0) {
+            return "raw";
+        }
+        byte[] value = (byte[]) dict.value(id);
+        if (value.length <= INT_MAX_LENGTH && isInteger(value)) {
+            return "int";
+        }
+        return value.length <= EMBSTR_MAX_LENGTH ? "embstr" : "raw";
+    }
+
+    /**
+     * Sets the key's deadline. A deadline already past deletes the key, like Redis.
+     *
+     * @return false if the key is missing or expired
+     */
+    public boolean expire(String key, long expireAtMs, long nowMs) {
+        int id = live(key.getBytes(CHARSET), nowMs);
+        if (id < 0) {
+            return false;
+        }
+        if (expireAtMs <= nowMs) {
+            unlink(id);
+            return true;
+        }
+        setExpiry(id, expireAtMs);
+        return true;
+    }
+
+    /**
+     * Removes the key's TTL.
+     *
+     * @return false if the key is missing or had no TTL
+     */
+    public boolean persist(String key, long nowMs) {
+        int id = live(key.getBytes(CHARSET), nowMs);
+        if (id < 0 || dict.expireAt(id) == NO_EXPIRY) {
+            return false;
+        }
+        setExpiry(id, NO_EXPIRY);
+        return true;
+    }
+
+    /**
+     * @return milliseconds until the key expires, TTL_NONE if it has no TTL,
+     *         TTL_MISSING if it doesn't exist
+     */
+    public long ttl(String key, long nowMs) {
+        int id = live(key.getBytes(CHARSET), nowMs);
+        if (id < 0) {
+            return TTL_MISSING;
+        }
+        long expireAt = dict.expireAt(id);
+        return expireAt == NO_EXPIRY ? TTL_NONE : expireAt - nowMs;
+    }
+
+    /**
+     * True if the key is stored, without counting it as an access or
+     * checking its TTL.
+     */
+    public boolean containsKey(String key) {
+        return dict.find(key.getBytes(CHARSET)) >= 0;
+    }
+
+    public boolean delete(byte[] key) {
+        int id = dict.find(key);
+        if (id < 0) {
+            return false;
+        }
+        unlink(id);
+        return true;
+    }
+
+    public boolean delete(String key) {
+        return delete(key.getBytes(CHARSET));
+    }
+
+    /**
+     * Removes every key, e.g. before loading a replica's full resync.
+     */
+    public void clear() {
+        List<byte[]> keys = new ArrayList<>(dict.size());
+        long cursor = 0;
+        do {
+            cursor = scan(cursor, 1024, null, Long.MIN_VALUE, keys::add);
+        } while (cursor != 0);
+        for (byte[] key : keys) {
+            delete(key);
+        }
+    }
+
+    /**
+     * Starts a WATCH on any key: changedSince(key, token, now) is true once
+     * the key is changed after this call. Turns on change tracking, which
+     * costs a long per key from then on.
+     */
+    public long watchToken() {
+        dict.enableVersions();
+        return dict.writeCounter();
+    }
+
+    /**
+     * Records a change to key's value, for WATCH. A no-op until a watchToken()
+     * has been handed out.
+     */
+    public void touch(String key) {
+        if (!dict.tracksVersions()) {
+            return;
+        }
+        int id = dict.find(key.getBytes(CHARSET));
+        if (id >= 0) {
+            dict.touch(id);
+        }
+    }
+
+    public boolean tracksChanges() {
+        return dict.tracksVersions();
+    }
+
+    /**
+     * Whether key was changed, removed, expired or evicted after token was
+     * handed out. May say yes for a key that was and still is missing.
+     */
+    public boolean changedSince(String key, long token, long nowMs) {
+        byte[] k = key.getBytes(CHARSET);
+        // Reclaims the key if its TTL passed, which counts as a change
+        return dict.changedSince(k, live(k, nowMs), token);
+    }
+
+    /**
+     * Keeps track of the keys of each cluster hash slot from now on.
+     */
+    public void enableSlotIndex() {
+        dict.enableSlotIndex();
+    }
+
+    /**
+     * Keys stored in a hash slot, possibly including expired ones not
+     * reclaimed yet. Needs enableSlotIndex().
+     */
+    public int countKeysInSlot(int slot) {
+        return dict.countInSlot(slot);
+    }
+
+    /**
+     * Up to count keys of a hash slot, possibly including expired ones not
+     * reclaimed yet. Needs enableSlotIndex().
+     */
+    public List<String> keysInSlot(int slot, int count) {
+        List<String> keys = new ArrayList<>(Math.min(count, dict.countInSlot(slot)));
+        dict.idsInSlot(slot, count, id -> keys.add(new String(dict.key(id), CHARSET)));
+        return keys;
+    }
+
+    /**
+     * LRU clock or LFU counter of a key (see EvictionPolicy), or -1 if missing.
+     */
+    public int getAccessMeta(String key) {
+        int id = dict.find(key.getBytes(CHARSET));
+        return id < 0 ? -1 : dict.meta(id);
+    }
+
+    public void setAccessMeta(String key, int accessMeta) {
+        int id = dict.find(key.getBytes(CHARSET));
+        if (id >= 0) {
+            dict.setMeta(id, accessMeta);
+        }
+    }
+
+    /**
+     * Removes keys whose TTL has passed, earliest deadline first, until none
+     * are left or the time budget is used up. The rest is picked up on the
+     * next call.
+     *
+     * @return number of keys removed
+     */
+    public int activeExpireCycle(long nowMs, long budgetNanos) {
+        if (expiryIndex.isEmpty() || expiryIndex.nextExpireAtMs() > nowMs) {
+            return 0;
+        }
+
+        long deadline = System.nanoTime() + budgetNanos;
+        int removed = 0;
+
+        while (!expiryIndex.isEmpty() && expiryIndex.nextExpireAtMs() <= nowMs) {
+            removeExpired(expiryIndex.firstId());
+            removed++;
+
+            if (removed % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+
+        reclaimedKeys += removed;
+        return removed;
+    }
+
+    /**
+     * One step of a SCAN walk: visits the keys of at most count * 10 home
+     * slots of the dict, stopping early once count keys were found, and
+     * passes the live ones to keys. Expired keys are removed, not returned.
+     *
+     * A key that exists for the whole walk is returned at least once, even
+     * if the dict is resized in between; keys added or removed meanwhile may
+     * or may not be.
+     *
+     * @param cursor 0 to start, then the value returned by the previous call
+     * @param type   only return keys of this type, or null for any
+     * @return the cursor for the next call, 0 once the walk is complete
+     */
+    public long scan(long cursor, int count, ValueType type, long nowMs, Consumer<byte[]> keys) {
+        int next = (int) cursor;
+        long slotsLeft = Math.max(1, count * 10L);
+        scanCount = 0;
+        do {
+            next = dict.scan(next, scanCollector);
+        } while (next != 0 && --slotsLeft > 0 && scanCount < count);
+
+        // The dict must not change while it is being walked, so expired keys
+        // are only removed now; ids stay valid until their entry is removed
+        for (int i = 0; i < scanCount; i++) {
+            int id = scanIds[i];
+            long expireAt = dict.expireAt(id);
+            if (expireAt != NO_EXPIRY && nowMs >= expireAt) {
+                removeExpired(id);
+            } else if (type == null || dict.type(id) == type.tag()) {
+                keys.accept(dict.key(id));
+            }
+        }
+        return next & 0xffffffffL;
+    }
+
+    /**
+     * Moves the dict along if it is in the middle of growing or shrinking,
+     * for up to the given time. Lookups and writes do this a little at a
+     * time anyway; this finishes it while the event loop is idle.
+     */
+    public void rehashFor(long budgetNanos) {
+        dict.rehashFor(budgetNanos);
     }
 
-    public void delete(String key) {
-        store.remove(key);
+    /**
+     * True while the dict is growing or shrinking, i.e. rehashFor has work.
+     */
+    public boolean isRehashing() {
+        return dict.isRehashing();
+    }
+
+    /**
+     * Point-in-time copy of the keyspace, safe to read from another thread.
+     * Only the entry arrays are copied, here on the event loop: string values
+     * are never modified in place, and collections are shared copy-on-write
+     * until the snapshot is released (lookupForWrite()), so a key changed
+     * meanwhile costs one copy of its collection. The array copies take
+     * about 5 ms per million keys.
+     * May contain keys that have expired but were not reclaimed yet.
+     */
+    public KeyValueSnapshot snapshot() {
+        snapshotEpoch++;
+        openSnapshots.incrementAndGet();
+        return new KeyValueSnapshot(dict.copyKeys(), dict.copyValues(), dict.copyTypes(), dict.copyExpires(),
+                dict.copyRefs(), arena == null ? null : arena.view(), openSnapshots::decrementAndGet);
     }
 
     public int size() {
-        return store.size();
+        return dict.size();
+    }
+
+    /**
+     * Earliest TTL deadline (epoch milliseconds), or Long.MAX_VALUE if no key
+     * has one. May be in the past if activeExpireCycle ran out of time.
+     */
+    public long nextExpireAtMs() {
+        return expiryIndex.isEmpty() ? Long.MAX_VALUE : expiryIndex.nextExpireAtMs();
+    }
+
+    /**
+     * Number of keys that currently have a TTL.
+     */
+    public int volatileSize() {
+        return expiryIndex.size();
+    }
+
+    public long getExpiredKeys() {
+        return expiredKeys;
+    }
+
+    public long getReclaimedKeys() {
+        return reclaimedKeys;
+    }
+
+    /**
+     * Direct memory held by the off-heap arena (0 when disabled); usedMemory()
+     * only counts the part that holds values.
+     */
+    public long offHeapReservedBytes() {
+        return arena == null ? 0 : arena.reservedBytes();
+    }
+
+    public long offHeapUsedBytes() {
+        return arena == null ? 0 : arena.usedBytes();
+    }
+
+    @Override
+    public long usedMemory() {
+        return usedMemory;
+    }
+
+    @Override
+    public void sampleKeys(int count, SampleConsumer consumer) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            int id = dict.randomId(random);
+            if (id < 0) {
+                return;
+            }
+            consumer.accept(new String(dict.key(id), CHARSET), dict.meta(id));
+        }
+    }
+
+    @Override
+    public String soonestExpiringKey() {
+        return expiryIndex.isEmpty() ? null : new String(dict.key(expiryIndex.firstId()), CHARSET);
+    }
+
+    @Override
+    public boolean evict(String key) {
+        return delete(key.getBytes(CHARSET));
+    }
+
+    /**
+     * Receives a value from readValue().
+     */
+    @FunctionalInterface
+    public interface ValueSink {
+        /**
+         * @param release null for heap values; otherwise must be run once
+         *                value has been used
+         */
+        void accept(ByteBuffer value, Runnable release);
+    }
+
+    private void addScanId(int id) {
+        if (scanCount == scanIds.length) {
+            scanIds = Arrays.copyOf(scanIds, scanCount * 2);
+        }
+        scanIds[scanCount++] = id;
+    }
+
+    // Live id of key counted as an access, or -1 (removing it if expired)
+    private int access(byte[] key, long nowMs) {
+        int id = live(key, nowMs);
+        if (id >= 0) {
+            dict.setMeta(id, evictionPolicy.accessMeta(dict.meta(id)));
+        }
+        return id;
+    }
+
+    // Id of key, or -1 if missing (removing it if expired)
+    private int live(byte[] key, long nowMs) {
+        int id = dict.find(key);
+        if (id < 0) {
+            return -1;
+        }
+        long expireAt = dict.expireAt(id);
+        if (expireAt != NO_EXPIRY && nowMs >= expireAt) {
+            removeExpired(id);
+            return -1;
+        }
+        return id;
+    }
+
+    private void checkType(int id, byte type) {
+        if (dict.type(id) != type) {
+            throw new WrongTypeException();
+        }
+    }
+
+    private void setExpiry(int id, long expireAtMs) {
+        stamp(id);
+        usedMemory -= estimate(id);
+        expiryIndex.remove(id);
+        dict.setExpireAt(id, expireAtMs);
+        if (expireAtMs != NO_EXPIRY) {
+            expiryIndex.add(id, expireAtMs);
+        }
+        usedMemory += estimate(id);
+    }
+
+    private boolean isOffHeap(int valueLength) {
+        return arena != null && valueLength >= offHeapMinValue;
+    }
+
+    // Id to store a new value under, with the old value (if any) released
+    private int prepareSet(byte[] key) {
+        int id = dict.find(key);
+        if (id < 0) {
+            return dict.insert(key);
+        }
+        stamp(id);
+        usedMemory -= estimate(id);
+        expiryIndex.remove(id);
+        releaseValue(id);
+        dict.setType(id, STRING);
+        return id;
+    }
+
+    // New entries and removals are stamped by the dict itself
+    private void stamp(int id) {
+        if (dict.tracksVersions()) {
+            dict.touch(id);
+        }
+    }
+
+    private void finishSet(int id, long expireAtMs) {
+        dict.setExpireAt(id, expireAtMs);
+        if (expireAtMs != NO_EXPIRY) {
+            expiryIndex.add(id, expireAtMs);
+        }
+        dict.setMeta(id, evictionPolicy.createMeta());
+        usedMemory += estimate(id);
+    }
+
+    private void releaseValue(int id) {
+        long ref = dict.ref(id);
+        if (ref != 0) {
+            arena.free(ref);
+            dict.setRef(id, 0);
+        }
+        dict.setValue(id, null);
+    }
+
+    private void removeExpired(int id) {
+        unlink(id);
+        expiredKeys++;
+    }
+
+    private void unlink(int id) {
+        usedMemory -= estimate(id);
+        expiryIndex.remove(id);
+        releaseValue(id);
+        dict.remove(id);
+    }
+
+    private long estimate(int id) {
+        long valueBytes;
+        if (dict.type(id) != STRING) {
+            valueBytes = ((CollectionValue) dict.value(id)).memoryUsage();
+        } else {
+            long ref = dict.ref(id);
+            valueBytes = ref == 0 ? ((byte[]) dict.value(id)).length : arena.chunkSize(ref);
+        }
+        long bytes = ENTRY_OVERHEAD + dict.key(id).length + valueBytes;
+        return dict.expireAt(id) == NO_EXPIRY ? bytes : bytes + TTL_OVERHEAD;
+    }
+
+    private static boolean isInteger(byte[] value) {
+        if (value.length == 0) {
+            return false;
+        }
+        try {
+            Long.parseLong(new String(value, CHARSET));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
     }
 }
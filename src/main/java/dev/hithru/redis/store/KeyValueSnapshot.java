@@ -0,0 +1,80 @@
+package dev.hithru.redis.store;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Point-in-time copy of an InMemoryKeyValueStore, see snapshot().
+ *
+ * Indexed by slot: slots in [0, slots()) either hold an entry or have a
+ * null key. A string slot has a value(), any other type its items() in
+ * SnapshotVisitor layout. Off-heap values are copied out of the arena as they are read;
+ * collections are the store's own, read in place. release() must be called
+ * once done so the arena can reuse memory again and the store stops copying
+ * collections before changing them.
+ */
+public final class KeyValueSnapshot {
+    private final byte[][] keys;
+    private final Object[] values;       // byte[] or CollectionValue
+    private final byte[] types;
+    private final long[] expires;
+    private final long[] refs;            // null if no value was off-heap
+    private final ValueArena.View arena;  // null without an arena
+    private final Runnable onRelease;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    KeyValueSnapshot(byte[][] keys, Object[] values, byte[] types, long[] expires, long[] refs,
+                     ValueArena.View arena, Runnable onRelease) {
+        this.keys = keys;
+        this.values = values;
+        this.types = types;
+        this.expires = expires;
+        this.refs = refs;
+        this.arena = arena;
+        this.onRelease = onRelease;
+    }
+
+    public int slots() {
+        return keys.length;
+    }
+
+    /** Key in slot i, or null if the slot is empty. */
+    public byte[] key(int i) {
+        return keys[i];
+    }
+
+    public ValueType type(int i) {
+        return ValueType.of(types[i]);
+    }
+
+    /** Value of a string slot. */
+    public byte[] value(int i) {
+        if (refs != null && refs[i] != 0) {
+            return arena.copy(refs[i]);
+        }
+        return (byte[]) values[i];
+    }
+
+    /** Elements of a collection slot, see SnapshotVisitor. */
+    public Iterable<String> items(int i) {
+        return ((CollectionValue) values[i]).items();
+    }
+
+    /** Deadline of slot i, or InMemoryKeyValueStore.NO_EXPIRY. */
+    public long expireAtMs(int i) {
+        return expires[i];
+    }
+
+    /**
+     * Ends reading; values can't be read afterwards. Safe to call from any
+     * thread, more than once.
+     */
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        if (arena != null) {
+            arena.close();
+        }
+        onRelease.run();
+    }
+}
@@ -0,0 +1,639 @@
+package dev.hithru.redis.store;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+import dev.hithru.redis.server.KeySlot;
+
+/**
+ * KeyspaceDict
+ *
+ * Hash table of byte[] keys to values made of primitive arrays, so a string
+ * key costs its two byte arrays plus a few dozen bytes of slots instead of a
+ * String, a HashMap.Node, a value object and a boxed Long.
+ *
+ * - Entries live in parallel arrays indexed by an entry id: key, value,
+ *   type tag (a ValueType ordinal), expiry (a primitive long, NO_EXPIRY
+ *   when none), access meta and hash. A string value is a byte[], any other
+ *   type its CollectionValue.
+ *   A value kept off the heap has a null value and a ValueArena handle
+ *   instead (that array only exists once the first such value is stored).
+ *   An id stays the same for the life of the entry; ids of deleted entries
+ *   are reused.
+ * - The index is an open-addressing (linear probing) int[] of entry ids.
+ * - Growing or shrinking the index is incremental, like Redis' dict: a new
+ *   index is allocated and every operation moves a few entries over, so no
+ *   single call pays for a full rehash. Meanwhile lookups check both indexes
+ *   and inserts go to the new one. Deleting from the old index leaves a
+ *   tombstone, since a backward shift could move an entry behind the
+ *   migration cursor.
+ * - scan() walks the index by home slot with Redis' reverse-binary cursor,
+ *   so a key present for a whole walk is returned however the index grows,
+ *   shrinks or rehashes in between (possibly more than once).
+ * - In cluster mode, the entries of each hash slot are also chained in a
+ *   doubly linked list of ids (two more ints per entry), so the keys of a
+ *   slot can be counted and listed without walking the whole keyspace.
+ * - Once WATCH is used, every change stamps its entry with the next value
+ *   of a write counter, and every removal stamps one of REMOVAL_STRIPES
+ *   counters picked by the key's hash. A key changed after counter value c
+ *   if its entry is newer than c or, when the key is gone, if its stripe is.
+ *
+ * Not thread-safe.
+ */
+final class KeyspaceDict {
+
+    static final long NO_EXPIRY = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+
+    // Per operation: entries moved to the new index, and slots looked at
+    private static final int REHASH_ENTRIES = 2;
+    private static final int REHASH_MAX_VISITS = 20;
+
+    // Removal stamps; a missing key looks changed when another key of its
+    // stripe was removed, so enough of them to make that rare
+    private static final int REMOVAL_STRIPES = 1 << 12;
+
+    // Entries, by id; keys[id] == null for a free id
+    private byte[][] keys = new byte[MIN_CAPACITY][];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private byte[] types = new byte[MIN_CAPACITY];
+    private long[] expires = new long[MIN_CAPACITY];
+    private int[] metas = new int[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private long[] refs; // off-heap handles, 0 = none; null until first used
+
+    private int[] freeIds = new int[MIN_CAPACITY];
+    private int freeCount;
+    private int highWater; // ids in [0, highWater) have been handed out
+    private int size;
+
+    // Index new entries go to; never holds tombstones
+    private int[] table = newTable(MIN_CAPACITY);
+    // Index being drained while rehashing, null otherwise
+    private int[] oldTable;
+    private int rehashIndex;
+
+    // Per hash slot: first entry id (-1 = none) and entry count; per entry:
+    // neighbours in its slot's chain. All null unless the slot index is on
+    private int[] slotHeads;
+    private int[] slotCounts;
+    private int[] slotNext;
+    private int[] slotPrev;
+
+    // Per entry: write counter value of its last change; per removal stripe:
+    // of its last removal. Both null until change tracking is on
+    private long[] versions;
+    private long[] removals;
+    private long writeCounter;
+
+    // Per entry: snapshot epoch its collection was added or copied at, see
+    // InMemoryKeyValueStore.snapshot(). Null until the first snapshot
+    private int[] epochs;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the entry id of key, or -1
+     */
+    int find(byte[] key) {
+        rehashStep();
+        int hash = hash(key);
+        int id = probe(table, key, hash);
+        if (id < 0 && oldTable != null) {
+            id = probe(oldTable, key, hash);
+        }
+        return id;
+    }
+
+    /**
+     * Adds an entry for a key that is not in the dict yet.
+     *
+     * @return its id; the value is null, the type STRING and there is no expiry
+     */
+    int insert(byte[] key) {
+        rehashStep();
+        if (oldTable != null && (size + 1) * 8L > table.length * 7L) {
+            // The new index filled up before the old one drained
+            rebuild(capacityFor(size + 1));
+        } else if (oldTable == null && (size + 1) * 4L > table.length * 3L) {
+            startRehash(table.length * 2);
+        }
+
+        int id = allocateId();
+        int hash = hash(key);
+        keys[id] = key;
+        types[id] = 0;
+        hashes[id] = hash;
+        expires[id] = NO_EXPIRY;
+        insertSlot(table, id);
+        size++;
+        if (slotHeads != null) {
+            linkToSlot(id);
+        }
+        if (versions != null) {
+            versions[id] = ++writeCounter;
+        }
+        return id;
+    }
+
+    void remove(int id) {
+        rehashStep();
+        if (!removeSlot(table, id, false) && oldTable != null) {
+            removeSlot(oldTable, id, true);
+        }
+        if (slotHeads != null) {
+            unlinkFromSlot(id);
+        }
+        if (versions != null) {
+            removals[hashes[id] & (REMOVAL_STRIPES - 1)] = ++writeCounter;
+        }
+
+        keys[id] = null;
+        values[id] = null;
+        metas[id] = 0;
+        if (refs != null) {
+            refs[id] = 0;
+        }
+        freeId(id);
+        size--;
+
+        if (oldTable == null && table.length > MIN_CAPACITY && size * 8L < table.length) {
+            startRehash(capacityFor(size));
+        }
+    }
+
+    byte[] key(int id) {
+        return keys[id];
+    }
+
+    Object value(int id) {
+        return values[id];
+    }
+
+    void setValue(int id, Object value) {
+        values[id] = value;
+    }
+
+    byte type(int id) {
+        return types[id];
+    }
+
+    void setType(int id, byte type) {
+        types[id] = type;
+    }
+
+    long ref(int id) {
+        return refs == null ? 0 : refs[id];
+    }
+
+    void setRef(int id, long ref) {
+        if (refs == null) {
+            if (ref == 0) {
+                return;
+            }
+            refs = new long[keys.length];
+        }
+        refs[id] = ref;
+    }
+
+    long expireAt(int id) {
+        return expires[id];
+    }
+
+    void setExpireAt(int id, long expireAtMs) {
+        expires[id] = expireAtMs;
+    }
+
+    int meta(int id) {
+        return metas[id];
+    }
+
+    void setMeta(int id, int meta) {
+        metas[id] = meta;
+    }
+
+    /**
+     * Starts keeping the entries of each hash slot, including the ones
+     * already in the dict.
+     */
+    void enableSlotIndex() {
+        if (slotHeads != null) {
+            return;
+        }
+        slotHeads = new int[KeySlot.SLOT_COUNT];
+        Arrays.fill(slotHeads, -1);
+        slotCounts = new int[KeySlot.SLOT_COUNT];
+        slotNext = new int[keys.length];
+        slotPrev = new int[keys.length];
+        for (int id = 0; id < highWater; id++) {
+            if (keys[id] != null) {
+                linkToSlot(id);
+            }
+        }
+    }
+
+    /**
+     * Entries of a hash slot; needs the slot index.
+     */
+    int countInSlot(int slot) {
+        return slotCounts[slot];
+    }
+
+    /**
+     * Passes the ids of up to count entries of a hash slot to visitor, which
+     * must not modify the dict. Needs the slot index.
+     */
+    void idsInSlot(int slot, int count, IntConsumer visitor) {
+        for (int id = slotHeads[slot], n = 0; id >= 0 && n < count; id = slotNext[id], n++) {
+            visitor.accept(id);
+        }
+    }
+
+    int epoch(int id) {
+        return epochs == null ? 0 : epochs[id];
+    }
+
+    void setEpoch(int id, int epoch) {
+        if (epochs == null) {
+            epochs = new int[keys.length];
+        }
+        epochs[id] = epoch;
+    }
+
+    /**
+     * Starts stamping changes and removals; entries already in the dict count
+     * as changed at write counter 0.
+     */
+    void enableVersions() {
+        if (versions == null) {
+            versions = new long[keys.length];
+            removals = new long[REMOVAL_STRIPES];
+        }
+    }
+
+    boolean tracksVersions() {
+        return versions != null;
+    }
+
+    /**
+     * The write counter: every change stamped so far is at most this.
+     */
+    long writeCounter() {
+        return writeCounter;
+    }
+
+    /**
+     * Stamps a change of the entry; needs change tracking.
+     */
+    void touch(int id) {
+        versions[id] = ++writeCounter;
+    }
+
+    /**
+     * Whether key changed after the write counter was at since: its entry
+     * (id, or -1 if the key is missing) or, for a missing key, its removal
+     * stripe is newer. Needs change tracking.
+     */
+    boolean changedSince(byte[] key, int id, long since) {
+        if (id >= 0) {
+            return versions[id] > since;
+        }
+        return removals[hash(key) & (REMOVAL_STRIPES - 1)] > since;
+    }
+
+    /**
+     * Ids are in [0, idLimit()); free ones have a null key.
+     */
+    int idLimit() {
+        return highWater;
+    }
+
+    /**
+     * A random live entry id, or -1 if the dict is empty.
+     */
+    int randomId(ThreadLocalRandom random) {
+        if (size == 0) {
+            return -1;
+        }
+        for (int attempt = 0; attempt < 64; attempt++) {
+            int id = random.nextInt(highWater);
+            if (keys[id] != null) {
+                return id;
+            }
+        }
+        // Mostly free ids: take the next live one after a random start
+        int start = random.nextInt(highWater);
+        for (int i = 0; i < highWater; i++) {
+            int id = start + i < highWater ? start + i : start + i - highWater;
+            if (keys[id] != null) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One step of a cursor walk: passes the id of every entry whose home slot
+     * is the cursor's (in both indexes while rehashing) to visitor, which must
+     * not modify the dict.
+     *
+     * Like Redis' dictScan, the cursor is incremented with its bits reversed:
+     * the slots already visited in an index of one size map to slots already
+     * visited in an index of any other size, so growing or shrinking between
+     * calls never skips entries. A probe never wraps past an empty slot, so
+     * the entries of a home slot are in the cluster that starts there.
+     *
+     * @param cursor 0 to start a walk
+     * @return the cursor for the next call, 0 once the walk is complete
+     */
+    int scan(int cursor, IntConsumer visitor) {
+        int v = cursor;
+        if (oldTable == null) {
+            int mask = table.length - 1;
+            visitHome(table, v & mask, visitor);
+            return nextCursor(v, mask);
+        }
+
+        int[] small = oldTable.length <= table.length ? oldTable : table;
+        int[] large = small == table ? oldTable : table;
+        int m0 = small.length - 1;
+        int m1 = large.length - 1;
+
+        visitHome(small, v & m0, visitor);
+        // Then every slot of the larger index that the small slot expands to;
+        // once the extra bits wrap around, the carry has moved v to the next
+        // slot of the small index
+        do {
+            visitHome(large, v & m1, visitor);
+            v = nextCursor(v, m1);
+        } while ((v & (m0 ^ m1)) != 0);
+        return v;
+    }
+
+    private static int nextCursor(int v, int mask) {
+        // Set the bits above the mask so the reversed increment carries into
+        // the mask's high bit first
+        v |= ~mask;
+        return Integer.reverse(Integer.reverse(v) + 1);
+    }
+
+    private void visitHome(int[] t, int home, IntConsumer visitor) {
+        int mask = t.length - 1;
+        for (int i = home, n = 0; t[i] != EMPTY && n < t.length; i = (i + 1) & mask, n++) {
+            int id = t[i];
+            if (id >= 0 && (hashes[id] & mask) == home) {
+                visitor.accept(id);
+            }
+        }
+    }
+
+    boolean isRehashing() {
+        return oldTable != null;
+    }
+
+    /**
+     * Moves entries to the new index for up to the given time (called from
+     * the event loop's idle time, like Redis' dictRehashMilliseconds).
+     */
+    void rehashFor(long budgetNanos) {
+        if (oldTable == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        while (oldTable != null) {
+            for (int i = 0; i < 100 && oldTable != null; i++) {
+                rehashStep();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Copies of the entry arrays, for iterating from another thread.
+     * String values are never modified in place, so sharing the byte arrays
+     * is safe; collections are live objects the caller has to keep from
+     * changing.
+     */
+    byte[][] copyKeys() {
+        return Arrays.copyOf(keys, highWater);
+    }
+
+    Object[] copyValues() {
+        return Arrays.copyOf(values, highWater);
+    }
+
+    byte[] copyTypes() {
+        return Arrays.copyOf(types, highWater);
+    }
+
+    long[] copyExpires() {
+        return Arrays.copyOf(expires, highWater);
+    }
+
+    long[] copyRefs() {
+        return refs == null ? null : Arrays.copyOf(refs, highWater);
+    }
+
+    static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        // murmur3 finalizer: linear probing needs well-spread low bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private int probe(int[] t, byte[] key, int hash) {
+        int mask = t.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = t[i];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (id >= 0 && hashes[id] == hash && Arrays.equals(keys[id], key)) {
+                return id;
+            }
+        }
+    }
+
+    private void insertSlot(int[] t, int id) {
+        int mask = t.length - 1;
+        int i = hashes[id] & mask;
+        while (t[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        t[i] = id;
+    }
+
+    /**
+     * @return false if the id isn't in this index
+     */
+    private boolean removeSlot(int[] t, int id, boolean tombstone) {
+        int mask = t.length - 1;
+        int i = hashes[id] & mask;
+        while (t[i] != id) {
+            if (t[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (tombstone) {
+            t[i] = DELETED;
+            return true;
+        }
+
+        // Backward shift: pull later entries of the cluster into the hole
+        // unless that would move them before their home slot
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int other = t[j];
+            if (other == EMPTY) {
+                break;
+            }
+            int home = hashes[other] & mask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                t[i] = other;
+                i = j;
+            }
+        }
+        t[i] = EMPTY;
+        return true;
+    }
+
+    private void startRehash(int capacity) {
+        oldTable = table;
+        table = newTable(capacity);
+        rehashIndex = 0;
+    }
+
+    private void rehashStep() {
+        if (oldTable == null) {
+            return;
+        }
+        int moved = 0;
+        int visited = 0;
+        while (rehashIndex < oldTable.length && moved < REHASH_ENTRIES && visited < REHASH_MAX_VISITS) {
+            int id = oldTable[rehashIndex];
+            if (id >= 0) {
+                oldTable[rehashIndex] = DELETED;
+                insertSlot(table, id);
+                moved++;
+            }
+            rehashIndex++;
+            visited++;
+        }
+        if (rehashIndex == oldTable.length) {
+            oldTable = null;
+        }
+    }
+
+    /**
+     * Rebuilds the index in one go; only when incremental rehashing couldn't keep up.
+     */
+    private void rebuild(int capacity) {
+        int[] t = newTable(capacity);
+        for (int id = 0; id < highWater; id++) {
+            if (keys[id] != null) {
+                insertSlot(t, id);
+            }
+        }
+        table = t;
+        oldTable = null;
+    }
+
+    private int allocateId() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        if (highWater == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+            expires = Arrays.copyOf(expires, capacity);
+            metas = Arrays.copyOf(metas, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            if (refs != null) {
+                refs = Arrays.copyOf(refs, capacity);
+            }
+            if (slotHeads != null) {
+                slotNext = Arrays.copyOf(slotNext, capacity);
+                slotPrev = Arrays.copyOf(slotPrev, capacity);
+            }
+            if (versions != null) {
+                versions = Arrays.copyOf(versions, capacity);
+            }
+            if (epochs != null) {
+                epochs = Arrays.copyOf(epochs, capacity);
+            }
+        }
+        return highWater++;
+    }
+
+    // New entries go first: nothing to look up to append
+    private void linkToSlot(int id) {
+        int slot = KeySlot.slot(keys[id]);
+        int head = slotHeads[slot];
+        slotNext[id] = head;
+        slotPrev[id] = -1;
+        if (head >= 0) {
+            slotPrev[head] = id;
+        }
+        slotHeads[slot] = id;
+        slotCounts[slot]++;
+    }
+
+    private void unlinkFromSlot(int id) {
+        int slot = KeySlot.slot(keys[id]);
+        int next = slotNext[id];
+        int prev = slotPrev[id];
+        if (prev >= 0) {
+            slotNext[prev] = next;
+        } else {
+            slotHeads[slot] = next;
+        }
+        if (next >= 0) {
+            slotPrev[next] = prev;
+        }
+        slotCounts[slot]--;
+    }
+
+    private void freeId(int id) {
+        if (id == highWater - 1) {
+            highWater--;
+            return;
+        }
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    // Power of two with room for n entries at half load
+    private static int capacityFor(int n) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < n * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] t = new int[capacity];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+}
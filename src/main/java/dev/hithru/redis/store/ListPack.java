@@ -0,0 +1,257 @@
+package dev.hithru.redis.store;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * ListPack
+ *
+ * Encoding for small collections, like Redis' listpack: every entry packed
+ * into one byte array as [len: varint][bytes], back to back. Lookups are a
+ * linear scan, which for a few dozen short entries is as fast as hashing and
+ * takes a fraction of the memory of a HashMap (no node, String or boxed
+ * object per entry). Collections switch to a real hash table or skiplist
+ * once they outgrow it.
+ *
+ * Entries are addressed by their byte offset ("position"); -1 means none.
+ * Collections of pairs (hash field/value, zset member/score) simply store
+ * both halves as consecutive entries.
+ *
+ * Not thread-safe.
+ */
+public final class ListPack implements Iterable<String> {
+
+    // Same byte <-> char mapping as the protocol layer
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    // Object header, fields and array header, for memory estimates
+    private static final int OVERHEAD = 40;
+
+    private byte[] buf;
+    private int used;
+    private int count;
+
+    public ListPack() {
+        buf = new byte[32];
+    }
+
+    private ListPack(ListPack other) {
+        buf = Arrays.copyOf(other.buf, other.used);
+        used = other.used;
+        count = other.count;
+    }
+
+    /**
+     * Independent copy, e.g. to read from another thread.
+     */
+    public ListPack copy() {
+        return new ListPack(this);
+    }
+
+    /** Number of entries. */
+    public int size() {
+        return count;
+    }
+
+    public long memoryUsage() {
+        return OVERHEAD + buf.length;
+    }
+
+    /**
+     * Entries as strings, each decoded when it is reached. The pack must not
+     * change meanwhile, e.g. while a snapshot holds it (CollectionValue.items()).
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int pos = first();
+
+            @Override
+            public boolean hasNext() {
+                return pos >= 0;
+            }
+
+            @Override
+            public String next() {
+                if (pos < 0) {
+                    throw new NoSuchElementException();
+                }
+                String entry = getString(pos);
+                pos = ListPack.this.next(pos);
+                return entry;
+            }
+        };
+    }
+
+    public int first() {
+        return count == 0 ? -1 : 0;
+    }
+
+    public int next(int pos) {
+        int end = dataStart(pos) + getVarint(pos);
+        return end < used ? end : -1;
+    }
+
+    /** Position just past the last entry, where append() writes. */
+    public int end() {
+        return used;
+    }
+
+    public byte[] get(int pos) {
+        int start = dataStart(pos);
+        return Arrays.copyOfRange(buf, start, start + getVarint(pos));
+    }
+
+    public String getString(int pos) {
+        return new String(buf, dataStart(pos), getVarint(pos), CHARSET);
+    }
+
+    /** Reads an entry written by insertDouble / appendDouble. */
+    public double getDouble(int pos) {
+        int start = dataStart(pos);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buf[start + i] & 0xff);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public boolean equalsAt(int pos, byte[] value) {
+        int start = dataStart(pos);
+        return Arrays.equals(buf, start, start + getVarint(pos), value, 0, value.length);
+    }
+
+    /**
+     * Unsigned byte order comparison of the entry at pos with value.
+     */
+    public int compareAt(int pos, byte[] value) {
+        int start = dataStart(pos);
+        return Arrays.compareUnsigned(buf, start, start + getVarint(pos), value, 0, value.length);
+    }
+
+    /**
+     * Finds the first entry equal to value among entry 0, stride, 2 * stride...
+     * (stride 2 searches the keys of a pair layout).
+     *
+     * @return its position, or -1
+     */
+    public int find(byte[] value, int stride) {
+        for (int pos = first(); pos >= 0; ) {
+            if (equalsAt(pos, value)) {
+                return pos;
+            }
+            for (int i = 0; i < stride && pos >= 0; i++) {
+                pos = next(pos);
+            }
+        }
+        return -1;
+    }
+
+    public void append(byte[] value) {
+        insert(used, value);
+    }
+
+    public void appendDouble(double value) {
+        insertDouble(used, value);
+    }
+
+    /**
+     * Inserts value before the entry at pos (or at the end if pos == end()).
+     */
+    public void insert(int pos, byte[] value) {
+        int headerLength = varintLength(value.length);
+        open(pos, headerLength + value.length);
+        putVarint(pos, value.length);
+        System.arraycopy(value, 0, buf, pos + headerLength, value.length);
+        count++;
+    }
+
+    public void insertDouble(int pos, double value) {
+        open(pos, 9);
+        buf[pos] = 8;
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 7; i >= 0; i--) {
+            buf[pos + 1 + i] = (byte) bits;
+            bits >>>= 8;
+        }
+        count++;
+    }
+
+    /**
+     * Replaces the entry at pos; later positions may move.
+     */
+    public void replace(int pos, byte[] value) {
+        delete(pos, 1);
+        insert(pos, value);
+    }
+
+    public void replaceDouble(int pos, double value) {
+        delete(pos, 1);
+        insertDouble(pos, value);
+    }
+
+    /**
+     * Removes n consecutive entries starting at pos.
+     */
+    public void delete(int pos, int n) {
+        int end = pos;
+        for (int i = 0; i < n; i++) {
+            end = dataStart(end) + getVarint(end);
+        }
+        System.arraycopy(buf, end, buf, pos, used - end);
+        used -= end - pos;
+        count -= n;
+
+        if (buf.length > 64 && used < buf.length / 4) {
+            buf = Arrays.copyOf(buf, Math.max(used * 2, 32));
+        }
+    }
+
+    // Makes room for n bytes at pos
+    private void open(int pos, int n) {
+        if (used + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, used + n));
+        }
+        System.arraycopy(buf, pos, buf, pos + n, used - pos);
+        used += n;
+    }
+
+    private int dataStart(int pos) {
+        while ((buf[pos] & 0x80) != 0) {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private int getVarint(int pos) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = buf[pos++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private void putVarint(int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos] = (byte) value;
+    }
+
+    private static int varintLength(int value) {
+        int n = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+}
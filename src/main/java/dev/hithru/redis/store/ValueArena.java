@@ -0,0 +1,290 @@
+package dev.hithru.redis.store;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ValueArena
+ *
+ * Off-heap storage for value bytes, so big datasets don't sit in (and get
+ * scanned and copied by) the Java heap. The heap only keeps a long handle
+ * per value.
+ *
+ * - Memory comes in 1 MB direct-buffer slabs. Each slab is cut into chunks
+ *   of one size class (quarter steps between powers of two, 64 B to 1 MB,
+ *   like jemalloc), so waste per value stays under 25%.
+ * - Freed chunks go on their class's free list and are reused; slabs are
+ *   kept for the life of the arena, like memcached's. Values over the
+ *   largest class get a direct buffer of their own, dropped when freed.
+ * - A chunk is [int length][bytes].
+ * - Handle = (slab id + 1) << 32 | offset, so 0 means "no handle".
+ *
+ * Memory must not be reused while someone still reads it: a reply queued
+ * for the socket pins its chunk (pin/unpin), and a snapshot being written by
+ * another thread holds off all reuse until it is released. Frees in the
+ * meantime are deferred.
+ *
+ * Not thread-safe, apart from reading through a View and releasing it.
+ */
+final class ValueArena {
+
+    static final int SLAB_SIZE = 1024 * 1024;
+
+    private static final int HEADER = 4;
+    private static final int[] CLASS_SIZES = sizeClasses();
+
+    private ByteBuffer[] slabs = new ByteBuffer[16];
+    private int[] slabClasses = new int[16]; // -1 for a dedicated (huge) slab
+    private int slabCount;
+    private int[] freeSlabIds = new int[16];
+    private int freeSlabCount;
+
+    // Free chunk handles per size class
+    private final long[][] freeChunks = new long[CLASS_SIZES.length][];
+    private final int[] freeChunkCounts = new int[CLASS_SIZES.length];
+
+    // Handles queued for the socket, with their pin count
+    private final Map<Long, int[]> pins = new HashMap<>();
+    // Frees that have to wait for pins or snapshots
+    private long[] deferred = new long[16];
+    private int deferredCount;
+    private final AtomicInteger openViews = new AtomicInteger();
+
+    private long reservedBytes; // slabs
+    private long usedBytes;     // chunks holding a value
+
+    ValueArena() {
+        for (int i = 0; i < freeChunks.length; i++) {
+            freeChunks[i] = new long[16];
+        }
+    }
+
+    /**
+     * Copies value's remaining bytes into a new chunk.
+     *
+     * @return handle of the chunk
+     */
+    long store(ByteBuffer value) {
+        releaseDeferred();
+        int length = value.remaining();
+        long handle = allocate(length);
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        slab.putInt(offset, length);
+        slab.put(offset + HEADER, value, value.position(), length);
+        usedBytes += chunkSize(handle);
+        return handle;
+    }
+
+    /**
+     * Frees a chunk, or defers it while it may still be read.
+     */
+    void free(long handle) {
+        usedBytes -= chunkSize(handle);
+        int[] pinCount = pins.get(handle);
+        if (pinCount != null || openViews.get() > 0) {
+            if (deferredCount == deferred.length) {
+                deferred = Arrays.copyOf(deferred, deferredCount * 2);
+            }
+            deferred[deferredCount++] = handle;
+            return;
+        }
+        release(handle);
+    }
+
+    /**
+     * Bytes a value takes up, including its header and class rounding.
+     */
+    long chunkSize(long handle) {
+        int cls = slabClasses[slabId(handle)];
+        return cls < 0 ? slab(handle).capacity() : CLASS_SIZES[cls];
+    }
+
+    /**
+     * The value as a buffer over the slab; only valid until the chunk is
+     * freed, unless pinned.
+     */
+    ByteBuffer read(long handle) {
+        int offset = offset(handle);
+        ByteBuffer slab = slab(handle);
+        return slab.slice(offset + HEADER, slab.getInt(offset));
+    }
+
+    byte[] copy(long handle) {
+        ByteBuffer value = read(handle);
+        byte[] out = new byte[value.remaining()];
+        value.get(0, out);
+        return out;
+    }
+
+    /**
+     * Keeps a chunk from being reused until unpin(), even if freed.
+     */
+    void pin(long handle) {
+        pins.computeIfAbsent(handle, h -> new int[1])[0]++;
+    }
+
+    void unpin(long handle) {
+        int[] count = pins.get(handle);
+        if (count == null || --count[0] > 0) {
+            return;
+        }
+        pins.remove(handle);
+        releaseDeferred();
+    }
+
+    /**
+     * Read access for another thread. Until View.close(), nothing freed is
+     * reused, so every handle live now stays readable.
+     */
+    View view() {
+        openViews.incrementAndGet();
+        return new View(Arrays.copyOf(slabs, slabCount), openViews);
+    }
+
+    long reservedBytes() {
+        return reservedBytes;
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Snapshot-side reader, see view().
+     */
+    static final class View {
+        private final ByteBuffer[] slabs;
+        private final AtomicInteger openViews;
+        private boolean closed;
+
+        private View(ByteBuffer[] slabs, AtomicInteger openViews) {
+            this.slabs = slabs;
+            this.openViews = openViews;
+        }
+
+        byte[] copy(long handle) {
+            ByteBuffer slab = slabs[slabId(handle)];
+            int offset = offset(handle);
+            byte[] out = new byte[slab.getInt(offset)];
+            slab.get(offset + HEADER, out);
+            return out;
+        }
+
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                openViews.decrementAndGet();
+            }
+        }
+    }
+
+    private void releaseDeferred() {
+        if (deferredCount == 0 || openViews.get() > 0) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < deferredCount; i++) {
+            long handle = deferred[i];
+            if (pins.containsKey(handle)) {
+                deferred[kept++] = handle;
+            } else {
+                release(handle);
+            }
+        }
+        deferredCount = kept;
+    }
+
+    private void release(long handle) {
+        int slabId = slabId(handle);
+        int cls = slabClasses[slabId];
+        if (cls < 0) {
+            reservedBytes -= slabs[slabId].capacity();
+            slabs[slabId] = null;
+            if (freeSlabCount == freeSlabIds.length) {
+                freeSlabIds = Arrays.copyOf(freeSlabIds, freeSlabCount * 2);
+            }
+            freeSlabIds[freeSlabCount++] = slabId;
+            return;
+        }
+        if (freeChunkCounts[cls] == freeChunks[cls].length) {
+            freeChunks[cls] = Arrays.copyOf(freeChunks[cls], freeChunkCounts[cls] * 2);
+        }
+        freeChunks[cls][freeChunkCounts[cls]++] = handle;
+    }
+
+    private long allocate(int length) {
+        int needed = length + HEADER;
+        int cls = sizeClass(needed);
+        if (cls < 0) {
+            int slabId = newSlab(ByteBuffer.allocateDirect(needed), -1);
+            return handle(slabId, 0);
+        }
+
+        if (freeChunkCounts[cls] == 0) {
+            // Carve a new slab into chunks of this class
+            int size = CLASS_SIZES[cls];
+            int slabId = newSlab(ByteBuffer.allocateDirect(SLAB_SIZE), cls);
+            for (int offset = SLAB_SIZE - size; offset >= 0; offset -= size) {
+                release(handle(slabId, offset));
+            }
+        }
+        return freeChunks[cls][--freeChunkCounts[cls]];
+    }
+
+    private int newSlab(ByteBuffer slab, int cls) {
+        int slabId;
+        if (freeSlabCount > 0) {
+            slabId = freeSlabIds[--freeSlabCount];
+        } else {
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabCount * 2);
+                slabClasses = Arrays.copyOf(slabClasses, slabCount * 2);
+            }
+            slabId = slabCount++;
+        }
+        slabs[slabId] = slab;
+        slabClasses[slabId] = cls;
+        reservedBytes += slab.capacity();
+        return slabId;
+    }
+
+    private ByteBuffer slab(long handle) {
+        return slabs[slabId(handle)];
+    }
+
+    private static long handle(int slabId, int offset) {
+        return ((long) (slabId + 1) << 32) | offset;
+    }
+
+    private static int slabId(long handle) {
+        return (int) (handle >>> 32) - 1;
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    // Smallest class that fits, or -1 if bigger than a slab
+    private static int sizeClass(int size) {
+        int i = Arrays.binarySearch(CLASS_SIZES, size);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < CLASS_SIZES.length ? i : -1;
+    }
+
+    private static int[] sizeClasses() {
+        int[] sizes = new int[4 * 14 + 1];
+        int n = 0;
+        for (int base = 64; base < SLAB_SIZE; base <<= 1) {
+            for (int quarter = 0; quarter < 4; quarter++) {
+                sizes[n++] = base + quarter * (base / 4);
+            }
+        }
+        sizes[n++] = SLAB_SIZE;
+        return Arrays.copyOf(sizes, n);
+    }
+}
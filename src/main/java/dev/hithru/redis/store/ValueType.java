@@ -0,0 +1,49 @@
+package dev.hithru.redis.store;
+
+/**
+ * Type tag of a key in the keyspace. The ordinal is what KeyspaceDict and
+ * snapshots store, so new types go at the end.
+ */
+public enum ValueType {
+    STRING("string"),
+    LIST("list"),
+    HASH("hash"),
+    SET("set"),
+    ZSET("zset"),
+    STREAM("stream");
+
+    private static final ValueType[] BY_ORDINAL = values();
+
+    private final String typeName;
+
+    ValueType(String typeName) {
+        this.typeName = typeName;
+    }
+
+    /**
+     * Name as reported by TYPE.
+     */
+    public String typeName() {
+        return typeName;
+    }
+
+    /**
+     * @return the type TYPE reports as name (case-insensitive), or null
+     */
+    public static ValueType fromTypeName(String name) {
+        for (ValueType type : BY_ORDINAL) {
+            if (type.typeName.equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    static ValueType of(byte tag) {
+        return BY_ORDINAL[tag];
+    }
+
+    byte tag() {
+        return (byte) ordinal();
+    }
+}
@@ -0,0 +1,14 @@
+package dev.hithru.redis.store;
+
+/**
+ * Thrown by a store when a command's key holds a value of another type.
+ * Its message is the error Redis replies with.
+ */
+public class WrongTypeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public WrongTypeException() {
+        super("WRONGTYPE Operation against a key holding the wrong kind of value", null, false, false);
+    }
+}
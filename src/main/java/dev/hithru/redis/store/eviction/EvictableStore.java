@@ -0,0 +1,33 @@
+package dev.hithru.redis.store.eviction;
+
+/**
+ * A store the Evictor can free memory from.
+ */
+public interface EvictableStore {
+
+    /** Estimated bytes used by this store's keys and values. */
+    long usedMemory();
+
+    /**
+     * Reports count random keys (with repetition) and their access meta, for
+     * LRU/LFU sampling. Reports nothing if the store is empty.
+     */
+    void sampleKeys(int count, SampleConsumer consumer);
+
+    /** Key with a TTL that expires soonest, or null if no key has one. */
+    default String soonestExpiringKey() {
+        return null;
+    }
+
+    /**
+     * Removes the key as an eviction.
+     *
+     * @return false if the key no longer exists
+     */
+    boolean evict(String key);
+
+    @FunctionalInterface
+    interface SampleConsumer {
+        void accept(String key, int accessMeta);
+    }
+}
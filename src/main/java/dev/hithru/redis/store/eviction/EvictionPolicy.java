@@ -0,0 +1,70 @@
+package dev.hithru.redis.store.eviction;
+
+/**
+ * What to do when a write would go over maxmemory, and how key accesses are
+ * recorded for it.
+ *
+ * - NOEVICTION:   refuse writes with an OOM error
+ * - ALLKEYS_LRU:  evict the (approximately) least recently used key
+ * - ALLKEYS_LFU:  evict the (approximately) least frequently used key
+ * - VOLATILE_TTL: evict the key with a TTL that expires soonest
+ */
+public enum EvictionPolicy {
+    NOEVICTION("noeviction"),
+    ALLKEYS_LRU("allkeys-lru"),
+    ALLKEYS_LFU("allkeys-lfu"),
+    VOLATILE_TTL("volatile-ttl");
+
+    private final String configName;
+
+    EvictionPolicy(String configName) {
+        this.configName = configName;
+    }
+
+    public String configName() {
+        return configName;
+    }
+
+    public static EvictionPolicy fromConfigName(String name) {
+        for (EvictionPolicy policy : values()) {
+            if (policy.configName.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("unknown maxmemory policy '" + name + "'");
+    }
+
+    /**
+     * Access meta of a value that was just written: packed into one int the
+     * way Redis uses its 24-bit lru field. LRU policies keep the seconds
+     * clock of the last access; LFU keeps the minutes clock of the last decay
+     * (16 bits) and a Morris counter (8 bits).
+     */
+    public int createMeta() {
+        return this == ALLKEYS_LFU ? LfuCounter.initial() : lruClock();
+    }
+
+    /**
+     * Access meta after a read or update of a value that had meta.
+     */
+    public int accessMeta(int meta) {
+        return this == ALLKEYS_LFU ? LfuCounter.increment(meta) : lruClock();
+    }
+
+    /**
+     * Higher means a better eviction candidate.
+     */
+    long evictionScore(int meta) {
+        if (this == ALLKEYS_LFU) {
+            return 255 - LfuCounter.decayedCount(meta);
+        }
+        // Idle time in seconds; the clock wraps every 2^24 s (~194 days)
+        return (lruClock() - meta) & LRU_CLOCK_MAX;
+    }
+
+    private static final int LRU_CLOCK_MAX = (1 << 24) - 1;
+
+    private static int lruClock() {
+        return (int) (System.currentTimeMillis() / 1000) & LRU_CLOCK_MAX;
+    }
+}
@@ -0,0 +1,193 @@
+package dev.hithru.redis.store.eviction;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Evictor
+ *
+ * Enforces maxmemory over a set of stores. Called before every write:
+ * while the estimated memory is over the limit it evicts keys according to the
+ * policy, or reports that the write must be refused.
+ *
+ * LRU/LFU are approximated like Redis does: each round samples a few random
+ * keys per store and merges them into a small pool of the best candidates
+ * seen so far, so no global access-ordered list has to be maintained.
+ * VOLATILE_TTL needs no sampling: the stores' expiry index gives the exact
+ * soonest-expiring key.
+ *
+ * Every evicted key is reported to a callback, so the caller can log its
+ * deletion for the AOF and replicas like any other write.
+ */
+public class Evictor {
+
+    public static final int DEFAULT_SAMPLES = 5;
+
+    private static final int POOL_SIZE = 16;
+
+    private final long maxMemory; // 0 = unlimited
+    private final EvictionPolicy policy;
+    private final int samples;
+    private final List<EvictableStore> stores;
+    private final Consumer<String> onEvict;
+
+    // Candidates sorted by ascending score; the best one is at the end
+    private final long[] poolScores = new long[POOL_SIZE];
+    private final String[] poolKeys = new String[POOL_SIZE];
+    private final EvictableStore[] poolStores = new EvictableStore[POOL_SIZE];
+    private int poolSize;
+
+    private long evictedKeys;
+
+    public Evictor(long maxMemory, EvictionPolicy policy, int samples, List<EvictableStore> stores) {
+        this(maxMemory, policy, samples, stores, key -> { });
+    }
+
+    /**
+     * @param onEvict called with each key right after it is evicted
+     */
+    public Evictor(long maxMemory, EvictionPolicy policy, int samples, List<EvictableStore> stores,
+                   Consumer<String> onEvict) {
+        this.maxMemory = maxMemory;
+        this.policy = policy;
+        this.samples = samples;
+        this.stores = stores;
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * Evicts keys until used memory is within maxmemory.
+     *
+     * @return false if memory is still over the limit and the write should be
+     *         refused (noeviction, or nothing left that the policy may evict)
+     */
+    public boolean ensureMemory() {
+        if (maxMemory <= 0) {
+            return true;
+        }
+
+        while (usedMemory() > maxMemory) {
+            if (policy == EvictionPolicy.NOEVICTION || !evictOne()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long usedMemory() {
+        long total = 0;
+        for (EvictableStore store : stores) {
+            total += store.usedMemory();
+        }
+        return total;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getEvictedKeys() {
+        return evictedKeys;
+    }
+
+    private boolean evictOne() {
+        if (policy == EvictionPolicy.VOLATILE_TTL) {
+            return evictSoonestExpiring();
+        }
+
+        // A few rounds in case every pooled candidate turned out to be stale
+        for (int round = 0; round < 8; round++) {
+            populatePool();
+            if (poolSize == 0) {
+                return false;
+            }
+
+            while (poolSize > 0) {
+                int best = --poolSize;
+                String key = poolKeys[best];
+                EvictableStore store = poolStores[best];
+                poolKeys[best] = null;
+                poolStores[best] = null;
+
+                // Skip candidates that were deleted since sampling
+                if (store.evict(key)) {
+                    evicted(key);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean evictSoonestExpiring() {
+        // Only stores with TTL support return a key here
+        for (EvictableStore store : stores) {
+            String key = store.soonestExpiringKey();
+            if (key != null && store.evict(key)) {
+                evicted(key);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evicted(String key) {
+        evictedKeys++;
+        onEvict.accept(key);
+    }
+
+    private void populatePool() {
+        for (EvictableStore store : stores) {
+            store.sampleKeys(samples, (key, accessMeta) ->
+                    insertIntoPool(policy.evictionScore(accessMeta), key, store));
+        }
+    }
+
+    private void insertIntoPool(long score, String key, EvictableStore store) {
+        for (int i = 0; i < poolSize; i++) {
+            if (poolStores[i] == store && poolKeys[i].equals(key)) {
+                return; // already a candidate
+            }
+        }
+
+        // Find the first slot with a higher score
+        int pos = 0;
+        while (pos < poolSize && poolScores[pos] < score) {
+            pos++;
+        }
+
+        if (poolSize == POOL_SIZE) {
+            if (pos == 0) {
+                return; // worse than everything in a full pool
+            }
+            // Drop the worst candidate to make room
+            shiftLeft(pos - 1);
+            pos--;
+        } else {
+            shiftRight(pos);
+            poolSize++;
+        }
+
+        poolScores[pos] = score;
+        poolKeys[pos] = key;
+        poolStores[pos] = store;
+    }
+
+    // Moves [1, upTo] one slot to the left, overwriting slot 0
+    private void shiftLeft(int upTo) {
+        System.arraycopy(poolScores, 1, poolScores, 0, upTo);
+        System.arraycopy(poolKeys, 1, poolKeys, 0, upTo);
+        System.arraycopy(poolStores, 1, poolStores, 0, upTo);
+    }
+
+    // Moves [from, poolSize) one slot to the right
+    private void shiftRight(int from) {
+        int count = poolSize - from;
+        System.arraycopy(poolScores, from, poolScores, from + 1, count);
+        System.arraycopy(poolKeys, from, poolKeys, from + 1, count);
+        System.arraycopy(poolStores, from, poolStores, from + 1, count);
+    }
+}
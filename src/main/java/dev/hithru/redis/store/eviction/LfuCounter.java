@@ -0,0 +1,61 @@
+package dev.hithru.redis.store.eviction;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * LfuCounter
+ *
+ * Redis-style logarithmic access counter packed into 24 bits:
+ *   [16 bits: minutes clock of last decay][8 bits: Morris counter]
+ *
+ * The counter is incremented with probability 1 / ((counter - INIT) * LOG_FACTOR + 1),
+ * so 8 bits cover millions of accesses, and it loses one point per DECAY_MINUTES
+ * of inactivity so old hot keys cool down.
+ */
+final class LfuCounter {
+
+    static final int INIT_VALUE = 5;
+
+    private static final int LOG_FACTOR = 10;
+    private static final int DECAY_MINUTES = 1;
+
+    private LfuCounter() {
+        // utility class, no instances
+    }
+
+    static int initial() {
+        return pack(minutesClock(), INIT_VALUE);
+    }
+
+    static int increment(int meta) {
+        int counter = decayedCount(meta);
+
+        if (counter < 255) {
+            double base = Math.max(0, counter - INIT_VALUE);
+            double p = 1.0 / (base * LOG_FACTOR + 1);
+            if (ThreadLocalRandom.current().nextDouble() < p) {
+                counter++;
+            }
+        }
+        return pack(minutesClock(), counter);
+    }
+
+    /**
+     * Counter value after applying the decay owed since the last access.
+     */
+    static int decayedCount(int meta) {
+        int lastDecay = meta >>> 8;
+        int counter = meta & 0xff;
+
+        int elapsed = (minutesClock() - lastDecay) & 0xffff;
+        int periods = elapsed / DECAY_MINUTES;
+        return periods >= counter ? 0 : counter - periods;
+    }
+
+    private static int pack(int minutes, int counter) {
+        return (minutes << 8) | counter;
+    }
+
+    private static int minutesClock() {
+        return (int) (System.currentTimeMillis() / 60_000) & 0xffff;
+    }
+}
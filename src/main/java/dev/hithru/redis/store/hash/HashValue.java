@@ -0,0 +1,158 @@
+package dev.hithru.redis.store.hash;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.hithru.redis.store.CollectionValue;
+import dev.hithru.redis.store.ListPack;
+
+/**
+ * A hash value in one of two encodings, like Redis:
+ *  - listpack:  field, value, field, value... in a ListPack, while the hash
+ *               is small (few entries, short fields and values)
+ *  - hashtable: a HashMap, once either limit is exceeded; never converts back
+ */
+final class HashValue implements CollectionValue {
+
+    static final String LISTPACK = "listpack";
+    static final String HASHTABLE = "hashtable";
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    // Map node, table slot, two Strings with their arrays
+    private static final long MAP_ENTRY_OVERHEAD = 120;
+
+    private ListPack pack = new ListPack();
+    private HashMap<String, String> map;
+    private long mapBytes; // payload of the map entries
+
+    /**
+     * @return true if field is new
+     */
+    boolean set(String field, String value, int maxPackEntries, int maxPackValue) {
+        if (pack != null) {
+            if (field.length() > maxPackValue || value.length() > maxPackValue) {
+                convert();
+            } else {
+                byte[] fieldBytes = field.getBytes(CHARSET);
+                int pos = pack.find(fieldBytes, 2);
+                if (pos >= 0) {
+                    pack.replace(pack.next(pos), value.getBytes(CHARSET));
+                    return false;
+                }
+                if (pack.size() / 2 < maxPackEntries) {
+                    pack.append(fieldBytes);
+                    pack.append(value.getBytes(CHARSET));
+                    return true;
+                }
+                convert();
+            }
+        }
+
+        String previous = map.put(field, value);
+        if (previous == null) {
+            mapBytes += MAP_ENTRY_OVERHEAD + field.length() + value.length();
+            return true;
+        }
+        mapBytes += value.length() - previous.length();
+        return false;
+    }
+
+    String get(String field) {
+        if (pack == null) {
+            return map.get(field);
+        }
+        int pos = pack.find(field.getBytes(CHARSET), 2);
+        return pos < 0 ? null : pack.getString(pack.next(pos));
+    }
+
+    /**
+     * @return true if field existed
+     */
+    boolean delete(String field) {
+        if (pack == null) {
+            String previous = map.remove(field);
+            if (previous == null) {
+                return false;
+            }
+            mapBytes -= MAP_ENTRY_OVERHEAD + field.length() + previous.length();
+            return true;
+        }
+        int pos = pack.find(field.getBytes(CHARSET), 2);
+        if (pos < 0) {
+            return false;
+        }
+        pack.delete(pos, 2);
+        return true;
+    }
+
+    int size() {
+        return pack == null ? map.size() : pack.size() / 2;
+    }
+
+    /**
+     * Field, value, field, value...
+     */
+    List<String> toList() {
+        List<String> out = new ArrayList<>(size() * 2);
+        if (pack == null) {
+            for (Map.Entry<String, String> e : map.entrySet()) {
+                out.add(e.getKey());
+                out.add(e.getValue());
+            }
+            return out;
+        }
+        for (int pos = pack.first(); pos >= 0; pos = pack.next(pos)) {
+            out.add(pack.getString(pos));
+        }
+        return out;
+    }
+
+    @Override
+    public long memoryUsage() {
+        return pack == null ? 48 + map.size() * 8L + mapBytes : pack.memoryUsage();
+    }
+
+    @Override
+    public String encoding() {
+        return pack == null ? HASHTABLE : LISTPACK;
+    }
+
+    /**
+     * Field, value, field, value...: the pack as it is, or the map flattened
+     * by whoever iterates.
+     */
+    @Override
+    public Iterable<String> items() {
+        return pack == null ? () -> toList().iterator() : pack;
+    }
+
+    @Override
+    public HashValue copy() {
+        HashValue copy = new HashValue();
+        if (pack == null) {
+            copy.pack = null;
+            copy.map = new HashMap<>(map);
+            copy.mapBytes = mapBytes;
+        } else {
+            copy.pack = pack.copy();
+        }
+        return copy;
+    }
+
+    private void convert() {
+        map = new HashMap<>(pack.size());
+        for (int pos = pack.first(); pos >= 0; ) {
+            String field = pack.getString(pos);
+            pos = pack.next(pos);
+            String value = pack.getString(pos);
+            pos = pack.next(pos);
+            map.put(field, value);
+            mapBytes += MAP_ENTRY_OVERHEAD + field.length() + value.length();
+        }
+        pack = null;
+    }
+}
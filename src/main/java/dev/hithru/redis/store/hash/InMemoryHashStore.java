@@ -0,0 +1,128 @@
+package dev.hithru.redis.store.hash;
+
+import java.util.*;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+
+/**
+ * Hash commands (HSET, HGET, HDEL, HGETALL) over the shared keyspace.
+ *
+ *  - Small hashes are a ListPack of field/value pairs; once a hash has more
+ *    than maxListpackEntries fields, or a field or value longer than
+ *    maxListpackValue bytes, it is converted to a HashMap for good
+ *    (Redis' hash-max-listpack-entries / hash-max-listpack-value)
+ *  - A hash whose last field is deleted is removed
+ *  - Hashes live in the InMemoryKeyValueStore with every other key; this
+ *    class only reports size changes. A key of another type throws
+ *    WrongTypeException
+ */
+public class InMemoryHashStore {
+
+    public static final int DEFAULT_MAX_LISTPACK_ENTRIES = 128;
+    public static final int DEFAULT_MAX_LISTPACK_VALUE = 64;
+
+    private final InMemoryKeyValueStore keyspace;
+
+    private int maxListpackEntries = DEFAULT_MAX_LISTPACK_ENTRIES;
+    private int maxListpackValue = DEFAULT_MAX_LISTPACK_VALUE;
+
+    public InMemoryHashStore(InMemoryKeyValueStore keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * A store with a keyspace of its own.
+     */
+    public InMemoryHashStore() {
+        this(new InMemoryKeyValueStore());
+    }
+
+    /**
+     * Limits for the compact encoding; only affects hashes growing from now on.
+     */
+    public void setListpackLimits(int maxEntries, int maxValue) {
+        this.maxListpackEntries = maxEntries;
+        this.maxListpackValue = maxValue;
+    }
+
+    /**
+     * HSET key field value [field value ...] -> number of fields added
+     */
+    public int hset(String key, List<String> fieldsAndValues) {
+        HashValue hash = getOrCreate(key);
+        long before = hash.memoryUsage();
+        int added = 0;
+        for (int i = 0; i + 1 < fieldsAndValues.size(); i += 2) {
+            if (hash.set(fieldsAndValues.get(i), fieldsAndValues.get(i + 1),
+                    maxListpackEntries, maxListpackValue)) {
+                added++;
+            }
+        }
+        keyspace.resized(hash.memoryUsage() - before);
+        return added;
+    }
+
+    /**
+     * HGET key field -> value, or null if the key or field is missing
+     */
+    public String hget(String key, String field) {
+        HashValue hash = lookup(key);
+        return hash == null ? null : hash.get(field);
+    }
+
+    /**
+     * HDEL key field... -> number of fields removed.
+     * The key is removed with its last field.
+     */
+    public int hdel(String key, List<String> fields) {
+        HashValue hash = lookupForWrite(key);
+        if (hash == null) {
+            return 0;
+        }
+
+        long before = hash.memoryUsage();
+        int removed = 0;
+        for (String field : fields) {
+            if (hash.delete(field)) {
+                removed++;
+            }
+        }
+        keyspace.resized(hash.memoryUsage() - before);
+
+        if (hash.size() == 0) {
+            keyspace.delete(key);
+        }
+        return removed;
+    }
+
+    /**
+     * HGETALL key -> field, value, field, value... (empty if missing)
+     */
+    public List<String> hgetall(String key) {
+        HashValue hash = lookup(key);
+        return hash == null ? Collections.emptyList() : hash.toList();
+    }
+
+    public int hlen(String key) {
+        HashValue hash = lookup(key);
+        return hash == null ? 0 : hash.size();
+    }
+
+    private HashValue lookup(String key) {
+        return (HashValue) keyspace.lookup(key, ValueType.HASH);
+    }
+
+    private HashValue lookupForWrite(String key) {
+        return (HashValue) keyspace.lookupForWrite(key, ValueType.HASH);
+    }
+
+    private HashValue getOrCreate(String key) {
+        HashValue hash = lookupForWrite(key);
+        if (hash == null) {
+            hash = new HashValue();
+            keyspace.add(key, ValueType.HASH, hash);
+        }
+        return hash;
+    }
+}
@@ -2,22 +2,45 @@ package dev.hithru.redis.store.list;
 
 import java.util.*;
 
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+
 /**
- * Simple in-memory store for Redis-style lists.
+ * List commands over the shared keyspace.
  * For now:
  *  - RPUSH appends elements to the right
+ *  - LMOVE moves an element between lists (or rotates one)
  *  - If the list does not exist, it's created
+ *  - Each list is a QuickList: packed byte-array nodes, O(1) push/pop at both ends
+ *  - Lists live in the InMemoryKeyValueStore with every other key, so they can
+ *    expire and be evicted like strings; this class only reports size changes
+ *  - A key of another type throws WrongTypeException
  */
 public class InMemoryListStore {
 
-    private final Map<String, List<String>> lists = new HashMap<>();
+    private final InMemoryKeyValueStore keyspace;
+
+    public InMemoryListStore(InMemoryKeyValueStore keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * A store with a keyspace of its own.
+     */
+    public InMemoryListStore() {
+        this(new InMemoryKeyValueStore());
+    }
 
     /**
      * RPUSH key value... -> returns new length
      */
     public int rpush(String key, List<String> values) {
-        List<String> list = lists.computeIfAbsent(key, k -> new ArrayList<>());
-        list.addAll(values);
+        QuickList list = getOrCreate(key);
+        long before = list.memoryUsage();
+        for (String value : values) {
+            list.pushBack(value);
+        }
+        keyspace.resized(list.memoryUsage() - before);
         return list.size();
     }
 
@@ -28,10 +51,12 @@ public class InMemoryListStore {
      * results in list [c, b, a].
      */
     public int lpush(String key, List<String> values) {
-        List<String> list = lists.computeIfAbsent(key, k -> new ArrayList<>());
+        QuickList list = getOrCreate(key);
+        long before = list.memoryUsage();
         for (String value : values) {
-            list.add(0, value);
+            list.pushFront(value);
         }
+        keyspace.resized(list.memoryUsage() - before);
         return list.size();
     }
 
@@ -47,7 +72,7 @@ public class InMemoryListStore {
      *  - start > stop -> empty
      */
     public List<String> lrange(String key, int start, int stop) {
-        List<String> list = lists.get(key);
+        QuickList list = lookup(key);
         if (list == null) {
             return Collections.emptyList();
         }
@@ -89,7 +114,7 @@ public class InMemoryListStore {
         }
 
         // Return a copy of the slice [start, stop] inclusive
-        return new ArrayList<>(list.subList(start, stop + 1));
+        return list.range(start, stop);
     }
     
     /**
@@ -97,55 +122,125 @@ public class InMemoryListStore {
      * If the list becomes empty after pop, the key is removed.
      */
     public String lpop(String key) {
-        List<String> list = lists.get(key);
+        return pop(key, true);
+    }
+
+    /**
+     * RPOP key -> like lpop(), from the tail.
+     */
+    public String rpop(String key) {
+        return pop(key, false);
+    }
+
+    /**
+     * LPOP key count -> returns up to 'count' removed elements from the head.
+     * If list has fewer than 'count' elements, all are removed.
+     * If list missing or empty, returns an empty list.
+     */
+    public List<String> lpopMany(String key, int count) {
+        return popMany(key, count, true);
+    }
+
+    /**
+     * RPOP key count -> like lpopMany(), from the tail.
+     */
+    public List<String> rpopMany(String key, int count) {
+        return popMany(key, count, false);
+    }
+
+    /**
+     * LMOVE source destination LEFT|RIGHT LEFT|RIGHT -> pops an element from
+     * one end of source and pushes it onto one end of destination (which may
+     * be the same list), creating destination if needed.
+     * The destination's type is checked before anything is popped.
+     *
+     * @return the element moved, or null if source is missing
+     */
+    public String lmove(String source, String destination, boolean fromLeft, boolean toLeft) {
+        lookup(destination);
+        String value = pop(source, fromLeft);
+        if (value == null) {
+            return null;
+        }
+        QuickList list = getOrCreate(destination);
+        long before = list.memoryUsage();
+        if (toLeft) {
+            list.pushFront(value);
+        } else {
+            list.pushBack(value);
+        }
+        keyspace.resized(list.memoryUsage() - before);
+        return value;
+    }
+
+    private String pop(String key, boolean left) {
+        QuickList list = lookupForWrite(key);
         if (list == null || list.isEmpty()) {
             return null;
         }
 
-        String value = list.remove(0);
+        long before = list.memoryUsage();
+        String value = left ? list.popFront() : list.popBack();
+        keyspace.resized(list.memoryUsage() - before);
 
         // Match Redis behavior: delete key when list becomes empty
         if (list.isEmpty()) {
-            lists.remove(key);
+            keyspace.delete(key);
         }
 
         return value;
     }
 
-    /**
-     * LPOP key count -> returns up to 'count' removed elements from the head.
-     * If list has fewer than 'count' elements, all are removed.
-     * If list missing or empty, returns an empty list.
-     */
-    public List<String> lpopMany(String key, int count) {
-        List<String> list = lists.get(key);
+    private List<String> popMany(String key, int count, boolean left) {
+        QuickList list = lookupForWrite(key);
         if (list == null || list.isEmpty() || count <= 0) {
             return Collections.emptyList();
         }
 
         int actualCount = Math.min(count, list.size());
 
-        List<String> removed = new ArrayList<>(list.subList(0, actualCount));
-        // Remove the first actualCount elements
-        list.subList(0, actualCount).clear();
+        // Remove actualCount elements from that end
+        long before = list.memoryUsage();
+        List<String> removed = new ArrayList<>(actualCount);
+        for (int i = 0; i < actualCount; i++) {
+            removed.add(left ? list.popFront() : list.popBack());
+        }
+        keyspace.resized(list.memoryUsage() - before);
 
         if (list.isEmpty()) {
-            lists.remove(key);
+            keyspace.delete(key);
         }
 
         return removed;
     }
 
+    /**
+     * Copy of the whole list, or null if the key doesn't exist.
+     */
     public List<String> getList(String key) {
-        return lists.get(key);
-    }
-
-    public boolean exists(String key) {
-        return lists.containsKey(key);
+        QuickList list = lookup(key);
+        return list == null ? null : list.toList();
     }
 
     public int size(String key) {
-        List<String> list = lists.get(key);
+        QuickList list = lookup(key);
         return list == null ? 0 : list.size();
     }
+
+    private QuickList lookup(String key) {
+        return (QuickList) keyspace.lookup(key, ValueType.LIST);
+    }
+
+    private QuickList lookupForWrite(String key) {
+        return (QuickList) keyspace.lookupForWrite(key, ValueType.LIST);
+    }
+
+    private QuickList getOrCreate(String key) {
+        QuickList list = lookupForWrite(key);
+        if (list == null) {
+            list = new QuickList();
+            keyspace.add(key, ValueType.LIST, list);
+        }
+        return list;
+    }
 }
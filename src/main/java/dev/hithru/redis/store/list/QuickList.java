@@ -0,0 +1,404 @@
+package dev.hithru.redis.store.list;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import dev.hithru.redis.store.CollectionValue;
+
+/**
+ * QuickList
+ *
+ * List encoding modelled on Redis' quicklist: a doubly-linked list of nodes,
+ * each a byte array packing up to NODE_SIZE bytes of elements back to back
+ * (like a listpack). Compared to an ArrayList of Strings:
+ *  - push/pop at both ends are O(1); nothing is shifted
+ *  - an element costs its bytes plus 2-6 bytes of length headers instead of
+ *    a String object, its byte[] and an array slot
+ *  - index seeks skip whole nodes by their element count
+ *
+ * Entry layout inside a node (readable in both directions):
+ *   [len: varint][bytes][backlen: reversed varint of the bytes before it]
+ *
+ * Each node keeps its live bytes in [start, end): nodes made by pushes at the
+ * tail grow to the right, nodes made by pushes at the head grow to the left,
+ * and pops just move start/end.
+ */
+final class QuickList implements Iterable<String>, CollectionValue {
+
+    // Same byte <-> char mapping as the protocol layer
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    // Target packed size of one node (Redis' list-max-listpack-size -2 is 8 KB)
+    static final int NODE_SIZE = 8 * 1024;
+
+    // Object header, fields and array header of a Node, for memory estimates
+    private static final int NODE_OVERHEAD = 48;
+
+    private static final class Node {
+        Node prev;
+        Node next;
+        final byte[] buf;
+        int start;
+        int end;
+        int count;
+
+        Node(int capacity, boolean growsLeft) {
+            buf = new byte[capacity];
+            start = end = growsLeft ? capacity : 0;
+        }
+
+        Node(Node other) {
+            buf = other.buf.clone();
+            start = other.start;
+            end = other.end;
+            count = other.count;
+        }
+    }
+
+    private Node head;
+    private Node tail;
+    private int size;
+    private int nodeCount;
+    private long allocatedBytes;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Bytes held by the nodes, including free space inside them.
+     */
+    @Override
+    public long memoryUsage() {
+        return allocatedBytes + (long) nodeCount * NODE_OVERHEAD;
+    }
+
+    @Override
+    public String encoding() {
+        return "quicklist";
+    }
+
+    @Override
+    public Iterable<String> items() {
+        return this;
+    }
+
+    void pushFront(String value) {
+        int length = value.length();
+        int entrySize = entrySize(length);
+
+        if (head == null || head.start < entrySize) {
+            Node node = new Node(Math.max(NODE_SIZE, entrySize), true);
+            linkFront(node);
+        }
+
+        Node node = head;
+        int pos = node.start - entrySize;
+        writeEntry(node.buf, pos, value, length);
+        node.start = pos;
+        node.count++;
+        size++;
+    }
+
+    void pushBack(String value) {
+        int length = value.length();
+        int entrySize = entrySize(length);
+
+        if (tail == null || tail.buf.length - tail.end < entrySize) {
+            Node node = new Node(Math.max(NODE_SIZE, entrySize), false);
+            linkBack(node);
+        }
+
+        Node node = tail;
+        writeEntry(node.buf, node.end, value, length);
+        node.end += entrySize;
+        node.count++;
+        size++;
+    }
+
+    /**
+     * Removes and returns the first element, or null if empty.
+     */
+    String popFront() {
+        if (head == null) {
+            return null;
+        }
+
+        Node node = head;
+        byte[] buf = node.buf;
+        int pos = node.start;
+
+        long header = readVarint(buf, pos);
+        int length = (int) (header >>> 8);
+        int dataStart = pos + (int) (header & 0xff);
+        String value = new String(buf, dataStart, length, CHARSET);
+
+        node.start = dataStart + length + varintSize(dataStart + length - pos);
+        removedFrom(node);
+        return value;
+    }
+
+    /**
+     * Removes and returns the last element, or null if empty.
+     */
+    String popBack() {
+        if (tail == null) {
+            return null;
+        }
+
+        Node node = tail;
+        byte[] buf = node.buf;
+
+        long back = readBackVarint(buf, node.end - 1);
+        int backlenSize = (int) (back & 0xff);
+        int entryStart = node.end - backlenSize - (int) (back >>> 8);
+
+        long header = readVarint(buf, entryStart);
+        int length = (int) (header >>> 8);
+        String value = new String(buf, entryStart + (int) (header & 0xff), length, CHARSET);
+
+        node.end = entryStart;
+        removedFrom(node);
+        return value;
+    }
+
+    /**
+     * Elements [start, stop] inclusive; indexes must already be in range.
+     */
+    List<String> range(int start, int stop) {
+        List<String> out = new ArrayList<>(stop - start + 1);
+        if (start > stop) {
+            return out;
+        }
+
+        // Find the node holding `start`, skipping whole nodes from the nearer end
+        Node node;
+        int nodeFirstIndex;
+        if (start < size / 2) {
+            node = head;
+            nodeFirstIndex = 0;
+            while (start >= nodeFirstIndex + node.count) {
+                nodeFirstIndex += node.count;
+                node = node.next;
+            }
+        } else {
+            node = tail;
+            nodeFirstIndex = size - tail.count;
+            while (start < nodeFirstIndex) {
+                node = node.prev;
+                nodeFirstIndex -= node.count;
+            }
+        }
+
+        // Skip entries inside that node
+        int pos = node.start;
+        for (int i = nodeFirstIndex; i < start; i++) {
+            pos = skipEntry(node.buf, pos);
+        }
+
+        int remaining = stop - start + 1;
+        while (remaining > 0) {
+            if (pos >= node.end) {
+                node = node.next;
+                pos = node.start;
+            }
+            long header = readVarint(node.buf, pos);
+            int length = (int) (header >>> 8);
+            int dataStart = pos + (int) (header & 0xff);
+            out.add(new String(node.buf, dataStart, length, CHARSET));
+            pos = dataStart + length + varintSize(dataStart + length - pos);
+            remaining--;
+        }
+        return out;
+    }
+
+    List<String> toList() {
+        return range(0, size - 1);
+    }
+
+    /**
+     * Independent copy; clones node arrays without decoding any element.
+     */
+    @Override
+    public QuickList copy() {
+        QuickList copy = new QuickList();
+        for (Node node = head; node != null; node = node.next) {
+            copy.linkBack(new Node(node));
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Head to tail. The list must not be modified while iterating.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private Node node = head;
+            private int pos = head == null ? 0 : head.start;
+
+            @Override
+            public boolean hasNext() {
+                return node != null;
+            }
+
+            @Override
+            public String next() {
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                long header = readVarint(node.buf, pos);
+                int length = (int) (header >>> 8);
+                int dataStart = pos + (int) (header & 0xff);
+                String value = new String(node.buf, dataStart, length, CHARSET);
+
+                pos = dataStart + length + varintSize(dataStart + length - pos);
+                if (pos >= node.end) {
+                    node = node.next;
+                    pos = node == null ? 0 : node.start;
+                }
+                return value;
+            }
+        };
+    }
+
+    private void removedFrom(Node node) {
+        node.count--;
+        size--;
+        if (node.count == 0) {
+            unlink(node);
+        }
+    }
+
+    private void linkFront(Node node) {
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        head = node;
+        nodeCount++;
+        allocatedBytes += node.buf.length;
+    }
+
+    private void linkBack(Node node) {
+        node.prev = tail;
+        if (tail != null) {
+            tail.next = node;
+        } else {
+            head = node;
+        }
+        tail = node;
+        nodeCount++;
+        allocatedBytes += node.buf.length;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        nodeCount--;
+        allocatedBytes -= node.buf.length;
+    }
+
+    private static int entrySize(int length) {
+        int headerSize = varintSize(length);
+        return headerSize + length + varintSize(headerSize + length);
+    }
+
+    private static void writeEntry(byte[] buf, int pos, String value, int length) {
+        int p = writeVarint(buf, pos, length);
+        for (int i = 0; i < length; i++) {
+            buf[p++] = (byte) value.charAt(i);
+        }
+        writeBackVarint(buf, p, p - pos);
+    }
+
+    private static int skipEntry(byte[] buf, int pos) {
+        long header = readVarint(buf, pos);
+        int end = pos + (int) (header & 0xff) + (int) (header >>> 8);
+        return end + varintSize(end - pos);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Little-endian base-128, high bit = more bytes follow
+    private static int writeVarint(byte[] buf, int pos, int value) {
+        while (value >= 0x80) {
+            buf[pos++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * @return (value << 8) | bytes read
+     */
+    private static long readVarint(byte[] buf, int pos) {
+        int value = 0;
+        int shift = 0;
+        int read = 0;
+        while (true) {
+            int b = buf[pos + read++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return ((long) value << 8) | read;
+            }
+            shift += 7;
+        }
+    }
+
+    // Same groups as writeVarint, mirrored so it can be read from its last byte
+    private static void writeBackVarint(byte[] buf, int pos, int value) {
+        int size = varintSize(value);
+        int p = pos + size - 1;
+        while (value >= 0x80) {
+            buf[p--] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buf[p] = (byte) value;
+    }
+
+    /**
+     * Reads a backlen ending at `last`.
+     *
+     * @return (value << 8) | bytes read
+     */
+    private static long readBackVarint(byte[] buf, int last) {
+        int value = 0;
+        int shift = 0;
+        int read = 0;
+        while (true) {
+            int b = buf[last - read++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return ((long) value << 8) | read;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package dev.hithru.redis.store.set;
+
+import java.util.*;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+
+/**
+ * Set commands (SADD, SREM, SISMEMBER, SMEMBERS) over the shared keyspace.
+ *
+ *  - Small sets are a ListPack of members; once a set has more than
+ *    maxListpackEntries members, or one longer than maxListpackValue bytes,
+ *    it is converted to a HashSet for good (Redis' set-max-listpack-entries /
+ *    set-max-listpack-value)
+ *  - A set whose last member is removed is deleted
+ *  - Sets live in the InMemoryKeyValueStore with every other key; this
+ *    class only reports size changes. A key of another type throws
+ *    WrongTypeException
+ */
+public class InMemorySetStore {
+
+    public static final int DEFAULT_MAX_LISTPACK_ENTRIES = 128;
+    public static final int DEFAULT_MAX_LISTPACK_VALUE = 64;
+
+    private final InMemoryKeyValueStore keyspace;
+
+    private int maxListpackEntries = DEFAULT_MAX_LISTPACK_ENTRIES;
+    private int maxListpackValue = DEFAULT_MAX_LISTPACK_VALUE;
+
+    public InMemorySetStore(InMemoryKeyValueStore keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * A store with a keyspace of its own.
+     */
+    public InMemorySetStore() {
+        this(new InMemoryKeyValueStore());
+    }
+
+    /**
+     * Limits for the compact encoding; only affects sets growing from now on.
+     */
+    public void setListpackLimits(int maxEntries, int maxValue) {
+        this.maxListpackEntries = maxEntries;
+        this.maxListpackValue = maxValue;
+    }
+
+    /**
+     * SADD key member... -> number of members added
+     */
+    public int sadd(String key, List<String> members) {
+        SetValue set = getOrCreate(key);
+        long before = set.memoryUsage();
+        int added = 0;
+        for (String member : members) {
+            if (set.add(member, maxListpackEntries, maxListpackValue)) {
+                added++;
+            }
+        }
+        keyspace.resized(set.memoryUsage() - before);
+        return added;
+    }
+
+    /**
+     * SREM key member... -> number of members removed.
+     * The key is removed with its last member.
+     */
+    public int srem(String key, List<String> members) {
+        SetValue set = lookupForWrite(key);
+        if (set == null) {
+            return 0;
+        }
+
+        long before = set.memoryUsage();
+        int removed = 0;
+        for (String member : members) {
+            if (set.remove(member)) {
+                removed++;
+            }
+        }
+        keyspace.resized(set.memoryUsage() - before);
+
+        if (set.size() == 0) {
+            keyspace.delete(key);
+        }
+        return removed;
+    }
+
+    public boolean sismember(String key, String member) {
+        SetValue set = lookup(key);
+        return set != null && set.contains(member);
+    }
+
+    /**
+     * SMEMBERS key -> all members in no particular order (empty if missing)
+     */
+    public List<String> smembers(String key) {
+        SetValue set = lookup(key);
+        return set == null ? Collections.emptyList() : set.toList();
+    }
+
+    public int scard(String key) {
+        SetValue set = lookup(key);
+        return set == null ? 0 : set.size();
+    }
+
+    private SetValue lookup(String key) {
+        return (SetValue) keyspace.lookup(key, ValueType.SET);
+    }
+
+    private SetValue lookupForWrite(String key) {
+        return (SetValue) keyspace.lookupForWrite(key, ValueType.SET);
+    }
+
+    private SetValue getOrCreate(String key) {
+        SetValue set = lookupForWrite(key);
+        if (set == null) {
+            set = new SetValue();
+            keyspace.add(key, ValueType.SET, set);
+        }
+        return set;
+    }
+}
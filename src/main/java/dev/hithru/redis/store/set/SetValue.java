@@ -0,0 +1,142 @@
+package dev.hithru.redis.store.set;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import dev.hithru.redis.store.CollectionValue;
+import dev.hithru.redis.store.ListPack;
+
+/**
+ * A set value in one of two encodings, like Redis:
+ *  - listpack:  members in a ListPack, in insertion order, while the set is
+ *               small (few members, all short)
+ *  - hashtable: a HashSet, once either limit is exceeded; never converts back
+ *
+ * Redis also has an intset encoding for sets of integers; here those start
+ * as a listpack like any other small set.
+ */
+final class SetValue implements CollectionValue {
+
+    static final String LISTPACK = "listpack";
+    static final String HASHTABLE = "hashtable";
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    // Map node, table slot, String with its array
+    private static final long SET_ENTRY_OVERHEAD = 88;
+
+    private ListPack pack = new ListPack();
+    private HashSet<String> set;
+    private long setBytes; // payload of the set entries
+
+    /**
+     * @return true if member is new
+     */
+    boolean add(String member, int maxPackEntries, int maxPackValue) {
+        if (pack != null) {
+            if (member.length() > maxPackValue) {
+                convert();
+            } else {
+                byte[] bytes = member.getBytes(CHARSET);
+                if (pack.find(bytes, 1) >= 0) {
+                    return false;
+                }
+                if (pack.size() < maxPackEntries) {
+                    pack.append(bytes);
+                    return true;
+                }
+                convert();
+            }
+        }
+
+        if (!set.add(member)) {
+            return false;
+        }
+        setBytes += SET_ENTRY_OVERHEAD + member.length();
+        return true;
+    }
+
+    /**
+     * @return true if member existed
+     */
+    boolean remove(String member) {
+        if (pack == null) {
+            if (!set.remove(member)) {
+                return false;
+            }
+            setBytes -= SET_ENTRY_OVERHEAD + member.length();
+            return true;
+        }
+        int pos = pack.find(member.getBytes(CHARSET), 1);
+        if (pos < 0) {
+            return false;
+        }
+        pack.delete(pos, 1);
+        return true;
+    }
+
+    boolean contains(String member) {
+        if (pack == null) {
+            return set.contains(member);
+        }
+        return pack.find(member.getBytes(CHARSET), 1) >= 0;
+    }
+
+    int size() {
+        return pack == null ? set.size() : pack.size();
+    }
+
+    List<String> toList() {
+        if (pack == null) {
+            return new ArrayList<>(set);
+        }
+        List<String> out = new ArrayList<>(pack.size());
+        for (int pos = pack.first(); pos >= 0; pos = pack.next(pos)) {
+            out.add(pack.getString(pos));
+        }
+        return out;
+    }
+
+    @Override
+    public long memoryUsage() {
+        return pack == null ? 48 + set.size() * 8L + setBytes : pack.memoryUsage();
+    }
+
+    @Override
+    public String encoding() {
+        return pack == null ? HASHTABLE : LISTPACK;
+    }
+
+    /**
+     * The members: the pack as it is, or the set listed by whoever iterates.
+     */
+    @Override
+    public Iterable<String> items() {
+        return pack == null ? () -> toList().iterator() : pack;
+    }
+
+    @Override
+    public SetValue copy() {
+        SetValue copy = new SetValue();
+        if (pack == null) {
+            copy.pack = null;
+            copy.set = new HashSet<>(set);
+            copy.setBytes = setBytes;
+        } else {
+            copy.pack = pack.copy();
+        }
+        return copy;
+    }
+
+    private void convert() {
+        set = new HashSet<>(pack.size() * 2);
+        for (int pos = pack.first(); pos >= 0; pos = pack.next(pos)) {
+            String member = pack.getString(pos);
+            set.add(member);
+            setBytes += SET_ENTRY_OVERHEAD + member.length();
+        }
+        pack = null;
+    }
+}
@@ -0,0 +1,131 @@
+package dev.hithru.redis.store.stream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A consumer group of a stream: the last ID delivered to it, its consumers
+ * and its pending entries list (PEL).
+ *
+ * The PEL is a radix tree by ID, like Redis'; each consumer has another one
+ * with just its own entries, sharing the PendingEntry objects, so XPENDING
+ * and XREADGROUP history reads for one consumer don't walk everybody's.
+ */
+final class ConsumerGroup {
+    final String name;
+    StreamId lastDelivered;
+    final RadixTree<PendingEntry> pending = new RadixTree<>();
+    final Map<String, StreamConsumer> consumers = new LinkedHashMap<>();
+
+    ConsumerGroup(String name, StreamId lastDelivered) {
+        this.name = name;
+        this.lastDelivered = lastDelivered;
+    }
+
+    /**
+     * @return the consumer, created if it doesn't exist
+     */
+    StreamConsumer consumer(String consumerName, long now) {
+        StreamConsumer consumer = consumers.get(consumerName);
+        if (consumer == null) {
+            consumer = new StreamConsumer(consumerName, now);
+            consumers.put(consumerName, consumer);
+        }
+        return consumer;
+    }
+
+    /**
+     * Records id as delivered to consumer: a new pending entry, or one
+     * moved from its previous owner.
+     */
+    PendingEntry deliver(StreamId id, StreamConsumer consumer, long now) {
+        byte[] key = id.key();
+        PendingEntry entry = pending.get(key);
+        if (entry == null) {
+            entry = new PendingEntry(id, consumer, now, 1);
+            pending.put(key, entry);
+        } else {
+            entry.owner.pending.remove(key);
+            entry.owner = consumer;
+            entry.deliveryTime = now;
+            entry.deliveryCount++;
+        }
+        consumer.pending.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * @return false if id wasn't pending
+     */
+    boolean ack(StreamId id) {
+        byte[] key = id.key();
+        PendingEntry entry = pending.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.owner.pending.remove(key);
+        return true;
+    }
+
+    /**
+     * Removes consumer and its pending entries.
+     *
+     * @return the number of entries it had pending, or -1 if it didn't exist
+     */
+    long deleteConsumer(String consumerName) {
+        StreamConsumer consumer = consumers.remove(consumerName);
+        if (consumer == null) {
+            return -1;
+        }
+        long count = consumer.pending.size();
+        for (PendingEntry entry = consumer.pending.first(); entry != null; entry = consumer.pending.first()) {
+            byte[] key = entry.id().key();
+            consumer.pending.remove(key);
+            pending.remove(key);
+        }
+        return count;
+    }
+
+    /**
+     * Independent copy: consumers and PEL entries are new objects.
+     */
+    ConsumerGroup copy() {
+        ConsumerGroup copy = new ConsumerGroup(name, lastDelivered);
+        for (StreamConsumer consumer : consumers.values()) {
+            copy.consumers.put(consumer.name, new StreamConsumer(consumer.name, consumer.seenTime));
+        }
+        for (PendingEntry entry : range(pending, StreamId.MIN, StreamId.MAX, 0, 0, 0)) {
+            StreamConsumer owner = copy.consumers.get(entry.owner.name);
+            PendingEntry entryCopy = new PendingEntry(entry.id(), owner, entry.deliveryTime, entry.deliveryCount);
+            byte[] key = entry.id().key();
+            copy.pending.put(key, entryCopy);
+            owner.pending.put(key, entryCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Pending entries of the group, or of one consumer, from start to end.
+     *
+     * @param count at most this many, 0 = no limit
+     * @param minIdleMs only entries not delivered for that long, 0 = all (now unused)
+     */
+    static List<PendingEntry> range(RadixTree<PendingEntry> tree, StreamId start, StreamId end,
+                                    long count, long minIdleMs, long now) {
+        List<PendingEntry> entries = new ArrayList<>();
+        PendingEntry entry = tree.ceiling(start.key());
+        while (entry != null && entry.id().compareTo(end) <= 0) {
+            if (minIdleMs <= 0 || now - entry.deliveryTime >= minIdleMs) {
+                entries.add(entry);
+                if (entries.size() == count) {
+                    break;
+                }
+            }
+            StreamId next = entry.id().next();
+            entry = next == null ? null : tree.ceiling(next.key());
+        }
+        return entries;
+    }
+}
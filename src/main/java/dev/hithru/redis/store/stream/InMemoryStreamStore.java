@@ -0,0 +1,422 @@
+package dev.hithru.redis.store.stream;
+
+import java.util.*;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+
+/**
+ * Stream commands (XADD, XRANGE, XLEN, XTRIM, XDEL, XSETID, consumer
+ * groups) over the shared keyspace.
+ *
+ *  - Entries are packed many to a node (StreamPack), the nodes held in a
+ *    radix tree by ID (StreamValue), so an entry costs its values plus a
+ *    few bytes, and range reads scan packed bytes
+ *  - Unlike other types, a stream whose entries are all gone stays: it keeps
+ *    its last ID and its consumer groups (XGROUP CREATE ... MKSTREAM even
+ *    creates an empty one)
+ *  - Callers choose IDs (XADD's "*" and "ms-*" are resolved by the command)
+ *    and check them against lastId(); this class only keeps the stream
+ *    ordered
+ *  - Streams live in the InMemoryKeyValueStore with every other key; this
+ *    class only reports size changes. A key of another type throws
+ *    WrongTypeException
+ *
+ * Group methods return null (or -1) for a missing key or group; callers
+ * tell the two apart with exists() if their error replies differ.
+ */
+public class InMemoryStreamStore {
+
+    /** LIMIT of an approximate trim that gives none, like Redis: 100 nodes' worth. */
+    public static final long DEFAULT_TRIM_LIMIT = 100L * StreamValue.NODE_MAX_ENTRIES;
+
+    private final InMemoryKeyValueStore keyspace;
+
+    public InMemoryStreamStore(InMemoryKeyValueStore keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * A store with a keyspace of its own.
+     */
+    public InMemoryStreamStore() {
+        this(new InMemoryKeyValueStore());
+    }
+
+    public boolean exists(String key) {
+        return lookup(key) != null;
+    }
+
+    /**
+     * The greatest ID the stream has had, 0-0 for an empty new stream, or
+     * null if the key is missing.
+     */
+    public StreamId lastId(String key) {
+        StreamValue stream = lookup(key);
+        return stream == null ? null : stream.lastId();
+    }
+
+    /**
+     * XADD key id field value [field value ...], creating the stream if
+     * missing; id must be greater than lastId(key).
+     */
+    public void xadd(String key, StreamId id, List<String> fieldsAndValues) {
+        StreamValue stream = getOrCreate(key);
+        if (id.compareTo(stream.lastId()) <= 0 && stream.lastId().compareTo(StreamId.MIN) > 0) {
+            throw new IllegalArgumentException("Stream ID " + id + " is not after " + stream.lastId());
+        }
+        long before = stream.memoryUsage();
+        stream.append(id, fieldsAndValues);
+        keyspace.resized(stream.memoryUsage() - before);
+    }
+
+    public long xlen(String key) {
+        StreamValue stream = lookup(key);
+        return stream == null ? 0 : stream.length();
+    }
+
+    /**
+     * XRANGE / XREVRANGE: entries with IDs from start to end, both inclusive.
+     *
+     * @param count at most this many, 0 = no limit
+     * @param reverse from end back to start
+     */
+    public List<StreamEntry> xrange(String key, StreamId start, StreamId end, long count, boolean reverse) {
+        StreamValue stream = lookup(key);
+        return stream == null ? Collections.emptyList() : stream.range(start, end, count, reverse);
+    }
+
+    /**
+     * XTRIM key MAXLEN [=|~] maxLen [LIMIT limit]
+     *
+     * @param approx only remove whole nodes, possibly leaving more entries
+     * @param limit at most this many removed, 0 = no limit
+     * @return the number of entries removed
+     */
+    public long trimToLength(String key, long maxLen, boolean approx, long limit) {
+        StreamValue stream = lookupForWrite(key);
+        if (stream == null) {
+            return 0;
+        }
+        long before = stream.memoryUsage();
+        long removed = stream.trimToLength(maxLen, approx, limit);
+        keyspace.resized(stream.memoryUsage() - before);
+        return removed;
+    }
+
+    /**
+     * XTRIM key MINID [=|~] minId [LIMIT limit]: removes entries below minId.
+     *
+     * @see #trimToLength
+     */
+    public long trimToMinId(String key, StreamId minId, boolean approx, long limit) {
+        StreamValue stream = lookupForWrite(key);
+        if (stream == null) {
+            return 0;
+        }
+        long before = stream.memoryUsage();
+        long removed = stream.trimToMinId(minId, approx, limit);
+        keyspace.resized(stream.memoryUsage() - before);
+        return removed;
+    }
+
+    /**
+     * XDEL key id... -> number of entries deleted. The stream stays, even empty.
+     */
+    public int xdel(String key, List<StreamId> ids) {
+        StreamValue stream = lookupForWrite(key);
+        if (stream == null) {
+            return 0;
+        }
+        long before = stream.memoryUsage();
+        int deleted = 0;
+        for (StreamId id : ids) {
+            if (stream.delete(id)) {
+                deleted++;
+            }
+        }
+        keyspace.resized(stream.memoryUsage() - before);
+        return deleted;
+    }
+
+    /**
+     * XSETID key id
+     *
+     * @return false if id is smaller than the last entry still in the stream
+     */
+    public boolean setLastId(String key, StreamId id) {
+        StreamValue stream = lookupForWrite(key);
+        StreamId top = stream.lastEntryId();
+        if (top != null && id.compareTo(top) < 0) {
+            return false;
+        }
+        stream.setLastId(id);
+        return true;
+    }
+
+    // --- Consumer groups ---
+
+    /**
+     * XGROUP CREATE key group id [MKSTREAM]
+     *
+     * @param lastDelivered the group's starting point, null = the stream's last ID ("$")
+     * @param mkStream create an empty stream if the key is missing
+     * @return false if the group exists already (or the key is missing without mkStream)
+     */
+    public boolean createGroup(String key, String group, StreamId lastDelivered, boolean mkStream) {
+        StreamValue stream = mkStream ? getOrCreate(key) : lookupForWrite(key);
+        if (stream == null || stream.groups.containsKey(group)) {
+            return false;
+        }
+        long before = stream.memoryUsage();
+        stream.groups.put(group, new ConsumerGroup(group, lastDelivered == null ? stream.lastId() : lastDelivered));
+        keyspace.resized(stream.memoryUsage() - before);
+        return true;
+    }
+
+    /**
+     * XGROUP DESTROY key group
+     *
+     * @return false if there was no such group
+     */
+    public boolean destroyGroup(String key, String group) {
+        StreamValue stream = lookupForWrite(key);
+        if (stream == null) {
+            return false;
+        }
+        long before = stream.memoryUsage();
+        boolean removed = stream.groups.remove(group) != null;
+        keyspace.resized(stream.memoryUsage() - before);
+        return removed;
+    }
+
+    public boolean groupExists(String key, String group) {
+        return group(key, group) != null;
+    }
+
+    public boolean consumerExists(String key, String group, String consumer) {
+        ConsumerGroup g = group(key, group);
+        return g != null && g.consumers.containsKey(consumer);
+    }
+
+    /**
+     * XGROUP SETID key group id
+     *
+     * @param lastDelivered null = the stream's last ID ("$")
+     * @return false if the key or group is missing
+     */
+    public boolean setGroupId(String key, String group, StreamId lastDelivered) {
+        StreamValue stream = lookupForWrite(key);
+        ConsumerGroup g = stream == null ? null : stream.groups.get(group);
+        if (g == null) {
+            return false;
+        }
+        g.lastDelivered = lastDelivered == null ? stream.lastId() : lastDelivered;
+        return true;
+    }
+
+    /**
+     * XGROUP CREATECONSUMER key group consumer
+     *
+     * @return 1 if created, 0 if it existed, -1 if the key or group is missing
+     */
+    public int createConsumer(String key, String group, String consumer, long now) {
+        StreamValue stream = lookupForWrite(key);
+        ConsumerGroup g = stream == null ? null : stream.groups.get(group);
+        if (g == null) {
+            return -1;
+        }
+        if (g.consumers.containsKey(consumer)) {
+            return 0;
+        }
+        long before = stream.memoryUsage();
+        g.consumer(consumer, now);
+        keyspace.resized(stream.memoryUsage() - before);
+        return 1;
+    }
+
+    /**
+     * XGROUP DELCONSUMER key group consumer
+     *
+     * @return the number of entries it had pending, -1 if the key or group is missing
+     */
+    public long deleteConsumer(String key, String group, String consumer) {
+        StreamValue stream = lookupForWrite(key);
+        ConsumerGroup g = stream == null ? null : stream.groups.get(group);
+        if (g == null) {
+            return -1;
+        }
+        long before = stream.memoryUsage();
+        long pending = g.deleteConsumer(consumer);
+        keyspace.resized(stream.memoryUsage() - before);
+        return Math.max(pending, 0);
+    }
+
+    /**
+     * XREADGROUP GROUP group consumer ... STREAMS key id, for one key.
+     * The consumer is created if missing.
+     *
+     * @param after null = ">": entries never delivered to the group, which
+     *              become pending for consumer unless noAck; otherwise the
+     *              consumer's pending entries after that ID
+     * @param count at most this many, 0 = no limit
+     * @return the entries, or null if the key or group is missing
+     */
+    public List<StreamEntry> readGroup(String key, String group, String consumer, StreamId after,
+                                       long count, boolean noAck, long now) {
+        StreamValue stream = lookupForWrite(key);
+        ConsumerGroup g = stream == null ? null : stream.groups.get(group);
+        if (g == null) {
+            return null;
+        }
+        long before = stream.memoryUsage();
+        StreamConsumer c = g.consumer(consumer, now);
+        c.seenTime = now;
+        List<StreamEntry> entries = after == null
+                ? stream.readNew(g, c, count, noAck, now)
+                : stream.readPending(c, after, count);
+        keyspace.resized(stream.memoryUsage() - before);
+        return entries;
+    }
+
+    /**
+     * XACK key group id... -> number of entries no longer pending
+     */
+    public int xack(String key, String group, List<StreamId> ids) {
+        StreamValue stream = lookupForWrite(key);
+        ConsumerGroup g = stream == null ? null : stream.groups.get(group);
+        if (g == null) {
+            return 0;
+        }
+        long before = stream.memoryUsage();
+        int acked = 0;
+        for (StreamId id : ids) {
+            if (g.ack(id)) {
+                acked++;
+            }
+        }
+        keyspace.resized(stream.memoryUsage() - before);
+        return acked;
+    }
+
+    /**
+     * XPENDING key group
+     *
+     * @return null if the key or group is missing
+     */
+    public PendingSummary pendingSummary(String key, String group) {
+        ConsumerGroup g = group(key, group);
+        if (g == null) {
+            return null;
+        }
+        Map<String, Long> byConsumer = new LinkedHashMap<>();
+        for (StreamConsumer consumer : g.consumers.values()) {
+            if (consumer.pending.size() > 0) {
+                byConsumer.put(consumer.name, (long) consumer.pending.size());
+            }
+        }
+        PendingEntry first = g.pending.first();
+        PendingEntry last = g.pending.last();
+        return new PendingSummary(g.pending.size(),
+                first == null ? null : first.id(), last == null ? null : last.id(), byConsumer);
+    }
+
+    /**
+     * XPENDING key group [IDLE minIdle] start end count [consumer]
+     *
+     * @param consumer only that consumer's entries, null = all
+     * @return null if the key or group is missing
+     */
+    public List<PendingEntry> pending(String key, String group, StreamId start, StreamId end, long count,
+                                      String consumer, long minIdleMs, long now) {
+        ConsumerGroup g = group(key, group);
+        if (g == null) {
+            return null;
+        }
+        if (consumer == null) {
+            return ConsumerGroup.range(g.pending, start, end, count, minIdleMs, now);
+        }
+        StreamConsumer c = g.consumers.get(consumer);
+        return c == null ? Collections.emptyList() : ConsumerGroup.range(c.pending, start, end, count, minIdleMs, now);
+    }
+
+    /**
+     * XCLAIM key group consumer minIdle id... [IDLE ms | TIME ms] [RETRYCOUNT n] [FORCE] [JUSTID] [LASTID id]
+     *
+     * @param deliveryTime the claimed entries' new delivery time
+     * @param retryCount   their new delivery count, -1 = one more (the same with justId)
+     * @param lastId       raise the group's last delivered ID to this, null = leave it
+     * @return the entries claimed, without fields if justId; null if the key or group is missing
+     */
+    public List<StreamEntry> claim(String key, String group, String consumer, long minIdleMs, List<StreamId> ids,
+                                   long deliveryTime, long retryCount, boolean force, boolean justId,
+                                   StreamId lastId, long now) {
+        StreamValue stream = lookupForWrite(key);
+        ConsumerGroup g = stream == null ? null : stream.groups.get(group);
+        if (g == null) {
+            return null;
+        }
+        long before = stream.memoryUsage();
+        if (lastId != null && lastId.compareTo(g.lastDelivered) > 0) {
+            g.lastDelivered = lastId;
+        }
+        StreamConsumer c = g.consumer(consumer, now);
+        c.seenTime = now;
+        List<StreamEntry> claimed = stream.claim(g, c, minIdleMs, ids, deliveryTime, retryCount, force, justId, now);
+        keyspace.resized(stream.memoryUsage() - before);
+        return claimed;
+    }
+
+    /**
+     * The whole stream in the CollectionValue.items() layout (DUMP), empty if missing.
+     */
+    public List<String> items(String key) {
+        StreamValue stream = lookup(key);
+        return stream == null ? Collections.emptyList() : stream.toItems();
+    }
+
+    /**
+     * True if items are a stream in the CollectionValue.items() layout.
+     */
+    public static boolean isValidItems(Iterable<String> items) {
+        return StreamValue.fromItems(items) != null;
+    }
+
+    /**
+     * Replaces whatever key holds with a stream rebuilt from
+     * CollectionValue.items() of one (RESTORE, loading a snapshot).
+     *
+     * @return false if items aren't a stream's
+     */
+    public boolean restore(String key, Iterable<String> items) {
+        StreamValue stream = StreamValue.fromItems(items);
+        if (stream == null) {
+            return false;
+        }
+        keyspace.delete(key);
+        keyspace.add(key, ValueType.STREAM, stream);
+        return true;
+    }
+
+    private ConsumerGroup group(String key, String group) {
+        StreamValue stream = lookup(key);
+        return stream == null ? null : stream.groups.get(group);
+    }
+
+    private StreamValue lookup(String key) {
+        return (StreamValue) keyspace.lookup(key, ValueType.STREAM);
+    }
+
+    private StreamValue lookupForWrite(String key) {
+        return (StreamValue) keyspace.lookupForWrite(key, ValueType.STREAM);
+    }
+
+    private StreamValue getOrCreate(String key) {
+        StreamValue stream = lookupForWrite(key);
+        if (stream == null) {
+            stream = new StreamValue();
+            keyspace.add(key, ValueType.STREAM, stream);
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,35 @@
+package dev.hithru.redis.store.stream;
+
+/**
+ * An entry delivered to a consumer of a group and not acknowledged yet: one
+ * element of the group's pending entries list (PEL), as XPENDING reports it.
+ */
+public final class PendingEntry {
+    private final StreamId id;
+    StreamConsumer owner;
+    long deliveryTime;  // unix time in ms of the last delivery
+    long deliveryCount;
+
+    PendingEntry(StreamId id, StreamConsumer owner, long deliveryTime, long deliveryCount) {
+        this.id = id;
+        this.owner = owner;
+        this.deliveryTime = deliveryTime;
+        this.deliveryCount = deliveryCount;
+    }
+
+    public StreamId id() {
+        return id;
+    }
+
+    public String consumer() {
+        return owner.name;
+    }
+
+    public long deliveryTime() {
+        return deliveryTime;
+    }
+
+    public long deliveryCount() {
+        return deliveryCount;
+    }
+}
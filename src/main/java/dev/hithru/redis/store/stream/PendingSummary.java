@@ -0,0 +1,39 @@
+package dev.hithru.redis.store.stream;
+
+import java.util.Map;
+
+/**
+ * XPENDING key group without a range: how many entries are pending, the
+ * smallest and largest of their IDs (null if none) and how many each
+ * consumer with pending entries has.
+ */
+public final class PendingSummary {
+    private final long count;
+    private final StreamId smallest;
+    private final StreamId largest;
+    private final Map<String, Long> byConsumer;
+
+    PendingSummary(long count, StreamId smallest, StreamId largest, Map<String, Long> byConsumer) {
+        this.count = count;
+        this.smallest = smallest;
+        this.largest = largest;
+        this.byConsumer = byConsumer;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public StreamId smallest() {
+        return smallest;
+    }
+
+    public StreamId largest() {
+        return largest;
+    }
+
+    /** Consumer name -> pending entries, in creation order. */
+    public Map<String, Long> byConsumer() {
+        return byConsumer;
+    }
+}
@@ -0,0 +1,312 @@
+package dev.hithru.redis.store.stream;
+
+import java.util.Arrays;
+
+/**
+ * RadixTree
+ *
+ * Ordered map from byte-string keys to values, like Redis' rax: a trie
+ * whose chains of single-child nodes are compressed into one edge label, so
+ * keys sharing a prefix share its bytes and a lookup costs one step per
+ * label instead of per byte. Stream IDs are big-endian 16-byte keys; the
+ * IDs of a stream share their high bytes (the millisecond part changes
+ * slowly), which is where the compression pays.
+ *
+ * Keys compare as unsigned bytes. Besides get / put / remove it finds the
+ * nearest key on either side (ceiling / floor), which is how streams seek to
+ * the start of a range and walk from node to node.
+ *
+ * Values may not be null. Not thread-safe.
+ */
+final class RadixTree<V> {
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private static final class Node<V> {
+        byte[] label;                  // bytes on the edge from the parent
+        byte[] edges = NO_BYTES;       // first label byte of each child, ascending
+        Node<V>[] children = newArray(0);
+        V value;                       // null = no key ends here
+
+        Node(byte[] label) {
+            this.label = label;
+        }
+
+        int find(int b) {
+            for (int i = 0; i < edges.length; i++) {
+                int e = edges[i] & 0xff;
+                if (e >= b) {
+                    return e == b ? i : -i - 1;
+                }
+            }
+            return -edges.length - 1;
+        }
+
+        void insert(int at, Node<V> child) {
+            byte[] newEdges = new byte[edges.length + 1];
+            Node<V>[] newChildren = newArray(children.length + 1);
+            System.arraycopy(edges, 0, newEdges, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newEdges[at] = child.label[0];
+            newChildren[at] = child;
+            System.arraycopy(edges, at, newEdges, at + 1, edges.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            edges = newEdges;
+            children = newChildren;
+        }
+
+        void delete(int at) {
+            byte[] newEdges = new byte[edges.length - 1];
+            Node<V>[] newChildren = newArray(children.length - 1);
+            System.arraycopy(edges, 0, newEdges, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            System.arraycopy(edges, at + 1, newEdges, at, edges.length - at - 1);
+            System.arraycopy(children, at + 1, newChildren, at, children.length - at - 1);
+            edges = newEdges;
+            children = newChildren;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] newArray(int length) {
+            return (Node<V>[]) new Node[length];
+        }
+    }
+
+    private final Node<V> root = new Node<>(NO_BYTES);
+    private int size;
+    private int nodes = 1;
+
+    int size() {
+        return size;
+    }
+
+    /** Nodes in the tree, for memory estimates. */
+    int nodeCount() {
+        return nodes;
+    }
+
+    V get(byte[] key) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length) {
+            int at = node.find(key[i] & 0xff);
+            if (at < 0) {
+                return null;
+            }
+            Node<V> child = node.children[at];
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length) {
+                return null;
+            }
+            node = child;
+            i += common;
+        }
+        return node.value;
+    }
+
+    /**
+     * @return the previous value for key, or null
+     */
+    V put(byte[] key, V value) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length) {
+            int at = node.find(key[i] & 0xff);
+            if (at < 0) {
+                Node<V> leaf = new Node<>(Arrays.copyOfRange(key, i, key.length));
+                leaf.value = value;
+                node.insert(-at - 1, leaf);
+                nodes++;
+                size++;
+                return null;
+            }
+            Node<V> child = node.children[at];
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length) {
+                // Split the label where the key leaves it
+                Node<V> middle = new Node<>(Arrays.copyOf(child.label, common));
+                child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+                middle.insert(0, child);
+                node.children[at] = middle;
+                nodes++;
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+        V previous = node.value;
+        node.value = value;
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    /**
+     * @return the value removed, or null if key wasn't there
+     */
+    V remove(byte[] key) {
+        // The path, to merge or unlink nodes on the way back
+        Node<V>[] path = Node.newArray(key.length + 1);
+        int[] slots = new int[key.length + 1];
+        int depth = 0;
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length) {
+            int at = node.find(key[i] & 0xff);
+            if (at < 0) {
+                return null;
+            }
+            Node<V> child = node.children[at];
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length) {
+                return null;
+            }
+            path[depth] = node;
+            slots[depth] = at;
+            depth++;
+            node = child;
+            i += common;
+        }
+        V previous = node.value;
+        if (previous == null) {
+            return null;
+        }
+        node.value = null;
+        size--;
+
+        if (depth == 0) {
+            return previous;
+        }
+        Node<V> parent = path[depth - 1];
+        if (node.children.length == 0) {
+            parent.delete(slots[depth - 1]);
+            nodes--;
+            // The parent may now be a plain link in a chain
+            if (depth >= 2 && parent.value == null && parent.children.length == 1) {
+                mergeWithChild(path[depth - 2], slots[depth - 2], parent);
+            }
+        } else if (node.children.length == 1) {
+            mergeWithChild(parent, slots[depth - 1], node);
+        }
+        return previous;
+    }
+
+    // Replaces node, which has no value and one child, by that child with both labels
+    private void mergeWithChild(Node<V> parent, int slot, Node<V> node) {
+        Node<V> child = node.children[0];
+        byte[] label = new byte[node.label.length + child.label.length];
+        System.arraycopy(node.label, 0, label, 0, node.label.length);
+        System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+        child.label = label;
+        parent.children[slot] = child;
+        nodes--;
+    }
+
+    V first() {
+        return size == 0 ? null : min(root);
+    }
+
+    V last() {
+        return size == 0 ? null : max(root);
+    }
+
+    /** Value of the smallest key >= key, or null. */
+    V ceiling(byte[] key) {
+        return ceiling(root, key, 0);
+    }
+
+    /** Value of the largest key <= key, or null. */
+    V floor(byte[] key) {
+        return floor(root, key, 0);
+    }
+
+    // node's path equals key[0, i)
+    private V ceiling(Node<V> node, byte[] key, int i) {
+        if (i == key.length) {
+            return min(node);
+        }
+        int b = key[i] & 0xff;
+        for (Node<V> child : node.children) {
+            if ((child.label[0] & 0xff) < b) {
+                continue;
+            }
+            int c = compareLabel(child.label, key, i);
+            if (c > 0) {
+                return min(child);
+            }
+            if (c == 0) {
+                V found = ceiling(child, key, i + child.label.length);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private V floor(Node<V> node, byte[] key, int i) {
+        if (i == key.length) {
+            return node.value;
+        }
+        int b = key[i] & 0xff;
+        for (int at = node.children.length - 1; at >= 0; at--) {
+            Node<V> child = node.children[at];
+            if ((child.label[0] & 0xff) > b) {
+                continue;
+            }
+            int c = compareLabel(child.label, key, i);
+            if (c < 0) {
+                return max(child);
+            }
+            if (c == 0) {
+                V found = floor(child, key, i + child.label.length);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        // This node's own key is a prefix of key, so smaller
+        return node.value;
+    }
+
+    /**
+     * Compares label with the key bytes from i on: negative if every key
+     * below the label sorts before key, positive if after, 0 if the label
+     * is a prefix of the rest of key.
+     */
+    private static int compareLabel(byte[] label, byte[] key, int i) {
+        int n = Math.min(label.length, key.length - i);
+        for (int j = 0; j < n; j++) {
+            int c = (label[j] & 0xff) - (key[i + j] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        // key ends inside the label: everything below is longer, so larger
+        return n < label.length ? 1 : 0;
+    }
+
+    private static <V> V min(Node<V> node) {
+        while (node.value == null) {
+            node = node.children[0];
+        }
+        return node.value;
+    }
+
+    private static <V> V max(Node<V> node) {
+        while (node.children.length > 0) {
+            node = node.children[node.children.length - 1];
+        }
+        return node.value;
+    }
+
+    private static int commonPrefix(byte[] label, byte[] key, int i) {
+        int n = Math.min(label.length, key.length - i);
+        int j = 0;
+        while (j < n && label[j] == key[i + j]) {
+            j++;
+        }
+        return j;
+    }
+}
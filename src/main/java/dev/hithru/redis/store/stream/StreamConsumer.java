@@ -0,0 +1,16 @@
+package dev.hithru.redis.store.stream;
+
+/**
+ * A consumer of a group, with its own list of the entries delivered to it
+ * and not acknowledged yet: the subset of the group's PEL it owns.
+ */
+final class StreamConsumer {
+    final String name;
+    long seenTime;
+    final RadixTree<PendingEntry> pending = new RadixTree<>();
+
+    StreamConsumer(String name, long seenTime) {
+        this.name = name;
+        this.seenTime = seenTime;
+    }
+}
@@ -0,0 +1,46 @@
+package dev.hithru.redis.store.stream;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One stream entry as returned by range reads: its ID and its field, value,
+ * field, value... fieldsAndValues is null for an entry that was deleted
+ * while still pending in a consumer group (XREADGROUP history reads).
+ */
+public final class StreamEntry {
+    private final StreamId id;
+    private final List<String> fieldsAndValues;
+
+    public StreamEntry(StreamId id, List<String> fieldsAndValues) {
+        this.id = id;
+        this.fieldsAndValues = fieldsAndValues;
+    }
+
+    public StreamId id() {
+        return id;
+    }
+
+    public List<String> fieldsAndValues() {
+        return fieldsAndValues;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StreamEntry)) {
+            return false;
+        }
+        StreamEntry other = (StreamEntry) o;
+        return id.equals(other.id) && Objects.equals(fieldsAndValues, other.fieldsAndValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return id + "=" + fieldsAndValues;
+    }
+}
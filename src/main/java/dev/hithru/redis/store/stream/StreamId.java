@@ -0,0 +1,110 @@
+package dev.hithru.redis.store.stream;
+
+/**
+ * StreamId
+ *
+ * A stream entry ID, "ms-seq": the entry's millisecond timestamp and a
+ * sequence number among entries of the same millisecond. Both parts are
+ * non-negative, so comparing them as signed longs gives the stream order.
+ * Redis allows unsigned 64-bit parts; IDs above Long.MAX_VALUE are refused
+ * as invalid here.
+ *
+ * In the radix trees IDs are 16-byte keys, both parts big-endian, so the
+ * byte order of the keys is the ID order.
+ */
+public final class StreamId implements Comparable<StreamId> {
+
+    public static final StreamId MIN = new StreamId(0, 0);
+    public static final StreamId MAX = new StreamId(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    static final int KEY_LENGTH = 16;
+
+    public final long ms;
+    public final long seq;
+
+    public StreamId(long ms, long seq) {
+        this.ms = ms;
+        this.seq = seq;
+    }
+
+    /**
+     * Parses "ms-seq", or "ms" with missingSeq as the sequence.
+     *
+     * @return the ID, or null if s isn't one
+     */
+    public static StreamId parse(String s, long missingSeq) {
+        int dash = s.indexOf('-');
+        long ms = parsePart(dash < 0 ? s : s.substring(0, dash));
+        long seq = dash < 0 ? missingSeq : parsePart(s.substring(dash + 1));
+        return ms < 0 || seq < 0 ? null : new StreamId(ms, seq);
+    }
+
+    // A non-negative decimal, or -1
+    static long parsePart(String s) {
+        if (s.isEmpty() || s.length() > 19) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value < 0) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    /** The ID right after this one, or null for MAX. */
+    public StreamId next() {
+        if (seq != Long.MAX_VALUE) {
+            return new StreamId(ms, seq + 1);
+        }
+        return ms == Long.MAX_VALUE ? null : new StreamId(ms + 1, 0);
+    }
+
+    /** The ID right before this one, or null for MIN. */
+    public StreamId previous() {
+        if (seq != 0) {
+            return new StreamId(ms, seq - 1);
+        }
+        return ms == 0 ? null : new StreamId(ms - 1, Long.MAX_VALUE);
+    }
+
+    static byte[] key(long ms, long seq) {
+        byte[] key = new byte[KEY_LENGTH];
+        for (int i = 0; i < 8; i++) {
+            key[i] = (byte) (ms >>> (56 - 8 * i));
+            key[8 + i] = (byte) (seq >>> (56 - 8 * i));
+        }
+        return key;
+    }
+
+    byte[] key() {
+        return key(ms, seq);
+    }
+
+    @Override
+    public int compareTo(StreamId other) {
+        int c = Long.compare(ms, other.ms);
+        return c != 0 ? c : Long.compare(seq, other.seq);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StreamId other && ms == other.ms && seq == other.seq;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(ms) * 31 + Long.hashCode(seq);
+    }
+
+    @Override
+    public String toString() {
+        return ms + "-" + seq;
+    }
+}
@@ -0,0 +1,342 @@
+package dev.hithru.redis.store.stream;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * StreamPack
+ *
+ * A run of consecutive stream entries packed into one byte array, like the
+ * listpacks of Redis' stream nodes. The first entry's ID is the node's
+ * "master ID" (its key in the stream's radix tree) and its field names are
+ * the master fields:
+ *
+ *   master fields:  count:varint, (len:varint, bytes)*
+ *   entry*:         flags:byte, ms - masterMs:varint, zigzag(seq - masterSeq):varint,
+ *                   SAME_FIELDS ? value* : count:varint, (field, value)*
+ *
+ * Entries of a stream usually carry the same fields, so most store only
+ * their values plus a few bytes of ID deltas, instead of an ID object and a
+ * String per field and value. Reading is a sequential scan of the array.
+ * Deleted entries are only flagged (XDEL, exact XTRIM); the node goes once
+ * all of its entries are.
+ *
+ * Positions are byte offsets of entries; -1 means none. Not thread-safe.
+ */
+final class StreamPack {
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    private static final int DELETED = 1;
+    private static final int SAME_FIELDS = 1 << 1;
+
+    // Object header, fields and array header, for memory estimates
+    private static final int OVERHEAD = 64;
+
+    final long masterMs;
+    final long masterSeq;
+
+    private byte[] buf;
+    private int used;
+    private final int entriesStart;
+    private final int masterFieldCount;
+
+    private int live;     // entries not deleted
+    private int deleted;
+    private long lastMs;  // ID of the last entry, deleted or not
+    private long lastSeq;
+
+    /**
+     * A node whose first entry is id with fieldsAndValues.
+     */
+    StreamPack(StreamId id, List<String> fieldsAndValues) {
+        this.masterMs = id.ms;
+        this.masterSeq = id.seq;
+        this.masterFieldCount = fieldsAndValues.size() / 2;
+        buf = new byte[64];
+        putVarint(masterFieldCount);
+        for (int i = 0; i < fieldsAndValues.size(); i += 2) {
+            putString(fieldsAndValues.get(i));
+        }
+        entriesStart = used;
+        append(id, fieldsAndValues);
+    }
+
+    private StreamPack(StreamPack other) {
+        masterMs = other.masterMs;
+        masterSeq = other.masterSeq;
+        buf = Arrays.copyOf(other.buf, other.used);
+        used = other.used;
+        entriesStart = other.entriesStart;
+        masterFieldCount = other.masterFieldCount;
+        live = other.live;
+        deleted = other.deleted;
+        lastMs = other.lastMs;
+        lastSeq = other.lastSeq;
+    }
+
+    StreamPack copy() {
+        return new StreamPack(this);
+    }
+
+    /** Entries not deleted. */
+    int size() {
+        return live;
+    }
+
+    /** Entries including the deleted ones, which still take their space. */
+    int slots() {
+        return live + deleted;
+    }
+
+    int bytes() {
+        return used;
+    }
+
+    long memoryUsage() {
+        return OVERHEAD + buf.length;
+    }
+
+    StreamId lastId() {
+        return new StreamId(lastMs, lastSeq);
+    }
+
+    /**
+     * Adds an entry after the others; id must be greater than theirs.
+     */
+    void append(StreamId id, List<String> fieldsAndValues) {
+        boolean sameFields = fieldsAndValues.size() / 2 == masterFieldCount && hasMasterFields(fieldsAndValues);
+        ensureCapacity(21 + fieldsAndValues.size() * 5 + totalLength(fieldsAndValues));
+        buf[used++] = (byte) (sameFields ? SAME_FIELDS : 0);
+        putVarint(id.ms - masterMs);
+        putVarint(zigzag(id.seq - masterSeq));
+        if (sameFields) {
+            for (int i = 1; i < fieldsAndValues.size(); i += 2) {
+                putString(fieldsAndValues.get(i));
+            }
+        } else {
+            putVarint(fieldsAndValues.size() / 2);
+            for (String s : fieldsAndValues) {
+                putString(s);
+            }
+        }
+        live++;
+        lastMs = id.ms;
+        lastSeq = id.seq;
+    }
+
+    private boolean hasMasterFields(List<String> fieldsAndValues) {
+        int pos = varintSize(masterFieldCount);
+        for (int i = 0; i < fieldsAndValues.size(); i += 2) {
+            int length = getVarint(pos);
+            pos += varintSize(length);
+            if (!equalsAt(pos, length, fieldsAndValues.get(i))) {
+                return false;
+            }
+            pos += length;
+        }
+        return true;
+    }
+
+    // --- Walking the entries, deleted ones included ---
+
+    int first() {
+        return entriesStart < used ? entriesStart : -1;
+    }
+
+    int next(int pos) {
+        int end = skipEntry(pos);
+        return end < used ? end : -1;
+    }
+
+    /** Positions of all entries, for walking backwards. */
+    int[] positions() {
+        int[] positions = new int[slots()];
+        int n = 0;
+        for (int pos = first(); pos >= 0; pos = next(pos)) {
+            positions[n++] = pos;
+        }
+        return positions;
+    }
+
+    boolean isDeleted(int pos) {
+        return (buf[pos] & DELETED) != 0;
+    }
+
+    long ms(int pos) {
+        return masterMs + getLongVarint(pos + 1);
+    }
+
+    long seq(int pos) {
+        return masterSeq + unzigzag(getLongVarint(skipVarint(pos + 1)));
+    }
+
+    StreamId id(int pos) {
+        return new StreamId(ms(pos), seq(pos));
+    }
+
+    /** Compares the entry's ID with ms-seq. */
+    int compareId(int pos, long ms, long seq) {
+        long entryMs = ms(pos);
+        int c = Long.compare(entryMs, ms);
+        return c != 0 ? c : Long.compare(seq(pos), seq);
+    }
+
+    /** The entry's field, value, field, value... */
+    List<String> fieldsAndValues(int pos) {
+        int at = fieldsStart(pos);
+        if ((buf[pos] & SAME_FIELDS) != 0) {
+            List<String> items = new ArrayList<>(masterFieldCount * 2);
+            int field = varintSize(masterFieldCount);
+            for (int i = 0; i < masterFieldCount; i++) {
+                items.add(getString(field));
+                field = skipString(field);
+                items.add(getString(at));
+                at = skipString(at);
+            }
+            return items;
+        }
+        int count = getVarint(at);
+        at += varintSize(count);
+        List<String> items = new ArrayList<>(count * 2);
+        for (int i = 0; i < count * 2; i++) {
+            items.add(getString(at));
+            at = skipString(at);
+        }
+        return items;
+    }
+
+    /**
+     * Flags the entry as deleted.
+     *
+     * @return false if it already was
+     */
+    boolean delete(int pos) {
+        if (isDeleted(pos)) {
+            return false;
+        }
+        buf[pos] |= DELETED;
+        live--;
+        deleted++;
+        return true;
+    }
+
+    // --- Encoding ---
+
+    private int fieldsStart(int pos) {
+        return skipVarint(skipVarint(pos + 1));
+    }
+
+    private int skipEntry(int pos) {
+        int at = fieldsStart(pos);
+        int strings;
+        if ((buf[pos] & SAME_FIELDS) != 0) {
+            strings = masterFieldCount;
+        } else {
+            int count = getVarint(at);
+            at += varintSize(count);
+            strings = count * 2;
+        }
+        for (int i = 0; i < strings; i++) {
+            at = skipString(at);
+        }
+        return at;
+    }
+
+    private int skipString(int pos) {
+        int length = getVarint(pos);
+        return pos + varintSize(length) + length;
+    }
+
+    private String getString(int pos) {
+        int length = getVarint(pos);
+        return new String(buf, pos + varintSize(length), length, CHARSET);
+    }
+
+    private boolean equalsAt(int pos, int length, String s) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((buf[pos + i] & 0xff) != (s.charAt(i) & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void putString(String s) {
+        ensureCapacity(5 + s.length());
+        putVarint(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[used++] = (byte) s.charAt(i);
+        }
+    }
+
+    private static int totalLength(List<String> strings) {
+        int total = 0;
+        for (String s : strings) {
+            total += s.length();
+        }
+        return total;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (used + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, used + extra));
+        }
+    }
+
+    // Unsigned LEB128; IDs' deltas are non-negative longs
+    private void putVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[used++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[used++] = (byte) value;
+    }
+
+    private int getVarint(int pos) {
+        return (int) getLongVarint(pos);
+    }
+
+    private long getLongVarint(int pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private int skipVarint(int pos) {
+        while ((buf[pos] & 0x80) != 0) {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
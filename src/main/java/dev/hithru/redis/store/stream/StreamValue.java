@@ -0,0 +1,561 @@
+package dev.hithru.redis.store.stream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import dev.hithru.redis.store.CollectionValue;
+
+/**
+ * A stream: entries in ID order, in StreamPacks of up to NODE_MAX_ENTRIES
+ * entries / NODE_MAX_BYTES bytes held in a radix tree by their first ID,
+ * like Redis' rax of listpacks, plus its consumer groups.
+ *
+ * - Appending goes to the last node, or starts a new one once it is full
+ * - A range read seeks the node holding its start (floor of the start ID)
+ *   and then scans packed bytes, hopping to the next node by its ID
+ * - XDEL and exact trimming only flag entries; a node is unlinked once all
+ *   of its entries are, and approximate trimming (~) drops whole nodes only
+ * - lastId is the greatest ID ever added (or set by XSETID), so IDs never go
+ *   back even once the entries holding them are gone
+ *
+ * items() flattens the stream to strings (see SnapshotVisitor.stream),
+ * decoding entries as it is read; fromItems() reads that layout back.
+ */
+final class StreamValue implements CollectionValue {
+
+    static final String ENCODING = "stream";
+
+    // Like Redis' stream-node-max-entries / stream-node-max-bytes
+    static final int NODE_MAX_ENTRIES = 100;
+    static final int NODE_MAX_BYTES = 4096;
+
+    // Rough per-object sizes, for memory estimates
+    private static final long OVERHEAD = 96;
+    private static final long TREE_NODE_OVERHEAD = 64;
+    private static final long GROUP_OVERHEAD = 160;
+    private static final long CONSUMER_OVERHEAD = 96;
+    private static final long PENDING_OVERHEAD = 2 * TREE_NODE_OVERHEAD + 64;
+
+    private final RadixTree<StreamPack> nodes = new RadixTree<>();
+    private long length;
+    private StreamId lastId = StreamId.MIN;
+    private long packBytes;
+
+    final Map<String, ConsumerGroup> groups = new LinkedHashMap<>();
+
+    long length() {
+        return length;
+    }
+
+    StreamId lastId() {
+        return lastId;
+    }
+
+    void setLastId(StreamId id) {
+        lastId = id;
+    }
+
+    /**
+     * ID of the last entry still in the stream, or null if it is empty.
+     */
+    StreamId lastEntryId() {
+        StreamPack node = nodes.last();
+        if (node == null) {
+            return null;
+        }
+        int[] positions = node.positions();
+        for (int i = positions.length - 1; i >= 0; i--) {
+            if (!node.isDeleted(positions[i])) {
+                return node.id(positions[i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry; id must be greater than lastId.
+     */
+    void append(StreamId id, List<String> fieldsAndValues) {
+        StreamPack node = nodes.last();
+        if (node == null || node.slots() >= NODE_MAX_ENTRIES || node.bytes() >= NODE_MAX_BYTES) {
+            node = new StreamPack(id, fieldsAndValues);
+            nodes.put(id.key(), node);
+            packBytes += node.memoryUsage();
+        } else {
+            long before = node.memoryUsage();
+            node.append(id, fieldsAndValues);
+            packBytes += node.memoryUsage() - before;
+        }
+        length++;
+        lastId = id;
+    }
+
+    /**
+     * Entries from start to end, both inclusive, in ID order or backwards.
+     *
+     * @param count at most this many, 0 = no limit
+     */
+    List<StreamEntry> range(StreamId start, StreamId end, long count, boolean reverse) {
+        List<StreamEntry> entries = new ArrayList<>();
+        if (start.compareTo(end) > 0) {
+            return entries;
+        }
+        if (reverse) {
+            for (StreamPack node = nodes.floor(end.key()); node != null; node = previousNode(node)) {
+                int[] positions = node.positions();
+                for (int i = positions.length - 1; i >= 0; i--) {
+                    int pos = positions[i];
+                    if (node.isDeleted(pos) || node.compareId(pos, end.ms, end.seq) > 0) {
+                        continue;
+                    }
+                    if (node.compareId(pos, start.ms, start.seq) < 0) {
+                        return entries;
+                    }
+                    entries.add(new StreamEntry(node.id(pos), node.fieldsAndValues(pos)));
+                    if (entries.size() == count) {
+                        return entries;
+                    }
+                }
+            }
+            return entries;
+        }
+
+        StreamPack node = nodes.floor(start.key());
+        for (node = node == null ? nodes.first() : node; node != null; node = nextNode(node)) {
+            for (int pos = node.first(); pos >= 0; pos = node.next(pos)) {
+                if (node.isDeleted(pos) || node.compareId(pos, start.ms, start.seq) < 0) {
+                    continue;
+                }
+                if (node.compareId(pos, end.ms, end.seq) > 0) {
+                    return entries;
+                }
+                entries.add(new StreamEntry(node.id(pos), node.fieldsAndValues(pos)));
+                if (entries.size() == count) {
+                    return entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the fields and values of entry id, or null if it isn't in the stream
+     */
+    List<String> get(StreamId id) {
+        StreamPack node = nodes.floor(id.key());
+        int pos = node == null ? -1 : find(node, id);
+        return pos < 0 ? null : node.fieldsAndValues(pos);
+    }
+
+    /**
+     * @return false if entry id wasn't in the stream
+     */
+    boolean delete(StreamId id) {
+        StreamPack node = nodes.floor(id.key());
+        int pos = node == null ? -1 : find(node, id);
+        if (pos < 0) {
+            return false;
+        }
+        node.delete(pos);
+        length--;
+        if (node.size() == 0) {
+            removeNode(node);
+        }
+        return true;
+    }
+
+    // Position of the live entry id in node, or -1
+    private static int find(StreamPack node, StreamId id) {
+        for (int pos = node.first(); pos >= 0; pos = node.next(pos)) {
+            int c = node.compareId(pos, id.ms, id.seq);
+            if (c == 0) {
+                return node.isDeleted(pos) ? -1 : pos;
+            }
+            if (c > 0) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the oldest entries until at most maxLen are left.
+     *
+     * @param approx only remove whole nodes, possibly leaving more
+     * @param limit  remove at most this many entries, 0 = no limit (only with approx)
+     * @return the number of entries removed
+     */
+    long trimToLength(long maxLen, boolean approx, long limit) {
+        long removed = 0;
+        while (length > maxLen) {
+            StreamPack node = nodes.first();
+            int live = node.size();
+            if (length - live >= maxLen) {
+                if (limit > 0 && removed + live > limit) {
+                    break;
+                }
+                removeNode(node);
+                length -= live;
+                removed += live;
+                continue;
+            }
+            if (approx) {
+                break;
+            }
+            // The first entries of this node go, the node stays
+            for (int pos = node.first(); pos >= 0 && length > maxLen; pos = node.next(pos)) {
+                if (node.delete(pos)) {
+                    length--;
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the entries with an ID smaller than minId.
+     *
+     * @see #trimToLength
+     */
+    long trimToMinId(StreamId minId, boolean approx, long limit) {
+        long removed = 0;
+        while (length > 0) {
+            StreamPack node = nodes.first();
+            int live = node.size();
+            if (node.lastId().compareTo(minId) < 0) {
+                if (limit > 0 && removed + live > limit) {
+                    break;
+                }
+                removeNode(node);
+                length -= live;
+                removed += live;
+                continue;
+            }
+            if (!approx) {
+                for (int pos = node.first(); pos >= 0 && node.compareId(pos, minId.ms, minId.seq) < 0;
+                     pos = node.next(pos)) {
+                    if (node.delete(pos)) {
+                        length--;
+                        removed++;
+                    }
+                }
+                if (node.size() == 0) {
+                    removeNode(node);
+                }
+            }
+            break;
+        }
+        return removed;
+    }
+
+    private void removeNode(StreamPack node) {
+        nodes.remove(StreamId.key(node.masterMs, node.masterSeq));
+        packBytes -= node.memoryUsage();
+    }
+
+    private StreamPack nextNode(StreamPack node) {
+        StreamId after = node.lastId().next();
+        return after == null ? null : nodes.ceiling(after.key());
+    }
+
+    private StreamPack previousNode(StreamPack node) {
+        StreamId before = new StreamId(node.masterMs, node.masterSeq).previous();
+        return before == null ? null : nodes.floor(before.key());
+    }
+
+    // --- Consumer groups ---
+
+    /**
+     * XREADGROUP with ">": the entries after the group's last delivered
+     * ID, now delivered to consumer (and pending unless noAck).
+     */
+    List<StreamEntry> readNew(ConsumerGroup group, StreamConsumer consumer, long count, boolean noAck, long now) {
+        StreamId start = group.lastDelivered.next();
+        if (start == null) {
+            return new ArrayList<>();
+        }
+        List<StreamEntry> entries = range(start, StreamId.MAX, count, false);
+        for (StreamEntry entry : entries) {
+            group.lastDelivered = entry.id();
+            if (!noAck) {
+                group.deliver(entry.id(), consumer, now);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * XREADGROUP with an ID: consumer's pending entries after it, with
+     * null fields for those deleted from the stream since.
+     */
+    List<StreamEntry> readPending(StreamConsumer consumer, StreamId after, long count) {
+        List<StreamEntry> entries = new ArrayList<>();
+        StreamId start = after.next();
+        if (start == null) {
+            return entries;
+        }
+        for (PendingEntry pending : ConsumerGroup.range(consumer.pending, start, StreamId.MAX, count, 0, 0)) {
+            entries.add(new StreamEntry(pending.id(), get(pending.id())));
+        }
+        return entries;
+    }
+
+    /**
+     * XCLAIM: gives the pending entries ids idle for at least minIdleMs to
+     * consumer. Pending entries deleted from the stream are dropped instead.
+     *
+     * @param deliveryTime the entries' new delivery time
+     * @param retryCount   their new delivery count, -1 = one more (none more with justId)
+     * @param force        create pending entries for ids that aren't, if in the stream
+     * @return the entries claimed, without fields if justId
+     */
+    List<StreamEntry> claim(ConsumerGroup group, StreamConsumer consumer, long minIdleMs, List<StreamId> ids,
+                            long deliveryTime, long retryCount, boolean force, boolean justId, long now) {
+        List<StreamEntry> claimed = new ArrayList<>();
+        for (StreamId id : ids) {
+            byte[] key = id.key();
+            PendingEntry pending = group.pending.get(key);
+            List<String> fieldsAndValues = get(id);
+            if (fieldsAndValues == null) {
+                if (pending != null) {
+                    group.ack(id);
+                }
+                continue;
+            }
+            if (pending == null) {
+                if (!force) {
+                    continue;
+                }
+                pending = group.deliver(id, consumer, now);
+            }
+            if (minIdleMs > 0 && now - pending.deliveryTime < minIdleMs) {
+                continue;
+            }
+            if (pending.owner != consumer) {
+                pending.owner.pending.remove(key);
+                pending.owner = consumer;
+                consumer.pending.put(key, pending);
+            }
+            pending.deliveryTime = deliveryTime;
+            if (retryCount >= 0) {
+                pending.deliveryCount = retryCount;
+            } else if (!justId) {
+                pending.deliveryCount++;
+            }
+            claimed.add(new StreamEntry(id, justId ? null : fieldsAndValues));
+        }
+        return claimed;
+    }
+
+    @Override
+    public long memoryUsage() {
+        long total = OVERHEAD + nodes.nodeCount() * TREE_NODE_OVERHEAD + packBytes;
+        for (ConsumerGroup group : groups.values()) {
+            total += GROUP_OVERHEAD + group.name.length()
+                    + group.consumers.size() * CONSUMER_OVERHEAD + group.pending.size() * PENDING_OVERHEAD;
+        }
+        return total;
+    }
+
+    @Override
+    public String encoding() {
+        return ENCODING;
+    }
+
+    /**
+     * lastId, length, (id, fieldCount, field, value...) per entry, groupCount,
+     * then per group name, lastDelivered, consumerCount and per consumer
+     * name, seenTime, pendingCount, (id, deliveryTime, deliveryCount) per
+     * pending entry.
+     *
+     * Entries are decoded one at a time by the thread iterating; the consumer
+     * groups, small next to the entries, are listed as strings up front.
+     */
+    @Override
+    public Iterable<String> items() {
+        return () -> {
+            List<StreamPack> live = new ArrayList<>();
+            for (StreamPack node = nodes.first(); node != null; node = nextNode(node)) {
+                live.add(node);
+            }
+            return new ItemIterator(List.of(lastId.toString(), Long.toString(length)), live, groupItems());
+        };
+    }
+
+    List<String> toItems() {
+        List<String> items = new ArrayList<>();
+        items().forEach(items::add);
+        return items;
+    }
+
+    /**
+     * Copies the nodes as bytes, and the consumer groups with their PELs.
+     */
+    @Override
+    public StreamValue copy() {
+        StreamValue copy = new StreamValue();
+        for (StreamPack node = nodes.first(); node != null; node = nextNode(node)) {
+            StreamPack nodeCopy = node.copy();
+            copy.nodes.put(StreamId.key(node.masterMs, node.masterSeq), nodeCopy);
+            copy.packBytes += nodeCopy.memoryUsage();
+        }
+        copy.length = length;
+        copy.lastId = lastId;
+        for (ConsumerGroup group : groups.values()) {
+            copy.groups.put(group.name, group.copy());
+        }
+        return copy;
+    }
+
+    private List<String> groupItems() {
+        List<String> items = new ArrayList<>();
+        items.add(Integer.toString(groups.size()));
+        for (ConsumerGroup group : groups.values()) {
+            items.add(group.name);
+            items.add(group.lastDelivered.toString());
+            items.add(Integer.toString(group.consumers.size()));
+            for (StreamConsumer consumer : group.consumers.values()) {
+                items.add(consumer.name);
+                items.add(Long.toString(consumer.seenTime));
+                items.add(Integer.toString(consumer.pending.size()));
+                List<PendingEntry> entries = ConsumerGroup.range(consumer.pending, StreamId.MIN, StreamId.MAX, 0, 0, 0);
+                for (PendingEntry pending : entries) {
+                    items.add(pending.id().toString());
+                    items.add(Long.toString(pending.deliveryTime));
+                    items.add(Long.toString(pending.deliveryCount));
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * The items() layout over a stream's nodes, decoding one entry at a
+     * time: header, (id, fieldCount, field, value...) per live entry, groups.
+     */
+    private static final class ItemIterator implements Iterator<String> {
+        private final List<StreamPack> nodes;
+        private List<String> groupItems; // null once returned
+        private Iterator<String> chunk;
+        private int nodeIndex = -1;
+        private int pos = -1;            // next entry of nodes[nodeIndex]
+
+        ItemIterator(List<String> header, List<StreamPack> nodes, List<String> groupItems) {
+            this.chunk = header.iterator();
+            this.nodes = nodes;
+            this.groupItems = groupItems;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!chunk.hasNext()) {
+                List<String> next = nextChunk();
+                if (next == null) {
+                    return false;
+                }
+                chunk = next.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.next();
+        }
+
+        // The next live entry, then the groups, then null
+        private List<String> nextChunk() {
+            while (true) {
+                if (pos < 0) {
+                    if (++nodeIndex >= nodes.size()) {
+                        break;
+                    }
+                    pos = nodes.get(nodeIndex).first();
+                    continue;
+                }
+                StreamPack node = nodes.get(nodeIndex);
+                int entry = pos;
+                pos = node.next(pos);
+                if (node.isDeleted(entry)) {
+                    continue;
+                }
+                List<String> fieldsAndValues = node.fieldsAndValues(entry);
+                List<String> items = new ArrayList<>(fieldsAndValues.size() + 2);
+                items.add(node.id(entry).toString());
+                items.add(Integer.toString(fieldsAndValues.size() / 2));
+                items.addAll(fieldsAndValues);
+                return items;
+            }
+            List<String> rest = groupItems;
+            groupItems = null;
+            return rest;
+        }
+    }
+
+    /**
+     * Rebuilds a stream from the items() layout.
+     *
+     * @return the stream, or null if items aren't in that layout
+     */
+    static StreamValue fromItems(Iterable<String> items) {
+        try {
+            Iterator<String> it = items.iterator();
+            StreamValue stream = new StreamValue();
+            StreamId lastId = parseId(it.next());
+            long entries = Long.parseLong(it.next());
+            for (long i = 0; i < entries; i++) {
+                StreamId id = parseId(it.next());
+                int fields = Integer.parseInt(it.next());
+                if (id.compareTo(stream.lastId) <= 0 || fields <= 0) {
+                    return null;
+                }
+                List<String> fieldsAndValues = new ArrayList<>(fields * 2);
+                for (int f = 0; f < fields * 2; f++) {
+                    fieldsAndValues.add(it.next());
+                }
+                stream.append(id, fieldsAndValues);
+            }
+            if (lastId.compareTo(stream.lastId) < 0) {
+                return null;
+            }
+            stream.lastId = lastId;
+
+            int groupCount = Integer.parseInt(it.next());
+            for (int g = 0; g < groupCount; g++) {
+                ConsumerGroup group = new ConsumerGroup(it.next(), parseId(it.next()));
+                stream.groups.put(group.name, group);
+                int consumerCount = Integer.parseInt(it.next());
+                for (int c = 0; c < consumerCount; c++) {
+                    String name = it.next();
+                    StreamConsumer consumer = group.consumer(name, Long.parseLong(it.next()));
+                    int pendingCount = Integer.parseInt(it.next());
+                    for (int p = 0; p < pendingCount; p++) {
+                        StreamId id = parseId(it.next());
+                        PendingEntry pending = group.deliver(id, consumer, Long.parseLong(it.next()));
+                        pending.deliveryCount = Long.parseLong(it.next());
+                    }
+                }
+            }
+            return it.hasNext() ? null : stream;
+        } catch (RuntimeException e) {
+            // NoSuchElementException, NumberFormatException, a bad ID
+            return null;
+        }
+    }
+
+    private static StreamId parseId(String s) {
+        StreamId id = StreamId.parse(s, 0);
+        if (id == null) {
+            throw new IllegalArgumentException("Invalid stream ID: " + s);
+        }
+        return id;
+    }
+}
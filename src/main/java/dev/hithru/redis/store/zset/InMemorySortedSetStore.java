@@ -0,0 +1,239 @@
+package dev.hithru.redis.store.zset;
+
+import java.util.*;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+
+/**
+ * Sorted set commands (ZADD, ZRANGE, ZRANGEBYSCORE, ZRANK, ZSCORE, ZREM,
+ * ZCARD) over the shared keyspace.
+ *
+ *  - Small sorted sets are a ListPack of member/score pairs kept in order;
+ *    once one has more than maxListpackEntries members, or one longer than
+ *    maxListpackValue bytes, it becomes a skiplist plus member -> score map
+ *    for good (Redis' zset-max-listpack-entries / zset-max-listpack-value)
+ *  - Rank lookups and range starts are O(log n) on the skiplist
+ *  - A sorted set whose last member is removed is deleted
+ *  - Sorted sets live in the InMemoryKeyValueStore with every other key;
+ *    this class only reports size changes. A key of another type throws
+ *    WrongTypeException
+ */
+public class InMemorySortedSetStore {
+
+    public static final int DEFAULT_MAX_LISTPACK_ENTRIES = 128;
+    public static final int DEFAULT_MAX_LISTPACK_VALUE = 64;
+
+    private final InMemoryKeyValueStore keyspace;
+
+    private int maxListpackEntries = DEFAULT_MAX_LISTPACK_ENTRIES;
+    private int maxListpackValue = DEFAULT_MAX_LISTPACK_VALUE;
+
+    public InMemorySortedSetStore(InMemoryKeyValueStore keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * A store with a keyspace of its own.
+     */
+    public InMemorySortedSetStore() {
+        this(new InMemoryKeyValueStore());
+    }
+
+    /**
+     * Limits for the compact encoding; only affects sorted sets growing from now on.
+     */
+    public void setListpackLimits(int maxEntries, int maxValue) {
+        this.maxListpackEntries = maxEntries;
+        this.maxListpackValue = maxValue;
+    }
+
+    /**
+     * ZADD key [NX|XX] [CH] score member [score member ...]
+     *
+     * @param nx only add new members
+     * @param xx only update existing members (never creates the key)
+     * @param ch count updated scores too, not just added members
+     * @return number of members added (plus changed, with ch)
+     */
+    public int zadd(String key, double[] scores, List<String> members, boolean nx, boolean xx, boolean ch) {
+        SortedSetValue elements = xx ? lookupForWrite(key) : getOrCreate(key);
+        if (elements == null) {
+            return 0;
+        }
+
+        long before = elements.memoryUsage();
+        int added = 0;
+        int changed = 0;
+        for (int i = 0; i < members.size(); i++) {
+            String member = members.get(i);
+            double score = scores[i];
+            Double current = elements.score(member);
+            if (current == null ? xx : nx) {
+                continue;
+            }
+            if (current != null && current == score) {
+                continue;
+            }
+            elements.put(member, score, maxListpackEntries, maxListpackValue);
+            if (current == null) {
+                added++;
+            } else {
+                changed++;
+            }
+        }
+        keyspace.resized(elements.memoryUsage() - before);
+
+        if (elements.size() == 0) {
+            // Never leave an empty key behind
+            keyspace.delete(key);
+        }
+        return ch ? added + changed : added;
+    }
+
+    /**
+     * ZREM key member... -> number of members removed.
+     * The key is removed with its last member.
+     */
+    public int zrem(String key, List<String> members) {
+        SortedSetValue elements = lookupForWrite(key);
+        if (elements == null) {
+            return 0;
+        }
+
+        long before = elements.memoryUsage();
+        int removed = 0;
+        for (String member : members) {
+            if (elements.remove(member)) {
+                removed++;
+            }
+        }
+        keyspace.resized(elements.memoryUsage() - before);
+
+        if (elements.size() == 0) {
+            keyspace.delete(key);
+        }
+        return removed;
+    }
+
+    /**
+     * ZSCORE key member -> score, or null if the key or member is missing
+     */
+    public Double zscore(String key, String member) {
+        SortedSetValue elements = lookup(key);
+        return elements == null ? null : elements.score(member);
+    }
+
+    /**
+     * ZRANK key member -> 0-based rank by ascending score, or -1 if missing
+     */
+    public long zrank(String key, String member) {
+        SortedSetValue elements = lookup(key);
+        return elements == null ? -1 : elements.rank(member);
+    }
+
+    public int zcard(String key) {
+        SortedSetValue elements = lookup(key);
+        return elements == null ? 0 : elements.size();
+    }
+
+    /**
+     * ZRANGE key start stop, with the same index rules as LRANGE
+     * (negative = from the end, out of range clamped).
+     */
+    public List<ScoredMember> zrange(String key, int start, int stop) {
+        SortedSetValue elements = lookup(key);
+        if (elements == null) {
+            return Collections.emptyList();
+        }
+
+        int size = elements.size();
+        if (start < 0) {
+            start = Math.max(size + start, 0);
+        }
+        if (stop < 0) {
+            stop = size + stop;
+        }
+        if (stop >= size) {
+            stop = size - 1;
+        }
+        if (start >= size || start > stop) {
+            return Collections.emptyList();
+        }
+        return elements.range(start, stop);
+    }
+
+    /**
+     * ZRANGEBYSCORE key min max [LIMIT offset count]; count < 0 means no limit.
+     */
+    public List<ScoredMember> zrangeByScore(String key, ScoreRange range, int offset, int count) {
+        SortedSetValue elements = lookup(key);
+        if (elements == null || offset < 0) {
+            return Collections.emptyList();
+        }
+        return elements.rangeByScore(range, offset, count);
+    }
+
+    /**
+     * Parses a score the way Redis does: any double, plus "inf", "+inf" and
+     * "-inf" in any case. NaN is rejected.
+     *
+     * @throws NumberFormatException if s is not a valid score
+     */
+    public static double parseScore(String s) {
+        switch (s.toLowerCase(Locale.ROOT)) {
+            case "inf":
+            case "+inf":
+            case "infinity":
+            case "+infinity":
+                return Double.POSITIVE_INFINITY;
+            case "-inf":
+            case "-infinity":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                break;
+        }
+        if (s.isEmpty() || Character.isWhitespace(s.charAt(0))
+                || !Character.isDigit(s.charAt(s.length() - 1)) && s.charAt(s.length() - 1) != '.') {
+            // parseDouble would accept surrounding blanks and suffixes like "1d"
+            throw new NumberFormatException(s);
+        }
+        double value = Double.parseDouble(s);
+        if (Double.isNaN(value)) {
+            throw new NumberFormatException(s);
+        }
+        return value;
+    }
+
+    /**
+     * Formats a score for replies: whole numbers without a fraction ("3"),
+     * others in the shortest form that parses back to the same double,
+     * infinities as "inf" / "-inf".
+     */
+    public static String formatScore(double score) {
+        if (Double.isInfinite(score)) {
+            return score > 0 ? "inf" : "-inf";
+        }
+        if (score == Math.rint(score) && Math.abs(score) < 1e17) {
+            return Long.toString((long) score);
+        }
+        return Double.toString(score).replace('E', 'e');
+    }
+
+    private SortedSetValue lookup(String key) {
+        return (SortedSetValue) keyspace.lookup(key, ValueType.ZSET);
+    }
+
+    private SortedSetValue lookupForWrite(String key) {
+        return (SortedSetValue) keyspace.lookupForWrite(key, ValueType.ZSET);
+    }
+
+    private SortedSetValue getOrCreate(String key) {
+        SortedSetValue elements = lookupForWrite(key);
+        if (elements == null) {
+            elements = new SortedSetValue();
+            keyspace.add(key, ValueType.ZSET, elements);
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,32 @@
+package dev.hithru.redis.store.zset;
+
+/**
+ * Score interval for range queries, as in ZRANGEBYSCORE min max where
+ * either end may be exclusive ("(1.5") or infinite ("-inf", "+inf").
+ */
+public final class ScoreRange {
+    private final double min;
+    private final double max;
+    private final boolean minExclusive;
+    private final boolean maxExclusive;
+
+    public ScoreRange(double min, boolean minExclusive, double max, boolean maxExclusive) {
+        this.min = min;
+        this.max = max;
+        this.minExclusive = minExclusive;
+        this.maxExclusive = maxExclusive;
+    }
+
+    public boolean aboveMin(double score) {
+        return minExclusive ? score > min : score >= min;
+    }
+
+    public boolean belowMax(double score) {
+        return maxExclusive ? score < max : score <= max;
+    }
+
+    /** True if no score can be in the range. */
+    public boolean isEmpty() {
+        return min > max || (min == max && (minExclusive || maxExclusive));
+    }
+}
@@ -0,0 +1,41 @@
+package dev.hithru.redis.store.zset;
+
+/**
+ * One element of a sorted set, as returned by range queries.
+ */
+public final class ScoredMember {
+    private final String member;
+    private final double score;
+
+    public ScoredMember(String member, double score) {
+        this.member = member;
+        this.score = score;
+    }
+
+    public String member() {
+        return member;
+    }
+
+    public double score() {
+        return score;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ScoredMember)) {
+            return false;
+        }
+        ScoredMember other = (ScoredMember) o;
+        return member.equals(other.member) && Double.compare(score, other.score) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return member.hashCode() * 31 + Double.hashCode(score);
+    }
+
+    @Override
+    public String toString() {
+        return member + "=" + score;
+    }
+}
@@ -0,0 +1,318 @@
+package dev.hithru.redis.store.zset;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import dev.hithru.redis.store.CollectionValue;
+import dev.hithru.redis.store.ListPack;
+
+/**
+ * A sorted set value in one of two encodings, like Redis:
+ *  - listpack: member, score, member, score... in a ListPack kept sorted by
+ *              (score, member), while the set is small; every operation is a
+ *              linear scan over a few hundred bytes
+ *  - skiplist: a ZSkipList for order and rank plus a HashMap member -> score
+ *              for O(1) lookups, once either limit is exceeded; never
+ *              converts back
+ */
+final class SortedSetValue implements CollectionValue {
+
+    static final String LISTPACK = "listpack";
+    static final String SKIPLIST = "skiplist";
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    // Skiplist node with its arrays (1.33 levels on average), map node,
+    // boxed score, member String
+    private static final long SKIPLIST_ENTRY_OVERHEAD = 176;
+
+    private ListPack pack = new ListPack();
+    private ZSkipList list;
+    private HashMap<String, Double> scores;
+    private long skiplistBytes; // payload of the skiplist entries
+
+    Double score(String member) {
+        if (pack == null) {
+            return scores.get(member);
+        }
+        int pos = pack.find(member.getBytes(CHARSET), 2);
+        return pos < 0 ? null : pack.getDouble(pack.next(pos));
+    }
+
+    /**
+     * Adds member or moves it to its new score.
+     *
+     * @return true if member is new
+     */
+    boolean put(String member, double score, int maxPackEntries, int maxPackValue) {
+        if (pack != null) {
+            if (member.length() > maxPackValue) {
+                convert();
+            } else {
+                byte[] bytes = member.getBytes(CHARSET);
+                boolean existed = packRemove(bytes);
+                if (existed || pack.size() / 2 < maxPackEntries) {
+                    packInsert(bytes, score);
+                    return !existed;
+                }
+                convert();
+            }
+        }
+
+        Double previous = scores.put(member, score);
+        if (previous != null) {
+            if (previous != score) {
+                list.delete(previous, member);
+                list.insert(score, member);
+            }
+            return false;
+        }
+        list.insert(score, member);
+        skiplistBytes += SKIPLIST_ENTRY_OVERHEAD + member.length();
+        return true;
+    }
+
+    /**
+     * @return true if member existed
+     */
+    boolean remove(String member) {
+        if (pack != null) {
+            return packRemove(member.getBytes(CHARSET));
+        }
+        Double score = scores.remove(member);
+        if (score == null) {
+            return false;
+        }
+        list.delete(score, member);
+        skiplistBytes -= SKIPLIST_ENTRY_OVERHEAD + member.length();
+        return true;
+    }
+
+    /**
+     * 0-based rank by ascending score, or -1 if member is missing.
+     */
+    long rank(String member) {
+        if (pack == null) {
+            Double score = scores.get(member);
+            return score == null ? -1 : list.rank(score, member) - 1;
+        }
+        byte[] bytes = member.getBytes(CHARSET);
+        long rank = 0;
+        for (int pos = pack.first(); pos >= 0; pos = pack.next(pack.next(pos))) {
+            if (pack.equalsAt(pos, bytes)) {
+                return rank;
+            }
+            rank++;
+        }
+        return -1;
+    }
+
+    int size() {
+        return pack == null ? list.length() : pack.size() / 2;
+    }
+
+    /**
+     * Elements with 0-based ranks in [start, stop], both already within
+     * [0, size()).
+     */
+    List<ScoredMember> range(int start, int stop) {
+        List<ScoredMember> out = new ArrayList<>(stop - start + 1);
+        if (pack == null) {
+            ZSkipList.Node node = list.byRank(start + 1L);
+            for (int i = start; i <= stop; i++, node = node.next()) {
+                out.add(new ScoredMember(node.member, node.score));
+            }
+            return out;
+        }
+        int rank = 0;
+        for (int pos = pack.first(); pos >= 0 && rank <= stop; rank++) {
+            int scorePos = pack.next(pos);
+            if (rank >= start) {
+                out.add(new ScoredMember(pack.getString(pos), pack.getDouble(scorePos)));
+            }
+            pos = pack.next(scorePos);
+        }
+        return out;
+    }
+
+    /**
+     * Elements with scores in range, in order, skipping the first offset and
+     * returning at most count (all if count is negative).
+     */
+    List<ScoredMember> rangeByScore(ScoreRange range, int offset, int count) {
+        if (range.isEmpty() || count == 0) {
+            return Collections.emptyList();
+        }
+        List<ScoredMember> out = new ArrayList<>();
+        if (pack == null) {
+            ZSkipList.Node node = list.firstInRange(range);
+            for (; node != null && offset > 0; node = node.next()) {
+                offset--;
+            }
+            for (; node != null && range.belowMax(node.score); node = node.next()) {
+                out.add(new ScoredMember(node.member, node.score));
+                if (out.size() == count) {
+                    break;
+                }
+            }
+            return out;
+        }
+        for (int pos = pack.first(); pos >= 0; ) {
+            int scorePos = pack.next(pos);
+            double score = pack.getDouble(scorePos);
+            if (!range.belowMax(score)) {
+                break;
+            }
+            if (range.aboveMin(score)) {
+                if (offset > 0) {
+                    offset--;
+                } else {
+                    out.add(new ScoredMember(pack.getString(pos), score));
+                    if (out.size() == count) {
+                        break;
+                    }
+                }
+            }
+            pos = pack.next(scorePos);
+        }
+        return out;
+    }
+
+    /**
+     * All elements in order.
+     */
+    List<ScoredMember> toList() {
+        int size = size();
+        return size == 0 ? Collections.emptyList() : range(0, size - 1);
+    }
+
+    @Override
+    public long memoryUsage() {
+        if (pack != null) {
+            return pack.memoryUsage();
+        }
+        return 96 + scores.size() * 8L + skiplistBytes;
+    }
+
+    @Override
+    public String encoding() {
+        return pack == null ? SKIPLIST : LISTPACK;
+    }
+
+    /**
+     * Member, score, member, score... with scores as formatted for replies.
+     * A listpack is read as it is and a skiplist listed in order; members
+     * are decoded and scores formatted by whoever iterates.
+     */
+    @Override
+    public Iterable<String> items() {
+        if (pack != null) {
+            ListPack items = pack;
+            return () -> new Iterator<>() {
+                private int pos = items.first();
+                private boolean score;
+
+                @Override
+                public boolean hasNext() {
+                    return pos >= 0;
+                }
+
+                @Override
+                public String next() {
+                    if (pos < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    String item = score
+                            ? InMemorySortedSetStore.formatScore(items.getDouble(pos))
+                            : items.getString(pos);
+                    score = !score;
+                    pos = items.next(pos);
+                    return item;
+                }
+            };
+        }
+        return () -> new Iterator<>() {
+            private final List<ScoredMember> elements = toList();
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < elements.size() * 2;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ScoredMember element = elements.get(i / 2);
+                return i++ % 2 == 0 ? element.member() : InMemorySortedSetStore.formatScore(element.score());
+            }
+        };
+    }
+
+    @Override
+    public SortedSetValue copy() {
+        SortedSetValue copy = new SortedSetValue();
+        if (pack != null) {
+            copy.pack = pack.copy();
+            return copy;
+        }
+        copy.pack = null;
+        copy.list = new ZSkipList();
+        copy.scores = new HashMap<>(scores);
+        copy.skiplistBytes = skiplistBytes;
+        for (ScoredMember element : toList()) {
+            copy.list.insert(element.score(), element.member());
+        }
+        return copy;
+    }
+
+    private boolean packRemove(byte[] member) {
+        int pos = pack.find(member, 2);
+        if (pos < 0) {
+            return false;
+        }
+        pack.delete(pos, 2);
+        return true;
+    }
+
+    // Inserts before the first pair that sorts after (score, member)
+    private void packInsert(byte[] member, double score) {
+        int pos = pack.first();
+        while (pos >= 0) {
+            int scorePos = pack.next(pos);
+            double s = pack.getDouble(scorePos);
+            if (s > score || (s == score && pack.compareAt(pos, member) > 0)) {
+                break;
+            }
+            pos = pack.next(scorePos);
+        }
+        if (pos < 0) {
+            pos = pack.end();
+        }
+        // Score first, then the member in front of it
+        pack.insertDouble(pos, score);
+        pack.insert(pos, member);
+    }
+
+    private void convert() {
+        list = new ZSkipList();
+        scores = new HashMap<>(pack.size());
+        for (int pos = pack.first(); pos >= 0; ) {
+            String member = pack.getString(pos);
+            pos = pack.next(pos);
+            double score = pack.getDouble(pos);
+            pos = pack.next(pos);
+            scores.put(member, score);
+            list.insert(score, member);
+            skiplistBytes += SKIPLIST_ENTRY_OVERHEAD + member.length();
+        }
+        pack = null;
+    }
+}
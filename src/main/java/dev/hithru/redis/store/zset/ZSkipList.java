@@ -0,0 +1,219 @@
+package dev.hithru.redis.store.zset;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ZSkipList
+ *
+ * Redis' sorted set skiplist: elements ordered by (score, member), each node
+ * on a random number of levels (p = 1/4, at most 32). Every forward link
+ * also records its span, the number of elements it skips, so the rank of an
+ * element and the element at a rank are both found in O(log n) by summing
+ * spans on the way down. Level-0 nodes link backwards too, for the tail.
+ *
+ * Members compare as strings, which for the protocol's ISO-8859-1 mapping
+ * is the same as unsigned byte order.
+ *
+ * Not thread-safe.
+ */
+final class ZSkipList {
+
+    static final int MAX_LEVEL = 32;
+
+    static final class Node {
+        final String member;
+        final double score;
+        Node backward;
+        final Node[] forward;
+        final int[] span;
+
+        Node(int level, String member, double score) {
+            this.member = member;
+            this.score = score;
+            this.forward = new Node[level];
+            this.span = new int[level];
+        }
+
+        Node next() {
+            return forward[0];
+        }
+    }
+
+    private final Node header = new Node(MAX_LEVEL, null, 0);
+    private Node tail;
+    private int length;
+    private int level = 1;
+
+    int length() {
+        return length;
+    }
+
+    Node first() {
+        return header.forward[0];
+    }
+
+    Node last() {
+        return tail;
+    }
+
+    /**
+     * Adds an element; the caller makes sure member isn't in the list yet.
+     */
+    Node insert(double score, String member) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.forward[i] != null && less(x.forward[i], score, member)) {
+                rank[i] += x.span[i];
+                x = x.forward[i];
+            }
+            update[i] = x;
+        }
+
+        int newLevel = randomLevel();
+        if (newLevel > level) {
+            for (int i = level; i < newLevel; i++) {
+                rank[i] = 0;
+                update[i] = header;
+                update[i].span[i] = length;
+            }
+            level = newLevel;
+        }
+
+        x = new Node(newLevel, member, score);
+        for (int i = 0; i < newLevel; i++) {
+            x.forward[i] = update[i].forward[i];
+            update[i].forward[i] = x;
+            x.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        // Levels above the new node now skip one more element
+        for (int i = newLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+
+        x.backward = update[0] == header ? null : update[0];
+        if (x.forward[0] != null) {
+            x.forward[0].backward = x;
+        } else {
+            tail = x;
+        }
+        length++;
+        return x;
+    }
+
+    /**
+     * Removes the element with this score and member.
+     *
+     * @return false if there is none
+     */
+    boolean delete(double score, String member) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && less(x.forward[i], score, member)) {
+                x = x.forward[i];
+            }
+            update[i] = x;
+        }
+
+        x = x.forward[0];
+        if (x == null || x.score != score || !x.member.equals(member)) {
+            return false;
+        }
+
+        for (int i = 0; i < level; i++) {
+            if (update[i].forward[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].forward[i] = x.forward[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        if (x.forward[0] != null) {
+            x.forward[0].backward = x.backward;
+        } else {
+            tail = x.backward;
+        }
+        while (level > 1 && header.forward[level - 1] == null) {
+            level--;
+        }
+        length--;
+        return true;
+    }
+
+    /**
+     * 1-based rank of the element, or 0 if it isn't in the list.
+     */
+    long rank(double score, String member) {
+        long rank = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && !less(score, member, x.forward[i])) {
+                rank += x.span[i];
+                x = x.forward[i];
+            }
+            if (x != header && x.score == score && x.member.equals(member)) {
+                return rank;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Element at a 1-based rank, or null if out of range.
+     */
+    Node byRank(long rank) {
+        if (rank < 1 || rank > length) {
+            return null;
+        }
+        long traversed = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.forward[i];
+            }
+            if (traversed == rank) {
+                return x;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * First element with a score in range, or null.
+     */
+    Node firstInRange(ScoreRange range) {
+        if (range.isEmpty() || tail == null || !range.aboveMin(tail.score)) {
+            return null;
+        }
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && !range.aboveMin(x.forward[i].score)) {
+                x = x.forward[i];
+            }
+        }
+        x = x.forward[0];
+        return range.belowMax(x.score) ? x : null;
+    }
+
+    private static boolean less(Node node, double score, String member) {
+        return node.score < score || (node.score == score && node.member.compareTo(member) < 0);
+    }
+
+    private static boolean less(double score, String member, Node node) {
+        return score < node.score || (score == node.score && member.compareTo(node.member) < 0);
+    }
+
+    private static int randomLevel() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int level = 1;
+        while (level < MAX_LEVEL && random.nextInt(4) == 0) {
+            level++;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,133 @@
+package dev.hithru.redis.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterStateTest {
+
+    private static final String B = "b".repeat(40);
+    private static final String C = "c".repeat(40);
+
+    @TempDir
+    Path dir;
+
+    private ClusterState open() throws IOException {
+        return ClusterState.open(dir.resolve("nodes.conf"), "127.0.0.1", 7001, 15_000);
+    }
+
+    // A CLUSTER NODES line as a peer on port 7000 + id's first letter would send it
+    private static String line(String id, boolean sender, long epoch, String slots) {
+        int port = 7000 + id.charAt(0) - 'a' + 1;
+        return id + " 127.0.0.1:" + port + "@" + port + (sender ? " myself,master" : " master")
+                + " - 0 0 " + epoch + " connected" + (slots.isEmpty() ? "" : " " + slots);
+    }
+
+    @Test
+    void savesAndReloadsItsConfiguration() throws IOException {
+        ClusterState state = open();
+        for (int slot = 0; slot <= 100; slot++) {
+            state.assign(slot, state.myself());
+        }
+        state.merge(List.of(line(B, true, 3, "200-300")), null, 0);
+        state.setMigrating(7, state.node(B));
+        state.saveIfChanged();
+
+        ClusterState reloaded = open();
+        assertEquals(state.myself().id(), reloaded.myself().id());
+        assertSame(reloaded.myself(), reloaded.owner(100));
+        assertEquals(B, reloaded.owner(250).id());
+        assertEquals(3, reloaded.node(B).configEpoch());
+        assertEquals(3, reloaded.currentEpoch());
+        assertEquals(B, reloaded.migratingTo(7).id());
+        assertNull(reloaded.owner(150));
+    }
+
+    @Test
+    void claimWithHigherEpochWins() throws IOException {
+        ClusterState state = open();
+        state.assign(5, state.myself());
+
+        state.merge(List.of(line(B, true, 0, "5")), null, 0);
+        assertSame(state.myself(), state.owner(5), "same epoch: the current owner keeps it");
+
+        state.merge(List.of(line(B, true, 2, "5")), null, 0);
+        assertEquals(B, state.owner(5).id());
+        assertEquals(2, state.currentEpoch());
+    }
+
+    @Test
+    void learnsOtherNodesFromGossip() throws IOException {
+        ClusterState state = open();
+        state.merge(List.of(line(B, true, 1, "0-8191"), line(C, false, 1, "8192-16383")), B, 1000);
+
+        assertEquals(3, state.peers().size() + 1);
+        assertEquals(C, state.owner(16383).id());
+        assertTrue(state.isOk());
+        List<ClusterState.SlotRange> ranges = state.slotRanges();
+        assertEquals(2, ranges.size());
+        assertEquals(8192, ranges.get(1).start);
+        assertEquals(16383, ranges.get(1).end);
+        assertTrue(state.nodesDescription(1000).contains(C + " 127.0.0.1:7003@7003 master - 0 1000 1 disconnected 8192-16383"));
+    }
+
+    @Test
+    void nodeDroppingSlotsFirstHandUnassignsThem() throws IOException {
+        ClusterState state = open();
+        state.merge(List.of(line(B, true, 1, "0-9")), null, 0);
+        state.merge(List.of(line(B, true, 1, "0-4")), null, 0);
+
+        assertEquals(B, state.owner(4).id());
+        assertNull(state.owner(5));
+        assertFalse(state.isOk());
+    }
+
+    @Test
+    void takingOverAnImportedSlotMovesToTheHighestEpoch() throws IOException {
+        ClusterState state = open();
+        state.merge(List.of(line(B, true, 4, "10"), line(C, false, 6, "11")), null, 0);
+        state.setImporting(10, state.node(B));
+
+        state.setSlotNode(10, state.myself());
+        assertSame(state.myself(), state.owner(10));
+        assertNull(state.importingFrom(10));
+        assertEquals(7, state.myself().configEpoch());
+
+        // A stale claim from the previous owner loses
+        state.merge(List.of(line(B, true, 4, "10")), null, 0);
+        assertSame(state.myself(), state.owner(10));
+    }
+
+    @Test
+    void handshakeIsReplacedByTheNodeThatAnswers() throws IOException {
+        ClusterState state = open();
+        state.meet("127.0.0.1", 7002, 0);
+        List<ClusterNode> peers = state.peers();
+        assertEquals(1, peers.size());
+        String placeholder = peers.get(0).id();
+        assertTrue(state.gossip(0).stream().noneMatch(l -> l.startsWith(placeholder)), "handshakes aren't gossiped");
+
+        state.merge(List.of(line(B, true, 0, "")), placeholder, 0);
+        assertNull(state.node(placeholder));
+        assertNotNull(state.node(B));
+        assertEquals(1, state.peers().size());
+    }
+
+    @Test
+    void forgottenNodeIsIgnoredInGossipForAWhile() throws IOException {
+        ClusterState state = open();
+        state.merge(List.of(line(B, true, 0, "1")), null, 0);
+        assertTrue(state.forget(B, 0));
+        assertNull(state.owner(1));
+
+        state.merge(List.of(line(B, false, 0, "1")), null, 1000);
+        assertNull(state.node(B));
+        state.merge(List.of(line(B, false, 0, "1")), null, 120_000);
+        assertNotNull(state.node(B));
+    }
+}
@@ -0,0 +1,137 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.server.KeySlot;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockedClientsTest {
+
+    private final Timers timers = new Timers();
+
+    private SimpleCommandHandler shard() {
+        SimpleCommandHandler shard = new SimpleCommandHandler();
+        shard.attach(Runnable::run, timers);
+        return shard;
+    }
+
+    private static ClientSession client() {
+        return new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+    }
+
+    // What another event loop runs client's forwarded commands through
+    private static ClientSession standIn(ClientSession client) {
+        return new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES) {
+            @Override
+            public ClientSession connection() {
+                return client;
+            }
+
+            @Override
+            public boolean isClosed() {
+                return client.isClosed();
+            }
+        };
+    }
+
+    private static String run(SimpleCommandHandler shard, ClientSession client, String... args) throws Exception {
+        shard.handleCommand(client, RespCommand.of(args));
+        shard.onTick();
+        return output(client);
+    }
+
+    private static String output(ClientSession client) {
+        return StandardCharsets.ISO_8859_1.decode(client.writer().drain()).toString();
+    }
+
+    private static boolean hasBlockedClients(SimpleCommandHandler shard) throws Exception {
+        return !run(shard, client(), "INFO", "clients").contains("blocked_clients:0\r\n");
+    }
+
+    @Test
+    void disconnectForgetsAClientBlockedThroughAnotherLoop() throws Exception {
+        SimpleCommandHandler shard = shard();
+        ClientSession client = client();
+        ClientSession forwarded = standIn(client);
+
+        assertEquals("", run(shard, forwarded, "BLPOP", "list", "other", "0"));
+        assertTrue(hasBlockedClients(shard));
+
+        // Its own loop tells every other shard once the connection is gone
+        client.close();
+        shard.remoteClientDisconnected(client);
+        assertFalse(hasBlockedClients(shard));
+
+        // The push isn't handed to the client that left
+        assertEquals(":1\r\n", run(shard, client(), "RPUSH", "list", "a"));
+        assertEquals(":1\r\n", run(shard, client(), "LLEN", "list"));
+        assertEquals("", output(forwarded));
+    }
+
+    @Test
+    void disconnectCancelsTheTimeout() throws Exception {
+        SimpleCommandHandler shard = shard();
+        ClientSession client = client();
+        shard.clientConnected(client);
+
+        assertEquals("", run(shard, client, "BRPOPLPUSH", "src", "dst", "30"));
+        assertNotEquals(Long.MAX_VALUE, timers.nextDeadline());
+
+        client.close();
+        shard.clientDisconnected(client);
+        assertFalse(hasBlockedClients(shard));
+        assertEquals(Long.MAX_VALUE, timers.nextDeadline());
+    }
+
+    @Test
+    void blockingOnAClosedClientIsANoOp() throws Exception {
+        SimpleCommandHandler shard = shard();
+        ClientSession client = client();
+        client.close();
+
+        // Forwarded before the disconnect, run after it
+        run(shard, standIn(client), "BLPOP", "list", "0");
+        assertFalse(hasBlockedClients(shard));
+    }
+
+    @Test
+    void refusesKeysOfSeveralShards() throws Exception {
+        SimpleCommandHandler first = shard();
+        SimpleCommandHandler second = shard();
+        List<SimpleCommandHandler> shards = List.of(first, second);
+        first.setShards(shards);
+        second.setShards(shards);
+        String a = key("a", 0);
+        String b = key("b", 1);
+        String c = key("c", 0);
+
+        String crossSlot = "-CROSSSLOT Keys in request don't hash to the same slot\r\n";
+        ClientSession client = client();
+        assertEquals(crossSlot, run(first, client, "BLPOP", a, b, "0"));
+        assertEquals(crossSlot, run(first, client, "LMOVE", a, b, "LEFT", "RIGHT"));
+        assertEquals(crossSlot, run(first, client, "BLMOVE", a, b, "LEFT", "RIGHT", "0"));
+        assertEquals(crossSlot, run(first, client, "BRPOPLPUSH", a, b, "0"));
+        assertFalse(hasBlockedClients(first));
+
+        // Keys of one shard still move
+        assertEquals(":1\r\n", run(first, client, "RPUSH", a, "x"));
+        assertEquals("$1\r\nx\r\n", run(first, client, "LMOVE", a, c, "LEFT", "RIGHT"));
+        assertEquals("*2\r\n$" + c.length() + "\r\n" + c + "\r\n$1\r\nx\r\n", run(first, client, "BLPOP", a, c, "0"));
+    }
+
+    // A key owned by shard of two
+    private static String key(String prefix, int shard) {
+        for (int i = 0; ; i++) {
+            String key = prefix + ":" + i;
+            if (KeySlot.slot(key) % 2 == shard) {
+                return key;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.protocol.RespCommand;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandTableTest {
+
+    private static CommandSpec spec(String name, int arity) {
+        return new CommandSpec(name, arity, CommandSpec.READONLY | CommandSpec.FAST, 1, 1, 1, (c, a) -> { });
+    }
+
+    @Test
+    void looksUpNamesIgnoringCaseFromRawArguments() {
+        CommandTable table = new CommandTable();
+        CommandSpec get = spec("get", 2);
+        table.add(get);
+        // Enough to make the table grow a few times
+        for (int i = 0; i < 200; i++) {
+            table.add(spec("cmd" + i, -1));
+        }
+
+        assertSame(get, table.lookup(RespCommand.of("GET", "k")));
+        assertSame(get, table.lookup(RespCommand.of("gEt", "k")));
+        assertSame(get, table.find("Get"));
+        assertEquals("cmd150", table.lookup(RespCommand.of("CMD150")).name);
+        assertNull(table.lookup(RespCommand.of("GETX")));
+        assertNull(table.lookup(RespCommand.of("ge")));
+        assertNull(table.lookup(RespCommand.ofBytes(new byte[] { (byte) 0xc7, 'E', 'T' })));
+        assertEquals(201, table.all().size());
+        assertThrows(IllegalArgumentException.class, () -> table.add(spec("GET", 2)));
+    }
+
+    @Test
+    void arityIsExactOrAMinimum() {
+        assertTrue(spec("get", 2).arityMatches(2));
+        assertFalse(spec("get", 2).arityMatches(3));
+        assertTrue(spec("del", -2).arityMatches(5));
+        assertFalse(spec("del", -2).arityMatches(1));
+        assertArrayEquals(new String[] { "readonly", "fast" }, spec("get", 2).flagNames());
+    }
+}
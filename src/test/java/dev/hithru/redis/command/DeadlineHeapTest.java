@@ -0,0 +1,67 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineHeapTest {
+
+    private static final class Timer extends DeadlineHeap.Entry {
+        Timer(long deadline) {
+            super(deadline);
+        }
+    }
+
+    @Test
+    void pollsOnlyExpiredEntriesInDeadlineOrder() {
+        DeadlineHeap<Timer> heap = new DeadlineHeap<>();
+        Timer late = new Timer(300);
+        Timer early = new Timer(100);
+        Timer middle = new Timer(200);
+        heap.add(late);
+        heap.add(early);
+        heap.add(middle);
+
+        assertEquals(100, heap.firstDeadline());
+        assertNull(heap.pollExpired(99));
+        assertSame(early, heap.pollExpired(250));
+        assertSame(middle, heap.pollExpired(250));
+        assertNull(heap.pollExpired(250));
+        assertEquals(1, heap.size());
+    }
+
+    @Test
+    void removesEntriesFromAnywhere() {
+        DeadlineHeap<Timer> heap = new DeadlineHeap<>();
+        Random random = new Random(42);
+        List<Timer> timers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Timer timer = new Timer(random.nextInt(10_000));
+            timers.add(timer);
+            heap.add(timer);
+        }
+        List<Timer> kept = new ArrayList<>();
+        for (int i = 0; i < timers.size(); i++) {
+            if (i % 3 == 0) {
+                heap.remove(timers.get(i));
+            } else {
+                kept.add(timers.get(i));
+            }
+        }
+        heap.remove(timers.get(0)); // not in the heap any more: ignored
+        assertEquals(kept.size(), heap.size());
+
+        long previous = Long.MIN_VALUE;
+        Timer timer;
+        while ((timer = heap.pollExpired(Long.MAX_VALUE)) != null) {
+            assertTrue(timer.deadline >= previous);
+            assertTrue(kept.contains(timer));
+            previous = timer.deadline;
+        }
+        assertTrue(heap.isEmpty());
+    }
+}
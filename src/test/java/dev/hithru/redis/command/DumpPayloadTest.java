@@ -0,0 +1,43 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import dev.hithru.redis.store.ValueType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DumpPayloadTest {
+
+    @Test
+    void roundTripsEveryType() {
+        for (ValueType type : ValueType.values()) {
+            List<String> items = type == ValueType.STRING ? List.of("value") : List.of("a", "1", "b", "2.5");
+            DumpPayload decoded = DumpPayload.decode(DumpPayload.encode(type, items));
+            assertNotNull(decoded, type.typeName());
+            assertEquals(type, decoded.type);
+            assertEquals(items, decoded.items);
+        }
+    }
+
+    @Test
+    void keepsBinaryItems() {
+        String binary = "\r\n\u0000ÿ$*";
+        DumpPayload decoded = DumpPayload.decode(DumpPayload.encode(ValueType.SET, List.of(binary, "")));
+        assertEquals(List.of(binary, ""), decoded.items);
+    }
+
+    @Test
+    void rejectsCorruptOrTruncatedPayloads() {
+        String payload = DumpPayload.encode(ValueType.LIST, List.of("x", "y"));
+
+        char[] flipped = payload.toCharArray();
+        flipped[10] ^= 1;
+        assertNull(DumpPayload.decode(new String(flipped)));
+        assertNull(DumpPayload.decode(payload.substring(0, payload.length() - 1)));
+        assertNull(DumpPayload.decode(payload.substring(3)));
+        assertNull(DumpPayload.decode(""));
+        assertNull(DumpPayload.decode("not a payload"));
+    }
+}
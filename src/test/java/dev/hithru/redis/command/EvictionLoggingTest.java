@@ -0,0 +1,53 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import dev.hithru.redis.persistence.AppendOnlyFile;
+import dev.hithru.redis.persistence.FsyncPolicy;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.store.eviction.EvictionPolicy;
+import dev.hithru.redis.store.eviction.Evictor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvictionLoggingTest {
+
+    @TempDir
+    Path dir;
+
+    private static String run(SimpleCommandHandler handler, String... args) throws Exception {
+        ClientSession client = new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        handler.handleCommand(client, RespCommand.of(args));
+        handler.onTick();
+        return StandardCharsets.ISO_8859_1.decode(client.writer().drain()).toString();
+    }
+
+    @Test
+    void evictedKeysAreDeletedOnReplayToo() throws Exception {
+        Path path = dir.resolve("appendonly.aof");
+        // Room for nothing: every write first evicts whatever is there
+        SimpleCommandHandler handler = new SimpleCommandHandler(1, EvictionPolicy.ALLKEYS_LRU,
+                Evictor.DEFAULT_SAMPLES);
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.NO)) {
+            handler.setAppendOnlyFile(aof);
+            assertEquals(":1\r\n", run(handler, "RPUSH", "k", "a"));
+            assertEquals(":1\r\n", run(handler, "RPUSH", "k", "b"));
+            assertTrue(run(handler, "INFO", "stats").contains("evicted_keys:1\r\n"));
+        }
+
+        SimpleCommandHandler restarted = new SimpleCommandHandler();
+        AppendOnlyFile.replay(path, command -> {
+            try {
+                restarted.replay(command);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertEquals("*1\r\n$1\r\nb\r\n", run(restarted, "LRANGE", "k", "0", "-1"));
+    }
+}
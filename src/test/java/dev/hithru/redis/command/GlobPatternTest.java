@@ -0,0 +1,52 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobPatternTest {
+
+    private static boolean matches(String pattern, String s) {
+        return GlobPattern.compile(pattern).matches(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void starsAndQuestionMarks() {
+        assertTrue(matches("*", ""));
+        assertTrue(GlobPattern.compile("**").matchesAll());
+        assertFalse(GlobPattern.compile("user:*").matchesAll());
+
+        assertTrue(matches("user:*", "user:42"));
+        assertFalse(matches("user:*", "session:42"));
+        assertTrue(matches("*:42", "user:42"));
+        assertTrue(matches("u*r*2", "user:42"));
+        assertFalse(matches("u*r*3", "user:42"));
+        assertTrue(matches("h?llo", "hello"));
+        assertFalse(matches("h?llo", "hllo"));
+        assertTrue(matches("a*b*c", "aXbYbZc"));
+    }
+
+    @Test
+    void classesRangesAndEscapes() {
+        assertTrue(matches("h[ae]llo", "hallo"));
+        assertFalse(matches("h[ae]llo", "hillo"));
+        assertTrue(matches("h[^e]llo", "hallo"));
+        assertFalse(matches("h[^e]llo", "hello"));
+        assertTrue(matches("key[0-9]", "key7"));
+        assertTrue(matches("key[9-0]", "key7"), "reversed ranges work too");
+        assertFalse(matches("key[0-9]", "keyx"));
+
+        assertTrue(matches("a\\*b", "a*b"));
+        assertFalse(matches("a\\*b", "aXb"));
+        assertTrue(matches("[\\]]", "]"));
+    }
+
+    @Test
+    void matchesArbitraryBytes() {
+        assertTrue(matches("ÿ*", "ÿ\u0000x"));
+        assertTrue(matches("[\u0080-ÿ]", "È"));
+        assertFalse(matches("[\u0000-\u007f]", "È"));
+    }
+}
@@ -0,0 +1,96 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobTrieTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static Set<String> matches(GlobTrie<String> trie, String s) {
+        Set<String> found = new TreeSet<>();
+        trie.match(bytes(s), (pattern, value) -> assertTrue(found.add(value), "reported twice: " + value));
+        return found;
+    }
+
+    @Test
+    void findsEveryMatchingPattern() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        for (String pattern : List.of("cache:*", "cache:user:*", "cache:user:?", "*:42", "cache:[ab]*",
+                "news.*", "*", "exact", "a*", "a**")) {
+            trie.put(bytes(pattern), pattern);
+        }
+
+        assertEquals(Set.of("*", "cache:*", "cache:user:*", "*:42"), matches(trie, "cache:user:42"));
+        assertEquals(Set.of("*", "cache:*", "cache:user:*", "cache:user:?"), matches(trie, "cache:user:7"));
+        assertEquals(Set.of("*", "cache:*", "cache:[ab]*"), matches(trie, "cache:b"));
+        assertEquals(Set.of("*", "exact"), matches(trie, "exact"));
+        assertEquals(Set.of("*", "a*", "a**"), matches(trie, "a"));
+        assertEquals(Set.of("*"), matches(trie, ""));
+        assertEquals(10, trie.size());
+    }
+
+    @Test
+    void agreesWithGlobPattern() {
+        String[] tokens = { "a", "b", ":", "*", "?", "[ab]", "[^a]", "[a-c]", "\\*", "\\" };
+        Random random = new Random(7);
+        List<String> patterns = new ArrayList<>();
+        GlobTrie<String> trie = new GlobTrie<>();
+        for (int i = 0; i < 300; i++) {
+            StringBuilder pattern = new StringBuilder();
+            int length = random.nextInt(6);
+            for (int t = 0; t < length; t++) {
+                pattern.append(tokens[random.nextInt(tokens.length)]);
+            }
+            if (trie.put(bytes(pattern.toString()), pattern.toString()) == null) {
+                patterns.add(pattern.toString());
+            }
+        }
+
+        String alphabet = "abc:*\\";
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(7);
+            for (int c = 0; c < length; c++) {
+                s.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            Set<String> expected = new TreeSet<>();
+            for (String pattern : patterns) {
+                if (GlobPattern.compile(pattern).matches(bytes(s.toString()))) {
+                    expected.add(pattern);
+                }
+            }
+            assertEquals(expected, matches(trie, s.toString()), "for " + s);
+        }
+    }
+
+    @Test
+    void removesPatternsAndTheirNodes() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.put(bytes("news.*"), "news");
+        trie.put(bytes("news.[ab]"), "ab");
+        trie.put(bytes("news.a"), "a");
+
+        assertEquals("ab", trie.remove(bytes("news.[ab]")));
+        assertNull(trie.remove(bytes("news.[ab]")));
+        assertNull(trie.remove(bytes("news.b")));
+        assertEquals(Set.of("news", "a"), matches(trie, "news.a"));
+
+        assertEquals("news", trie.remove(bytes("news.*")));
+        assertEquals("a", trie.get(bytes("news.a")));
+        assertEquals(Set.of(), matches(trie, "news.b"));
+        assertEquals("a", trie.remove(bytes("news.a")));
+        assertEquals(0, trie.size());
+        assertNull(trie.get(bytes("news.a")));
+    }
+}
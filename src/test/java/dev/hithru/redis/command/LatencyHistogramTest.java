@@ -0,0 +1,58 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentilesAreWithinOneBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 10_000; v++) {
+            histogram.record(v * 1000);
+        }
+
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000_000, histogram.max());
+        assertEquals(5_000_000, histogram.percentile(50), 5_000_000 * 0.07);
+        assertEquals(9_900_000, histogram.percentile(99), 9_900_000 * 0.07);
+        assertEquals(10_000_000, histogram.percentile(100));
+        assertTrue(histogram.percentile(50) >= 5_000_000, "reports the bucket's upper bound");
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+
+        assertEquals(3, histogram.percentile(50));
+        assertEquals(7, histogram.percentile(99));
+        assertEquals(1, histogram.countAtOrBelow(3));
+        assertEquals(2, histogram.countAtOrBelow(1000));
+    }
+
+    @Test
+    void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.count());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(histogram.max(), histogram.percentile(100));
+        assertEquals(2, histogram.countAtOrBelow(Long.MAX_VALUE));
+    }
+
+    @Test
+    void resetEmptiesIt() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1234);
+        histogram.reset();
+
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(99));
+    }
+}
@@ -0,0 +1,62 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeriodicWorkTest {
+
+    @TempDir
+    Path dir;
+
+    private final Timers timers = new Timers();
+
+    // Runs the handler's timers the way an event loop would, up to max wakeups
+    private int wakeups(SimpleCommandHandler handler, int max) throws Exception {
+        int wakeups = 0;
+        while (wakeups < max && timers.nextDeadline() != Long.MAX_VALUE) {
+            timers.runDue(timers.nextDeadline());
+            handler.onTick();
+            wakeups++;
+        }
+        return wakeups;
+    }
+
+    @Test
+    void idleServerWithReplicationEnabledNeverWakesUp() throws Exception {
+        SimpleCommandHandler handler = new SimpleCommandHandler();
+        handler.configureReplication(dir, 1024 * 1024, 6379);
+        handler.attach(Runnable::run, timers);
+
+        handler.handleCommand(new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES),
+                RespCommand.of("SET", "k", "v"));
+        handler.onTick();
+        assertEquals(0, wakeups(handler, 10));
+    }
+
+    @Test
+    void cronRunsWhileAReplicaIsConnected() throws Exception {
+        SimpleCommandHandler handler = new SimpleCommandHandler();
+        handler.configureReplication(dir, 1024 * 1024, 6379);
+        handler.attach(Runnable::run, timers);
+        handler.onTick();
+        assertEquals(0, wakeups(handler, 10));
+
+        ClientSession replica = new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        handler.clientConnected(replica);
+        handler.handleCommand(replica, RespCommand.of("REPLCONF", "listening-port", "6380"));
+        handler.onTick();
+        assertEquals(10, wakeups(handler, 10));
+
+        // At most the wakeup already scheduled once it has gone
+        replica.close();
+        handler.clientDisconnected(replica);
+        assertTrue(wakeups(handler, 10) <= 1);
+    }
+}
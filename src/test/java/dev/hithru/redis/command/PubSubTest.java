@@ -0,0 +1,118 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import dev.hithru.redis.server.ClientSession;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PubSubTest {
+
+    private final List<ClientSession> closed = new ArrayList<>();
+    private final PubSub pubSub = new PubSub(client -> {
+        client.close();
+        closed.add(client);
+    });
+
+    private static ClientSession client() {
+        return new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+    }
+
+    private static String output(ClientSession client) {
+        return StandardCharsets.ISO_8859_1.decode(client.writer().drain()).toString();
+    }
+
+    private int publish(String channel, String message) {
+        return pubSub.publish(channel, message, PubSub.encodeMessage(channel, message));
+    }
+
+    @Test
+    void deliversToChannelAndPatternSubscribers() {
+        ClientSession a = client();
+        ClientSession b = client();
+        pubSub.subscribe(a, "news");
+        pubSub.psubscribe(b, "ne*");
+        pubSub.psubscribe(b, "n?ws");
+
+        assertEquals(3, publish("news", "hi"));
+        assertEquals(0, publish("sports", "hi"));
+
+        assertEquals("*3\r\n$7\r\nmessage\r\n$4\r\nnews\r\n$2\r\nhi\r\n", output(a));
+        String patternMessages = output(b);
+        assertTrue(patternMessages.contains("*4\r\n$8\r\npmessage\r\n$3\r\nne*\r\n$4\r\nnews\r\n$2\r\nhi\r\n"));
+        assertTrue(patternMessages.contains("*4\r\n$8\r\npmessage\r\n$4\r\nn?ws\r\n$4\r\nnews\r\n$2\r\nhi\r\n"));
+    }
+
+    @Test
+    void sharesOneEncodedMessage() {
+        ClientSession a = client();
+        ClientSession b = client();
+        pubSub.subscribe(a, "news");
+        pubSub.subscribe(b, "news");
+        ByteBuffer encoded = PubSub.encodeMessage("news", "hi");
+
+        assertEquals(2, pubSub.publish("news", "hi", encoded));
+
+        // Each subscriber consumed its own view, the original is untouched
+        assertEquals(output(a), output(b));
+        assertEquals(0, encoded.position());
+    }
+
+    @Test
+    void unsubscribeForgetsTheClient() {
+        ClientSession a = client();
+        pubSub.subscribe(a, "news");
+        pubSub.psubscribe(a, "n*");
+        assertFalse(pubSub.subscribe(a, "news"));
+        assertEquals(2, a.subscriptions().count());
+
+        assertTrue(pubSub.unsubscribe(a, "news"));
+        assertFalse(pubSub.unsubscribe(a, "news"));
+        assertEquals(1, publish("news", "hi"));
+
+        pubSub.unsubscribeAll(a);
+        assertFalse(a.isSubscribed());
+        assertEquals(0, publish("news", "hi"));
+        assertEquals(0, pubSub.channelCount());
+        assertEquals(Set.of(), pubSub.activePatterns());
+    }
+
+    @Test
+    void disconnectsSubscribersThatFallBehind() {
+        ClientSession slow = client();
+        ClientSession fast = client();
+        pubSub.subscribe(slow, "news");
+        pubSub.subscribe(fast, "news");
+        pubSub.setOutputLimit(100);
+
+        String message = "x".repeat(40);
+        assertEquals(2, publish("news", message));
+        output(fast);
+        assertEquals(1, publish("news", message), "the client cut off doesn't count");
+
+        assertEquals(List.of(slow), closed);
+        assertTrue(slow.isClosed());
+        assertFalse(fast.isClosed());
+    }
+
+    @Test
+    void countsOnlyClientsTheMessageReached() {
+        ClientSession slow = client();
+        ClientSession gone = client();
+        pubSub.subscribe(slow, "news");
+        pubSub.psubscribe(slow, "n*");
+        pubSub.subscribe(gone, "news");
+        gone.close();
+        pubSub.setOutputLimit(60);
+
+        // Over the limit on the channel message, so the pmessage isn't queued either
+        assertEquals(0, publish("news", "x".repeat(40)));
+        assertEquals(List.of(slow), closed);
+    }
+}
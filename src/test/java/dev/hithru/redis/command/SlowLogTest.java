@@ -0,0 +1,79 @@
+package dev.hithru.redis.command;
+
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowLogTest {
+
+    private final ClientSession client = new ClientSession(null, session -> { }, 0);
+
+    @Test
+    void logsOnlyCommandsOverTheThreshold() {
+        SlowLog log = new SlowLog();
+        log.configure(100, 10);
+
+        log.record(RespCommand.of("GET", "fast"), 100_000, client);
+        log.record(RespCommand.of("KEYS", "*"), 150_000, client);
+
+        assertEquals(1, log.length());
+        SlowLog.Entry entry = log.get(-1).get(0);
+        assertEquals(0, entry.id);
+        assertEquals(150, entry.durationUsec);
+        assertEquals(List.of("KEYS", "*"), entry.args);
+        assertEquals("", entry.client);
+    }
+
+    @Test
+    void keepsTheNewestEntries() {
+        SlowLog log = new SlowLog();
+        log.configure(0, 2);
+
+        log.record(RespCommand.of("A"), 1000, client);
+        log.record(RespCommand.of("B"), 1000, client);
+        log.record(RespCommand.of("C"), 1000, client);
+
+        assertEquals(2, log.length());
+        List<SlowLog.Entry> entries = log.get(10);
+        assertEquals(List.of("C"), entries.get(0).args);
+        assertEquals(List.of("B"), entries.get(1).args);
+        assertEquals(1, log.get(1).size());
+
+        log.reset();
+        assertEquals(0, log.length());
+    }
+
+    @Test
+    void negativeThresholdDisablesIt() {
+        SlowLog log = new SlowLog();
+        log.configure(-1, 10);
+
+        log.record(RespCommand.of("DEBUG", "SLEEP"), Long.MAX_VALUE / 2, client);
+
+        assertEquals(0, log.length());
+    }
+
+    @Test
+    void truncatesLongArgumentsLikeRedis() {
+        SlowLog log = new SlowLog();
+        log.configure(0, 10);
+        List<String> args = new ArrayList<>();
+        args.add("DEL");
+        args.add("x".repeat(200));
+        for (int i = 0; i < 40; i++) {
+            args.add("k" + i);
+        }
+
+        log.record(RespCommand.of(args), 1000, client);
+
+        List<String> logged = log.get(1).get(0).args;
+        assertEquals(32, logged.size());
+        assertEquals("x".repeat(128) + "... (72 more bytes)", logged.get(1));
+        assertEquals("... (11 more arguments)", logged.get(31));
+    }
+}
@@ -0,0 +1,48 @@
+package dev.hithru.redis.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimersTest {
+
+    @Test
+    void runsDueTimersInDeadlineOrder() {
+        Timers timers = new Timers();
+        List<String> ran = new ArrayList<>();
+        timers.schedule(300, () -> ran.add("late"));
+        timers.schedule(100, () -> ran.add("early"));
+        Timers.Timer cancelled = timers.schedule(200, () -> ran.add("cancelled"));
+
+        assertEquals(100, timers.nextDeadline());
+        cancelled.cancel();
+        timers.runDue(99);
+        assertTrue(ran.isEmpty());
+
+        timers.runDue(250);
+        assertEquals(List.of("early"), ran);
+        assertEquals(300, timers.nextDeadline());
+
+        timers.runDue(300);
+        assertEquals(List.of("early", "late"), ran);
+        assertEquals(Long.MAX_VALUE, timers.nextDeadline());
+    }
+
+    @Test
+    void runsTimersScheduledByATimerIfAlreadyDue() {
+        Timers timers = new Timers();
+        List<Long> ran = new ArrayList<>();
+        timers.schedule(100, () -> {
+            ran.add(100L);
+            timers.schedule(50, () -> ran.add(50L));
+            timers.schedule(500, () -> ran.add(500L));
+        });
+
+        timers.runDue(100);
+        assertEquals(List.of(100L, 50L), ran);
+        assertEquals(1, timers.size());
+    }
+}
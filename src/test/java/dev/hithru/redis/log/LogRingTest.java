@@ -0,0 +1,73 @@
+package dev.hithru.redis.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogRingTest {
+
+    @Test
+    void deliversInOrderAndDropsWhenFull() {
+        LogRing ring = new LogRing(4);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, ring.offer(LogLevel.NOTICE, "m{}", new Object[] { i }));
+        }
+        assertEquals(2, ring.takeDropped());
+        assertEquals(0, ring.takeDropped());
+
+        LogRing.Record record = new LogRing.Record();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.poll(record));
+            assertEquals(i, record.args[0]);
+            assertEquals(LogLevel.NOTICE, record.level);
+            assertEquals(Thread.currentThread().getName(), record.thread);
+        }
+        assertFalse(ring.poll(record));
+        assertTrue(ring.isEmpty());
+
+        assertTrue(ring.offer(LogLevel.WARNING, "again", null), "polling frees slots");
+    }
+
+    @Test
+    void concurrentProducersLoseNothingThatFits() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 10_000;
+        LogRing ring = new LogRing(producers * perProducer);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.offer(LogLevel.NOTICE, "p", new Object[] { id, i });
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        // Drain while they are writing; each producer's records stay in order
+        int[] next = new int[producers];
+        int received = 0;
+        LogRing.Record record = new LogRing.Record();
+        while (received < producers * perProducer) {
+            if (ring.poll(record)) {
+                int id = (Integer) record.args[0];
+                assertEquals(next[id]++, record.args[1]);
+                received++;
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, ring.takeDropped());
+        assertTrue(ring.isEmpty());
+    }
+}
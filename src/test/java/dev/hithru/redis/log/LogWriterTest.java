@@ -0,0 +1,69 @@
+package dev.hithru.redis.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogWriterTest {
+
+    private static String[] lines(StringWriter out) {
+        return out.toString().isEmpty() ? new String[0] : out.toString().split("\n");
+    }
+
+    @Test
+    void formatsRedisStyleLines() {
+        LogRing ring = new LogRing(16);
+        StringWriter out = new StringWriter();
+        LogWriter writer = new LogWriter(ring, out, 0);
+
+        ring.offer(LogLevel.NOTICE, "Loaded {} keys from {}", new Object[] { 42, "dump.rdb" });
+        ring.offer(LogLevel.WARNING, "no placeholders", new Object[] { "extra" });
+        assertEquals(2, writer.drain(System.currentTimeMillis()));
+
+        String[] lines = lines(out);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].matches("\\d+:\\S+ \\d\\d \\w{3} \\d{4} \\d\\d:\\d\\d:\\d\\d\\.\\d{3} \\* Loaded 42 keys from dump.rdb"),
+                lines[0]);
+        assertTrue(lines[1].endsWith(" # no placeholders"), lines[1]);
+    }
+
+    @Test
+    void rateLimitsRepeatedTemplates() {
+        LogRing ring = new LogRing(64);
+        StringWriter out = new StringWriter();
+        LogWriter writer = new LogWriter(ring, out, 3);
+
+        for (int i = 0; i < 10; i++) {
+            ring.offer(LogLevel.VERBOSE, "Accepted {}", new Object[] { "127.0.0.1:" + i });
+        }
+        ring.offer(LogLevel.VERBOSE, "Client closed connection {}", new Object[] { "127.0.0.1:0" });
+        long now = System.currentTimeMillis();
+        writer.drain(now);
+
+        assertEquals(4, lines(out).length, "three of the repeated message, one of the other");
+
+        // Once the second is over, the suppressed ones are summed up in one line
+        writer.drain(now + 5000);
+        String[] lines = lines(out);
+        assertEquals(5, lines.length);
+        assertTrue(lines[4].endsWith(" - Suppressed 7 more messages like: Accepted {}"), lines[4]);
+    }
+
+    @Test
+    void reportsDroppedRecords() {
+        LogRing ring = new LogRing(2);
+        StringWriter out = new StringWriter();
+        LogWriter writer = new LogWriter(ring, out, 0);
+
+        for (int i = 0; i < 5; i++) {
+            ring.offer(LogLevel.NOTICE, "m", null);
+        }
+        writer.drain(System.currentTimeMillis());
+
+        String[] lines = lines(out);
+        assertEquals(3, lines.length);
+        assertTrue(lines[2].endsWith("Log buffer full, 3 messages dropped"), lines[2]);
+    }
+}
@@ -0,0 +1,167 @@
+package dev.hithru.redis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.hithru.redis.command.SimpleCommandHandler;
+import dev.hithru.redis.protocol.RespCommand;
+import dev.hithru.redis.server.ClientSession;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppendOnlyFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void flushedCommandsAreReplayedInOrder() throws IOException {
+        Path path = dir.resolve("appendonly.aof");
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.ALWAYS)) {
+            aof.append(List.of("SET", "k", "v\u0000ÿ"));
+            aof.append(List.of("RPUSH", "list", "a", "b"));
+            assertEquals(0, Files.size(path), "nothing is written before the group commit");
+
+            aof.flush();
+            aof.append(List.of("LPOP", "list"));
+        }
+
+        assertEquals(List.of(
+                List.of("SET", "k", "v\u0000ÿ"),
+                List.of("RPUSH", "list", "a", "b"),
+                List.of("LPOP", "list")), replayAll(path));
+    }
+
+    @Test
+    void incompleteLastCommandIsTruncated() throws IOException {
+        Path path = dir.resolve("appendonly.aof");
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.NO)) {
+            aof.append(List.of("SET", "a", "1"));
+        }
+        long complete = Files.size(path);
+        Files.writeString(path, "*3\r\n$3\r\nSET\r\n$1\r\nb", StandardOpenOption.APPEND);
+
+        assertEquals(List.of(List.of("SET", "a", "1")), replayAll(path));
+        assertEquals(complete, Files.size(path));
+    }
+
+    @Test
+    void transactionWithoutExecIsCutBackToItsMulti() throws Exception {
+        Path path = dir.resolve("appendonly.aof");
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.NO)) {
+            aof.append(List.of("SET", "a", "1"));
+        }
+        long beforeMulti = Files.size(path);
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.NO)) {
+            // Crashed before the transaction's EXEC was written
+            aof.append(List.of("MULTI"));
+            aof.append(List.of("SET", "b", "2"));
+        }
+
+        SimpleCommandHandler first = restart(path);
+        assertEquals(beforeMulti, Files.size(path));
+        assertEquals("$1\r\n1\r\n", run(first, "GET", "a"));
+        assertEquals("$-1\r\n", run(first, "GET", "b"));
+
+        // Written after the restart, so not part of the lost transaction
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.NO)) {
+            first.setAppendOnlyFile(aof);
+            assertEquals("+OK\r\n", run(first, "SET", "c", "3"));
+        }
+
+        SimpleCommandHandler second = restart(path);
+        assertEquals(List.of(List.of("SET", "a", "1"), List.of("SET", "c", "3")), replayAll(path));
+        assertEquals("$1\r\n3\r\n", run(second, "GET", "c"));
+        assertEquals("$-1\r\n", run(second, "GET", "b"));
+    }
+
+    @Test
+    void rewriteCompactsAndKeepsCommandsLoggedMeanwhile() throws Exception {
+        Path path = dir.resolve("appendonly.aof");
+        try (AppendOnlyFile aof = new AppendOnlyFile(path, FsyncPolicy.EVERYSEC)) {
+            for (int i = 0; i < 1000; i++) {
+                aof.append(List.of("SET", "counter", Integer.toString(i)));
+            }
+            aof.flush();
+            long before = aof.getCurrentSize();
+
+            long future = System.currentTimeMillis() + 60_000;
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                items.add("item" + i);
+            }
+            aof.startRewrite(visitor -> {
+                visitor.string("counter", "999", null);
+                visitor.string("ttl", "x", future);
+                visitor.string("gone", "x", 1L);
+                visitor.list("list", items, null);
+            });
+            aof.append(List.of("SET", "late", "1"));
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (aof.isRewriteInProgress() && System.currentTimeMillis() < deadline) {
+                aof.flush();
+                Thread.sleep(5);
+            }
+
+            assertFalse(aof.isRewriteInProgress());
+            assertTrue(aof.isLastRewriteOk());
+            assertTrue(aof.getCurrentSize() < before);
+            aof.append(List.of("SET", "after", "2"));
+        }
+
+        List<List<String>> commands = replayAll(path);
+        assertEquals(List.of("SET", "counter", "999"), commands.get(0));
+        assertEquals("PXAT", commands.get(1).get(3));
+        assertEquals(66, commands.get(2).size(), "lists are written in batches of 64");
+        assertEquals(38, commands.get(3).size());
+        assertEquals(List.of("SET", "late", "1"), commands.get(4));
+        assertEquals(List.of("SET", "after", "2"), commands.get(5));
+        assertEquals(6, commands.size());
+        assertFalse(Files.exists(dir.resolve("appendonly.aof.rewrite")));
+    }
+
+    @Test
+    void shardFilesAreFoundByName() throws IOException {
+        Files.createFile(AppendOnlyFile.shardPath(dir, "appendonly.aof", 0, 2));
+        Files.createFile(AppendOnlyFile.shardPath(dir, "appendonly.aof", 1, 2));
+        Files.createFile(dir.resolve("appendonly.aof.rewrite"));
+
+        assertEquals(List.of(dir.resolve("appendonly.aof.0"), dir.resolve("appendonly.aof.1")),
+                AppendOnlyFile.existingFiles(dir, "appendonly.aof"));
+    }
+
+    private static SimpleCommandHandler restart(Path path) throws IOException {
+        SimpleCommandHandler handler = new SimpleCommandHandler();
+        AppendOnlyFile.replay(path, command -> {
+            try {
+                handler.replay(command);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        handler.finishReplay();
+        return handler;
+    }
+
+    private static String run(SimpleCommandHandler handler, String... args) throws IOException {
+        ClientSession client = new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        handler.handleCommand(client, RespCommand.of(args));
+        handler.onTick();
+        return StandardCharsets.ISO_8859_1.decode(client.writer().drain()).toString();
+    }
+
+    private static List<List<String>> replayAll(Path path) throws IOException {
+        List<List<String>> commands = new ArrayList<>();
+        AppendOnlyFile.replay(path, command -> commands.add(List.copyOf(command)));
+        return commands;
+    }
+}
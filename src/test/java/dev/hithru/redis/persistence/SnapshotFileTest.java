@@ -0,0 +1,256 @@
+package dev.hithru.redis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsStringsListsAndExpiryAcrossShards() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        long future = System.currentTimeMillis() + 60_000;
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add("item-" + i);
+        }
+
+        long written = SnapshotFile.write(path, List.of(
+                visitor -> {
+                    visitor.string("plain", "v\u0000ÿ", null);
+                    visitor.string("ttl", "x", future);
+                    visitor.string("expired", "x", 1L);
+                },
+                visitor -> visitor.list("list", items, null)));
+        assertEquals(3, written, "keys that already expired are not written");
+
+        Recorder even = new Recorder();
+        Recorder odd = new Recorder();
+        SnapshotFile.LoadResult result = SnapshotFile.load(path, List.of(even, odd),
+                key -> key.length() % 2, 4);
+
+        assertEquals(3, result.loaded);
+        assertEquals("v\u0000ÿ", odd.strings.get("plain"));
+        assertEquals(future, odd.expiries.get("ttl"));
+        assertEquals(items, even.lists.get("list"));
+        assertTrue(even.strings.isEmpty());
+    }
+
+    @Test
+    void roundTripsHashesSetsAndSortedSets() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        long future = System.currentTimeMillis() + 60_000;
+        SnapshotFile.write(path, List.of(visitor -> {
+            visitor.hash("h", List.of("f1", "v1", "f2", "v2"), null);
+            visitor.set("s", List.of("a", "b"), future);
+            visitor.zset("z", List.of("m1", "1.5", "m2", "inf"), null);
+            visitor.set("empty", List.of(), null);
+            visitor.list("expired", List.of("x"), 1L);
+        }));
+
+        Recorder shard = new Recorder();
+        SnapshotFile.LoadResult result = SnapshotFile.load(path, List.of(shard), key -> 0, 1);
+
+        assertEquals(3, result.loaded, "empty and expired collections are not written");
+        assertEquals(future, shard.expiries.get("s"));
+        assertEquals(List.of("f1", "v1", "f2", "v2"), shard.hashes.get("h"));
+        assertEquals(List.of("a", "b"), shard.sets.get("s"));
+        assertEquals(List.of("m1", "1.5", "m2", "inf"), shard.zsets.get("z"));
+    }
+
+    @Test
+    void roundTripsStreams() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        List<String> items = List.of("5-1", "2", "1-0", "1", "f", "v", "5-1", "1", "f", "w",
+                "1", "g", "1-0", "1", "alice", "100", "1", "1-0", "100", "2");
+        SnapshotFile.write(path, List.of(visitor -> visitor.stream("s", items, null)));
+
+        Recorder shard = new Recorder();
+        SnapshotFile.load(path, List.of(shard), key -> 0, 1);
+
+        assertEquals(items, shard.streams.get("s"));
+    }
+
+    @Test
+    void spreadsManyKeysOverSeveralBlocks() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        String value = "x".repeat(1000);
+        SnapshotFile.write(path, List.of(visitor -> {
+            for (int i = 0; i < 5000; i++) {
+                visitor.string("key:" + i, value, null);
+            }
+        }));
+        assertTrue(Files.size(path) > 4 * 1024 * 1024);
+
+        Recorder shard = new Recorder();
+        SnapshotFile.load(path, List.of(shard), key -> 0, 4);
+
+        assertEquals(5000, shard.strings.size());
+        assertEquals(value, shard.strings.get("key:4999"));
+    }
+
+    @Test
+    void insertsEveryShardInFileOrderWhileDecoding() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        String value = "x".repeat(1000);
+        SnapshotFile.write(path, List.of(visitor -> {
+            for (int i = 0; i < 20_000; i++) {
+                visitor.string("key:" + i, value, null);
+            }
+        }));
+
+        List<List<String>> order = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        List<SnapshotVisitor> shards = new ArrayList<>();
+        for (List<String> keys : order) {
+            shards.add(new Recorder() {
+                @Override
+                public void string(String key, String value, Long expireAtMs) {
+                    keys.add(key);
+                }
+            });
+        }
+        SnapshotFile.LoadResult result = SnapshotFile.load(path, shards,
+                key -> Integer.parseInt(key.substring(4)) % 3, 2);
+
+        assertEquals(20_000, result.loaded);
+        for (int shard = 0; shard < 3; shard++) {
+            List<String> keys = order.get(shard);
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals("key:" + (shard + 3 * i), keys.get(i));
+            }
+        }
+    }
+
+    @Test
+    void failedInsertStopsTheLoad() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        String value = "x".repeat(1000);
+        SnapshotFile.write(path, List.of(visitor -> {
+            for (int i = 0; i < 20_000; i++) {
+                visitor.string("key:" + i, value, null);
+            }
+        }));
+
+        SnapshotVisitor failing = new Recorder() {
+            @Override
+            public void string(String key, String value, Long expireAtMs) {
+                throw new IllegalStateException("out of memory");
+            }
+        };
+        IOException error = assertThrows(IOException.class,
+                () -> SnapshotFile.load(path, List.of(new Recorder(), failing), key -> key.length() % 2, 2));
+        assertTrue(error.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void skipsKeysThatExpiredAfterTheSave() throws Exception {
+        Path path = dir.resolve("dump.rdb");
+        long soon = System.currentTimeMillis() + 20;
+        SnapshotFile.write(path, List.of(visitor -> {
+            visitor.string("short", "x", soon);
+            visitor.string("long", "x", null);
+        }));
+        Thread.sleep(30);
+
+        Recorder shard = new Recorder();
+        SnapshotFile.LoadResult result = SnapshotFile.load(path, List.of(shard), key -> 0, 1);
+
+        assertEquals(1, result.loaded);
+        assertEquals(1, result.expired);
+        assertEquals(Map.of("long", "x"), shard.strings);
+    }
+
+    @Test
+    void detectsCorruptionAndTruncation() throws IOException {
+        Path path = dir.resolve("dump.rdb");
+        SnapshotFile.write(path, List.of(visitor -> visitor.string("key", "value", null)));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 'X' }), Files.size(path) - 14);
+        }
+        IOException corrupt = assertThrows(IOException.class,
+                () -> SnapshotFile.load(path, List.of(new Recorder()), key -> 0, 1));
+        assertTrue(corrupt.getMessage().contains("checksum"));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - 5);
+        }
+        assertThrows(IOException.class,
+                () -> SnapshotFile.load(path, List.of(new Recorder()), key -> 0, 1));
+    }
+
+    private static class Recorder implements SnapshotVisitor {
+        final Map<String, String> strings = new HashMap<>();
+        final Map<String, Long> expiries = new HashMap<>();
+        final Map<String, List<String>> lists = new HashMap<>();
+        final Map<String, List<String>> hashes = new HashMap<>();
+        final Map<String, List<String>> sets = new HashMap<>();
+        final Map<String, List<String>> zsets = new HashMap<>();
+        final Map<String, List<String>> streams = new HashMap<>();
+
+        @Override
+        public void string(String key, String value, Long expireAtMs) {
+            strings.put(key, value);
+            if (expireAtMs != null) {
+                expiries.put(key, expireAtMs);
+            }
+        }
+
+        @Override
+        public void list(String key, Iterable<String> items, Long expireAtMs) {
+            lists.put(key, copy(items));
+            recordExpiry(key, expireAtMs);
+        }
+
+        @Override
+        public void hash(String key, Iterable<String> fieldsAndValues, Long expireAtMs) {
+            hashes.put(key, copy(fieldsAndValues));
+            recordExpiry(key, expireAtMs);
+        }
+
+        @Override
+        public void set(String key, Iterable<String> members, Long expireAtMs) {
+            sets.put(key, copy(members));
+            recordExpiry(key, expireAtMs);
+        }
+
+        @Override
+        public void zset(String key, Iterable<String> membersAndScores, Long expireAtMs) {
+            zsets.put(key, copy(membersAndScores));
+            recordExpiry(key, expireAtMs);
+        }
+
+        @Override
+        public void stream(String key, Iterable<String> items, Long expireAtMs) {
+            streams.put(key, copy(items));
+            recordExpiry(key, expireAtMs);
+        }
+
+        private void recordExpiry(String key, Long expireAtMs) {
+            if (expireAtMs != null) {
+                expiries.put(key, expireAtMs);
+            }
+        }
+
+        private static List<String> copy(Iterable<String> items) {
+            List<String> copy = new ArrayList<>();
+            items.forEach(copy::add);
+            return copy;
+        }
+    }
+}
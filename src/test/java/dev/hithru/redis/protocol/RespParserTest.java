@@ -2,60 +2,112 @@ package dev.hithru.redis.protocol;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class RespParserTest {
 
+    private static ByteBuffer bufferOf(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
     @Test
-    void parsesSimplePingArray() {
+    void parsesSimplePingArray() throws Exception {
         RespParser parser = new RespParser();
-        StringBuilder buf = new StringBuilder("*1\r\n$4\r\nPING\r\n");
+        ByteBuffer buf = bufferOf("*1\r\n$4\r\nPING\r\n");
 
-        List<String> result = parser.tryParseArrayOfBulkStrings(buf);
+        RespCommand result = parser.tryParse(buf);
 
         assertNotNull(result);
         assertEquals(List.of("PING"), result);
-        assertEquals(0, buf.length(), "Buffer should be fully consumed");
+        assertFalse(buf.hasRemaining(), "Buffer should be fully consumed");
     }
 
     @Test
-    void parsesEchoCommandWithArg() {
+    void parsesEchoCommandWithArg() throws Exception {
         RespParser parser = new RespParser();
-        StringBuilder buf = new StringBuilder("*2\r\n$4\r\nECHO\r\n$3\r\nhey\r\n");
+        ByteBuffer buf = bufferOf("*2\r\n$4\r\nECHO\r\n$3\r\nhey\r\n");
 
-        List<String> result = parser.tryParseArrayOfBulkStrings(buf);
+        RespCommand result = parser.tryParse(buf);
 
         assertNotNull(result);
         assertEquals(List.of("ECHO", "hey"), result);
-        assertEquals(0, buf.length());
+        assertTrue(result.equalsIgnoreCase(0, "echo"));
+        assertFalse(buf.hasRemaining());
     }
 
     @Test
-    void returnsNullWhenIncomplete() {
+    void returnsNullWhenIncomplete() throws Exception {
         RespParser parser = new RespParser();
-        StringBuilder buf = new StringBuilder("*2\r\n$4\r\nECHO\r\n$3\r\nhe"); // incomplete "hey\r\n"
+        ByteBuffer buf = bufferOf("*2\r\n$4\r\nECHO\r\n$3\r\nhe"); // incomplete "hey\r\n"
 
-        List<String> result = parser.tryParseArrayOfBulkStrings(buf);
+        RespCommand result = parser.tryParse(buf);
 
         assertNull(result);
-        assertEquals("*2\r\n$4\r\nECHO\r\n$3\r\nhe", buf.toString(), "Buffer should remain unchanged");
+        assertEquals(0, buf.position(), "Buffer position should remain at command start");
     }
 
     @Test
-    void parsesMultipleCommandsFromSingleBuffer() {
+    void parsesMultipleCommandsFromSingleBuffer() throws Exception {
         RespParser parser = new RespParser();
-        StringBuilder buf = new StringBuilder(
-                "*1\r\n$4\r\nPING\r\n*2\r\n$4\r\nECHO\r\n$5\r\nhello\r\n"
-        );
+        ByteBuffer buf = bufferOf("*1\r\n$4\r\nPING\r\n*2\r\n$4\r\nECHO\r\n$5\r\nhello\r\n");
 
-        List<String> first = parser.tryParseArrayOfBulkStrings(buf);
+        RespCommand first = parser.tryParse(buf);
         assertEquals(List.of("PING"), first);
 
-        List<String> second = parser.tryParseArrayOfBulkStrings(buf);
+        RespCommand second = parser.tryParse(buf);
         assertEquals(List.of("ECHO", "hello"), second);
 
-        assertEquals(0, buf.length());
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    void resumesAcrossReadsAndCompaction() throws Exception {
+        RespParser parser = new RespParser();
+        byte[] wire = "*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buf = ByteBuffer.allocate(64);
+
+        RespCommand result = null;
+        for (byte b : wire) {
+            // Feed one byte at a time, the way a slow connection would
+            buf.put(b);
+            buf.flip();
+            result = parser.tryParse(buf);
+            if (result == null) {
+                buf.compact();
+            }
+        }
+
+        assertEquals(List.of("SET", "key", "value"), result);
+    }
+
+    @Test
+    void keepsBinaryValuesIntact() throws Exception {
+        RespParser parser = new RespParser();
+        // Half of a UTF-8 sequence, a NUL and a byte that is never valid UTF-8
+        byte[] value = new byte[] { 'h', (byte) 0xc3, 0, (byte) 0xff, 'o' };
+
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.put("*2\r\n$4\r\nECHO\r\n$5\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        buf.put(value);
+        buf.put("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        buf.flip();
+
+        RespCommand result = parser.tryParse(buf);
+
+        assertNotNull(result);
+        assertArrayEquals(value, result.getBytes(1));
+        assertArrayEquals(value, result.get(1).getBytes(RespCommand.CHARSET));
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        RespParser parser = new RespParser();
+
+        assertThrows(RespProtocolException.class, () -> parser.tryParse(bufferOf("*1\r\n$x\r\nPING\r\n")));
+        assertThrows(RespProtocolException.class, () -> new RespParser().tryParse(bufferOf("*1\r\n$4\r\nPINGxx")));
     }
 }
@@ -0,0 +1,143 @@
+package dev.hithru.redis.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RespWriterTest {
+
+    /**
+     * Channel that accepts at most `capacity` bytes per write call, like a
+     * non-blocking socket with a small send buffer.
+     */
+    private static class CapturingChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int capacity;
+        int writeCalls;
+
+        CapturingChannel(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writeCalls++;
+            long total = 0;
+            for (int i = offset; i < offset + length && total < capacity; i++) {
+                ByteBuffer src = srcs[i];
+                while (src.hasRemaining() && total < capacity) {
+                    out.write(src.get());
+                    total++;
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        String written() {
+            return out.toString(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    void batchesRepliesIntoSingleWrite() throws Exception {
+        int[] scheduled = new int[1];
+        RespWriter writer = new RespWriter(() -> scheduled[0]++, Long.MAX_VALUE);
+        CapturingChannel channel = new CapturingChannel(Integer.MAX_VALUE);
+
+        writer.writeSimpleString("OK");
+        writer.writeBulkString("bar");
+        writer.writeNullBulkString();
+        writer.writeInteger(-42);
+        writer.writeArrayOfBulkStrings(List.of("a", "bc"));
+
+        assertEquals(1, scheduled[0], "Only the first reply should schedule a flush");
+        assertTrue(writer.flushTo(channel));
+        assertEquals(1, channel.writeCalls);
+        assertEquals("+OK\r\n$3\r\nbar\r\n$-1\r\n:-42\r\n*2\r\n$1\r\na\r\n$2\r\nbc\r\n", channel.written());
+        assertFalse(writer.hasPendingOutput());
+    }
+
+    @Test
+    void keepsRemainderWhenSocketIsFull() throws Exception {
+        RespWriter writer = new RespWriter(() -> { }, Long.MAX_VALUE);
+        CapturingChannel channel = new CapturingChannel(4);
+
+        byte[] large = new byte[10_000];
+        Arrays.fill(large, (byte) 'x');
+        writer.writeSimpleString("OK");
+        writer.writeBulkString(large);
+        writer.writeInteger(7);
+
+        assertFalse(writer.flushTo(new CapturingChannel(0)));
+
+        channel.capacity = Integer.MAX_VALUE;
+        assertTrue(writer.flushTo(channel));
+        assertEquals("+OK\r\n$10000\r\n" + new String(large, StandardCharsets.ISO_8859_1) + "\r\n:7\r\n",
+                channel.written());
+    }
+
+    @Test
+    void dropsOutputOverLimit() {
+        RespWriter writer = new RespWriter(() -> { }, 16);
+
+        writer.writeBulkString("0123456789abcdef");
+
+        assertTrue(writer.isOverLimit());
+        assertFalse(writer.hasPendingOutput());
+    }
+
+    @Test
+    void releasesLargeBufferOnlyOnceSent() throws Exception {
+        RespWriter writer = new RespWriter(() -> { }, Long.MAX_VALUE);
+        int[] released = new int[1];
+
+        ByteBuffer large = ByteBuffer.allocateDirect(8_000);
+        while (large.hasRemaining()) {
+            large.put((byte) 'y');
+        }
+        large.flip();
+        writer.writeBulkString(ByteBuffer.wrap(new byte[] { 'h', 'i' }), () -> released[0]++);
+        assertEquals(1, released[0], "Small values are copied, so released right away");
+
+        writer.writeBulkString(large, () -> released[0]++);
+        assertFalse(writer.flushTo(new CapturingChannel(0)));
+        assertEquals(1, released[0]);
+
+        CapturingChannel channel = new CapturingChannel(Integer.MAX_VALUE);
+        assertTrue(writer.flushTo(channel));
+        assertEquals(2, released[0]);
+        assertTrue(channel.written().endsWith("y\r\n"));
+
+        // Dropped output (client gone) releases too
+        writer.writeBulkString(large.rewind(), () -> released[0]++);
+        writer.close();
+        assertEquals(3, released[0]);
+        assertFalse(writer.hasPendingOutput());
+    }
+}
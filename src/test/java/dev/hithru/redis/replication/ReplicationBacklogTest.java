@@ -0,0 +1,62 @@
+package dev.hithru.redis.replication;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationBacklogTest {
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void encodesCommandsAsResp() {
+        ReplicationBacklog backlog = new ReplicationBacklog(1024, 0);
+        backlog.append(List.of("SET", "key", "value"));
+
+        String expected = "*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n";
+        assertEquals(expected.length(), backlog.offset());
+        assertEquals(0, backlog.firstOffset());
+        assertEquals(expected, text(backlog.read(0, 1024)));
+        assertEquals("value\r\n", text(backlog.read(expected.length() - 7, 1024)));
+        assertEquals("", text(backlog.read(backlog.offset(), 1024)), "nothing new yet");
+    }
+
+    @Test
+    void keepsOnlyTheNewestBytesAcrossWraparound() {
+        ReplicationBacklog backlog = new ReplicationBacklog(64, 1000);
+        String ping = "*1\r\n$4\r\nPING\r\n"; // 14 bytes
+        for (int i = 0; i < 10; i++) {
+            backlog.append(List.of("PING"));
+        }
+
+        assertEquals(1140, backlog.offset());
+        assertEquals(64, backlog.histlen());
+        assertEquals(1076, backlog.firstOffset());
+        assertFalse(backlog.holds(1075));
+        assertTrue(backlog.holds(1076));
+        assertTrue(backlog.holds(1140));
+        assertFalse(backlog.holds(1141));
+
+        // The last 4 commands, read across the end of the buffer
+        assertEquals(ping.repeat(4), text(backlog.read(1140 - 4 * 14, 64)));
+        assertEquals(ping.substring(0, 5), text(backlog.read(1140 - 14, 5)));
+        assertThrows(IllegalArgumentException.class, () -> backlog.read(1000, 10));
+    }
+
+    @Test
+    void keepsBinaryArgumentsUnchanged() {
+        ReplicationBacklog backlog = new ReplicationBacklog(64, 0);
+        String binary = new String(new byte[] { 0, (byte) 0xff, '\r', '\n' }, StandardCharsets.ISO_8859_1);
+        backlog.append(List.of(binary));
+
+        assertEquals("*1\r\n$4\r\n" + binary + "\r\n", text(backlog.read(0, 64)));
+    }
+}
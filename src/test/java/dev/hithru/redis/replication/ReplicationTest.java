@@ -0,0 +1,217 @@
+package dev.hithru.redis.replication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dev.hithru.redis.command.SimpleCommandHandler;
+import dev.hithru.redis.server.ClientSession;
+import dev.hithru.redis.server.RedisServer;
+import dev.hithru.redis.server.TestClient;
+import dev.hithru.redis.store.eviction.EvictionPolicy;
+import dev.hithru.redis.store.eviction.Evictor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A primary and a replica running on localhost, the replica connected
+ * through a proxy the test can cut to break the link.
+ */
+class ReplicationTest {
+
+    @TempDir
+    Path dir;
+
+    private Proxy proxy;
+
+    @AfterEach
+    void stopProxy() throws IOException {
+        if (proxy != null) {
+            proxy.close();
+        }
+    }
+
+    private static int startServer(Path dir, String name) throws IOException {
+        return startServer(dir, name, new SimpleCommandHandler());
+    }
+
+    private static int startServer(Path dir, String name, SimpleCommandHandler handler) throws IOException {
+        Files.createDirectories(dir);
+        int port = TestClient.freePort();
+        handler.configureReplication(dir, 1024 * 1024, port);
+        RedisServer server = new RedisServer(port, () -> handler, 1, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        TestClient.startDaemon(name, server::start);
+        return port;
+    }
+
+    @Test
+    void fullResyncThenPartialResyncAfterTheLinkBreaks() throws Exception {
+        int primaryPort = startServer(dir.resolve("primary"), "replication-test-primary");
+        int replicaPort = startServer(dir.resolve("replica"), "replication-test-replica");
+        proxy = new Proxy(primaryPort);
+
+        try (TestClient primary = TestClient.connect(primaryPort);
+             TestClient replica = TestClient.connect(replicaPort)) {
+            // Written before the replica exists: only a full resync carries it
+            assertEquals("OK", primary.call("SET", "before", "1"));
+            assertEquals(2L, primary.call("RPUSH", "list", "a", "b"));
+
+            assertEquals("OK", replica.call("REPLICAOF", "localhost", Integer.toString(proxy.port())));
+            awaitValue(replica, "before", "1");
+            assertEquals(List.of("a", "b"), replica.call("LRANGE", "list", "0", "-1"));
+            assertEquals("1", stat(primary, "stats", "sync_full"));
+            assertEquals("0", stat(primary, "stats", "sync_partial_ok"));
+
+            // Streamed while the link is up
+            assertEquals("OK", primary.call("SET", "during", "2"));
+            awaitValue(replica, "during", "2");
+            assertTrue(((String) replica.call("SET", "x", "y")).startsWith("-READONLY"));
+
+            // Written while it is down: the reconnecting replica gets it from the backlog
+            proxy.cut();
+            awaitStat(replica, "replication", "master_link_status", "down");
+            assertEquals("OK", primary.call("SET", "after", "3"));
+            assertEquals(3L, primary.call("RPUSH", "list", "c"));
+
+            awaitValue(replica, "after", "3");
+            assertEquals(List.of("a", "b", "c"), replica.call("LRANGE", "list", "0", "-1"));
+            assertEquals("1", stat(primary, "stats", "sync_full"));
+            assertEquals("1", stat(primary, "stats", "sync_partial_ok"));
+            assertEquals("0", stat(primary, "stats", "sync_partial_err"));
+            awaitStat(replica, "replication", "slave_repl_offset",
+                    stat(primary, "replication", "master_repl_offset"));
+        }
+    }
+
+    @Test
+    void replicaKeepsThePrimarysDataOverItsMaxmemory() throws Exception {
+        int primaryPort = startServer(dir.resolve("primary"), "replication-test-primary");
+        int replicaPort = startServer(dir.resolve("replica"), "replication-test-replica",
+                new SimpleCommandHandler(10_000, EvictionPolicy.ALLKEYS_LRU, Evictor.DEFAULT_SAMPLES));
+
+        try (TestClient primary = TestClient.connect(primaryPort);
+             TestClient replica = TestClient.connect(replicaPort)) {
+            String value = "x".repeat(100);
+            for (int i = 0; i < 200; i++) {
+                assertEquals("OK", primary.call("SET", "before:" + i, value));
+            }
+            assertEquals("OK", replica.call("REPLICAOF", "localhost", Integer.toString(primaryPort)));
+            awaitValue(replica, "before:199", value);
+
+            // Streamed writes are neither refused nor make room by evicting
+            for (int i = 0; i < 200; i++) {
+                assertEquals("OK", primary.call("SET", "after:" + i, value));
+            }
+            assertEquals(2L, primary.call("RPUSH", "list", "a", "b"));
+            awaitStat(replica, "replication", "slave_repl_offset",
+                    stat(primary, "replication", "master_repl_offset"));
+            assertEquals("keys=401,expires=0", stat(replica, "keyspace", "db0"));
+            assertEquals(List.of("a", "b"), replica.call("LRANGE", "list", "0", "-1"));
+            assertEquals("0", stat(replica, "stats", "evicted_keys"));
+        }
+    }
+
+    private static String stat(TestClient client, String section, String name) throws IOException {
+        String info = (String) client.call("INFO", section);
+        for (String line : info.split("\r\n")) {
+            if (line.startsWith(name + ":")) {
+                return line.substring(name.length() + 1);
+            }
+        }
+        throw new AssertionError("no " + name + " in INFO " + section);
+    }
+
+    private static void awaitStat(TestClient client, String section, String name, String value) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!value.equals(stat(client, section, name))) {
+            assertTrue(System.currentTimeMillis() < deadline, name + " never became " + value);
+            Thread.sleep(20);
+        }
+    }
+
+    private static void awaitValue(TestClient client, String key, String value) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!value.equals(client.call("GET", key))) {
+            assertTrue(System.currentTimeMillis() < deadline, key + " never replicated");
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Forwards connections to a port; cut() drops the open ones but keeps
+     * accepting new ones.
+     */
+    private static final class Proxy implements AutoCloseable {
+        private final ServerSocket listener;
+        private final int target;
+        private final List<Socket> open = new CopyOnWriteArrayList<>();
+
+        Proxy(int target) throws IOException {
+            this.listener = new ServerSocket(0);
+            this.target = target;
+            daemon(this::accept);
+        }
+
+        int port() {
+            return listener.getLocalPort();
+        }
+
+        void cut() throws IOException {
+            for (Socket socket : open) {
+                socket.close();
+            }
+            open.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            listener.close();
+            cut();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = listener.accept();
+                    Socket server = new Socket("localhost", target);
+                    open.add(client);
+                    open.add(server);
+                    daemon(() -> pipe(client, server));
+                    daemon(() -> pipe(server, client));
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private static void pipe(Socket from, Socket to) {
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                in.transferTo(out);
+            } catch (IOException e) {
+                // cut
+            }
+            try {
+                from.close();
+                to.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+        private static void daemon(Runnable task) {
+            Thread thread = new Thread(task, "replication-test-proxy");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package dev.hithru.redis.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeySlotTest {
+
+    @Test
+    void matchesRedisClusterSlots() {
+        // Reference values from Redis' CLUSTER KEYSLOT
+        assertEquals(12182, KeySlot.slot("foo"));
+        assertEquals(5061, KeySlot.slot("bar"));
+        assertEquals(12739, KeySlot.slot("123456789"));
+    }
+
+    @Test
+    void usesHashTagWhenPresent() {
+        assertEquals(KeySlot.slot("user1"), KeySlot.slot("{user1}.name"));
+        assertEquals(KeySlot.slot("{user1}.name"), KeySlot.slot("{user1}.age"));
+        // Empty tag: whole key is hashed
+        assertEquals(KeySlot.slot("{}foo"), KeySlot.slot("{}foo"));
+        assertNotEquals(KeySlot.slot("foo"), KeySlot.slot("{}foo"));
+    }
+
+    @Test
+    void rawBytesMatchTheCommandArgument() {
+        byte[] key = { '{', (byte) 0xc3, (byte) 0xff, '}', 'x' };
+        assertEquals(KeySlot.slot(new String(key, StandardCharsets.ISO_8859_1)), KeySlot.slot(key));
+        assertEquals(12182, KeySlot.slot("foo".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
@@ -0,0 +1,92 @@
+package dev.hithru.redis.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import dev.hithru.redis.command.CommandHandler;
+import dev.hithru.redis.command.Timers;
+import dev.hithru.redis.protocol.RespCommand;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardLoopTest {
+
+    /**
+     * Echoes the command name; BLOCK pauses the client until a timer wakes it.
+     */
+    private static final class Handler implements CommandHandler {
+        Timers timers;
+        ClientSession woken;
+        Thread thread;
+
+        @Override
+        public void attach(Executor loop, Timers timers) {
+            this.timers = timers;
+        }
+
+        @Override
+        public void handleCommand(ClientSession client, RespCommand command) {
+            thread = Thread.currentThread();
+            if (command.equalsIgnoreCase(0, "block")) {
+                client.pause();
+                timers.schedule(System.currentTimeMillis() + 20, () -> {
+                    client.writer().writeSimpleString("woken");
+                    woken = client;
+                });
+                return;
+            }
+            client.writer().writeSimpleString(command.get(0));
+        }
+
+        @Override
+        public void onTick() throws java.io.IOException {
+            if (woken != null) {
+                ClientSession client = woken;
+                woken = null;
+                client.resume();
+            }
+        }
+    }
+
+    private static String reply(ShardLoop.Batch batch) throws Exception {
+        ByteBuffer reply = batch.reply.get(5, TimeUnit.SECONDS);
+        return StandardCharsets.ISO_8859_1.decode(reply).toString();
+    }
+
+    private static ShardLoop start(Handler handler) {
+        ShardLoop loop = new ShardLoop(0, handler, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        Thread thread = new Thread(loop, "shard-test");
+        thread.setDaemon(true);
+        thread.start();
+        return loop;
+    }
+
+    @Test
+    void runsABatchOnTheShardThread() throws Exception {
+        Handler handler = new Handler();
+        ShardLoop loop = start(handler);
+        ClientSession client = new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+
+        ShardLoop.Batch batch = loop.submit(client, List.of(RespCommand.of("a"), RespCommand.of("b")));
+
+        assertEquals("+a\r\n+b\r\n", reply(batch));
+        assertEquals("shard-test", handler.thread.getName());
+    }
+
+    @Test
+    void pausedBatchContinuesWhenResumed() throws Exception {
+        Handler handler = new Handler();
+        ShardLoop loop = start(handler);
+        ClientSession client = new ClientSession(null, s -> { }, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+
+        ShardLoop.Batch batch = loop.submit(client,
+                List.of(RespCommand.of("a"), RespCommand.of("block"), RespCommand.of("c")));
+
+        assertEquals("+a\r\n+woken\r\n+c\r\n", reply(batch));
+    }
+}
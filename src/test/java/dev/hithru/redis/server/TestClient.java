@@ -0,0 +1,156 @@
+package dev.hithru.redis.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A blocking RESP client for tests that run real servers on localhost.
+ *
+ * Replies come back as: simple and bulk strings as String, errors as a
+ * String starting with '-', integers as Long, arrays as List, nulls as null.
+ */
+public final class TestClient implements Closeable {
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private TestClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * A port nothing listens on right now, for a server a test starts.
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * Runs a server's blocking start() on a daemon thread.
+     */
+    public static void startDaemon(String name, ServerStart server) {
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Connects to localhost:port, waiting up to 5 seconds for the server to listen.
+     */
+    public static TestClient connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(5000);
+                return new TestClient(socket);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /**
+     * Sends a command and waits for its reply.
+     */
+    public Object call(String... args) throws IOException {
+        send(args);
+        return read();
+    }
+
+    public void send(String... args) throws IOException {
+        StringBuilder command = new StringBuilder();
+        command.append('*').append(args.length).append("\r\n");
+        for (String arg : args) {
+            command.append('$').append(arg.getBytes(StandardCharsets.ISO_8859_1).length).append("\r\n");
+            command.append(arg).append("\r\n");
+        }
+        out.write(command.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    public Object read() throws IOException {
+        int type = in.read();
+        String line = readLine();
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return "-" + line;
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] data = in.readNBytes(length + 2);
+                return new String(data, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(read());
+                }
+                return items;
+            }
+            case -1:
+                throw new EOFException("connection closed");
+            default:
+                throw new IOException("unexpected reply type " + (char) type);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException("connection closed");
+            }
+            line.write(b);
+        }
+        in.read(); // '\n'
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /** RedisServer::start and the like. */
+    @FunctionalInterface
+    public interface ServerStart {
+        void start() throws IOException;
+    }
+}
@@ -0,0 +1,152 @@
+package dev.hithru.redis.server;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import dev.hithru.redis.command.SimpleCommandHandler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MULTI / EXEC / WATCH against a server with two reactors, so a
+ * transaction's keys may live on either shard.
+ */
+class TransactionTest {
+
+    private static int port;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        List<SimpleCommandHandler> shards = List.of(new SimpleCommandHandler(), new SimpleCommandHandler());
+        for (SimpleCommandHandler shard : shards) {
+            shard.setShards(shards);
+        }
+        port = TestClient.freePort();
+        var next = shards.iterator();
+        RedisServer server = new RedisServer(port, next::next, 2, ClientSession.DEFAULT_MAX_OUTPUT_BYTES);
+        TestClient.startDaemon("transaction-test-server", server::start);
+    }
+
+    // A fresh key on the given shard
+    private static String key(String prefix, int shard) {
+        for (int i = 0; ; i++) {
+            String key = prefix + ":" + i;
+            if (KeySlot.slot(key) % 2 == shard) {
+                return key;
+            }
+        }
+    }
+
+    @Test
+    void execRunsOnTheShardOwningItsKeys() throws Exception {
+        // Connections alternate between reactors: cover both as home and both as owner
+        for (int shard = 0; shard < 2; shard++) {
+            for (int connection = 0; connection < 2; connection++) {
+                try (TestClient client = TestClient.connect(port)) {
+                    String a = key("exec-a-" + connection, shard);
+                    String b = key("exec-b-" + connection, shard);
+                    assertEquals("OK", client.call("MULTI"));
+                    assertEquals("QUEUED", client.call("SET", a, "1"));
+                    assertEquals("QUEUED", client.call("SET", b, "2"));
+                    assertEquals("QUEUED", client.call("GET", a));
+                    assertEquals(List.of("OK", "OK", "1"), client.call("EXEC"));
+
+                    assertEquals("1", client.call("GET", a));
+                    assertEquals("2", client.call("GET", b));
+                }
+            }
+        }
+    }
+
+    @Test
+    void refusesKeysOfAnotherShard() throws Exception {
+        try (TestClient client = TestClient.connect(port)) {
+            String a = key("cross-a", 0);
+            String b = key("cross-b", 1);
+            assertEquals("OK", client.call("MULTI"));
+            assertEquals("QUEUED", client.call("SET", a, "1"));
+            assertTrue(((String) client.call("SET", b, "2")).startsWith("-CROSSSLOT"));
+            assertTrue(((String) client.call("EXEC")).startsWith("-EXECABORT"));
+            assertNull(client.call("GET", a));
+            assertNull(client.call("GET", b));
+
+            assertTrue(((String) client.call("WATCH", a, b)).startsWith("-CROSSSLOT"));
+            assertEquals("OK", client.call("WATCH", a));
+            assertTrue(((String) client.call("WATCH", b)).startsWith("-CROSSSLOT"));
+            assertEquals("OK", client.call("UNWATCH"));
+            assertEquals("OK", client.call("WATCH", b));
+        }
+    }
+
+    @Test
+    void watchedKeyChangeAbortsExec() throws Exception {
+        for (int shard = 0; shard < 2; shard++) {
+            try (TestClient client = TestClient.connect(port);
+                 TestClient other = TestClient.connect(port)) {
+                String watched = key("watched", shard);
+                String untouched = key("untouched", shard);
+                assertEquals("OK", client.call("WATCH", watched));
+                assertEquals("OK", client.call("WATCH", untouched));
+                assertEquals("OK", other.call("SET", watched, "theirs"));
+
+                assertEquals("OK", client.call("MULTI"));
+                assertEquals("QUEUED", client.call("SET", watched, "mine"));
+                assertNull(client.call("EXEC"));
+                assertEquals("theirs", client.call("GET", watched));
+
+                // EXEC dropped the watches: the next transaction goes through
+                assertEquals("OK", client.call("WATCH", untouched));
+                assertEquals("OK", client.call("MULTI"));
+                assertEquals("QUEUED", client.call("SET", watched, "mine"));
+                assertEquals(List.of("OK"), client.call("EXEC"));
+                assertEquals("mine", other.call("GET", watched));
+            }
+        }
+    }
+
+    @Test
+    void discardDropsTheQueuedCommands() throws Exception {
+        try (TestClient client = TestClient.connect(port)) {
+            String key = key("discard", 1);
+            assertEquals("OK", client.call("WATCH", key));
+            assertEquals("OK", client.call("MULTI"));
+            assertEquals("QUEUED", client.call("SET", key, "1"));
+            assertEquals("OK", client.call("DISCARD"));
+            assertNull(client.call("GET", key));
+            assertEquals("-ERR EXEC without MULTI", client.call("EXEC"));
+            assertEquals("-ERR DISCARD without MULTI", client.call("DISCARD"));
+
+            // The watch went with it, as did the shard it pinned
+            assertEquals("OK", client.call("SET", key, "2"));
+            assertEquals("OK", client.call("MULTI"));
+            assertEquals("QUEUED", client.call("SET", key("discard", 0), "3"));
+            assertEquals(List.of("OK"), client.call("EXEC"));
+        }
+    }
+
+    @Test
+    void errorsWhileQueueingAbortButErrorsInExecDont() throws Exception {
+        try (TestClient client = TestClient.connect(port)) {
+            String key = key("queue-errors", 0);
+            assertEquals("OK", client.call("MULTI"));
+            assertEquals("QUEUED", client.call("SET", key, "1"));
+            assertEquals("-ERR unknown command 'NOSUCH'", client.call("NOSUCH", key));
+            assertEquals("-ERR wrong number of arguments for 'get' command", client.call("GET"));
+            assertEquals("-ERR MULTI calls can not be nested", client.call("MULTI"));
+            assertTrue(((String) client.call("EXEC")).startsWith("-EXECABORT"));
+            assertNull(client.call("GET", key));
+
+            // A command failing when it runs doesn't stop the others
+            assertEquals("OK", client.call("MULTI"));
+            assertEquals("QUEUED", client.call("SET", key, "text"));
+            assertEquals("QUEUED", client.call("LPUSH", key, "x"));
+            assertEquals("QUEUED", client.call("GET", key));
+            List<?> replies = (List<?>) client.call("EXEC");
+            assertEquals("OK", replies.get(0));
+            assertTrue(((String) replies.get(1)).startsWith("-WRONGTYPE"));
+            assertEquals("text", replies.get(2));
+        }
+    }
+}
@@ -1,7 +1,17 @@
 package dev.hithru.redis.store;
 
+import dev.hithru.redis.store.hash.InMemoryHashStore;
+import dev.hithru.redis.store.list.InMemoryListStore;
+import dev.hithru.redis.store.set.InMemorySetStore;
+import dev.hithru.redis.store.stream.InMemoryStreamStore;
+import dev.hithru.redis.store.stream.StreamId;
+import dev.hithru.redis.store.zset.InMemorySortedSetStore;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class InMemoryKeyValueStoreTest {
@@ -17,6 +27,25 @@ class InMemoryKeyValueStoreTest {
         assertTrue(store.exists("foo", now));
     }
 
+    @Test
+    void clearRemovesEveryKeyOfEveryType() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5000; i++) {
+            store.set("k" + i, "v" + i, i % 2 == 0 ? null : now + 100_000);
+        }
+        lists.rpush("list", List.of("a", "b"));
+
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(0, store.volatileSize());
+        assertEquals(0, store.usedMemory());
+        assertNull(store.get("k1", now));
+        assertNull(store.type("list", now));
+    }
+
     @Test
     void expiredKeyIsRemovedOnAccess() throws InterruptedException {
         InMemoryKeyValueStore store = new InMemoryKeyValueStore();
@@ -44,4 +73,335 @@ class InMemoryKeyValueStoreTest {
         store.delete("foo");
         assertNull(store.get("foo", now));
     }
+
+    @Test
+    void activeExpiryReclaimsKeysNobodyReads() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        long now = System.currentTimeMillis();
+
+        store.set("a", "1", now + 10);
+        store.set("b", "2", now + 20);
+        store.set("c", "3", now + 1_000);
+        store.set("d", "4", null);
+
+        assertEquals(0, store.activeExpireCycle(now, 1_000_000));
+        assertEquals(2, store.activeExpireCycle(now + 20, 1_000_000));
+
+        assertEquals(2, store.size());
+        assertEquals(1, store.volatileSize());
+        assertEquals(2, store.getExpiredKeys());
+        assertEquals(2, store.getReclaimedKeys());
+    }
+
+    @Test
+    void overwriteAndDeleteLeaveExpiryIndex() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        long now = System.currentTimeMillis();
+
+        store.set("foo", "bar", now + 10);
+        store.set("foo", "baz", null);
+        store.set("tmp", "x", now + 10);
+        store.delete("tmp");
+
+        assertEquals(0, store.volatileSize());
+        assertEquals(0, store.activeExpireCycle(now + 100, 1_000_000));
+        assertEquals("baz", store.get("foo", now + 100));
+    }
+
+    @Test
+    void activeExpiryStopsAtBudgetAndResumes() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 10_000; i++) {
+            store.set("key" + i, "v", now + (i % 100));
+        }
+
+        // A zero budget still makes progress, one small batch per call
+        int first = store.activeExpireCycle(now + 100, 0);
+        assertTrue(first > 0 && first < 10_000);
+
+        while (store.activeExpireCycle(now + 100, 0) > 0) {
+            // keep going
+        }
+        assertEquals(0, store.size());
+        assertEquals(10_000, store.getReclaimedKeys());
+    }
+
+    @Test
+    void offHeapValuesRoundTripAndSurviveSnapshots() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        store.enableOffHeapValues(16);
+        long now = System.currentTimeMillis();
+
+        String big = "x".repeat(5_000);
+        store.set("small", "v", null);
+        store.set("big", big, null);
+        assertEquals(big, store.get("big", now));
+        assertTrue(store.offHeapUsedBytes() >= 5_000);
+
+        ByteBuffer[] seen = new ByteBuffer[1];
+        Runnable[] release = new Runnable[1];
+        assertTrue(store.readValue("big".getBytes(), now, (value, onDone) -> {
+            seen[0] = value;
+            release[0] = onDone;
+        }));
+        assertTrue(seen[0].isDirect());
+        assertNotNull(release[0]);
+
+        // Overwriting a value that is still being sent must not clobber it
+        KeyValueSnapshot snapshot = store.snapshot();
+        store.set("big", "y".repeat(5_000), null);
+        assertEquals('x', seen[0].get(0));
+        release[0].run();
+
+        int bigSlot = -1;
+        for (int i = 0; i < snapshot.slots(); i++) {
+            if (snapshot.key(i) != null && new String(snapshot.key(i)).equals("big")) {
+                bigSlot = i;
+            }
+        }
+        assertEquals(big, new String(snapshot.value(bigSlot)));
+        snapshot.release();
+
+        store.delete("big");
+        assertEquals(0, store.offHeapUsedBytes());
+        assertEquals("v", store.get("small", now));
+    }
+
+    @Test
+    void commandsOnTheWrongTypeFailWithoutChangingTheKey() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        long now = System.currentTimeMillis();
+        store.set("str", "v", null);
+        lists.rpush("list", List.of("a"));
+
+        assertThrows(WrongTypeException.class, () -> lists.rpush("str", List.of("x")));
+        assertThrows(WrongTypeException.class, () -> store.get("list", now));
+        assertEquals("v", store.get("str", now));
+        assertEquals(ValueType.STRING, store.type("str", now));
+        assertEquals(ValueType.LIST, store.type("list", now));
+        assertNull(store.type("missing", now));
+
+        // SET replaces a value of any type
+        store.set("list", "now a string", null);
+        assertEquals("now a string", store.get("list", now));
+        assertEquals(ValueType.STRING, store.type("list", now));
+    }
+
+    @Test
+    void listsExpireLikeStrings() throws InterruptedException {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        long now = System.currentTimeMillis();
+        lists.rpush("list", List.of("a", "b"));
+
+        assertEquals(InMemoryKeyValueStore.TTL_NONE, store.ttl("list", now));
+        assertTrue(store.expire("list", now + 60_000, now));
+        assertEquals(60_000, store.ttl("list", now));
+        assertTrue(store.persist("list", now));
+        assertFalse(store.persist("list", now));
+        assertFalse(store.expire("missing", now + 1, now));
+
+        store.expire("list", now + 30, now);
+        Thread.sleep(40);
+        assertNull(lists.getList("list"));
+        assertEquals(InMemoryKeyValueStore.TTL_MISSING, store.ttl("list", System.currentTimeMillis()));
+        assertEquals(0, store.size());
+        assertEquals(0, store.usedMemory());
+    }
+
+    @Test
+    void expireInThePastDeletesTheKey() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        long now = System.currentTimeMillis();
+        store.set("k", "v", null);
+
+        assertTrue(store.expire("k", now - 1, now));
+        assertFalse(store.containsKey("k"));
+    }
+
+    @Test
+    void scanWalksTheKeyspaceInBoundedStepsSkippingExpiredKeys() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            store.set("s" + i, "v", null);
+        }
+        lists.rpush("list", List.of("a"));
+        store.set("gone", "v", now + 10);
+
+        List<String> all = new ArrayList<>();
+        long cursor = 0;
+        int steps = 0;
+        do {
+            cursor = store.scan(cursor, 10, null, now + 20, key -> all.add(new String(key)));
+            steps++;
+        } while (cursor != 0);
+        assertEquals(101, all.size());
+        assertFalse(all.contains("gone"));
+        assertFalse(store.containsKey("gone"), "expired keys found by the walk are removed");
+        assertTrue(steps > 1);
+
+        List<String> onlyLists = new ArrayList<>();
+        do {
+            cursor = store.scan(cursor, 1000, ValueType.LIST, now, key -> onlyLists.add(new String(key)));
+        } while (cursor != 0);
+        assertEquals(List.of("list"), onlyLists);
+    }
+
+    @Test
+    void watchTokenSeesChangesRemovalsAndExpiry() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        long now = System.currentTimeMillis();
+        store.set("kept", "v", null);
+        store.set("changed", "v", null);
+        store.set("deleted", "v", null);
+        store.set("expiring", "v", now + 100);
+        assertFalse(store.tracksChanges());
+
+        long token = store.watchToken();
+        store.set("changed", "w", null);
+        store.delete("deleted");
+        store.set("created", "v", null);
+
+        assertFalse(store.changedSince("kept", token, now));
+        assertFalse(store.changedSince("missing", token, now));
+        assertTrue(store.changedSince("changed", token, now));
+        assertTrue(store.changedSince("deleted", token, now));
+        assertTrue(store.changedSince("created", token, now));
+        assertFalse(store.changedSince("expiring", token, now));
+        assertTrue(store.changedSince("expiring", token, now + 100));
+    }
+
+    @Test
+    void touchStampsChangesMadeInPlace() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        long now = System.currentTimeMillis();
+        lists.rpush("list", List.of("a"));
+        store.touch("list"); // not tracking yet: nothing to do
+
+        long token = store.watchToken();
+        lists.rpush("list", List.of("b"));
+        assertFalse(store.changedSince("list", token, now), "type stores change values in place");
+        store.touch("list");
+        assertTrue(store.changedSince("list", token, now));
+
+        long later = store.watchToken();
+        assertFalse(store.changedSince("list", later, now));
+        store.expire("list", now + 1000, now);
+        assertTrue(store.changedSince("list", later, now));
+    }
+
+    @Test
+    void snapshotKeepsPackedCollectionsAsTheyWere() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryHashStore hashes = new InMemoryHashStore(store);
+        InMemorySortedSetStore zsets = new InMemorySortedSetStore(store);
+        InMemoryStreamStore streams = new InMemoryStreamStore(store);
+        hashes.hset("hash", List.of("f", "v"));
+        zsets.zadd("zset", new double[] { 1.5 }, List.of("m"), false, false, false);
+        streams.xadd("stream", new StreamId(1, 0), List.of("f", "v"));
+        streams.xadd("stream", new StreamId(2, 0), List.of("f", "w"));
+
+        KeyValueSnapshot snapshot = store.snapshot();
+        hashes.hset("hash", List.of("f", "changed", "g", "new"));
+        zsets.zadd("zset", new double[] { 9 }, List.of("n"), false, false, false);
+        streams.xdel("stream", List.of(new StreamId(1, 0)));
+
+        // Decoded only now, from the values the changes were not made to
+        assertInstanceOf(ListPack.class, items(snapshot, "hash"));
+        assertEquals(List.of("f", "v"), toList(items(snapshot, "hash")));
+        assertEquals(List.of("m", "1.5"), toList(items(snapshot, "zset")));
+        assertEquals(List.of("2-0", "2", "1-0", "1", "f", "v", "2-0", "1", "f", "w", "0"),
+                toList(items(snapshot, "stream")));
+    }
+
+    @Test
+    void snapshotKeepsLargeCollectionsAndGroupsAsTheyWere() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        InMemoryHashStore hashes = new InMemoryHashStore(store);
+        InMemorySetStore sets = new InMemorySetStore(store);
+        InMemorySortedSetStore zsets = new InMemorySortedSetStore(store);
+        InMemoryStreamStore streams = new InMemoryStreamStore(store);
+        hashes.setListpackLimits(0, 0);
+        sets.setListpackLimits(0, 0);
+        zsets.setListpackLimits(0, 0);
+        lists.rpush("list", List.of("a", "b"));
+        hashes.hset("hash", List.of("f", "v"));
+        sets.sadd("set", List.of("m"));
+        zsets.zadd("zset", new double[] { 1 }, List.of("m"), false, false, false);
+        streams.xadd("stream", new StreamId(1, 0), List.of("f", "v"));
+        streams.createGroup("stream", "g", StreamId.MIN, false);
+
+        KeyValueSnapshot snapshot = store.snapshot();
+        lists.rpush("list", List.of("c"));
+        lists.lpop("list");
+        hashes.hdel("hash", List.of("f"));
+        sets.sadd("set", List.of("n"));
+        zsets.zadd("zset", new double[] { 2 }, List.of("m"), false, false, false);
+        streams.readGroup("stream", "g", "alice", null, 0, false, 100);
+
+        assertEquals(List.of("a", "b"), toList(items(snapshot, "list")));
+        assertEquals(List.of("f", "v"), toList(items(snapshot, "hash")));
+        assertEquals(List.of("m"), toList(items(snapshot, "set")));
+        assertEquals(List.of("m", "1"), toList(items(snapshot, "zset")));
+        assertEquals(List.of("1-0", "1", "1-0", "1", "f", "v", "1", "g", "0-0", "0"),
+                toList(items(snapshot, "stream")));
+        snapshot.release();
+
+        // The live values have the changes
+        assertEquals(List.of("b", "c"), lists.getList("list"));
+        assertEquals(0, hashes.hlen("hash"));
+        assertEquals(2, sets.scard("set"));
+        assertEquals(2.0, zsets.zscore("zset", "m"));
+        assertEquals(1, streams.pendingSummary("stream", "g").count());
+    }
+
+    @Test
+    void snapshotCopiesACollectionOnlyOnItsFirstChange() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        lists.rpush("changed", List.of("a"));
+        lists.rpush("unchanged", List.of("a"));
+        CollectionValue changed = store.lookup("changed", ValueType.LIST);
+        CollectionValue unchanged = store.lookup("unchanged", ValueType.LIST);
+
+        KeyValueSnapshot snapshot = store.snapshot();
+        lists.rpush("changed", List.of("b"));
+        CollectionValue copy = store.lookup("changed", ValueType.LIST);
+        assertNotSame(changed, copy);
+        lists.rpush("changed", List.of("c"));
+        assertSame(copy, store.lookup("changed", ValueType.LIST));
+        assertSame(unchanged, store.lookup("unchanged", ValueType.LIST));
+        lists.rpush("new", List.of("a"));
+        CollectionValue added = store.lookup("new", ValueType.LIST);
+        lists.rpush("new", List.of("b"));
+        assertSame(added, store.lookup("new", ValueType.LIST));
+        snapshot.release();
+        snapshot.release();
+
+        // Nothing is shared any more
+        lists.rpush("unchanged", List.of("b"));
+        assertSame(unchanged, store.lookup("unchanged", ValueType.LIST));
+    }
+
+    private static Iterable<String> items(KeyValueSnapshot snapshot, String key) {
+        for (int i = 0; i < snapshot.slots(); i++) {
+            if (snapshot.key(i) != null && new String(snapshot.key(i)).equals(key)) {
+                return snapshot.items(i);
+            }
+        }
+        throw new AssertionError("no " + key);
+    }
+
+    private static List<String> toList(Iterable<String> items) {
+        List<String> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
 }
@@ -0,0 +1,201 @@
+package dev.hithru.redis.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import dev.hithru.redis.server.KeySlot;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyspaceDictTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void insertFindAndRemove() {
+        KeyspaceDict dict = new KeyspaceDict();
+
+        int id = dict.insert(bytes("foo"));
+        dict.setValue(id, bytes("bar"));
+
+        assertEquals(id, dict.find(bytes("foo")));
+        assertArrayEquals(bytes("bar"), (byte[]) dict.value(id));
+        assertEquals(KeyspaceDict.NO_EXPIRY, dict.expireAt(id));
+        assertEquals(-1, dict.find(bytes("baz")));
+
+        dict.remove(id);
+        assertEquals(-1, dict.find(bytes("foo")));
+        assertEquals(0, dict.size());
+    }
+
+    @Test
+    void keysStayReachableWhileGrowingIncrementally() {
+        KeyspaceDict dict = new KeyspaceDict();
+        boolean sawRehash = false;
+
+        for (int i = 0; i < 10_000; i++) {
+            dict.insert(bytes("key" + i));
+            sawRehash |= dict.isRehashing();
+
+            // Every earlier key must be found in one index or the other
+            if (i % 97 == 0) {
+                for (int j = 0; j <= i; j++) {
+                    assertTrue(dict.find(bytes("key" + j)) >= 0, "key" + j + " lost at size " + (i + 1));
+                }
+            }
+        }
+
+        assertTrue(sawRehash);
+        assertEquals(10_000, dict.size());
+    }
+
+    @Test
+    void shrinksAfterMassDelete() {
+        KeyspaceDict dict = new KeyspaceDict();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            ids.add(dict.insert(bytes("key" + i)));
+        }
+        for (int i = 0; i < 4_990; i++) {
+            dict.remove(ids.get(i));
+        }
+        dict.rehashFor(Long.MAX_VALUE);
+
+        assertFalse(dict.isRehashing());
+        assertEquals(10, dict.size());
+        for (int i = 4_990; i < 5_000; i++) {
+            assertEquals(ids.get(i), dict.find(bytes("key" + i)));
+        }
+        assertEquals(-1, dict.find(bytes("key0")));
+    }
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        KeyspaceDict dict = new KeyspaceDict();
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int op = 0; op < 200_000; op++) {
+            // Small key space so inserts and deletes hit each other, and the
+            // size swings enough to grow and shrink several times
+            int range = (op / 20_000) % 2 == 0 ? 4_000 : 300;
+            String key = "k" + random.nextInt(range);
+            int id = dict.find(bytes(key));
+            assertEquals(expected.containsKey(key), id >= 0, key);
+
+            if (random.nextInt(3) == 0) {
+                if (id >= 0) {
+                    dict.remove(id);
+                    expected.remove(key);
+                }
+            } else {
+                String value = "v" + op;
+                if (id < 0) {
+                    id = dict.insert(bytes(key));
+                }
+                dict.setValue(id, bytes(value));
+                expected.put(key, value);
+            }
+            assertEquals(expected.size(), dict.size());
+        }
+
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            int id = dict.find(bytes(e.getKey()));
+            assertTrue(id >= 0);
+            assertArrayEquals(bytes(e.getValue()), (byte[]) dict.value(id));
+        }
+    }
+
+    @Test
+    void randomIdReturnsLiveEntries() {
+        KeyspaceDict dict = new KeyspaceDict();
+        assertEquals(-1, dict.randomId(ThreadLocalRandom.current()));
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            ids.add(dict.insert(bytes("key" + i)));
+        }
+        // Leave a sparse id range behind
+        for (int i = 1; i < 1_000; i += 2) {
+            dict.remove(ids.get(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            int id = dict.randomId(ThreadLocalRandom.current());
+            assertNotNull(dict.key(id));
+        }
+    }
+
+    @Test
+    void scanReturnsEveryKeyPresentForTheWholeWalkAcrossResizes() {
+        KeyspaceDict dict = new KeyspaceDict();
+        Set<String> stable = new HashSet<>();
+        for (int i = 0; i < 2_000; i++) {
+            dict.insert(bytes("stable" + i));
+            stable.add("stable" + i);
+        }
+
+        Set<String> seen = new HashSet<>();
+        List<Integer> churn = new ArrayList<>();
+        int cursor = 0;
+        int steps = 0;
+        do {
+            cursor = dict.scan(cursor, id -> seen.add(new String(dict.key(id), StandardCharsets.ISO_8859_1)));
+            steps++;
+            // Grow the index a lot early on, then shrink it back, while the walk goes on
+            if (steps < 200) {
+                for (int i = 0; i < 100; i++) {
+                    churn.add(dict.insert(bytes("churn" + steps + "_" + i)));
+                }
+            } else if (!churn.isEmpty()) {
+                for (int i = 0; i < 500 && !churn.isEmpty(); i++) {
+                    dict.remove(churn.remove(churn.size() - 1));
+                }
+            }
+        } while (cursor != 0);
+
+        assertTrue(seen.containsAll(stable));
+    }
+
+    @Test
+    void slotIndexFollowsInsertsAndRemoves() {
+        KeyspaceDict dict = new KeyspaceDict();
+        int before = dict.insert(bytes("{a}0"));
+        dict.enableSlotIndex();
+
+        List<Integer> ids = new ArrayList<>();
+        ids.add(before);
+        for (int i = 1; i < 100; i++) {
+            ids.add(dict.insert(bytes("{a}" + i)));
+        }
+        int other = dict.insert(bytes("{b}0"));
+        int slot = KeySlot.slot("a");
+        assertEquals(100, dict.countInSlot(slot));
+
+        for (int i = 0; i < 100; i += 2) {
+            dict.remove(ids.get(i));
+        }
+        assertEquals(50, dict.countInSlot(slot));
+        Set<String> listed = new HashSet<>();
+        dict.idsInSlot(slot, 1000, id -> listed.add(new String(dict.key(id), StandardCharsets.ISO_8859_1)));
+        assertEquals(50, listed.size());
+        for (int i = 1; i < 100; i += 2) {
+            assertTrue(listed.contains("{a}" + i));
+        }
+
+        List<Integer> firstTen = new ArrayList<>();
+        dict.idsInSlot(slot, 10, firstTen::add);
+        assertEquals(10, firstTen.size());
+        assertFalse(firstTen.contains(other));
+    }
+}
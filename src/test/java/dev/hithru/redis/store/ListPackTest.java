@@ -0,0 +1,80 @@
+package dev.hithru.redis.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListPackTest {
+
+    @Test
+    void appendsInsertsAndWalksEntries() {
+        ListPack pack = new ListPack();
+        pack.append(bytes("b"));
+        pack.append(bytes("x".repeat(300))); // two-byte length header
+        pack.insert(pack.first(), bytes("a"));
+
+        assertEquals(List.of("a", "b", "x".repeat(300)), strings(pack));
+        assertEquals(3, pack.size());
+    }
+
+    @Test
+    void findsWithStrideAndReplacesAndDeletes() {
+        ListPack pack = new ListPack();
+        for (String s : List.of("k1", "v1", "k2", "k1", "k3", "v3")) {
+            pack.append(bytes(s));
+        }
+
+        // "k1" as a value at index 3 is skipped when searching keys only
+        int k2 = pack.find(bytes("k2"), 2);
+        assertEquals("k2", pack.getString(k2));
+        pack.replace(pack.next(k2), bytes("a much longer value"));
+        assertEquals(List.of("k1", "v1", "k2", "a much longer value", "k3", "v3"), strings(pack));
+
+        pack.delete(pack.find(bytes("k1"), 2), 2);
+        assertEquals(List.of("k2", "a much longer value", "k3", "v3"), strings(pack));
+        assertEquals(-1, pack.find(bytes("v3"), 2));
+    }
+
+    @Test
+    void storesDoublesAndComparesUnsigned() {
+        ListPack pack = new ListPack();
+        pack.appendDouble(-1.5);
+        pack.append(new byte[] { (byte) 0xff });
+        pack.insertDouble(pack.end(), Double.POSITIVE_INFINITY);
+
+        int first = pack.first();
+        assertEquals(-1.5, pack.getDouble(first));
+        assertTrue(pack.compareAt(pack.next(first), bytes("a")) > 0, "0xff sorts after ASCII");
+        assertEquals(Double.POSITIVE_INFINITY, pack.getDouble(pack.next(pack.next(first))));
+    }
+
+    @Test
+    void shrinksAfterMostEntriesAreDeleted() {
+        ListPack pack = new ListPack();
+        for (int i = 0; i < 1000; i++) {
+            pack.append(bytes("entry-" + i));
+        }
+        long grown = pack.memoryUsage();
+        pack.delete(pack.first(), 990);
+
+        assertEquals(10, pack.size());
+        assertEquals("entry-990", pack.getString(pack.first()));
+        assertTrue(pack.memoryUsage() < grown / 4);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<String> strings(ListPack pack) {
+        List<String> out = new ArrayList<>();
+        for (int pos = pack.first(); pos >= 0; pos = pack.next(pos)) {
+            out.add(pack.getString(pos));
+        }
+        return out;
+    }
+}
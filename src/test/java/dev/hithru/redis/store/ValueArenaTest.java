@@ -0,0 +1,79 @@
+package dev.hithru.redis.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueArenaTest {
+
+    private static ByteBuffer value(int length, byte fill) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, fill);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Test
+    void storesAndReusesChunksOfASizeClass() {
+        ValueArena arena = new ValueArena();
+
+        long a = arena.store(value(1100, (byte) 'a'));
+        assertArrayEquals(value(1100, (byte) 'a').array(), arena.copy(a));
+        assertEquals(1024 + 256, arena.chunkSize(a), "1104 bytes round up to the 1280 class");
+        assertEquals(ValueArena.SLAB_SIZE, arena.reservedBytes());
+
+        arena.free(a);
+        assertEquals(0, arena.usedBytes());
+        long b = arena.store(value(1200, (byte) 'b'));
+        assertEquals(a, b, "freed chunk of the same class is reused");
+        assertEquals(1200, arena.read(b).remaining());
+    }
+
+    @Test
+    void hugeValuesGetTheirOwnBuffer() {
+        ValueArena arena = new ValueArena();
+
+        long huge = arena.store(value(3 * ValueArena.SLAB_SIZE, (byte) 'h'));
+        assertEquals(3 * ValueArena.SLAB_SIZE + 4, arena.reservedBytes());
+
+        arena.free(huge);
+        assertEquals(0, arena.reservedBytes());
+    }
+
+    @Test
+    void pinnedChunkIsNotReusedUntilUnpinned() {
+        ValueArena arena = new ValueArena();
+
+        long a = arena.store(value(100, (byte) 'a'));
+        arena.pin(a);
+        arena.free(a);
+
+        long b = arena.store(value(100, (byte) 'b'));
+        assertNotEquals(a, b);
+        assertEquals('a', arena.read(a).get(0), "pinned bytes stay intact");
+
+        arena.unpin(a);
+        assertEquals(a, arena.store(value(100, (byte) 'c')));
+    }
+
+    @Test
+    void openViewDefersAllReuse() {
+        ValueArena arena = new ValueArena();
+
+        long a = arena.store(value(100, (byte) 'a'));
+        ValueArena.View view = arena.view();
+        arena.free(a);
+        long b = arena.store(value(100, (byte) 'b'));
+
+        assertNotEquals(a, b);
+        assertArrayEquals(value(100, (byte) 'a').array(), view.copy(a));
+
+        view.close();
+        view.close(); // idempotent
+        arena.free(b);
+        long c = arena.store(value(100, (byte) 'c'));
+        assertTrue(c == a || c == b);
+    }
+}
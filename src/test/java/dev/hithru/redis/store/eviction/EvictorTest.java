@@ -0,0 +1,86 @@
+package dev.hithru.redis.store.eviction;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.list.InMemoryListStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvictorTest {
+
+    @Test
+    void noevictionRefusesWritesOverLimit() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        Evictor evictor = new Evictor(1, EvictionPolicy.NOEVICTION, 5, List.of(store));
+
+        assertTrue(evictor.ensureMemory());
+        store.set("foo", "bar", null);
+
+        assertFalse(evictor.ensureMemory());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void lruEvictsIdleKeysFirst() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        store.setEvictionPolicy(EvictionPolicy.ALLKEYS_LRU);
+
+        for (int i = 0; i < 10; i++) {
+            store.set("key" + i, "value", null);
+        }
+        // key0..key4 were last used an hour ago
+        for (int i = 0; i < 5; i++) {
+            store.setAccessMeta("key" + i, store.getAccessMeta("key" + i) - 3600);
+        }
+
+        long perKey = store.usedMemory() / 10;
+        Evictor evictor = new Evictor(perKey * 5, EvictionPolicy.ALLKEYS_LRU, 100, List.of(store));
+
+        assertTrue(evictor.ensureMemory());
+        assertEquals(5, store.size());
+        assertEquals(5, evictor.getEvictedKeys());
+        for (int i = 5; i < 10; i++) {
+            assertTrue(store.containsKey("key" + i), "recently used key" + i + " should survive");
+        }
+    }
+
+    @Test
+    void volatileTtlEvictsSoonestExpiringAndSparesPersistentKeys() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        InMemoryListStore lists = new InMemoryListStore(store);
+        long now = System.currentTimeMillis();
+
+        store.set("late", "v", now + 60_000);
+        store.set("soon", "v", now + 1_000);
+        store.set("forever", "v", null);
+        lists.rpush("queue", List.of("a"));
+
+        long limit = store.usedMemory() - 1;
+        Evictor evictor = new Evictor(limit, EvictionPolicy.VOLATILE_TTL, 5, List.of(store));
+
+        assertTrue(evictor.ensureMemory());
+        assertFalse(store.containsKey("soon"));
+        assertTrue(store.containsKey("late"));
+
+        // Only persistent keys left over the limit: refuse
+        Evictor strict = new Evictor(1, EvictionPolicy.VOLATILE_TTL, 5, List.of(store));
+        assertFalse(strict.ensureMemory());
+        assertTrue(store.containsKey("forever"));
+        assertEquals(1, lists.size("queue"));
+    }
+
+    @Test
+    void lfuCounterGrowsLogarithmically() {
+        int meta = LfuCounter.initial();
+        assertEquals(LfuCounter.INIT_VALUE, LfuCounter.decayedCount(meta));
+
+        for (int i = 0; i < 100_000; i++) {
+            meta = LfuCounter.increment(meta);
+        }
+        int count = LfuCounter.decayedCount(meta);
+        assertTrue(count > LfuCounter.INIT_VALUE + 10, "counter should grow, was " + count);
+        assertTrue(count < 255, "counter should not saturate this fast, was " + count);
+    }
+}
@@ -0,0 +1,85 @@
+package dev.hithru.redis.store.hash;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryHashStoreTest {
+
+    @Test
+    void hsetCountsNewFieldsAndOverwritesExisting() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryHashStore store = new InMemoryHashStore(keyspace);
+
+        assertEquals(2, store.hset("h", List.of("f1", "v1", "f2", "v2")));
+        assertEquals(1, store.hset("h", List.of("f1", "new", "f3", "v3")));
+
+        assertEquals("new", store.hget("h", "f1"));
+        assertNull(store.hget("h", "missing"));
+        assertNull(store.hget("missing", "f1"));
+        assertEquals(List.of("f1", "new", "f2", "v2", "f3", "v3"), store.hgetall("h"));
+    }
+
+    @Test
+    void hdelRemovesFieldsAndTheKeyWithTheLastOne() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryHashStore store = new InMemoryHashStore(keyspace);
+        store.hset("h", List.of("f1", "v1", "f2", "v2"));
+
+        assertEquals(1, store.hdel("h", List.of("f1", "nope")));
+        assertEquals(1, store.hdel("h", List.of("f2")));
+        assertFalse(keyspace.containsKey("h"));
+        assertEquals(0, keyspace.usedMemory());
+    }
+
+    @Test
+    void convertsToHashtableOncePastEitherLimit() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryHashStore store = new InMemoryHashStore(keyspace);
+        store.setListpackLimits(4, 8);
+
+        store.hset("wide", List.of("a", "1", "b", "2", "c", "3", "d", "4"));
+        assertEquals("listpack", keyspace.encoding("wide", System.currentTimeMillis()));
+        store.hset("wide", List.of("e", "5"));
+        assertEquals("hashtable", keyspace.encoding("wide", System.currentTimeMillis()));
+
+        store.hset("long", List.of("a", "1"));
+        store.hset("long", List.of("b", "123456789"));
+        assertEquals("hashtable", keyspace.encoding("long", System.currentTimeMillis()));
+
+        Map<String, String> expected = Map.of("a", "1", "b", "2", "c", "3", "d", "4", "e", "5");
+        assertEquals(expected, toMap(store.hgetall("wide")));
+        assertEquals("123456789", store.hget("long", "b"));
+    }
+
+    @Test
+    void memoryEstimateReturnsToZeroAfterDeletingLargeHashes() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryHashStore store = new InMemoryHashStore(keyspace);
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            fields.add("field-" + i);
+            fields.add("value-" + i);
+        }
+        store.hset("big", fields);
+        assertTrue(keyspace.usedMemory() > 500 * 20);
+
+        store.hdel("big", fields.subList(0, 10));
+        keyspace.delete("big");
+        assertEquals(0, keyspace.usedMemory());
+    }
+
+    private static Map<String, String> toMap(List<String> flat) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < flat.size(); i += 2) {
+            map.put(flat.get(i), flat.get(i + 1));
+        }
+        return map;
+    }
+}
@@ -1,5 +1,7 @@
 package dev.hithru.redis.store.list;
 
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.WrongTypeException;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
@@ -10,7 +12,8 @@ class InMemoryListStoreTest {
 
     @Test
     void rpushCreatesNewListWithSingleElement() {
-        InMemoryListStore store = new InMemoryListStore();
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
 
         int len = store.rpush("mylist", List.of("foo"));
 
@@ -20,7 +23,8 @@ class InMemoryListStoreTest {
 
     @Test
     void rpushAppendsToExistingList() {
-        InMemoryListStore store = new InMemoryListStore();
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
 
         store.rpush("mylist", List.of("foo"));
         int len = store.rpush("mylist", List.of("bar", "baz"));
@@ -28,4 +32,78 @@ class InMemoryListStoreTest {
         assertEquals(3, len);
         assertEquals(List.of("foo", "bar", "baz"), store.getList("mylist"));
     }
+
+    @Test
+    void lpushPrependsInReverseArgumentOrder() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
+
+        store.rpush("mylist", List.of("x"));
+        int len = store.lpush("mylist", List.of("a", "b", "c"));
+
+        assertEquals(4, len);
+        assertEquals(List.of("c", "b", "a", "x"), store.lrange("mylist", 0, -1));
+    }
+
+    @Test
+    void lrangeHandlesNegativeAndOutOfRangeIndexes() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
+        store.rpush("mylist", List.of("a", "b", "c", "d", "e"));
+
+        assertEquals(List.of("d", "e"), store.lrange("mylist", -2, -1));
+        assertEquals(List.of("a", "b", "c", "d", "e"), store.lrange("mylist", -6, 10));
+        assertEquals(List.of(), store.lrange("mylist", 5, 10));
+        assertEquals(List.of(), store.lrange("mylist", 3, 1));
+        assertEquals(List.of(), store.lrange("missing", 0, -1));
+    }
+
+    @Test
+    void lpopManyRemovesFromHeadAndDeletesEmptyList() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
+        store.rpush("mylist", List.of("a", "b", "c"));
+
+        assertEquals(List.of("a", "b"), store.lpopMany("mylist", 2));
+        assertEquals(List.of("c"), store.lpopMany("mylist", 5));
+        assertFalse(keyspace.containsKey("mylist"));
+        assertEquals(0, keyspace.usedMemory());
+    }
+
+    @Test
+    void rpopTakesFromTheTail() {
+        InMemoryListStore store = new InMemoryListStore();
+        store.rpush("mylist", List.of("a", "b", "c", "d"));
+
+        assertEquals("d", store.rpop("mylist"));
+        assertEquals(List.of("c", "b"), store.rpopMany("mylist", 2));
+        assertEquals(List.of("a"), store.lrange("mylist", 0, -1));
+        assertNull(store.rpop("missing"));
+    }
+
+    @Test
+    void lmoveMovesBetweenEndsAndRotatesInPlace() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
+        store.rpush("src", List.of("a", "b", "c"));
+
+        assertEquals("c", store.lmove("src", "dst", false, true));
+        assertEquals("a", store.lmove("src", "dst", true, false));
+        assertEquals(List.of("c", "a"), store.lrange("dst", 0, -1));
+
+        assertEquals("b", store.lmove("src", "src", true, false));
+        assertEquals(List.of("b"), store.lrange("src", 0, -1));
+        assertNull(store.lmove("missing", "dst", true, true));
+    }
+
+    @Test
+    void lmoveChecksTheDestinationTypeBeforePopping() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryListStore store = new InMemoryListStore(keyspace);
+        store.rpush("src", List.of("a"));
+        keyspace.set("str", "v", null);
+
+        assertThrows(WrongTypeException.class, () -> store.lmove("src", "str", true, true));
+        assertEquals(List.of("a"), store.lrange("src", 0, -1));
+    }
 }
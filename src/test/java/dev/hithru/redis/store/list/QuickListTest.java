@@ -0,0 +1,83 @@
+package dev.hithru.redis.store.list;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuickListTest {
+
+    @Test
+    void pushAndPopAtBothEnds() {
+        QuickList list = new QuickList();
+
+        list.pushBack("b");
+        list.pushBack("c");
+        list.pushFront("a");
+
+        assertEquals(List.of("a", "b", "c"), list.toList());
+        assertEquals("a", list.popFront());
+        assertEquals("c", list.popBack());
+        assertEquals("b", list.popFront());
+        assertNull(list.popFront());
+        assertTrue(list.isEmpty());
+        assertEquals(0, list.memoryUsage());
+    }
+
+    @Test
+    void spansManyNodesAndSeeksByIndex() {
+        QuickList list = new QuickList();
+        List<String> expected = new ArrayList<>();
+
+        for (int i = 0; i < 50_000; i++) {
+            list.pushBack("item-" + i);
+            expected.add("item-" + i);
+        }
+
+        assertEquals(50_000, list.size());
+        assertEquals(expected.subList(0, 3), list.range(0, 2));
+        assertEquals(expected.subList(20_000, 20_010), list.range(20_000, 20_009));
+        assertEquals(expected.subList(49_990, 50_000), list.range(49_990, 49_999));
+    }
+
+    @Test
+    void handlesElementsLargerThanANodeAndBinaryBytes() {
+        QuickList list = new QuickList();
+        String big = "x".repeat(QuickList.NODE_SIZE * 2);
+        String binary = "\u0000ÿÃ";
+
+        list.pushBack("small");
+        list.pushBack(big);
+        list.pushFront(binary);
+        list.pushFront(big);
+
+        assertEquals(List.of(big, binary, "small", big), list.toList());
+        assertEquals(big, list.popBack());
+        assertEquals(big, list.popFront());
+        assertEquals(binary, list.popFront());
+    }
+
+    @Test
+    void matchesDequeUnderRandomOperations() {
+        QuickList list = new QuickList();
+        Deque<String> reference = new ArrayDeque<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            String value = "v" + random.nextInt(1 << 20) + "x".repeat(random.nextInt(200));
+            switch (random.nextInt(4)) {
+                case 0 -> { list.pushFront(value); reference.addFirst(value); }
+                case 1 -> { list.pushBack(value); reference.addLast(value); }
+                case 2 -> assertEquals(reference.pollFirst(), list.popFront());
+                default -> assertEquals(reference.pollLast(), list.popBack());
+            }
+            assertEquals(reference.size(), list.size());
+        }
+        assertEquals(new ArrayList<>(reference), list.toList());
+    }
+}
@@ -0,0 +1,47 @@
+package dev.hithru.redis.store.set;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemorySetStoreTest {
+
+    @Test
+    void saddIgnoresDuplicatesAndSremDeletesEmptySet() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemorySetStore store = new InMemorySetStore(keyspace);
+
+        assertEquals(2, store.sadd("s", List.of("a", "b", "a")));
+        assertEquals(0, store.sadd("s", List.of("b")));
+        assertTrue(store.sismember("s", "a"));
+        assertFalse(store.sismember("s", "c"));
+        assertEquals(Set.of("a", "b"), new HashSet<>(store.smembers("s")));
+
+        assertEquals(2, store.srem("s", List.of("a", "b", "c")));
+        assertFalse(keyspace.containsKey("s"));
+        assertEquals(0, keyspace.usedMemory());
+    }
+
+    @Test
+    void convertsToHashtableOncePastEitherLimit() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemorySetStore store = new InMemorySetStore(keyspace);
+        store.setListpackLimits(3, 5);
+
+        store.sadd("wide", List.of("1", "2", "3"));
+        assertEquals("listpack", keyspace.encoding("wide", System.currentTimeMillis()));
+        store.sadd("wide", List.of("4"));
+        assertEquals("hashtable", keyspace.encoding("wide", System.currentTimeMillis()));
+        assertEquals(Set.of("1", "2", "3", "4"), new HashSet<>(store.smembers("wide")));
+
+        store.sadd("long", List.of("short", "longer"));
+        assertEquals("hashtable", keyspace.encoding("long", System.currentTimeMillis()));
+        assertTrue(store.sismember("long", "short"));
+        assertEquals(2, store.scard("long"));
+    }
+}
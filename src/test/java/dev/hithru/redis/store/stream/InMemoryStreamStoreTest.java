@@ -0,0 +1,142 @@
+package dev.hithru.redis.store.stream;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import dev.hithru.redis.store.ValueType;
+import dev.hithru.redis.store.WrongTypeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStreamStoreTest {
+
+    @Test
+    void rangesForwardAndBackwardAcrossNodes() {
+        InMemoryStreamStore store = new InMemoryStreamStore();
+        for (int i = 1; i <= 250; i++) {
+            store.xadd("s", new StreamId(i, 0), List.of("n", Integer.toString(i)));
+        }
+        // A differently shaped entry is packed with its own field names
+        store.xadd("s", new StreamId(251, 7), List.of("a", "1", "b", "2"));
+
+        assertEquals(251, store.xlen("s"));
+        List<StreamEntry> middle = store.xrange("s", new StreamId(99, 0), new StreamId(102, 0), 0, false);
+        assertEquals(List.of(99L, 100L, 101L, 102L), middle.stream().map(e -> e.id().ms).toList());
+        assertEquals(List.of("n", "100"), middle.get(1).fieldsAndValues());
+
+        List<StreamEntry> last = store.xrange("s", StreamId.MIN, StreamId.MAX, 2, true);
+        assertEquals(new StreamId(251, 7), last.get(0).id());
+        assertEquals(List.of("a", "1", "b", "2"), last.get(0).fieldsAndValues());
+        assertEquals(new StreamId(250, 0), last.get(1).id());
+        assertEquals(List.of(), store.xrange("s", new StreamId(300, 0), StreamId.MAX, 0, false));
+    }
+
+    @Test
+    void deletesAndTrimsWithoutMovingTheLastId() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryStreamStore store = new InMemoryStreamStore(keyspace);
+        for (int i = 1; i <= 300; i++) {
+            store.xadd("s", new StreamId(i, 0), List.of("f", "v"));
+        }
+
+        assertEquals(2, store.xdel("s", List.of(new StreamId(1, 0), new StreamId(2, 0), new StreamId(999, 0))));
+        assertEquals(new StreamId(3, 0), store.xrange("s", StreamId.MIN, StreamId.MAX, 1, false).get(0).id());
+
+        // Approximate trimming only drops whole nodes, exact trimming cuts inside one
+        long removed = store.trimToLength("s", 150, true, 0);
+        assertTrue(store.xlen("s") >= 150 && removed > 0);
+        assertEquals(store.xlen("s") - 120, store.trimToLength("s", 120, false, 0));
+        assertEquals(120, store.xlen("s"));
+        assertEquals(20, store.trimToMinId("s", new StreamId(201, 0), false, 0));
+        assertEquals(new StreamId(201, 0), store.xrange("s", StreamId.MIN, StreamId.MAX, 1, false).get(0).id());
+
+        store.trimToLength("s", 0, false, 0);
+        assertEquals(0, store.xlen("s"));
+        assertTrue(keyspace.containsKey("s"), "an emptied stream stays");
+        assertEquals(new StreamId(300, 0), store.lastId("s"));
+        assertTrue(store.setLastId("s", new StreamId(500, 0)), "nothing left to be smaller than");
+    }
+
+    @Test
+    void groupsDeliverAcknowledgeAndClaim() {
+        InMemoryStreamStore store = new InMemoryStreamStore();
+        assertTrue(store.createGroup("s", "g", StreamId.MIN, true));
+        assertFalse(store.createGroup("s", "g", StreamId.MIN, true));
+        for (int i = 1; i <= 4; i++) {
+            store.xadd("s", new StreamId(i, 0), List.of("f", "v" + i));
+        }
+
+        assertEquals(List.of(new StreamId(1, 0), new StreamId(2, 0)),
+                ids(store.readGroup("s", "g", "alice", null, 2, false, 100)));
+        assertEquals(List.of(new StreamId(3, 0), new StreamId(4, 0)),
+                ids(store.readGroup("s", "g", "bob", null, 0, false, 100)));
+        assertEquals(List.of(), store.readGroup("s", "g", "bob", null, 0, false, 100));
+
+        assertEquals(1, store.xack("s", "g", List.of(new StreamId(1, 0), new StreamId(9, 0))));
+        PendingSummary summary = store.pendingSummary("s", "g");
+        assertEquals(3, summary.count());
+        assertEquals(new StreamId(2, 0), summary.smallest());
+        assertEquals(new StreamId(4, 0), summary.largest());
+        assertEquals(List.of("alice", "bob"), new ArrayList<>(summary.byConsumer().keySet()));
+
+        // Bob's entry 3 is deleted from the stream, then alice claims everything idle
+        store.xdel("s", List.of(new StreamId(3, 0)));
+        assertEquals(List.of(new StreamId(3, 0), new StreamId(4, 0)),
+                ids(store.readGroup("s", "g", "bob", StreamId.MIN, 0, false, 200)));
+        assertNull(store.readGroup("s", "g", "bob", StreamId.MIN, 0, false, 200).get(0).fieldsAndValues());
+        List<StreamEntry> claimed = store.claim("s", "g", "alice", 50,
+                List.of(new StreamId(2, 0), new StreamId(3, 0), new StreamId(4, 0)), 300, -1, false, false, null, 300);
+        assertEquals(List.of(new StreamId(2, 0), new StreamId(4, 0)), ids(claimed));
+
+        List<PendingEntry> pending = store.pending("s", "g", StreamId.MIN, StreamId.MAX, 10, null, 0, 300);
+        assertEquals(2, pending.size());
+        assertEquals("alice", pending.get(1).consumer());
+        assertEquals(2, pending.get(1).deliveryCount());
+        assertEquals(2, store.deleteConsumer("s", "g", "alice"));
+        assertEquals(0, store.pendingSummary("s", "g").count());
+        assertNull(store.readGroup("s", "nope", "alice", null, 0, false, 0));
+    }
+
+    @Test
+    void restoresFromItsFlattenedCopy() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryStreamStore store = new InMemoryStreamStore(keyspace);
+        store.xadd("s", new StreamId(1, 1), List.of("f", "v"));
+        store.xadd("s", new StreamId(2, 0), List.of("g", "w", "h", "x"));
+        store.setLastId("s", new StreamId(9, 9));
+        store.createGroup("s", "g", null, false);
+        store.setGroupId("s", "g", StreamId.MIN);
+        store.readGroup("s", "g", "c", null, 1, false, 42);
+
+        List<String> items = store.items("s");
+        assertTrue(InMemoryStreamStore.isValidItems(items));
+        assertTrue(store.restore("copy", items));
+        assertEquals(items, store.items("copy"));
+        assertEquals(new StreamId(9, 9), store.lastId("copy"));
+        assertEquals(ValueType.STREAM, keyspace.type("copy", 0));
+
+        assertFalse(InMemoryStreamStore.isValidItems(List.of("1-0", "1", "oops")));
+        keyspace.set("str", "x", null);
+        assertThrows(WrongTypeException.class, () -> store.xlen("str"));
+    }
+
+    @Test
+    void packsEntriesFarSmallerThanStrings() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemoryStreamStore store = new InMemoryStreamStore(keyspace);
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < 10_000; i++) {
+            store.xadd("s", new StreamId(start + i / 3, i % 3), List.of("user", "u" + (i % 100), "action", "click"));
+        }
+
+        // Field names, IDs and headers are shared or delta-encoded: the values dominate
+        long perEntry = keyspace.usedMemory() / 10_000;
+        assertTrue(perEntry < 40, "bytes per entry: " + perEntry);
+    }
+
+    private static List<StreamId> ids(List<StreamEntry> entries) {
+        return entries.stream().map(StreamEntry::id).toList();
+    }
+}
@@ -0,0 +1,83 @@
+package dev.hithru.redis.store.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RadixTreeTest {
+
+    @Test
+    void splitsAndMergesLabelsAsKeysComeAndGo() {
+        RadixTree<String> tree = new RadixTree<>();
+        tree.put(bytes("romane"), "1");
+        tree.put(bytes("romanus"), "2");
+        tree.put(bytes("rom"), "3");
+        assertNull(tree.put(bytes("rubens"), "4"));
+        assertEquals("2", tree.put(bytes("romanus"), "two"));
+
+        assertEquals(4, tree.size());
+        assertEquals("3", tree.get(bytes("rom")));
+        assertEquals("two", tree.get(bytes("romanus")));
+        assertNull(tree.get(bytes("roman")), "a split point holds no value");
+        assertNull(tree.get(bytes("romanes")));
+
+        int nodes = tree.nodeCount();
+        assertEquals("3", tree.remove(bytes("rom")));
+        assertEquals("1", tree.remove(bytes("romane")));
+        assertNull(tree.remove(bytes("romane")));
+        assertTrue(tree.nodeCount() < nodes, "chains left behind are merged");
+        assertEquals("two", tree.get(bytes("romanus")));
+        assertEquals("4", tree.get(bytes("rubens")));
+    }
+
+    @Test
+    void findsNeighboursOfStreamIds() {
+        RadixTree<StreamId> tree = new RadixTree<>();
+        for (StreamId id : new StreamId[] { new StreamId(5, 0), new StreamId(5, 300), new StreamId(1000, 1) }) {
+            tree.put(id.key(), id);
+        }
+
+        assertEquals(new StreamId(5, 0), tree.first());
+        assertEquals(new StreamId(1000, 1), tree.last());
+        assertEquals(new StreamId(5, 300), tree.ceiling(StreamId.key(5, 1)));
+        assertEquals(new StreamId(5, 300), tree.floor(StreamId.key(999, Long.MAX_VALUE)));
+        assertEquals(new StreamId(1000, 1), tree.ceiling(StreamId.key(5, 301)));
+        assertNull(tree.ceiling(StreamId.key(1000, 2)));
+        assertNull(tree.floor(StreamId.key(4, Long.MAX_VALUE)));
+    }
+
+    @Test
+    void agreesWithTreeMapOnRandomKeys() {
+        RadixTree<Long> tree = new RadixTree<>();
+        TreeMap<StreamId, Long> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            long seq = random.nextInt(4) == 0 ? random.nextLong() >>> 1 : random.nextInt(50);
+            StreamId id = new StreamId(random.nextInt(300), seq);
+            if (random.nextInt(3) == 0) {
+                Long removed = expected.remove(id);
+                assertEquals(removed, tree.remove(id.key()));
+            } else {
+                long value = random.nextLong();
+                assertEquals(expected.put(id, value), tree.put(id.key(), value));
+            }
+
+            StreamId probe = new StreamId(random.nextInt(300), random.nextInt(50));
+            var ceiling = expected.ceilingEntry(probe);
+            var floor = expected.floorEntry(probe);
+            assertEquals(ceiling == null ? null : ceiling.getValue(), tree.ceiling(probe.key()));
+            assertEquals(floor == null ? null : floor.getValue(), tree.floor(probe.key()));
+        }
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.firstEntry().getValue(), tree.first());
+        assertEquals(expected.lastEntry().getValue(), tree.last());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
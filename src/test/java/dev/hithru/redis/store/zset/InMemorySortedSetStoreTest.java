@@ -0,0 +1,96 @@
+package dev.hithru.redis.store.zset;
+
+import dev.hithru.redis.store.InMemoryKeyValueStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemorySortedSetStoreTest {
+
+    @Test
+    void ordersByScoreThenMember() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemorySortedSetStore store = new InMemorySortedSetStore(keyspace);
+        store.zadd("z", new double[] { 2, 1, 2, 3 }, List.of("b", "x", "a", "c"), false, false, false);
+
+        assertEquals(List.of(m("x", 1), m("a", 2), m("b", 2), m("c", 3)), store.zrange("z", 0, -1));
+        assertEquals(List.of(m("b", 2), m("c", 3)), store.zrange("z", -2, 10));
+        assertEquals(2, store.zrank("z", "b"));
+        assertEquals(-1, store.zrank("z", "nope"));
+    }
+
+    @Test
+    void zaddFlagsControlAddsUpdatesAndTheCount() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemorySortedSetStore store = new InMemorySortedSetStore(keyspace);
+        assertEquals(1, store.zadd("z", new double[] { 1 }, List.of("a"), false, false, false));
+
+        assertEquals(0, store.zadd("z", new double[] { 5, 6 }, List.of("a", "b"), false, true, false));
+        assertEquals(5.0, store.zscore("z", "a"));
+        assertNull(store.zscore("z", "b"), "XX never adds");
+
+        assertEquals(1, store.zadd("z", new double[] { 9, 6 }, List.of("a", "b"), true, false, false));
+        assertEquals(5.0, store.zscore("z", "a"), "NX never updates");
+
+        assertEquals(1, store.zadd("z", new double[] { 7, 6 }, List.of("a", "b"), false, false, true));
+        assertEquals(0, store.zadd("missing", new double[] { 1 }, List.of("a"), false, true, false));
+        assertFalse(keyspace.containsKey("missing"));
+    }
+
+    @Test
+    void rangeByScoreHonoursExclusiveBoundsAndLimit() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemorySortedSetStore store = new InMemorySortedSetStore(keyspace);
+        store.zadd("z", new double[] { 1, 2, 3, 4 }, List.of("a", "b", "c", "d"), false, false, false);
+
+        ScoreRange twoToFour = new ScoreRange(2, true, 4, false);
+        assertEquals(List.of(m("c", 3), m("d", 4)), store.zrangeByScore("z", twoToFour, 0, -1));
+        ScoreRange all = new ScoreRange(Double.NEGATIVE_INFINITY, false, Double.POSITIVE_INFINITY, false);
+        assertEquals(List.of(m("b", 2), m("c", 3)), store.zrangeByScore("z", all, 1, 2));
+        assertEquals(List.of(), store.zrangeByScore("z", new ScoreRange(3, true, 3, false), 0, -1));
+    }
+
+    @Test
+    void behavesTheSameAfterConvertingToSkiplist() {
+        InMemoryKeyValueStore keyspace = new InMemoryKeyValueStore();
+        InMemorySortedSetStore store = new InMemorySortedSetStore(keyspace);
+        store.setListpackLimits(4, 64);
+        store.zadd("z", new double[] { 4, 3, 2, 1 }, List.of("d", "c", "b", "a"), false, false, false);
+        assertEquals("listpack", keyspace.encoding("z", System.currentTimeMillis()));
+
+        store.zadd("z", new double[] { 2.5 }, List.of("e"), false, false, false);
+        assertEquals("skiplist", keyspace.encoding("z", System.currentTimeMillis()));
+        assertEquals(List.of(m("a", 1), m("b", 2), m("e", 2.5), m("c", 3), m("d", 4)), store.zrange("z", 0, -1));
+        assertEquals(2, store.zrank("z", "e"));
+
+        store.zadd("z", new double[] { 0 }, List.of("d"), false, false, false);
+        assertEquals(0, store.zrank("z", "d"));
+        assertEquals(List.of(m("b", 2), m("e", 2.5)),
+                store.zrangeByScore("z", new ScoreRange(1, true, 3, true), 0, -1));
+
+        assertEquals(5, store.zrem("z", List.of("a", "b", "c", "d", "e")));
+        assertFalse(keyspace.containsKey("z"));
+        assertEquals(0, keyspace.usedMemory());
+    }
+
+    @Test
+    void parsesAndFormatsScoresLikeRedis() {
+        assertEquals(Double.POSITIVE_INFINITY, InMemorySortedSetStore.parseScore("+inf"));
+        assertEquals(Double.NEGATIVE_INFINITY, InMemorySortedSetStore.parseScore("-INF"));
+        assertEquals(1.5, InMemorySortedSetStore.parseScore("1.5"));
+        assertThrows(NumberFormatException.class, () -> InMemorySortedSetStore.parseScore("nan"));
+        assertThrows(NumberFormatException.class, () -> InMemorySortedSetStore.parseScore("1d"));
+        assertThrows(NumberFormatException.class, () -> InMemorySortedSetStore.parseScore(" 1"));
+
+        assertEquals("3", InMemorySortedSetStore.formatScore(3.0));
+        assertEquals("-0.25", InMemorySortedSetStore.formatScore(-0.25));
+        assertEquals("inf", InMemorySortedSetStore.formatScore(Double.POSITIVE_INFINITY));
+        assertEquals(0.1, InMemorySortedSetStore.parseScore(InMemorySortedSetStore.formatScore(0.1)));
+    }
+
+    private static ScoredMember m(String member, double score) {
+        return new ScoredMember(member, score);
+    }
+}
@@ -0,0 +1,50 @@
+package dev.hithru.redis.store.zset;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZSkipListTest {
+
+    private static final Comparator<ScoredMember> ORDER =
+            Comparator.comparingDouble(ScoredMember::score).thenComparing(ScoredMember::member);
+
+    @Test
+    void ranksAndRangesMatchASortedListUnderRandomUpdates() {
+        Random random = new Random(42);
+        ZSkipList list = new ZSkipList();
+        List<ScoredMember> model = new ArrayList<>();
+
+        for (int step = 0; step < 5000; step++) {
+            if (model.isEmpty() || random.nextInt(3) > 0) {
+                ScoredMember element = new ScoredMember("m" + step, random.nextInt(100));
+                list.insert(element.score(), element.member());
+                model.add(element);
+            } else {
+                ScoredMember element = model.remove(random.nextInt(model.size()));
+                assertTrue(list.delete(element.score(), element.member()));
+            }
+        }
+        model.sort(ORDER);
+
+        assertEquals(model.size(), list.length());
+        assertFalse(list.delete(-1, "absent"));
+        for (int i = 0; i < model.size(); i += 7) {
+            ScoredMember expected = model.get(i);
+            assertEquals(i + 1, list.rank(expected.score(), expected.member()));
+            ZSkipList.Node node = list.byRank(i + 1);
+            assertEquals(expected, new ScoredMember(node.member, node.score));
+        }
+        assertEquals(model.get(model.size() - 1).member(), list.last().member);
+
+        ZSkipList.Node first = list.firstInRange(new ScoreRange(50, true, 60, false));
+        ScoredMember expected = model.stream().filter(e -> e.score() > 50).findFirst().orElseThrow();
+        assertEquals(expected.member(), first.member);
+        assertNull(list.firstInRange(new ScoreRange(100, false, 200, false)));
+    }
+}